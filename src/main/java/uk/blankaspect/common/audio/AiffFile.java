@@ -19,10 +19,15 @@ package uk.blankaspect.common.audio;
 
 
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -327,7 +332,7 @@ public class AiffFile
 
 
 	private class ChunkReader
-		implements FormFile.IChunkReader
+		implements FormFile.IChannelChunkReader
 	{
 
 	////////////////////////////////////////////////////////////////////
@@ -348,12 +353,12 @@ public class AiffFile
 		//--------------------------------------------------------------
 
 	////////////////////////////////////////////////////////////////////
-	//  Instance methods : FormFile.IChunkReader interface
+	//  Instance methods : FormFile.IChannelChunkReader interface
 	////////////////////////////////////////////////////////////////////
 
-		public void beginReading(RandomAccessFile raFile,
-								 IffId            typeId,
-								 int              size)
+		public void beginReading(FileChannel channel,
+								 IffId       typeId,
+								 long        size)
 			throws AppException
 		{
 			if (size < 0)
@@ -365,12 +370,60 @@ public class AiffFile
 
 		//--------------------------------------------------------------
 
-		public void read(RandomAccessFile raFile,
-						 IffId            id,
-						 int              size)
+		public void read(ByteBuffer data,
+						 IffId      id)
 			throws AppException, IOException
 		{
+			this.data = data;
+			read(id, data.remaining());
+		}
+
+		//--------------------------------------------------------------
+
+		public void read(FileChannel channel,
+						 long        offset,
+						 long        size,
+						 IffId       id)
+			throws AppException, IOException
+		{
+			if (size > Integer.MAX_VALUE)
+				throw new FileException(ErrorId.FILE_IS_TOO_LARGE, file);
+
+			data = null;
+			this.channel = channel;
+			dataOffset = offset;
+			read(id, (int)size);
+		}
+
+		//--------------------------------------------------------------
+
+		public void endReading(FileChannel channel)
+			throws AppException
+		{
+			// Test for critical chunks
+			if (!chunks.contains(COMMON_CHUNK))
+				throw new FileException(ErrorId.NO_COMMON_CHUNK, file);
+			if (!chunks.contains(DATA_CHUNK))
+				throw new FileException(AudioFile.ErrorId.NO_DATA_CHUNK, file);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		public Object getData()
+		{
+			return sampleData;
+		}
+
+		//--------------------------------------------------------------
 
+		private void read(IffId id,
+						  int   size)
+			throws AppException, IOException
+		{
 			//----  Common chunk
 
 			if (id.equals(AIFF_COMMON_ID))
@@ -378,7 +431,9 @@ public class AiffFile
 				if (chunks.contains(COMMON_CHUNK))
 					throw new FileException(ErrorId.MULTIPLE_COMMON_CHUNKS, file);
 
-				parseCommonChunk(raFile, size);
+				byte[] buffer = new byte[size];
+				readData(buffer, 0, buffer.length);
+				parseCommonChunk(ByteBuffer.wrap(buffer), size);
 				chunks.add(COMMON_CHUNK);
 			}
 
@@ -394,30 +449,36 @@ public class AiffFile
 				if (chunks.contains(DATA_CHUNK))
 					throw new FileException(ErrorId.MULTIPLE_DATA_CHUNKS, file);
 
-				// Skip padding before sample data
+				// Read offset to sample data
+				if (size < SOUND_DATA_HEADER_SIZE)
+					throw new FileException(ErrorId.INVALID_DATA_CHUNK, file);
 				byte[] buffer = new byte[SOUND_DATA_HEADER_SIZE];
-				raFile.readFully(buffer);
+				readData(buffer, 0, buffer.length);
 				int offset = NumberUtils.bytesToIntBE(buffer, 0, SOUND_DATA_OFFSET_SIZE);
 				if (offset < 0)
 					throw new FileException(ErrorId.INVALID_DATA_CHUNK, file);
-				raFile.skipBytes(offset);
 
-				// Read and parse sample data
-				int dataSize = numSampleFrames * getBytesPerSampleFrame();
+				// Validate size of sample data
+				long dataSize = numSampleFrames * getBytesPerSampleFrame();
 				if (size < SOUND_DATA_HEADER_SIZE + offset + dataSize)
 					throw new FileException(ErrorId.INCONSISTENT_DATA_SIZE, file);
 
+				// Skip padding before sample data
+				skipData(offset);
+
+				// Read and parse sample data
+
 				try
 				{
 					switch (sampleFormat)
 					{
 						case INTEGER:
-							sampleData = parseIntegerData(raFile, dataSize, bytesPerSample,
+							sampleData = parseIntegerData((int)dataSize, bytesPerSample,
 														  (IByteDataOutputStream)outStream);
 							break;
 
 						case DOUBLE:
-							sampleData = parseDoubleData(raFile, dataSize, bytesPerSample,
+							sampleData = parseDoubleData((int)dataSize, bytesPerSample,
 														 (IDoubleDataOutputStream)outStream);
 							break;
 
@@ -441,7 +502,7 @@ public class AiffFile
 				try
 				{
 					byte[] buffer = new byte[size];
-					raFile.readFully(buffer);
+					readData(buffer, 0, buffer.length);
 					chunks.add(new IffChunk(id, buffer));
 				}
 				catch (OutOfMemoryError e)
@@ -453,31 +514,42 @@ public class AiffFile
 
 		//--------------------------------------------------------------
 
-		public void endReading(RandomAccessFile raFile)
-			throws AppException
+		private void readData(byte[] buffer,
+							  int    offset,
+							  int    length)
+			throws IOException
 		{
-			// Test for critical chunks
-			if (!chunks.contains(COMMON_CHUNK))
-				throw new FileException(ErrorId.NO_COMMON_CHUNK, file);
-			if (!chunks.contains(DATA_CHUNK))
-				throw new FileException(AudioFile.ErrorId.NO_DATA_CHUNK, file);
+			// Read data from buffer
+			if (data != null)
+				data.get(buffer, offset, length);
+
+			// Read data from channel
+			else
+			{
+				ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+				while (byteBuffer.hasRemaining())
+				{
+					int readLength = channel.read(byteBuffer, dataOffset);
+					if (readLength < 0)
+						throw new EOFException();
+					dataOffset += readLength;
+				}
+			}
 		}
 
 		//--------------------------------------------------------------
 
-	////////////////////////////////////////////////////////////////////
-	//  Instance methods
-	////////////////////////////////////////////////////////////////////
-
-		public Object getData()
+		private void skipData(int length)
 		{
-			return sampleData;
+			if (data != null)
+				data.position(data.position() + length);
+			else
+				dataOffset += length;
 		}
 
 		//--------------------------------------------------------------
 
-		private byte[] parseIntegerData(RandomAccessFile      raFile,
-										int                   dataSize,
+		private byte[] parseIntegerData(int                   dataSize,
 										int                   bytesPerSample,
 										IByteDataOutputStream outStream)
 			throws AppException, IOException
@@ -495,7 +567,7 @@ public class AiffFile
 				if (outStream == null)
 				{
 					outBuffer = new byte[dataSize];
-					raFile.readFully(outBuffer);
+					readData(outBuffer, 0, outBuffer.length);
 					reverseByteOrder(outBuffer, 0, outBuffer.length, inBytesPerSample);
 				}
 				else
@@ -508,7 +580,7 @@ public class AiffFile
 						int inLength = bufferLength;
 						if (inLength > lengthRemaining)
 							inLength = lengthRemaining;
-						raFile.readFully(outBuffer, 0, inLength);
+						readData(outBuffer, 0, inLength);
 						reverseByteOrder(outBuffer, 0, inLength, inBytesPerSample);
 						outStream.write(outBuffer, 0, inLength);
 						lengthRemaining -= inLength;
@@ -535,7 +607,7 @@ public class AiffFile
 					int inLength = inBufferLength;
 					if (inLength > lengthRemaining)
 						inLength = lengthRemaining;
-					raFile.readFully(inBuffer, 0, inLength);
+					readData(inBuffer, 0, inLength);
 					if (delta > 0)
 					{
 						int inIndex = 0;
@@ -587,8 +659,7 @@ public class AiffFile
 
 		//--------------------------------------------------------------
 
-		private double[] parseDoubleData(RandomAccessFile        raFile,
-										 int                     dataSize,
+		private double[] parseDoubleData(int                     dataSize,
 										 int                     bytesPerSample,
 										 IDoubleDataOutputStream outStream)
 			throws AppException, IOException
@@ -612,7 +683,7 @@ public class AiffFile
 				int inLength = inBufferLength;
 				if (inLength > lengthRemaining)
 					inLength = lengthRemaining;
-				raFile.readFully(inBuffer, 0, inLength);
+				readData(inBuffer, 0, inLength);
 
 				// Convert sample values to floating point
 				if (inBytesPerSample == 1)
@@ -653,6 +724,9 @@ public class AiffFile
 		private	Object			outStream;
 		private	ChunkFilter		filter;
 		private	Object			sampleData;
+		private	ByteBuffer		data;
+		private	FileChannel		channel;
+		private	long			dataOffset;
 
 	}
 
@@ -675,7 +749,7 @@ public class AiffFile
 		{
 			this.sampleDataInput = sampleDataInput;
 			this.inputKind = inputKind;
-			numSampleFrames = (int)(getDataLength() / getBytesPerSampleFrame());
+			numSampleFrames = getDataLength() / getBytesPerSampleFrame();
 		}
 
 		//--------------------------------------------------------------
@@ -704,7 +778,7 @@ public class AiffFile
 		{
 			// Common chunk
 			if (id.equals(AIFF_COMMON_ID))
-				raFile.write(new Attributes(numChannels, bitsPerSample, numSampleFrames, sampleRate).
+				raFile.write(new Attributes(numChannels, bitsPerSample, (int)numSampleFrames, sampleRate).
 																								get());
 
 			// Data chunk
@@ -1020,6 +1094,15 @@ public class AiffFile
 
 	//------------------------------------------------------------------
 
+	@Override
+	public void read(FormFile.IChannelChunkReader chunkReader)
+		throws AppException
+	{
+		new IffFormFile(file).read(chunkReader);
+	}
+
+	//------------------------------------------------------------------
+
 	@Override
 	public int read(double[] buffer,
 					int      offset,
@@ -1080,7 +1163,7 @@ public class AiffFile
 	//------------------------------------------------------------------
 
 	@Override
-	protected int readGroupHeader()
+	protected long readGroupHeader()
 		throws AppException
 	{
 		try
@@ -1131,8 +1214,9 @@ public class AiffFile
 	//------------------------------------------------------------------
 
 	@Override
-	protected int getChunkSize(byte[] buffer,
-							   int    offset)
+	protected long getChunkSize(IffId  id,
+								byte[] buffer,
+								int    offset)
 	{
 		return IffChunk.getSize(buffer, offset);
 	}
@@ -1178,14 +1262,14 @@ public class AiffFile
 			throw new FileException(AudioFile.ErrorId.FILE_IS_NOT_OPEN, file);
 
 		// Find chunk
-		int chunkSize = findChunk(id);
+		long chunkSize = findChunk(id);
 		if (chunkSize < 0)
 			return null;
 
 		// Read chunk
 		try
 		{
-			byte[] buffer = new byte[chunkSize];
+			byte[] buffer = new byte[(int)chunkSize];
 			raFile.readFully(buffer);
 			return new IffChunk(id, buffer);
 		}
@@ -1201,15 +1285,15 @@ public class AiffFile
 
 	//------------------------------------------------------------------
 
-	private void parseCommonChunk(RandomAccessFile raFile,
-								  int              chunkSize)
+	private void parseCommonChunk(ByteBuffer data,
+								  int        chunkSize)
 		throws AppException, IOException
 	{
 		if ((chunkSize != Attributes.CHUNK_SIZE1) && (chunkSize < Attributes.CHUNK_SIZE2))
 			throw new FileException(ErrorId.INVALID_COMMON_CHUNK, file);
 
 		byte[] buffer = new byte[chunkSize];
-		raFile.readFully(buffer);
+		data.get(buffer);
 
 		Attributes attributes = null;
 		try
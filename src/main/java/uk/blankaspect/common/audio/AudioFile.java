@@ -34,6 +34,7 @@ import uk.blankaspect.common.iff.FormFile;
 import uk.blankaspect.common.iff.Group;
 import uk.blankaspect.common.iff.IffException;
 import uk.blankaspect.common.iff.IffId;
+import uk.blankaspect.common.iff.RiffFormFile;
 
 import uk.blankaspect.common.misc.IByteDataInputStream;
 import uk.blankaspect.common.misc.IByteDataOutputStream;
@@ -148,6 +149,14 @@ public abstract class AudioFile
 			}
 
 			//----------------------------------------------------------
+
+			@Override
+			protected boolean isGroupId(IffId id)
+			{
+				return RiffFormFile.isRiffGroupId(id);
+			}
+
+			//----------------------------------------------------------
 		};
 
 		private interface FilenameExtensions
@@ -206,7 +215,7 @@ public abstract class AudioFile
 		{
 			for (Kind value : values())
 			{
-				if (value.groupId.equals(groupId) && value.typeId.equals(typeId))
+				if (value.isGroupId(groupId) && value.typeId.equals(typeId))
 					return value;
 			}
 			return null;
@@ -284,6 +293,17 @@ public abstract class AudioFile
 
 		//--------------------------------------------------------------
 
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		protected boolean isGroupId(IffId id)
+		{
+			return groupId.equals(id);
+		}
+
+		//--------------------------------------------------------------
+
 	}
 
 	//==================================================================
@@ -377,7 +397,7 @@ public abstract class AudioFile
 	protected	int					numChannels;
 	protected	int					bitsPerSample;
 	protected	int					sampleRate;
-	protected	int					numSampleFrames;
+	protected	long				numSampleFrames;
 	protected	long				sampleDataOffset;
 	protected	RandomAccessFile	raFile;
 
@@ -552,6 +572,11 @@ public abstract class AudioFile
 
 	//------------------------------------------------------------------
 
+	public abstract void read(FormFile.IChannelChunkReader chunkReader)
+		throws AppException;
+
+	//------------------------------------------------------------------
+
 	public abstract int read(double[] buffer,
 							 int      offset,
 							 int      length)
@@ -567,7 +592,7 @@ public abstract class AudioFile
 
 	//------------------------------------------------------------------
 
-	protected abstract int readGroupHeader()
+	protected abstract long readGroupHeader()
 		throws AppException;
 
 	//------------------------------------------------------------------
@@ -578,8 +603,9 @@ public abstract class AudioFile
 
 	//------------------------------------------------------------------
 
-	protected abstract int getChunkSize(byte[] buffer,
-										int    offset);
+	protected abstract long getChunkSize(IffId  id,
+										 byte[] buffer,
+										 int    offset);
 
 	//------------------------------------------------------------------
 
@@ -633,7 +659,7 @@ public abstract class AudioFile
 
 	//------------------------------------------------------------------
 
-	public int getNumSampleFrames()
+	public long getNumSampleFrames()
 	{
 		return numSampleFrames;
 	}
@@ -747,11 +773,11 @@ public abstract class AudioFile
 	 * @throws IllegalArgumentException
 	 */
 
-	public void seekSampleFrame(int index)
+	public void seekSampleFrame(long index)
 		throws AppException
 	{
 		// Validate sample frame index
-		if (index >= numSampleFrames)
+		if ((index < 0) || (index >= numSampleFrames))
 			throw new IllegalArgumentException();
 
 		// Test whether random-access file is open
@@ -955,7 +981,7 @@ public abstract class AudioFile
 
 	//------------------------------------------------------------------
 
-	protected int findChunk(IffId id)
+	protected long findChunk(IffId id)
 		throws AppException
 	{
 		// Search for chunk
@@ -965,7 +991,7 @@ public abstract class AudioFile
 			raFile.seek(0);
 
 			// Read group header
-			int groupSize = readGroupHeader();
+			long groupSize = readGroupHeader();
 
 			// Initialise variables
 			long groupOffset = IffId.SIZE;
@@ -994,11 +1020,11 @@ public abstract class AudioFile
 				{
 					throw new FileException(ErrorId.ILLEGAL_CHUNK_ID, file);
 				}
-				int chunkSize = getChunkSize(buffer, IffId.SIZE);
+				long chunkSize = getChunkSize(chunkId, buffer, IffId.SIZE);
 
 				// Test whether chunk extends beyond end of group
 				groupOffset += Chunk.HEADER_SIZE;
-				if (groupOffset + chunkSize > groupSize)
+				if ((chunkSize < 0) || (groupOffset + chunkSize > groupSize))
 					throw new IffException(ErrorId.MALFORMED_FILE, file, chunkId);
 
 				// Test for target chunk
@@ -19,10 +19,15 @@ package uk.blankaspect.common.audio;
 
 
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -31,6 +36,7 @@ import uk.blankaspect.common.exception.FileException;
 
 import uk.blankaspect.common.iff.Chunk;
 import uk.blankaspect.common.iff.ChunkFilter;
+import uk.blankaspect.common.iff.Ds64Chunk;
 import uk.blankaspect.common.iff.FormFile;
 import uk.blankaspect.common.iff.Group;
 import uk.blankaspect.common.iff.IffException;
@@ -63,7 +69,7 @@ public class WaveFile
 //  Constants
 ////////////////////////////////////////////////////////////////////////
 
-	public static final		IffId	RIFF_GROUP_ID	= new IffId("RIFF");
+	public static final		IffId	RIFF_GROUP_ID	= RiffFormFile.RIFF_GROUP_ID;
 	public static final		IffId	WAVE_TYPE_ID	= new IffId("WAVE");
 	public static final		IffId	WAVE_FORMAT_ID	= new IffId("fmt ");
 	public static final		IffId	WAVE_DATA_ID	= new IffId("data");
@@ -71,6 +77,8 @@ public class WaveFile
 	private static final	RiffChunk	FORMAT_CHUNK	= new RiffChunk(WAVE_FORMAT_ID, null);
 	private static final	RiffChunk	DATA_CHUNK		= new RiffChunk(WAVE_DATA_ID, null);
 
+	private static final	long	MAX_RIFF_GROUP_SIZE	= 0xFFFFFFFFL;
+
 ////////////////////////////////////////////////////////////////////////
 //  Enumerated types
 ////////////////////////////////////////////////////////////////////////
@@ -121,8 +129,15 @@ public class WaveFile
 		INCONSISTENT_DATA_SIZE
 		("The size of the data chunk is inconsistent with the data format."),
 
+		DATA_CHUNK_IS_TOO_LARGE
+		("The data chunk is too large to be read into memory."),
+
+		/**
+		 * @deprecated  Use {@link #DATA_CHUNK_IS_TOO_LARGE} instead.
+		 */
+		@Deprecated
 		FILE_IS_TOO_LARGE
-		("This program cannot process WAVE files that are larger than 2GB."),
+		("The data chunk is too large to be read into memory."),
 
 		NOT_ENOUGH_MEMORY
 		("There was not enough memory to read the file.");
@@ -301,7 +316,7 @@ public class WaveFile
 
 
 	private class ChunkReader
-		implements FormFile.IChunkReader
+		implements FormFile.IChannelChunkReader
 	{
 
 	////////////////////////////////////////////////////////////////////
@@ -322,16 +337,14 @@ public class WaveFile
 		//--------------------------------------------------------------
 
 	////////////////////////////////////////////////////////////////////
-	//  Instance methods : FormFile.IChunkReader interface
+	//  Instance methods : FormFile.IChannelChunkReader interface
 	////////////////////////////////////////////////////////////////////
 
-		public void beginReading(RandomAccessFile raFile,
-								 IffId            typeId,
-								 int              size)
+		public void beginReading(FileChannel channel,
+								 IffId       typeId,
+								 long        size)
 			throws AppException
 		{
-			if (size < 0)
-				throw new FileException(ErrorId.FILE_IS_TOO_LARGE, file);
 			if (!typeId.equals(WAVE_TYPE_ID))
 				throw new FileException(ErrorId.NOT_A_WAVE_FILE, file);
 			chunks.clear();
@@ -339,12 +352,57 @@ public class WaveFile
 
 		//--------------------------------------------------------------
 
-		public void read(RandomAccessFile raFile,
-						 IffId            id,
-						 int              size)
+		public void read(ByteBuffer data,
+						 IffId      id)
+			throws AppException, IOException
+		{
+			this.data = data;
+			read(id, data.remaining());
+		}
+
+		//--------------------------------------------------------------
+
+		public void read(FileChannel channel,
+						 long        offset,
+						 long        size,
+						 IffId       id)
 			throws AppException, IOException
 		{
+			data = null;
+			this.channel = channel;
+			dataOffset = offset;
+			read(id, size);
+		}
+
+		//--------------------------------------------------------------
+
+		public void endReading(FileChannel channel)
+			throws AppException
+		{
+			// Test for critical chunks
+			if (!chunks.contains(FORMAT_CHUNK))
+				throw new FileException(ErrorId.NO_FORMAT_CHUNK, file);
+			if (!chunks.contains(DATA_CHUNK))
+				throw new FileException(AudioFile.ErrorId.NO_DATA_CHUNK, file);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
 
+		public Object getData()
+		{
+			return sampleData;
+		}
+
+		//--------------------------------------------------------------
+
+		private void read(IffId id,
+						  long  size)
+			throws AppException, IOException
+		{
 			//----  Format chunk
 
 			if (id.equals(WAVE_FORMAT_ID))
@@ -352,7 +410,11 @@ public class WaveFile
 				if (chunks.contains(FORMAT_CHUNK))
 					throw new FileException(ErrorId.MULTIPLE_FORMAT_CHUNKS, file);
 
-				parseFormatChunk(raFile, size);
+				if (size > Integer.MAX_VALUE)
+					throw new FileException(ErrorId.INVALID_FORMAT_CHUNK, file);
+				byte[] buffer = new byte[(int)size];
+				readData(buffer, 0, buffer.length);
+				parseFormatChunk(buffer);
 				chunks.add(FORMAT_CHUNK);
 			}
 
@@ -373,19 +435,28 @@ public class WaveFile
 					throw new FileException(ErrorId.INCONSISTENT_DATA_SIZE, file);
 				numSampleFrames = size / getBytesPerSampleFrame();
 
+				// Test whether sample data will fit in buffer
+				if ((outStream == null) && (sampleFormat != SampleFormat.NONE))
+				{
+					long numSamples = size / getBytesPerSample();
+					long outLength = (sampleFormat == SampleFormat.DOUBLE)
+										? numSamples
+										: numSamples * ((bytesPerSample == 0) ? getBytesPerSample() : bytesPerSample);
+					if (outLength > Integer.MAX_VALUE)
+						throw new IffException(ErrorId.DATA_CHUNK_IS_TOO_LARGE, file, id);
+				}
+
 				// Read and parse sample data
 				try
 				{
 					switch (sampleFormat)
 					{
 						case INTEGER:
-							sampleData = parseIntegerData(raFile, size, bytesPerSample,
-														  (IByteDataOutputStream)outStream);
+							sampleData = parseIntegerData(size, bytesPerSample, (IByteDataOutputStream)outStream);
 							break;
 
 						case DOUBLE:
-							sampleData = parseDoubleData(raFile, size, bytesPerSample,
-														 (IDoubleDataOutputStream)outStream);
+							sampleData = parseDoubleData(size, bytesPerSample, (IDoubleDataOutputStream)outStream);
 							break;
 
 						case NONE:
@@ -401,14 +472,24 @@ public class WaveFile
 			}
 
 
+			//----  ds64 chunk
+
+			else if (id.equals(Ds64Chunk.ID))
+			{
+				// do nothing
+			}
+
+
 			//----  Ancillary chunk
 
 			else if ((filter != null) && filter.accept(id) && (sampleFormat != SampleFormat.NONE))
 			{
+				if (size > Integer.MAX_VALUE)
+					throw new IffException(ErrorId.NOT_ENOUGH_MEMORY, file, id);
 				try
 				{
-					byte[] buffer = new byte[size];
-					raFile.readFully(buffer);
+					byte[] buffer = new byte[(int)size];
+					readData(buffer, 0, buffer.length);
 					chunks.add(new RiffChunk(id, buffer));
 				}
 				catch (OutOfMemoryError e)
@@ -420,31 +501,32 @@ public class WaveFile
 
 		//--------------------------------------------------------------
 
-		public void endReading(RandomAccessFile raFile)
-			throws AppException
+		private void readData(byte[] buffer,
+							  int    offset,
+							  int    length)
+			throws IOException
 		{
-			// Test for critical chunks
-			if (!chunks.contains(FORMAT_CHUNK))
-				throw new FileException(ErrorId.NO_FORMAT_CHUNK, file);
-			if (!chunks.contains(DATA_CHUNK))
-				throw new FileException(AudioFile.ErrorId.NO_DATA_CHUNK, file);
-		}
-
-		//--------------------------------------------------------------
+			// Read data from buffer
+			if (data != null)
+				data.get(buffer, offset, length);
 
-	////////////////////////////////////////////////////////////////////
-	//  Instance methods
-	////////////////////////////////////////////////////////////////////
-
-		public Object getData()
-		{
-			return sampleData;
+			// Read data from channel
+			else
+			{
+				ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+				while (byteBuffer.hasRemaining())
+				{
+					int readLength = channel.read(byteBuffer, dataOffset);
+					if (readLength < 0)
+						throw new EOFException();
+					dataOffset += readLength;
+				}
+			}
 		}
 
 		//--------------------------------------------------------------
 
-		private byte[] parseIntegerData(RandomAccessFile      raFile,
-										int                   dataSize,
+		private byte[] parseIntegerData(long                  dataSize,
 										int                   bytesPerSample,
 										IByteDataOutputStream outStream)
 			throws AppException, IOException
@@ -461,20 +543,18 @@ public class WaveFile
 			{
 				if (outStream == null)
 				{
-					outBuffer = new byte[dataSize];
-					raFile.readFully(outBuffer);
+					outBuffer = new byte[(int)dataSize];
+					readData(outBuffer, 0, outBuffer.length);
 				}
 				else
 				{
 					int bufferLength = BUFFER_LENGTH * inBytesPerSample;
 					outBuffer = new byte[bufferLength];
-					int lengthRemaining = dataSize;
+					long lengthRemaining = dataSize;
 					while (lengthRemaining > 0)
 					{
-						int inLength = bufferLength;
-						if (inLength > lengthRemaining)
-							inLength = lengthRemaining;
-						raFile.readFully(outBuffer, 0, inLength);
+						int inLength = (int)Math.min(bufferLength, lengthRemaining);
+						readData(outBuffer, 0, inLength);
 						outStream.write(outBuffer, 0, inLength);
 						lengthRemaining -= inLength;
 					}
@@ -491,16 +571,14 @@ public class WaveFile
 											: 0.0;
 				int inBufferLength = BUFFER_LENGTH * inBytesPerSample;
 				byte[] inBuffer = new byte[inBufferLength];
-				outBuffer = new byte[((outStream == null) ? dataSize / inBytesPerSample : BUFFER_LENGTH) *
-																							bytesPerSample];
+				outBuffer = new byte[((outStream == null) ? (int)(dataSize / inBytesPerSample) : BUFFER_LENGTH) *
+																									bytesPerSample];
 				int outIndex = 0;
-				int lengthRemaining = dataSize;
+				long lengthRemaining = dataSize;
 				while (lengthRemaining > 0)
 				{
-					int inLength = inBufferLength;
-					if (inLength > lengthRemaining)
-						inLength = lengthRemaining;
-					raFile.readFully(inBuffer, 0, inLength);
+					int inLength = (int)Math.min(inBufferLength, lengthRemaining);
+					readData(inBuffer, 0, inLength);
 					if (delta > 0)
 					{
 						int inIndex = 0;
@@ -552,8 +630,7 @@ public class WaveFile
 
 		//--------------------------------------------------------------
 
-		private double[] parseDoubleData(RandomAccessFile        raFile,
-										 int                     dataSize,
+		private double[] parseDoubleData(long                    dataSize,
 										 int                     bytesPerSample,
 										 IDoubleDataOutputStream outStream)
 			throws AppException, IOException
@@ -565,19 +642,17 @@ public class WaveFile
 			double factor = 1.0 / getMaxInputSampleValue(inBytesPerSample);
 			int inBufferLength = BUFFER_LENGTH * inBytesPerSample;
 			byte[] inBuffer = new byte[inBufferLength];
-			double[] outBuffer = new double[(outStream == null) ? dataSize / inBytesPerSample
+			double[] outBuffer = new double[(outStream == null) ? (int)(dataSize / inBytesPerSample)
 																: BUFFER_LENGTH];
 			int outIndex = 0;
-			int lengthRemaining = dataSize;
+			long lengthRemaining = dataSize;
 
 			// Read sample data from file and write them to buffer or output stream
 			while (lengthRemaining > 0)
 			{
 				// Read sample data from file
-				int inLength = inBufferLength;
-				if (inLength > lengthRemaining)
-					inLength = lengthRemaining;
-				raFile.readFully(inBuffer, 0, inLength);
+				int inLength = (int)Math.min(inBufferLength, lengthRemaining);
+				readData(inBuffer, 0, inLength);
 
 				// Convert sample values to floating point
 				if (inBytesPerSample == 1)
@@ -618,6 +693,9 @@ public class WaveFile
 		private	Object			outStream;
 		private	ChunkFilter		filter;
 		private	Object			sampleData;
+		private	ByteBuffer		data;
+		private	FileChannel		channel;
+		private	long			dataOffset;
 
 	}
 
@@ -657,7 +735,14 @@ public class WaveFile
 
 		public IffId getNextId()
 		{
-			return ((chunkIndex < chunks.size()) ? chunks.get(chunkIndex++).getId() : null);
+			while (chunkIndex < chunks.size())
+			{
+				// The ds64 chunk of an RF64 or BW64 file is written by the form file
+				IffId id = chunks.get(chunkIndex++).getId();
+				if (!id.equals(Ds64Chunk.ID))
+					return id;
+			}
+			return null;
 		}
 
 		//--------------------------------------------------------------
@@ -696,6 +781,24 @@ public class WaveFile
 	//  Instance methods
 	////////////////////////////////////////////////////////////////////
 
+		private long getGroupSize()
+		{
+			long groupSize = IffId.SIZE;
+			for (RiffChunk chunk : chunks)
+			{
+				IffId id = chunk.getId();
+				long size = id.equals(WAVE_FORMAT_ID)
+								? Attributes.CHUNK_SIZE1
+								: id.equals(WAVE_DATA_ID)
+									? getDataLength()
+									: chunk.getSize();
+				groupSize += Chunk.HEADER_SIZE + size + (size & 1);
+			}
+			return groupSize;
+		}
+
+		//--------------------------------------------------------------
+
 		private long getDataLength()
 		{
 			long length = sampleDataInput.getLength();
@@ -839,6 +942,7 @@ public class WaveFile
 	public WaveFile(File file)
 	{
 		super(file);
+		groupId = RIFF_GROUP_ID;
 		chunks = new ArrayList<>();
 	}
 
@@ -850,6 +954,7 @@ public class WaveFile
 					int  sampleRate)
 	{
 		super(file, numChannels, bitsPerSample, sampleRate);
+		groupId = RIFF_GROUP_ID;
 		chunks = new ArrayList<>();
 	}
 
@@ -859,6 +964,7 @@ public class WaveFile
 					WaveFile waveFile)
 	{
 		this(file, waveFile.numChannels, waveFile.bitsPerSample, waveFile.sampleRate);
+		groupId = waveFile.groupId;
 	}
 
 	//------------------------------------------------------------------
@@ -929,6 +1035,15 @@ public class WaveFile
 
 	//------------------------------------------------------------------
 
+	@Override
+	public void read(FormFile.IChannelChunkReader chunkReader)
+		throws AppException
+	{
+		new RiffFormFile(file).read(chunkReader);
+	}
+
+	//------------------------------------------------------------------
+
 	@Override
 	public int read(double[] buffer,
 					int      offset,
@@ -982,14 +1097,14 @@ public class WaveFile
 		throws AppException
 	{
 		ChunkReader reader = new ChunkReader(sampleFormat, bytesPerSample, outStream, filter);
-		new RiffFormFile(file).read(reader);
+		groupId = new RiffFormFile(file).read(reader);
 		return reader.getData();
 	}
 
 	//------------------------------------------------------------------
 
 	@Override
-	protected int readGroupHeader()
+	protected long readGroupHeader()
 		throws AppException
 	{
 		try
@@ -1000,14 +1115,28 @@ public class WaveFile
 
 			// Test for WAVE group
 			RiffGroup group = new RiffGroup(buffer);
-			if (!group.getGroupId().equals(RIFF_GROUP_ID) ||
+			if (!RiffFormFile.isRiffGroupId(group.getGroupId()) ||
 				 !group.getTypeId().equals(WAVE_TYPE_ID))
 				throw new FileException(ErrorId.NOT_A_WAVE_FILE, file);
 
+			// Read ds64 chunk of RF64 or BW64 file
+			ds64Chunk = null;
+			long groupSize = Integer.toUnsignedLong(RiffChunk.getSize(buffer, IffId.SIZE));
+			if (RiffFormFile.isExtendedGroupId(group.getGroupId()))
+			{
+				try
+				{
+					ds64Chunk = Ds64Chunk.read(raFile.getChannel(), Group.HEADER_SIZE);
+				}
+				catch (IllegalArgumentException e)
+				{
+					throw new FileException(AudioFile.ErrorId.MALFORMED_FILE, file);
+				}
+				if (groupSize == Ds64Chunk.SIZE_PLACEHOLDER)
+					groupSize = ds64Chunk.getRiffSize();
+			}
+
 			// Test group size
-			int groupSize = RiffChunk.getSize(buffer, IffId.SIZE);
-			if (groupSize < 0)
-				throw new FileException(ErrorId.FILE_IS_TOO_LARGE, file);
 			if (groupSize > raFile.length() - Chunk.HEADER_SIZE)
 				throw new FileException(AudioFile.ErrorId.MALFORMED_FILE, file);
 
@@ -1033,17 +1162,27 @@ public class WaveFile
 			chunks.add(DATA_CHUNK);
 		}
 
+		// Write RF64 file if group is too large for RIFF file
+		ChunkWriter writer = new ChunkWriter(sampleDataInput, inputKind);
+		IffId id = groupId;
+		if (id.equals(RIFF_GROUP_ID) && (writer.getGroupSize() > MAX_RIFF_GROUP_SIZE))
+			id = RiffFormFile.RF64_GROUP_ID;
+
 		// Write file
-		new RiffFormFile(file).write(WAVE_TYPE_ID, new ChunkWriter(sampleDataInput, inputKind));
+		RiffFormFile formFile = new RiffFormFile(file, id);
+		formFile.setSampleCount(writer.getDataLength() / getBytesPerSampleFrame());
+		formFile.write(WAVE_TYPE_ID, writer);
 	}
 
 	//------------------------------------------------------------------
 
 	@Override
-	protected int getChunkSize(byte[] buffer,
-							   int    offset)
+	protected long getChunkSize(IffId  id,
+								byte[] buffer,
+								int    offset)
 	{
-		return RiffChunk.getSize(buffer, offset);
+		long size = Integer.toUnsignedLong(RiffChunk.getSize(buffer, offset));
+		return ((ds64Chunk == null) ? size : ds64Chunk.resolveSize(id, size));
 	}
 
 	//------------------------------------------------------------------
@@ -1060,6 +1199,26 @@ public class WaveFile
 //  Instance methods
 ////////////////////////////////////////////////////////////////////////
 
+	public IffId getGroupId()
+	{
+		return groupId;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * @throws IllegalArgumentException
+	 */
+
+	public void setGroupId(IffId groupId)
+	{
+		if (!RiffFormFile.isRiffGroupId(groupId))
+			throw new IllegalArgumentException();
+		this.groupId = groupId;
+	}
+
+	//------------------------------------------------------------------
+
 	public RiffChunk getChunk(IffId id)
 	{
 		for (RiffChunk chunk : chunks)
@@ -1087,14 +1246,16 @@ public class WaveFile
 			throw new FileException(AudioFile.ErrorId.FILE_IS_NOT_OPEN, file);
 
 		// Find chunk
-		int chunkSize = findChunk(id);
+		long chunkSize = findChunk(id);
 		if (chunkSize < 0)
 			return null;
+		if (chunkSize > Integer.MAX_VALUE)
+			throw new IffException(ErrorId.NOT_ENOUGH_MEMORY, file, id);
 
 		// Read chunk
 		try
 		{
-			byte[] buffer = new byte[chunkSize];
+			byte[] buffer = new byte[(int)chunkSize];
 			raFile.readFully(buffer);
 			return new RiffChunk(id, buffer);
 		}
@@ -1110,17 +1271,13 @@ public class WaveFile
 
 	//------------------------------------------------------------------
 
-	private void parseFormatChunk(RandomAccessFile raFile,
-								  int              chunkSize)
-		throws AppException, IOException
+	private void parseFormatChunk(byte[] data)
+		throws AppException
 	{
-		if ((chunkSize != Attributes.CHUNK_SIZE1) && (chunkSize < Attributes.CHUNK_SIZE2))
+		if ((data.length != Attributes.CHUNK_SIZE1) && (data.length < Attributes.CHUNK_SIZE2))
 			throw new FileException(ErrorId.INVALID_FORMAT_CHUNK, file);
 
-		byte[] buffer = new byte[chunkSize];
-		raFile.readFully(buffer);
-
-		Attributes attributes = new Attributes(buffer);
+		Attributes attributes = new Attributes(data);
 		if (attributes.kind != Attributes.UNCOMPRESSED)
 			throw new IffException(ErrorId.UNSUPPORTED_FORMAT, file, WAVE_FORMAT_ID);
 		numChannels = attributes.numChannels;
@@ -1138,7 +1295,9 @@ public class WaveFile
 //  Instance variables
 ////////////////////////////////////////////////////////////////////////
 
+	private	IffId			groupId;
 	private	List<RiffChunk>	chunks;
+	private	Ds64Chunk		ds64Chunk;
 
 }
 
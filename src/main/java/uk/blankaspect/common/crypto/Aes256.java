@@ -18,8 +18,19 @@ package uk.blankaspect.common.crypto;
 // IMPORTS
 
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import java.nio.ByteOrder;
+
+import java.security.GeneralSecurityException;
+
 import java.util.Arrays;
 
+import javax.crypto.Cipher;
+
+import javax.crypto.spec.SecretKeySpec;
+
 import uk.blankaspect.common.exception.UnexpectedRuntimeException;
 
 //----------------------------------------------------------------------
@@ -130,6 +141,18 @@ public class Aes256
 
 	private static final	int	NUM_ROUND_CONSTANTS	= 30;
 
+	private static final	int	NUM_INTERLEAVED_BLOCKS	= 4;
+
+	private static final	int	NUM_KEYSTREAM_BLOCKS	= 64;
+
+	private static final	int	MIN_NUM_JDK_CIPHER_BLOCKS	= 64;
+
+	private static final	String	JDK_CIPHER_ALGORITHM		= "AES";
+	private static final	String	JDK_CIPHER_TRANSFORMATION	= "AES/ECB/NoPadding";
+
+	private static final	VarHandle	WORD_VIEW	=
+			MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
 	private static final	byte[]	ROUND_CONSTANTS	= new byte[NUM_ROUND_CONSTANTS];
 
 ////////////////////////////////////////////////////////////////////////
@@ -481,6 +504,229 @@ public class Aes256
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Flattens a key schedule of round keys into a single array in which the round keys are stored
+	 * consecutively, and returns the array.
+	 *
+	 * @param  roundKeys  the key schedule that will be flattened.
+	 * @return an array that contains the round keys of {@code roundKeys} in order.
+	 */
+
+	private static int[] flattenRoundKeys(int[][] roundKeys)
+	{
+		int[] keys = new int[NUM_ROUND_KEY_WORDS];
+		for (int i = 0; i < roundKeys.length; i++)
+			System.arraycopy(roundKeys[i], 0, keys, i * NUM_BLOCK_COLUMNS, NUM_BLOCK_COLUMNS);
+		return keys;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Encrypts a specified 128-bit block of data with a specified flattened key schedule.
+	 *
+	 * @param inData     the data that will be encrypted.
+	 * @param inOffset   the offset of the start of the input data in {@code inData}.
+	 * @param outBuffer  the buffer in which the encrypted data will be stored.
+	 * @param outOffset  the offset in {@code outBuffer} at which the first byte of encrypted data will be
+	 *                   stored.
+	 * @param roundKeys  the flattened key schedule of round keys that will be used for encryption.
+	 */
+
+	private static void encryptBlock(byte[] inData,
+									 int    inOffset,
+									 byte[] outBuffer,
+									 int    outOffset,
+									 int[]  roundKeys)
+	{
+		// Apply first round key to plaintext
+		int a0 = (int)WORD_VIEW.get(inData, inOffset     ) ^ roundKeys[0];
+		int a1 = (int)WORD_VIEW.get(inData, inOffset +  4) ^ roundKeys[1];
+		int a2 = (int)WORD_VIEW.get(inData, inOffset +  8) ^ roundKeys[2];
+		int a3 = (int)WORD_VIEW.get(inData, inOffset + 12) ^ roundKeys[3];
+
+		// Apply transforms for each round except last
+		int keyIndex = NUM_BLOCK_COLUMNS;
+		for (int i = 1; i < NUM_ROUNDS; i++)
+		{
+			int b0 = T1[a0 >>> 24] ^ T2[(a1 >>> 16) & 0xFF] ^ T3[(a2 >>> 8) & 0xFF] ^ T4[a3 & 0xFF]
+																					^ roundKeys[keyIndex++];
+			int b1 = T1[a1 >>> 24] ^ T2[(a2 >>> 16) & 0xFF] ^ T3[(a3 >>> 8) & 0xFF] ^ T4[a0 & 0xFF]
+																					^ roundKeys[keyIndex++];
+			int b2 = T1[a2 >>> 24] ^ T2[(a3 >>> 16) & 0xFF] ^ T3[(a0 >>> 8) & 0xFF] ^ T4[a1 & 0xFF]
+																					^ roundKeys[keyIndex++];
+			int b3 = T1[a3 >>> 24] ^ T2[(a0 >>> 16) & 0xFF] ^ T3[(a1 >>> 8) & 0xFF] ^ T4[a2 & 0xFF]
+																					^ roundKeys[keyIndex++];
+			a0 = b0;
+			a1 = b1;
+			a2 = b2;
+			a3 = b3;
+		}
+
+		// Apply transforms for last round
+		WORD_VIEW.set(outBuffer, outOffset,      lastRound(a0, a1, a2, a3, roundKeys[keyIndex    ]));
+		WORD_VIEW.set(outBuffer, outOffset +  4, lastRound(a1, a2, a3, a0, roundKeys[keyIndex + 1]));
+		WORD_VIEW.set(outBuffer, outOffset +  8, lastRound(a2, a3, a0, a1, roundKeys[keyIndex + 2]));
+		WORD_VIEW.set(outBuffer, outOffset + 12, lastRound(a3, a0, a1, a2, roundKeys[keyIndex + 3]));
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Encrypts four consecutive 128-bit blocks of data with a specified flattened key schedule.  The blocks
+	 * are independent of each other, and the transforms of each round are applied to all four blocks
+	 * together, so that the table lookups of one block can overlap with those of the others.
+	 *
+	 * @param inData     the data that will be encrypted.
+	 * @param inOffset   the offset of the start of the input data in {@code inData}.
+	 * @param outBuffer  the buffer in which the encrypted data will be stored.
+	 * @param outOffset  the offset in {@code outBuffer} at which the first byte of encrypted data will be
+	 *                   stored.
+	 * @param roundKeys  the flattened key schedule of round keys that will be used for encryption.
+	 */
+
+	private static void encryptInterleavedBlocks(byte[] inData,
+												 int    inOffset,
+												 byte[] outBuffer,
+												 int    outOffset,
+												 int[]  roundKeys)
+	{
+		// Apply first round key to plaintext
+		int a0 = (int)WORD_VIEW.get(inData, inOffset     ) ^ roundKeys[0];
+		int a1 = (int)WORD_VIEW.get(inData, inOffset +  4) ^ roundKeys[1];
+		int a2 = (int)WORD_VIEW.get(inData, inOffset +  8) ^ roundKeys[2];
+		int a3 = (int)WORD_VIEW.get(inData, inOffset + 12) ^ roundKeys[3];
+		int b0 = (int)WORD_VIEW.get(inData, inOffset + 16) ^ roundKeys[0];
+		int b1 = (int)WORD_VIEW.get(inData, inOffset + 20) ^ roundKeys[1];
+		int b2 = (int)WORD_VIEW.get(inData, inOffset + 24) ^ roundKeys[2];
+		int b3 = (int)WORD_VIEW.get(inData, inOffset + 28) ^ roundKeys[3];
+		int c0 = (int)WORD_VIEW.get(inData, inOffset + 32) ^ roundKeys[0];
+		int c1 = (int)WORD_VIEW.get(inData, inOffset + 36) ^ roundKeys[1];
+		int c2 = (int)WORD_VIEW.get(inData, inOffset + 40) ^ roundKeys[2];
+		int c3 = (int)WORD_VIEW.get(inData, inOffset + 44) ^ roundKeys[3];
+		int d0 = (int)WORD_VIEW.get(inData, inOffset + 48) ^ roundKeys[0];
+		int d1 = (int)WORD_VIEW.get(inData, inOffset + 52) ^ roundKeys[1];
+		int d2 = (int)WORD_VIEW.get(inData, inOffset + 56) ^ roundKeys[2];
+		int d3 = (int)WORD_VIEW.get(inData, inOffset + 60) ^ roundKeys[3];
+
+		// Apply transforms for each round except last
+		int keyIndex = NUM_BLOCK_COLUMNS;
+		for (int i = 1; i < NUM_ROUNDS; i++)
+		{
+			int k0 = roundKeys[keyIndex++];
+			int k1 = roundKeys[keyIndex++];
+			int k2 = roundKeys[keyIndex++];
+			int k3 = roundKeys[keyIndex++];
+			int a0t = T1[a0 >>> 24] ^ T2[(a1 >>> 16) & 0xFF] ^ T3[(a2 >>> 8) & 0xFF] ^ T4[a3 & 0xFF] ^ k0;
+			int a1t = T1[a1 >>> 24] ^ T2[(a2 >>> 16) & 0xFF] ^ T3[(a3 >>> 8) & 0xFF] ^ T4[a0 & 0xFF] ^ k1;
+			int a2t = T1[a2 >>> 24] ^ T2[(a3 >>> 16) & 0xFF] ^ T3[(a0 >>> 8) & 0xFF] ^ T4[a1 & 0xFF] ^ k2;
+			int a3t = T1[a3 >>> 24] ^ T2[(a0 >>> 16) & 0xFF] ^ T3[(a1 >>> 8) & 0xFF] ^ T4[a2 & 0xFF] ^ k3;
+			int b0t = T1[b0 >>> 24] ^ T2[(b1 >>> 16) & 0xFF] ^ T3[(b2 >>> 8) & 0xFF] ^ T4[b3 & 0xFF] ^ k0;
+			int b1t = T1[b1 >>> 24] ^ T2[(b2 >>> 16) & 0xFF] ^ T3[(b3 >>> 8) & 0xFF] ^ T4[b0 & 0xFF] ^ k1;
+			int b2t = T1[b2 >>> 24] ^ T2[(b3 >>> 16) & 0xFF] ^ T3[(b0 >>> 8) & 0xFF] ^ T4[b1 & 0xFF] ^ k2;
+			int b3t = T1[b3 >>> 24] ^ T2[(b0 >>> 16) & 0xFF] ^ T3[(b1 >>> 8) & 0xFF] ^ T4[b2 & 0xFF] ^ k3;
+			int c0t = T1[c0 >>> 24] ^ T2[(c1 >>> 16) & 0xFF] ^ T3[(c2 >>> 8) & 0xFF] ^ T4[c3 & 0xFF] ^ k0;
+			int c1t = T1[c1 >>> 24] ^ T2[(c2 >>> 16) & 0xFF] ^ T3[(c3 >>> 8) & 0xFF] ^ T4[c0 & 0xFF] ^ k1;
+			int c2t = T1[c2 >>> 24] ^ T2[(c3 >>> 16) & 0xFF] ^ T3[(c0 >>> 8) & 0xFF] ^ T4[c1 & 0xFF] ^ k2;
+			int c3t = T1[c3 >>> 24] ^ T2[(c0 >>> 16) & 0xFF] ^ T3[(c1 >>> 8) & 0xFF] ^ T4[c2 & 0xFF] ^ k3;
+			int d0t = T1[d0 >>> 24] ^ T2[(d1 >>> 16) & 0xFF] ^ T3[(d2 >>> 8) & 0xFF] ^ T4[d3 & 0xFF] ^ k0;
+			int d1t = T1[d1 >>> 24] ^ T2[(d2 >>> 16) & 0xFF] ^ T3[(d3 >>> 8) & 0xFF] ^ T4[d0 & 0xFF] ^ k1;
+			int d2t = T1[d2 >>> 24] ^ T2[(d3 >>> 16) & 0xFF] ^ T3[(d0 >>> 8) & 0xFF] ^ T4[d1 & 0xFF] ^ k2;
+			int d3t = T1[d3 >>> 24] ^ T2[(d0 >>> 16) & 0xFF] ^ T3[(d1 >>> 8) & 0xFF] ^ T4[d2 & 0xFF] ^ k3;
+			a0 = a0t;
+			a1 = a1t;
+			a2 = a2t;
+			a3 = a3t;
+			b0 = b0t;
+			b1 = b1t;
+			b2 = b2t;
+			b3 = b3t;
+			c0 = c0t;
+			c1 = c1t;
+			c2 = c2t;
+			c3 = c3t;
+			d0 = d0t;
+			d1 = d1t;
+			d2 = d2t;
+			d3 = d3t;
+		}
+
+		// Apply transforms for last round
+		WORD_VIEW.set(outBuffer, outOffset,      lastRound(a0, a1, a2, a3, roundKeys[keyIndex    ]));
+		WORD_VIEW.set(outBuffer, outOffset +  4, lastRound(a1, a2, a3, a0, roundKeys[keyIndex + 1]));
+		WORD_VIEW.set(outBuffer, outOffset +  8, lastRound(a2, a3, a0, a1, roundKeys[keyIndex + 2]));
+		WORD_VIEW.set(outBuffer, outOffset + 12, lastRound(a3, a0, a1, a2, roundKeys[keyIndex + 3]));
+		WORD_VIEW.set(outBuffer, outOffset + 16, lastRound(b0, b1, b2, b3, roundKeys[keyIndex    ]));
+		WORD_VIEW.set(outBuffer, outOffset + 20, lastRound(b1, b2, b3, b0, roundKeys[keyIndex + 1]));
+		WORD_VIEW.set(outBuffer, outOffset + 24, lastRound(b2, b3, b0, b1, roundKeys[keyIndex + 2]));
+		WORD_VIEW.set(outBuffer, outOffset + 28, lastRound(b3, b0, b1, b2, roundKeys[keyIndex + 3]));
+		WORD_VIEW.set(outBuffer, outOffset + 32, lastRound(c0, c1, c2, c3, roundKeys[keyIndex    ]));
+		WORD_VIEW.set(outBuffer, outOffset + 36, lastRound(c1, c2, c3, c0, roundKeys[keyIndex + 1]));
+		WORD_VIEW.set(outBuffer, outOffset + 40, lastRound(c2, c3, c0, c1, roundKeys[keyIndex + 2]));
+		WORD_VIEW.set(outBuffer, outOffset + 44, lastRound(c3, c0, c1, c2, roundKeys[keyIndex + 3]));
+		WORD_VIEW.set(outBuffer, outOffset + 48, lastRound(d0, d1, d2, d3, roundKeys[keyIndex    ]));
+		WORD_VIEW.set(outBuffer, outOffset + 52, lastRound(d1, d2, d3, d0, roundKeys[keyIndex + 1]));
+		WORD_VIEW.set(outBuffer, outOffset + 56, lastRound(d2, d3, d0, d1, roundKeys[keyIndex + 2]));
+		WORD_VIEW.set(outBuffer, outOffset + 60, lastRound(d3, d0, d1, d2, roundKeys[keyIndex + 3]));
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Applies the SubBytes, ShiftRows and AddRoundKey transforms of the last round of encryption to the
+	 * specified state words, and returns the resulting output word.
+	 *
+	 * @param  w0       the state word that provides the most significant byte of the output word.
+	 * @param  w1       the state word that provides the second byte of the output word.
+	 * @param  w2       the state word that provides the third byte of the output word.
+	 * @param  w3       the state word that provides the least significant byte of the output word.
+	 * @param  keyWord  the word of the last round key.
+	 * @return the output word.
+	 */
+
+	private static int lastRound(int w0,
+								 int w1,
+								 int w2,
+								 int w3,
+								 int keyWord)
+	{
+		return ((S_BOX[w0 >>> 24] & 0xFF) << 24 | (S_BOX[(w1 >>> 16) & 0xFF] & 0xFF) << 16
+					| (S_BOX[(w2 >>> 8) & 0xFF] & 0xFF) << 8 | (S_BOX[w3 & 0xFF] & 0xFF)) ^ keyWord;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Increments a 128-bit counter block.
+	 *
+	 * @param counter    the counter block that will be incremented.
+	 * @param bigEndian  if {@code true}, the counter is treated as a big-endian integer; otherwise, it is
+	 *                   treated as a little-endian integer.
+	 */
+
+	private static void incrementCounter(byte[]  counter,
+										 boolean bigEndian)
+	{
+		if (bigEndian)
+		{
+			for (int i = BLOCK_SIZE - 1; i >= 0; i--)
+			{
+				if (++counter[i] != 0)
+					break;
+			}
+		}
+		else
+		{
+			for (int i = 0; i < BLOCK_SIZE; i++)
+			{
+				if (++counter[i] != 0)
+					break;
+			}
+		}
+	}
+
+	//------------------------------------------------------------------
+
 ////////////////////////////////////////////////////////////////////////
 //  Instance methods : overriding methods
 ////////////////////////////////////////////////////////////////////////
@@ -503,7 +749,13 @@ public class Aes256
 				copy.encryptionKeys = new int[encryptionKeys.length][];
 				for (int i = 0; i < encryptionKeys.length; i++)
 					copy.encryptionKeys[i] = encryptionKeys[i].clone();
+				copy.flatEncryptionKeys = flatEncryptionKeys.clone();
 			}
+			if (encryptionCipherKey != null)
+				copy.encryptionCipherKey = encryptionCipherKey.clone();
+			copy.jdkCipher = null;
+			copy.jdkCipherKeySet = false;
+			copy.counterBuffer = null;
 
 			if (decryptionKeys != null)
 			{
@@ -566,17 +818,74 @@ public class Aes256
 ////////////////////////////////////////////////////////////////////////
 
 	/**
-	 * Resets the encryption keys and decryption keys of this cipher.
+	 * Resets the encryption keys and decryption keys of this cipher.  The copy of the cipher key and the flattened
+	 * encryption keys that are kept for the encryption of multiple blocks are zeroed, and the platform's AES
+	 * implementation, which holds its own copy of the key, is discarded.
 	 */
 
 	public void reset()
 	{
+		clearEncryptionCipherKey();
 		encryptionKeys = null;
+		jdkCipher = null;
+		jdkCipherKeySet = false;
 		decryptionKeys = null;
 	}
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Returns {@code true} if this cipher delegates the encryption of multiple blocks to the AES
+	 * implementation of the Java platform's default cryptographic provider when that implementation is
+	 * available.
+	 *
+	 * @return {@code true} if the encryption of multiple blocks is delegated to the platform's AES
+	 *         implementation when it is available, {@code false} otherwise.
+	 * @see    #setJdkCipherEnabled(boolean)
+	 */
+
+	public boolean isJdkCipherEnabled()
+	{
+		return jdkCipherEnabled;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets whether this cipher will delegate the encryption of multiple blocks by {@link
+	 * #encryptBlocks(byte[], int, byte[], int, int)} and {@link #generateKeystream(byte[], boolean, byte[],
+	 * int, int)} to the AES implementation of the Java platform's default cryptographic provider.  The
+	 * platform's implementation is typically much faster than the table-based implementation of this class
+	 * because it can use the AES instructions of the processor.  If the platform does not provide an
+	 * implementation of AES in ECB mode, the table-based implementation is used.
+	 * <p>
+	 * Only requests of at least 64 blocks are delegated, and the platform's cipher is initialised with the key
+	 * only when the first such request is made after the key has been set.  Initialising the platform's cipher
+	 * costs more than encrypting a few blocks with the table-based implementation, so a caller that changes
+	 * the key frequently and encrypts little data with each key (for example, a generator that rekeys after
+	 * every request) does not pay for it.
+	 * </p>
+	 * <p>
+	 * The encrypted data is the same whichever implementation is used.
+	 * </p>
+	 *
+	 * @param enabled  if {@code true}, the encryption of multiple blocks will be delegated to the platform's
+	 *                 AES implementation when it is available.
+	 * @see   #isJdkCipherEnabled()
+	 */
+
+	public void setJdkCipherEnabled(boolean enabled)
+	{
+		jdkCipherEnabled = enabled;
+		if (!enabled)
+		{
+			jdkCipher = null;
+			jdkCipherKeySet = false;
+		}
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * Sets the encryption keys of this cipher by expanding a specified cipher key.
 	 *
@@ -589,6 +898,10 @@ public class Aes256
 	public void setEncryptionKey(byte[] cipherKey)
 	{
 		encryptionKeys = createRoundKeys(cipherKey, false);
+		clearEncryptionCipherKey();
+		flatEncryptionKeys = flattenRoundKeys(encryptionKeys);
+		encryptionCipherKey = cipherKey.clone();
+		jdkCipherKeySet = false;
 	}
 
 	//------------------------------------------------------------------
@@ -663,6 +976,223 @@ public class Aes256
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Encrypts the specified number of consecutive 128-bit blocks of data with the encryption keys that have
+	 * been set on this cipher.  Each block is encrypted independently, as in electronic codebook (ECB) mode.
+	 * <p>
+	 * If the delegation of encryption to the platform's AES implementation is enabled, the implementation is
+	 * available and there are at least 64 blocks, the blocks are encrypted by it; otherwise, the blocks are
+	 * encrypted in groups of four by an interleaved version of the table-based implementation.
+	 * </p>
+	 *
+	 * @param  inData     the data that will be encrypted.
+	 * @param  inOffset   the offset of the start of the input data in {@code inData}.
+	 * @param  outBuffer  the buffer in which the encrypted data will be stored.
+	 * @param  outOffset  the offset in {@code outBuffer} at which the first byte of encrypted data will be
+	 *                    stored.
+	 * @param  numBlocks  the number of blocks that will be encrypted.
+	 * @throws IllegalArgumentException
+	 *           if {@code numBlocks} is negative.
+	 * @throws IllegalStateException
+	 *           if no encryption keys have been set on this cipher.
+	 * @see    #encryptBlock(byte[], int, byte[], int)
+	 * @see    #setJdkCipherEnabled(boolean)
+	 */
+
+	public void encryptBlocks(byte[] inData,
+							  int    inOffset,
+							  byte[] outBuffer,
+							  int    outOffset,
+							  int    numBlocks)
+	{
+		// Validate arguments
+		if (numBlocks < 0)
+			throw new IllegalArgumentException();
+		if (encryptionKeys == null)
+			throw new IllegalStateException();
+
+		// Encrypt blocks with platform's implementation, if available and if there are enough blocks to justify
+		// initialising it
+		Cipher cipher = (numBlocks < MIN_NUM_JDK_CIPHER_BLOCKS) ? null : getJdkCipher();
+		if (cipher != null)
+		{
+			try
+			{
+				cipher.update(inData, inOffset, numBlocks * BLOCK_SIZE, outBuffer, outOffset);
+				return;
+			}
+			catch (GeneralSecurityException e)
+			{
+				throw new UnexpectedRuntimeException(e);
+			}
+		}
+
+		// Encrypt groups of interleaved blocks
+		while (numBlocks >= NUM_INTERLEAVED_BLOCKS)
+		{
+			encryptInterleavedBlocks(inData, inOffset, outBuffer, outOffset, flatEncryptionKeys);
+			inOffset += NUM_INTERLEAVED_BLOCKS * BLOCK_SIZE;
+			outOffset += NUM_INTERLEAVED_BLOCKS * BLOCK_SIZE;
+			numBlocks -= NUM_INTERLEAVED_BLOCKS;
+		}
+
+		// Encrypt remaining blocks
+		while (numBlocks-- > 0)
+		{
+			encryptBlock(inData, inOffset, outBuffer, outOffset, flatEncryptionKeys);
+			inOffset += BLOCK_SIZE;
+			outOffset += BLOCK_SIZE;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Generates the specified number of bytes of keystream in counter (CTR) mode with the encryption keys
+	 * that have been set on this cipher, and stores the keystream in the specified buffer.
+	 * <p>
+	 * Each block of keystream is the encryption of the current value of the 128-bit counter block, which is
+	 * incremented after each block.  If {@code length} is not a multiple of the block size, the last block
+	 * of keystream is truncated, but the counter is still incremented past it.  On return, {@code counter}
+	 * contains the value of the counter for the next block.
+	 * </p>
+	 * <p>
+	 * The result is the same as that of encrypting each value of the counter with {@link
+	 * #encryptBlock(byte[], int, byte[], int)} in turn.
+	 * </p>
+	 *
+	 * @param  counter    the 128-bit counter block, which is updated by this method.
+	 * @param  bigEndian  if {@code true}, the counter is incremented as a big-endian integer, as is usual for
+	 *                    counter mode; otherwise, it is incremented as a little-endian integer.
+	 * @param  buffer     the buffer in which the keystream will be stored.
+	 * @param  offset     the offset in {@code buffer} at which the first byte of keystream will be stored.
+	 * @param  length     the number of bytes of keystream that will be generated.
+	 * @throws IllegalArgumentException
+	 *           if
+	 *           <ul>
+	 *             <li>{@code counter} is {@code null} or the length of {@code counter} is not 16, or</li>
+	 *             <li>{@code length} is negative.</li>
+	 *           </ul>
+	 * @throws IndexOutOfBoundsException
+	 *           if {@code offset} is negative or the keystream would extend beyond the end of {@code
+	 *           buffer}.
+	 * @throws IllegalStateException
+	 *           if no encryption keys have been set on this cipher.
+	 */
+
+	public void generateKeystream(byte[]  counter,
+								  boolean bigEndian,
+								  byte[]  buffer,
+								  int     offset,
+								  int     length)
+	{
+		// Validate arguments
+		if ((counter == null) || (counter.length != BLOCK_SIZE))
+			throw new IllegalArgumentException();
+		if (length < 0)
+			throw new IllegalArgumentException();
+		if ((offset < 0) || (length > buffer.length - offset))
+			throw new IndexOutOfBoundsException();
+		if (encryptionKeys == null)
+			throw new IllegalStateException();
+
+		// Allocate buffer for counter blocks
+		if (counterBuffer == null)
+			counterBuffer = new byte[NUM_KEYSTREAM_BLOCKS * BLOCK_SIZE];
+
+		// Generate keystream
+		int endOffset = offset + length;
+		while (offset < endOffset)
+		{
+			// Fill buffer with consecutive counter blocks
+			int numBlocks = Math.min((endOffset - offset + BLOCK_SIZE - 1) / BLOCK_SIZE, NUM_KEYSTREAM_BLOCKS);
+			for (int i = 0; i < numBlocks; i++)
+			{
+				System.arraycopy(counter, 0, counterBuffer, i * BLOCK_SIZE, BLOCK_SIZE);
+				incrementCounter(counter, bigEndian);
+			}
+
+			// Encrypt counter blocks
+			int blockLength = numBlocks * BLOCK_SIZE;
+			if (blockLength > endOffset - offset)
+			{
+				encryptBlocks(counterBuffer, 0, counterBuffer, 0, numBlocks);
+				System.arraycopy(counterBuffer, 0, buffer, offset, endOffset - offset);
+				offset = endOffset;
+			}
+			else
+			{
+				encryptBlocks(counterBuffer, 0, buffer, offset, numBlocks);
+				offset += blockLength;
+			}
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Zeroes and discards the copy of the cipher key and the flattened encryption keys that are kept for the
+	 * encryption of multiple blocks.
+	 */
+
+	private void clearEncryptionCipherKey()
+	{
+		if (encryptionCipherKey != null)
+		{
+			Arrays.fill(encryptionCipherKey, (byte)0);
+			encryptionCipherKey = null;
+		}
+		if (flatEncryptionKeys != null)
+		{
+			Arrays.fill(flatEncryptionKeys, 0);
+			flatEncryptionKeys = null;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the platform's implementation of AES in ECB mode, initialised for encryption with the cipher key
+	 * of this cipher, if delegation to it is enabled and it is available.
+	 *
+	 * @return the platform's implementation of AES in ECB mode, or {@code null} if delegation to it is not
+	 *         enabled or it is not available.
+	 */
+
+	private Cipher getJdkCipher()
+	{
+		// Test whether delegation is enabled
+		if (!jdkCipherEnabled || (encryptionCipherKey == null))
+			return null;
+
+		try
+		{
+			// Create platform's cipher
+			if (jdkCipher == null)
+			{
+				jdkCipher = Cipher.getInstance(JDK_CIPHER_TRANSFORMATION);
+				jdkCipherKeySet = false;
+			}
+
+			// Set key of platform's cipher
+			if (!jdkCipherKeySet)
+			{
+				jdkCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(encryptionCipherKey, JDK_CIPHER_ALGORITHM));
+				jdkCipherKeySet = true;
+			}
+		}
+		catch (GeneralSecurityException e)
+		{
+			// Platform's implementation is not available: use table-based implementation
+			jdkCipherEnabled = false;
+			jdkCipher = null;
+		}
+
+		return jdkCipher;
+	}
+
+	//------------------------------------------------------------------
+
 ////////////////////////////////////////////////////////////////////////
 //  Static initialiser
 ////////////////////////////////////////////////////////////////////////
@@ -722,6 +1252,12 @@ public class Aes256
 ////////////////////////////////////////////////////////////////////////
 
 	private	int[][]	encryptionKeys;
+	private	int[]	flatEncryptionKeys;
+	private	byte[]	encryptionCipherKey;
+	private	boolean	jdkCipherEnabled;
+	private	Cipher	jdkCipher;
+	private	boolean	jdkCipherKeySet;
+	private	byte[]	counterBuffer;
 	private	int[][]	decryptionKeys;
 
 }
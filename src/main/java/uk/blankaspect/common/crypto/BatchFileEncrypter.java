@@ -0,0 +1,1294 @@
+/*====================================================================*\
+
+BatchFileEncrypter.java
+
+Class: batch file encrypter.
+
+\*====================================================================*/
+
+
+// PACKAGE
+
+
+package uk.blankaspect.common.crypto;
+
+//----------------------------------------------------------------------
+
+
+// IMPORTS
+
+
+import java.io.File;
+import java.io.FileFilter;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.blankaspect.common.exception.AppException;
+import uk.blankaspect.common.exception.FileException;
+import uk.blankaspect.common.exception.TaskCancelledException;
+
+import uk.blankaspect.common.misc.IProgressListener;
+
+import uk.blankaspect.common.number.NumberUtils;
+
+import uk.blankaspect.common.thread.DaemonFactory;
+
+//----------------------------------------------------------------------
+
+
+// CLASS: BATCH FILE ENCRYPTER
+
+
+/**
+ * This class applies the encryption, decryption and validation operations of a {@link FileEncrypter} to a batch of
+ * files on a bounded pool of worker threads.
+ * <p>
+ * A batch may be specified as a list of pairs of input and output files or it may be obtained from a directory tree
+ * with {@link #getFiles(File, FileFilter)} or {@link #getFilePairs(File, File, FileFilter)}, whose filter may be a
+ * {@link uk.blankaspect.common.misc.PathnameFilter PathnameFilter}.  The progress of a batch operation is reported to
+ * the progress listeners of the batch encrypter as the fraction of the total length of the input files that has been
+ * processed.  An error that occurs when processing a file does not stop the operation: the error is recorded in the
+ * {@linkplain Result result} of the operation, and the remaining files are processed.  An operation may be cancelled
+ * with {@link #cancel()} or by a progress listener.
+ * </p>
+ * <p>
+ * When a batch of files is decrypted or validated and the file encrypter does not have a {@linkplain
+ * DerivedKeyCache cache of derived keys}, a cache is created for the operation, so that the key derivation function
+ * runs once for each distinct salt rather than once for each file.  When a batch of files is encrypted, the key
+ * derivation function must run for each file, because each file has its own salt.
+ * </p>
+ * <p>
+ * Several content-encryption keys may be derived concurrently.  The memory that is used by concurrent key
+ * derivations can be bounded with {@link Scrypt#setDefaultMemoryBudget(Scrypt.MemoryBudget)}.
+ * </p>
+ */
+
+public class BatchFileEncrypter
+{
+
+////////////////////////////////////////////////////////////////////////
+//  Constants
+////////////////////////////////////////////////////////////////////////
+
+	/** The minimum number of worker threads. */
+	public static final		int	MIN_NUM_THREADS	= 1;
+
+	/** The maximum number of worker threads. */
+	public static final		int	MAX_NUM_THREADS	= 64;
+
+	/** The maximum number of entries of a cache of derived keys that is created for a batch operation. */
+	private static final	int	MAX_NUM_CACHED_KEYS	= 16;
+
+	/** The size (in bytes) of the nonce of a batch in the input to the hash function. */
+	private static final	int	BATCH_NONCE_SIZE	= 32;
+
+	/** The size (in bytes) of the field that contains the index of a file in the input to the hash function. */
+	private static final	int	INDEX_FIELD_SIZE	= 4;
+
+////////////////////////////////////////////////////////////////////////
+//  Enumerated types
+////////////////////////////////////////////////////////////////////////
+
+
+	// ERROR IDENTIFIERS
+
+
+	private enum ErrorId
+		implements AppException.IId
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constants
+	////////////////////////////////////////////////////////////////////
+
+		NOT_A_DIRECTORY
+		("The pathname does not denote a directory."),
+
+		FAILED_TO_LIST_DIRECTORY
+		("Failed to get a list of the entries of the directory."),
+
+		FAILED_TO_CREATE_DIRECTORY
+		("Failed to create the directory."),
+
+		UNEXPECTED_ERROR
+		("An unexpected error occurred when processing the file.");
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private ErrorId(String message)
+		{
+			this.message = message;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : AppException.IId interface
+	////////////////////////////////////////////////////////////////////
+
+		public String getMessage()
+		{
+			return message;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	String	message;
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Member interfaces
+////////////////////////////////////////////////////////////////////////
+
+
+	// FILE OPERATION INTERFACE
+
+
+	/**
+	 * This functional interface defines the method that applies an operation of a file encrypter to a single file.
+	 */
+
+	@FunctionalInterface
+	private interface IFileOperation
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Methods
+	////////////////////////////////////////////////////////////////////
+
+		void process(int               index,
+					 IProgressListener progressListener)
+			throws AppException;
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Member classes : non-inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// FILE PAIR CLASS
+
+
+	/**
+	 * This class encapsulates an input file and the corresponding output file of an encryption or decryption
+	 * operation.
+	 */
+
+	public static class FilePair
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	File	inFile;
+		private	File	outFile;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a pair of files.
+		 *
+		 * @param  inFile
+		 *           the input file.
+		 * @param  outFile
+		 *           the output file.
+		 * @throws IllegalArgumentException
+		 *           if {@code inFile} or {@code outFile} is {@code null}.
+		 */
+
+		public FilePair(File inFile,
+						File outFile)
+		{
+			// Validate arguments
+			if (inFile == null)
+				throw new IllegalArgumentException("Null input file");
+			if (outFile == null)
+				throw new IllegalArgumentException("Null output file");
+
+			// Initialise instance variables
+			this.inFile = inFile;
+			this.outFile = outFile;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns the input file.
+		 *
+		 * @return the input file.
+		 */
+
+		public File getInFile()
+		{
+			return inFile;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the output file.
+		 *
+		 * @return the output file.
+		 */
+
+		public File getOutFile()
+		{
+			return outFile;
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// FILE ERROR CLASS
+
+
+	/**
+	 * This class encapsulates an error that occurred when processing a file of a batch.
+	 */
+
+	public static class FileError
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	File			file;
+		private	AppException	exception;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private FileError(File         file,
+						  AppException exception)
+		{
+			this.file = file;
+			this.exception = exception;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns the input file whose processing caused the error.
+		 *
+		 * @return the input file whose processing caused the error.
+		 */
+
+		public File getFile()
+		{
+			return file;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the exception that was thrown when the file was processed.
+		 *
+		 * @return the exception that was thrown when the file was processed.
+		 */
+
+		public AppException getException()
+		{
+			return exception;
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// RESULT CLASS
+
+
+	/**
+	 * This class encapsulates the result of a batch operation.
+	 */
+
+	public static class Result
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	int				numFiles;
+		private	int				numProcessedFiles;
+		private	List<FileError>	errors;
+		private	boolean			cancelled;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private Result(int             numFiles,
+					   int             numProcessedFiles,
+					   List<FileError> errors,
+					   boolean         cancelled)
+		{
+			this.numFiles = numFiles;
+			this.numProcessedFiles = numProcessedFiles;
+			this.errors = Collections.unmodifiableList(errors);
+			this.cancelled = cancelled;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns the number of files in the batch.
+		 *
+		 * @return the number of files in the batch.
+		 */
+
+		public int getNumFiles()
+		{
+			return numFiles;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the number of files that were processed without error.
+		 *
+		 * @return the number of files that were processed without error.
+		 */
+
+		public int getNumProcessedFiles()
+		{
+			return numProcessedFiles;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the errors that occurred when processing the files of the batch, in the order of the files.
+		 *
+		 * @return an unmodifiable list of the errors that occurred when processing the files of the batch.
+		 */
+
+		public List<FileError> getErrors()
+		{
+			return errors;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns {@code true} if the operation was cancelled before all the files of the batch were processed.
+		 *
+		 * @return {@code true} if the operation was cancelled.
+		 */
+
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Member classes : inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// FILE PROGRESS CLASS
+
+
+	/**
+	 * This class implements a progress listener for a single file of a batch.  It contributes the progress of the
+	 * file to the aggregate progress of the batch, and it reports the cancellation of the batch to the file
+	 * encrypter.
+	 */
+
+	private class FileProgress
+		implements IProgressListener
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	Batch	batch;
+		private	double	weight;
+		private	double	fractionDone;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private FileProgress(Batch  batch,
+							 double weight)
+		{
+			this.batch = batch;
+			this.weight = weight;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : IProgressListener interface
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public void setProgress(double fractionDone)
+		{
+			batch.updateProgress(this, fractionDone);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public boolean isTaskCancelled()
+		{
+			return batch.testCancelled();
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// BATCH CLASS
+
+
+	/**
+	 * This class encapsulates the state of a batch operation that is shared by the worker threads.  Each invocation
+	 * of a batch operation has its own instance, so concurrent operations on the same batch encrypter are cancelled
+	 * independently.  When a batch is cancelled, the worker threads that are processing its files are interrupted,
+	 * which stops any key derivation that is in progress.
+	 */
+
+	private class Batch
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	double		totalWeight;
+		private	double		weightDone;
+		private	Set<Thread>	workers;
+
+		private volatile	boolean	cancelled;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private Batch(double totalWeight)
+		{
+			this.totalWeight = totalWeight;
+			workers = new HashSet<>();
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Updates the progress of a file of this batch and notifies the progress listeners of the batch encrypter of
+		 * the aggregate progress of the batch.
+		 *
+		 * @param fileProgress
+		 *          the progress of the file.
+		 * @param fractionDone
+		 *          the fraction of the file that has been processed.
+		 */
+
+		private synchronized void updateProgress(FileProgress fileProgress,
+												 double       fractionDone)
+		{
+			fractionDone = Math.min(Math.max(0.0, fractionDone), 1.0);
+			weightDone += (fractionDone - fileProgress.fractionDone) * fileProgress.weight;
+			fileProgress.fractionDone = fractionDone;
+
+			double progress = (totalWeight == 0.0) ? 1.0 : Math.min(weightDone / totalWeight, 1.0);
+			for (IProgressListener listener : progressListeners)
+				listener.setProgress(progress);
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns {@code true} if this batch operation has been cancelled, either with {@link #cancel()} or by a
+		 * progress listener.
+		 *
+		 * @return {@code true} if this batch operation has been cancelled.
+		 */
+
+		private boolean testCancelled()
+		{
+			if (!cancelled)
+			{
+				for (IProgressListener listener : progressListeners)
+				{
+					if (listener.isTaskCancelled())
+					{
+						cancel();
+						break;
+					}
+				}
+			}
+			return cancelled;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Cancels this batch operation and interrupts the worker threads that are processing its files.
+		 */
+
+		private void cancel()
+		{
+			synchronized (workers)
+			{
+				cancelled = true;
+				for (Thread worker : workers)
+					worker.interrupt();
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Registers the current thread as a worker that is processing a file of this batch.
+		 *
+		 * @return {@code true} if the thread was registered; {@code false} if this batch has been cancelled.
+		 */
+
+		private boolean addWorker()
+		{
+			synchronized (workers)
+			{
+				if (cancelled)
+					return false;
+				workers.add(Thread.currentThread());
+				return true;
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Deregisters the current thread as a worker of this batch.  If this batch has been cancelled, the interrupt
+		 * status of the thread is cleared, because the thread may have been interrupted by {@link #cancel()}.
+		 */
+
+		private void removeWorker()
+		{
+			synchronized (workers)
+			{
+				workers.remove(Thread.currentThread());
+				if (cancelled)
+					Thread.interrupted();
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Constructors
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Creates a batch file encrypter that applies the operations of the specified file encrypter to batches of
+	 * files.
+	 *
+	 * @param  encrypter
+	 *           the file encrypter that will encrypt, decrypt or validate each file of a batch.
+	 * @param  numThreads
+	 *           the maximum number of worker threads that will process the files of a batch concurrently.
+	 * @throws IllegalArgumentException
+	 *           if
+	 *           <ul>
+	 *             <li>{@code encrypter} is {@code null}, or</li>
+	 *             <li>{@code numThreads} is less than {@link #MIN_NUM_THREADS} or greater than {@link
+	 *                 #MAX_NUM_THREADS}.</li>
+	 *           </ul>
+	 */
+
+	public BatchFileEncrypter(FileEncrypter encrypter,
+							  int           numThreads)
+	{
+		// Validate arguments
+		if (encrypter == null)
+			throw new IllegalArgumentException("Null encrypter");
+		if ((numThreads < MIN_NUM_THREADS) || (numThreads > MAX_NUM_THREADS))
+			throw new IllegalArgumentException("Number of threads out of bounds: " + numThreads);
+
+		// Initialise instance variables
+		this.encrypter = encrypter;
+		this.numThreads = numThreads;
+		progressListeners = new CopyOnWriteArrayList<>();
+		batches = new HashSet<>();
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Class methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Returns a list of the files in the directory tree whose root is the specified directory that are accepted by
+	 * the specified filter.  The files of each directory are listed before the files of its subdirectories.  Symbolic
+	 * links to directories are not followed.
+	 *
+	 * @param  directory
+	 *           the root of the directory tree.
+	 * @param  filter
+	 *           the filter that will be applied to the normal files of the directory tree, or {@code null} to accept
+	 *           all normal files.
+	 * @return a list of the files in the directory tree that are accepted by {@code filter}.
+	 * @throws AppException
+	 *           if {@code directory} does not denote a directory or if the entries of a directory could not be
+	 *           obtained.
+	 */
+
+	public static List<File> getFiles(File       directory,
+									  FileFilter filter)
+		throws AppException
+	{
+		if (!directory.isDirectory())
+			throw new FileException(ErrorId.NOT_A_DIRECTORY, directory);
+
+		List<File> files = new ArrayList<>();
+		addFiles(directory, filter, files);
+		return files;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns a list of pairs of files for the files in the directory tree whose root is the specified input
+	 * directory that are accepted by the specified filter.  The output file of each pair has the same pathname
+	 * relative to the output directory as the input file has relative to the input directory.  The output
+	 * directories are created when the files are processed.
+	 *
+	 * @param  inDirectory
+	 *           the root of the input directory tree.
+	 * @param  outDirectory
+	 *           the root of the output directory tree.
+	 * @param  filter
+	 *           the filter that will be applied to the normal files of the input directory tree, or {@code null} to
+	 *           accept all normal files.
+	 * @return a list of pairs of files for the files in the input directory tree that are accepted by {@code
+	 *         filter}.
+	 * @throws AppException
+	 *           if {@code inDirectory} does not denote a directory or if the entries of a directory could not be
+	 *           obtained.
+	 */
+
+	public static List<FilePair> getFilePairs(File       inDirectory,
+											  File       outDirectory,
+											  FileFilter filter)
+		throws AppException
+	{
+		List<FilePair> filePairs = new ArrayList<>();
+		Path inPath = inDirectory.getAbsoluteFile().toPath();
+		for (File file : getFiles(inDirectory, filter))
+		{
+			Path relativePath = inPath.relativize(file.getAbsoluteFile().toPath());
+			filePairs.add(new FilePair(file, new File(outDirectory, relativePath.toString())));
+		}
+		return filePairs;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Adds the files in the directory tree whose root is the specified directory that are accepted by the specified
+	 * filter to the specified list.
+	 *
+	 * @param  directory
+	 *           the root of the directory tree.
+	 * @param  filter
+	 *           the filter that will be applied to the normal files of the directory tree, or {@code null} to accept
+	 *           all normal files.
+	 * @param  files
+	 *           the list to which the files will be added.
+	 * @throws AppException
+	 *           if the entries of a directory could not be obtained.
+	 */
+
+	private static void addFiles(File       directory,
+								 FileFilter filter,
+								 List<File> files)
+		throws AppException
+	{
+		// Get entries of directory
+		File[] entries = null;
+		try
+		{
+			entries = directory.getAbsoluteFile().listFiles();
+		}
+		catch (SecurityException e)
+		{
+			throw new FileException(ErrorId.FAILED_TO_LIST_DIRECTORY, directory, e);
+		}
+		if (entries == null)
+			throw new FileException(ErrorId.FAILED_TO_LIST_DIRECTORY, directory);
+
+		// Add files, then descend into subdirectories; symbolic links to directories are not followed
+		List<File> directories = new ArrayList<>();
+		for (File entry : entries)
+		{
+			if (Files.isDirectory(entry.toPath(), LinkOption.NOFOLLOW_LINKS))
+				directories.add(entry);
+			else if (entry.isFile() && ((filter == null) || filter.accept(entry)))
+				files.add(entry);
+		}
+		for (File subdirectory : directories)
+			addFiles(subdirectory, filter, files);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Creates the parent directory of the specified file if it does not exist.
+	 *
+	 * @param  file
+	 *           the file whose parent directory will be created.
+	 * @throws AppException
+	 *           if the directory could not be created.
+	 */
+
+	private static void createParentDirectory(File file)
+		throws AppException
+	{
+		File directory = file.getAbsoluteFile().getParentFile();
+		try
+		{
+			// Another thread may create the directory concurrently, so test for it again after a failure
+			if ((directory != null) && !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+				throw new FileException(ErrorId.FAILED_TO_CREATE_DIRECTORY, directory);
+		}
+		catch (SecurityException e)
+		{
+			throw new FileException(ErrorId.FAILED_TO_CREATE_DIRECTORY, directory, e);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the random key of the file at the specified index of a batch, which is the HMAC-SHA256 hash value of
+	 * the nonce of the batch followed by the index, keyed with the random key of the batch.
+	 *
+	 * @param  randomKey
+	 *           the random key of the batch.
+	 * @param  batchNonce
+	 *           the nonce of the batch.
+	 * @param  index
+	 *           the index of the file in the batch.
+	 * @return the random key of the file at {@code index}.
+	 */
+
+	private static byte[] getRandomKey(byte[] randomKey,
+									   byte[] batchNonce,
+									   int    index)
+	{
+		byte[] data = Arrays.copyOf(batchNonce, BATCH_NONCE_SIZE + INDEX_FIELD_SIZE);
+		NumberUtils.intToBytesLE(index, data, BATCH_NONCE_SIZE, INDEX_FIELD_SIZE);
+		return new HmacSha256(randomKey).getValue(data);
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Returns the file encrypter that is applied to each file of a batch.
+	 *
+	 * @return the file encrypter that is applied to each file of a batch.
+	 */
+
+	public FileEncrypter getEncrypter()
+	{
+		return encrypter;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the maximum number of worker threads that process the files of a batch concurrently.
+	 *
+	 * @return the maximum number of worker threads.
+	 */
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Adds the specified progress listener to this batch encrypter's list of listeners.  The listeners are notified
+	 * of the aggregate progress of a batch operation, possibly from several worker threads, although not
+	 * concurrently.  If any listener reports that the task has been cancelled, the batch operation is cancelled.
+	 *
+	 * @param listener
+	 *          the progress listener that will be added to the list.
+	 * @see   #removeProgressListener(IProgressListener)
+	 */
+
+	public void addProgressListener(IProgressListener listener)
+	{
+		progressListeners.add(listener);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Removes the specified progress listener from this batch encrypter's list of listeners.
+	 *
+	 * @param listener
+	 *          the progress listener that will be removed from the list.
+	 * @see   #addProgressListener(IProgressListener)
+	 */
+
+	public void removeProgressListener(IProgressListener listener)
+	{
+		progressListeners.remove(listener);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Requests the cancellation of the batch operations that are in progress.  The files that are being processed
+	 * when this method is called are abandoned, and the remaining files are not processed.  If no batch operation is
+	 * in progress, the next batch operation is cancelled before it processes any files.
+	 */
+
+	public void cancel()
+	{
+		synchronized (batches)
+		{
+			if (batches.isEmpty())
+				cancelPending = true;
+			else
+			{
+				for (Batch batch : batches)
+					batch.cancel();
+			}
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns {@code true} if the cancellation of a batch operation that is in progress, or of the next batch
+	 * operation, has been requested.
+	 *
+	 * @return {@code true} if the cancellation of a batch operation has been requested.
+	 */
+
+	public boolean isCancelled()
+	{
+		synchronized (batches)
+		{
+			if (cancelPending)
+				return true;
+			for (Batch batch : batches)
+			{
+				if (batch.cancelled)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Encrypts each input file of the specified list of pairs of files and writes the resulting ciphertext to the
+	 * corresponding output file.
+	 * <p>
+	 * The random key of each file is derived from the specified random key, a nonce that is generated for the batch
+	 * from the high-resolution timer and the index of the file in the list, so that each file is encrypted with its
+	 * own salt and padding.  The nonce prevents two batches that are encrypted with the same random key from
+	 * repeating the salts and padding of each other's files, but it does not make up for a weak random key: the
+	 * random key should be fresh random data from a cryptographically secure source and should not be reused.
+	 * </p>
+	 *
+	 * @param  filePairs
+	 *           the pairs of input and output files.
+	 * @param  key
+	 *           if the file encrypter has key derivation function (KDF) parameters, the key from which the
+	 *           content-encryption key (CEK) of each file will be derived; otherwise, the key that will be used as the
+	 *           CEK.
+	 * @param  randomKey
+	 *           the key from which the seed of the pseudo-random number generator of each file will be derived.
+	 * @return the result of the operation.
+	 * @throws IllegalArgumentException
+	 *           if {@code randomKey} is {@code null}.
+	 * @see    FileEncrypter#encrypt(java.io.File, java.io.File, byte[], byte[])
+	 */
+
+	public Result encrypt(List<FilePair> filePairs,
+						  byte[]         key,
+						  byte[]         randomKey)
+	{
+		// Validate arguments
+		if (randomKey == null)
+			throw new IllegalArgumentException("Null random key");
+
+		// Generate nonce of batch
+		byte[] batchNonce = CryptoUtils.getSeedFromNanoTime(BATCH_NONCE_SIZE);
+
+		// Encrypt files
+		List<File> inFiles = new ArrayList<>();
+		for (FilePair filePair : filePairs)
+			inFiles.add(filePair.inFile);
+
+		return process(inFiles, encrypter, (index, progressListener) ->
+		{
+			FilePair filePair = filePairs.get(index);
+			createParentDirectory(filePair.outFile);
+			encrypter.encrypt(filePair.inFile, filePair.outFile, key, getRandomKey(randomKey, batchNonce, index), null,
+							  progressListener);
+		});
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Decrypts each input file of the specified list of pairs of files and writes the resulting plaintext to the
+	 * corresponding output file.
+	 *
+	 * @param  filePairs
+	 *           the pairs of input and output files.
+	 * @param  key
+	 *           if the file encrypter has key derivation function (KDF) parameters, the key from which the
+	 *           content-encryption key (CEK) of each file will be derived; otherwise, the key that will be used as the
+	 *           CEK.
+	 * @return the result of the operation.
+	 * @see    FileEncrypter#decrypt(java.io.File, java.io.File, byte[])
+	 */
+
+	public Result decrypt(List<FilePair> filePairs,
+						  byte[]         key)
+	{
+		List<File> inFiles = new ArrayList<>();
+		for (FilePair filePair : filePairs)
+			inFiles.add(filePair.inFile);
+
+		FileEncrypter encrypter = getCachingEncrypter();
+		try
+		{
+			return process(inFiles, encrypter, (index, progressListener) ->
+			{
+				// Decrypt with a copy of the encrypter, whose header receives the supplementary data of the file
+				FilePair filePair = filePairs.get(index);
+				createParentDirectory(filePair.outFile);
+				new FileEncrypter(encrypter).decrypt(filePair.inFile, filePair.outFile, key, null, progressListener);
+			});
+		}
+		finally
+		{
+			if (encrypter != this.encrypter)
+				encrypter.getDerivedKeyCache().clear();
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Validates each of the specified files by decrypting it and discarding the resulting plaintext.
+	 *
+	 * @param  files
+	 *           the files that will be validated.
+	 * @param  key
+	 *           if the file encrypter has key derivation function (KDF) parameters, the key from which the
+	 *           content-encryption key (CEK) of each file will be derived; otherwise, the key that will be used as the
+	 *           CEK.
+	 * @return the result of the operation.
+	 * @see    FileEncrypter#validate(java.io.File, byte[])
+	 */
+
+	public Result validate(List<File> files,
+						   byte[]     key)
+	{
+		FileEncrypter encrypter = getCachingEncrypter();
+		try
+		{
+			return process(files, encrypter, (index, progressListener) ->
+					new FileEncrypter(encrypter).validate(files.get(index), key, null, progressListener));
+		}
+		finally
+		{
+			if (encrypter != this.encrypter)
+				encrypter.getDerivedKeyCache().clear();
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns a file encrypter that caches derived keys: the file encrypter of this object if it has a cache of
+	 * derived keys, otherwise a copy of it with a new cache.
+	 *
+	 * @return a file encrypter that caches derived keys.
+	 */
+
+	private FileEncrypter getCachingEncrypter()
+	{
+		if (encrypter.getDerivedKeyCache() != null)
+			return encrypter;
+
+		FileEncrypter cachingEncrypter = new FileEncrypter(encrypter);
+		cachingEncrypter.setDerivedKeyCache(new DerivedKeyCache(MAX_NUM_CACHED_KEYS, 0));
+		return cachingEncrypter;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Applies the specified operation to each of the specified files on a pool of worker threads, and waits for the
+	 * operation to finish.
+	 *
+	 * @param  inFiles
+	 *           the input files of the batch.
+	 * @param  encrypter
+	 *           the file encrypter that will be applied to the files.
+	 * @param  operation
+	 *           the operation that will be applied to each file.
+	 * @return the result of the operation.
+	 */
+
+	private Result process(List<File>     inFiles,
+						   FileEncrypter  encrypter,
+						   IFileOperation operation)
+	{
+		// Create batch from lengths of input files
+		int numFiles = inFiles.size();
+		double[] weights = new double[numFiles];
+		double totalWeight = 0.0;
+		for (int i = 0; i < numFiles; i++)
+		{
+			weights[i] = Math.max(1.0, (double)inFiles.get(i).length());
+			totalWeight += weights[i];
+		}
+		Batch batch = new Batch(totalWeight);
+
+		// Register batch, taking over any cancellation that was requested before the operation started
+		synchronized (batches)
+		{
+			batch.cancelled = cancelPending;
+			cancelPending = false;
+			batches.add(batch);
+		}
+
+		// Submit a task for each file to a pool of worker threads
+		AppException[] exceptions = new AppException[numFiles];
+		boolean[] processed = new boolean[numFiles];
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, Math.max(1, numFiles)),
+				runnable -> DaemonFactory.create(getClass().getSimpleName() + "-" + threadIndex.getAndIncrement(),
+												 runnable));
+		List<Future<?>> futures = new ArrayList<>();
+		try
+		{
+			for (int i = 0; i < numFiles; i++)
+			{
+				int index = i;
+				futures.add(executor.submit(() ->
+				{
+					if (batch.testCancelled() || !batch.addWorker())
+						return;
+
+					FileProgress fileProgress = new FileProgress(batch, weights[index]);
+					try
+					{
+						operation.process(index, fileProgress);
+						processed[index] = true;
+					}
+					catch (TaskCancelledException e)
+					{
+						batch.cancel();
+					}
+					catch (AppException e)
+					{
+						// An error that results from the interruption of a cancelled batch is not reported
+						if (!batch.cancelled)
+							exceptions[index] = e;
+					}
+					catch (RuntimeException | OutOfMemoryError e)
+					{
+						if (!batch.cancelled)
+							exceptions[index] = new FileException(ErrorId.UNEXPECTED_ERROR, inFiles.get(index), e);
+					}
+					finally
+					{
+						batch.removeWorker();
+						batch.updateProgress(fileProgress, 1.0);
+					}
+				}));
+			}
+
+			// Wait for tasks to finish
+			for (int i = 0; i < numFiles; i++)
+			{
+				try
+				{
+					futures.get(i).get();
+				}
+				catch (ExecutionException e)
+				{
+					// Each task catches its own exceptions, so any other exception is an unexpected error
+					Throwable cause = e.getCause();
+					exceptions[i] = (cause instanceof AppException)
+											? (AppException)cause
+											: new FileException(ErrorId.UNEXPECTED_ERROR, inFiles.get(i), cause);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			batch.cancel();
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			// Stop the worker threads, and wait for them to terminate so that the results of the tasks are complete
+			executor.shutdownNow();
+			awaitTermination(executor);
+
+			// Deregister batch
+			synchronized (batches)
+			{
+				batches.remove(batch);
+			}
+		}
+
+		// Collect results of tasks
+		int numProcessedFiles = 0;
+		List<FileError> errors = new ArrayList<>();
+		for (int i = 0; i < numFiles; i++)
+		{
+			if (processed[i])
+				++numProcessedFiles;
+			else if (exceptions[i] != null)
+				errors.add(new FileError(inFiles.get(i), exceptions[i]));
+		}
+		boolean incomplete = (numProcessedFiles + errors.size() < numFiles);
+		return new Result(numFiles, numProcessedFiles, errors, batch.cancelled && incomplete);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Waits for the specified executor to terminate.  If the current thread is interrupted while it is waiting, the
+	 * wait continues and the interrupted status of the thread is restored when the executor has terminated.
+	 *
+	 * @param executor
+	 *          the executor whose termination will be awaited.
+	 */
+
+	private static void awaitTermination(ExecutorService executor)
+	{
+		boolean interrupted = Thread.interrupted();
+		while (true)
+		{
+			try
+			{
+				if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS))
+					break;
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Class variables
+////////////////////////////////////////////////////////////////////////
+
+	private static final	AtomicInteger	threadIndex	= new AtomicInteger();
+
+////////////////////////////////////////////////////////////////////////
+//  Instance variables
+////////////////////////////////////////////////////////////////////////
+
+	private	FileEncrypter			encrypter;
+	private	int						numThreads;
+	private	List<IProgressListener>	progressListeners;
+	private	Set<Batch>				batches;
+	private	boolean					cancelPending;
+
+}
+
+//----------------------------------------------------------------------
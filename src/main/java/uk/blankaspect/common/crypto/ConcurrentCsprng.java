@@ -0,0 +1,403 @@
+/*====================================================================*\
+
+ConcurrentCsprng.java
+
+Concurrent cryptographically secure pseudo-random number generator class.
+
+\*====================================================================*/
+
+
+// PACKAGE
+
+
+package uk.blankaspect.common.crypto;
+
+//----------------------------------------------------------------------
+
+
+// IMPORTS
+
+
+import java.util.Arrays;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+//----------------------------------------------------------------------
+
+
+// CONCURRENT CRYPTOGRAPHICALLY SECURE PSEUDO-RANDOM NUMBER GENERATOR CLASS
+
+
+/**
+ * This class implements a cryptographically secure pseudo-random number generator (PRNG) that may be used by
+ * many threads concurrently.  It comprises a set of independent Fortuna PRNGs (<i>stripes</i>), each of which
+ * is seeded with random data from a shared root PRNG.  Each thread that requests random data is mapped to one
+ * of the stripes, and only the threads that are mapped to the same stripe contend for it, so the throughput
+ * of the generator increases with the number of stripes.
+ * <p>
+ * A concurrent CSPRNG is a consumer of entropy: if it is added to the list of entropy consumers of an {@link
+ * EntropyAccumulator}, the random data from the accumulator is distributed among the entropy pools of the
+ * stripes in turn, so that each stripe reseeds itself independently.
+ * </p>
+ *
+ * @see StandardCsprng#createConcurrentCsprng(int)
+ */
+
+public class ConcurrentCsprng
+	implements IEntropyConsumer
+{
+
+////////////////////////////////////////////////////////////////////////
+//  Constants
+////////////////////////////////////////////////////////////////////////
+
+	/** The minimum number of stripes. */
+	public static final		int	MIN_NUM_STRIPES	= 1;
+
+	/** The maximum number of stripes. */
+	public static final		int	MAX_NUM_STRIPES	= 256;
+
+	/** The multiplier that is used to spread the identifiers of threads over the stripes. */
+	private static final	long	THREAD_ID_MULTIPLIER	= 0x9E3779B97F4A7C15L;
+
+////////////////////////////////////////////////////////////////////////
+//  Constructors
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Creates a concurrent cryptographically secure PRNG with a number of stripes that is the number of
+	 * available processors, limited to 256, rounded up to a power of 2.  The root PRNG is seeded from the
+	 * Java virtual machine's high-resolution timer.
+	 *
+	 * @param  cipher
+	 *           the kind of cipher that will be used by the stripes.
+	 * @throws IllegalArgumentException
+	 *           if {@code cipher} is {@code null}.
+	 */
+
+	public ConcurrentCsprng(FortunaCipher cipher)
+	{
+		this(cipher, Math.min(Runtime.getRuntime().availableProcessors(), MAX_NUM_STRIPES));
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Creates a concurrent cryptographically secure PRNG with the specified number of stripes.  The root PRNG
+	 * is seeded from the Java virtual machine's high-resolution timer.
+	 *
+	 * @param  cipher
+	 *           the kind of cipher that will be used by the stripes.
+	 * @param  numStripes
+	 *           the minimum number of stripes.  The number of stripes is rounded up to a power of 2.
+	 * @throws IllegalArgumentException
+	 *           if {@code cipher} is {@code null} or {@code numStripes} is less than 1 or greater than 256.
+	 */
+
+	public ConcurrentCsprng(FortunaCipher cipher,
+							int           numStripes)
+	{
+		this(cipher, numStripes, createRoot(cipher));
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Creates a concurrent cryptographically secure PRNG with the specified number of stripes, each of which
+	 * is seeded with random data from the specified root PRNG.  The root PRNG is used only by this
+	 * constructor, during which it is locked.  The lock excludes only other users of {@code root} that lock
+	 * it too, so a root PRNG that may be used concurrently by other threads must be used by them only while
+	 * they hold its lock.
+	 *
+	 * @param  cipher
+	 *           the kind of cipher that will be used by the stripes.
+	 * @param  numStripes
+	 *           the minimum number of stripes.  The number of stripes is rounded up to a power of 2.
+	 * @param  root
+	 *           the PRNG from which the seeds of the stripes will be generated.
+	 * @throws IllegalArgumentException
+	 *           if {@code cipher} or {@code root} is {@code null}, or {@code numStripes} is less than 1 or
+	 *           greater than 256.
+	 * @throws IllegalStateException
+	 *           if {@code root} has not been seeded.
+	 */
+
+	public ConcurrentCsprng(FortunaCipher cipher,
+							int           numStripes,
+							Fortuna       root)
+	{
+		// Validate arguments
+		if (cipher == null)
+			throw new IllegalArgumentException("Null cipher");
+		if ((numStripes < MIN_NUM_STRIPES) || (numStripes > MAX_NUM_STRIPES))
+			throw new IllegalArgumentException("Number of stripes out of bounds: " + numStripes);
+		if (root == null)
+			throw new IllegalArgumentException("Null root PRNG");
+
+		// Round number of stripes up to a power of 2
+		int numStripes0 = Integer.highestOneBit(numStripes);
+		if (numStripes0 < numStripes)
+			numStripes0 <<= 1;
+
+		// Initialise instance variables
+		stripes = new Fortuna[numStripes0];
+		stripeMask = numStripes0 - 1;
+		entropyStripeIndex = new AtomicInteger();
+
+		// Create stripes, each seeded from the root PRNG
+		byte[] seed = new byte[cipher.getKeySize()];
+		synchronized (root)
+		{
+			for (int i = 0; i < stripes.length; i++)
+			{
+				root.getRandomBytes(seed);
+				stripes[i] = cipher.createPrng(seed);
+			}
+		}
+		Arrays.fill(seed, (byte)0);
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Class methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Creates and returns a root PRNG for the specified kind of cipher that is seeded from the Java virtual
+	 * machine's high-resolution timer.
+	 *
+	 * @param  cipher
+	 *           the kind of cipher that will be used by the PRNG.
+	 * @return a root PRNG for {@code cipher}, or {@code null} if {@code cipher} is {@code null}.
+	 */
+
+	private static Fortuna createRoot(FortunaCipher cipher)
+	{
+		return (cipher == null) ? null : cipher.createPrng(CryptoUtils.getSeedFromNanoTime(cipher.getKeySize()));
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance methods : IEntropyConsumer interface
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Adds the specified byte of random data to the entropy pools of the next stripe in turn.
+	 *
+	 * @param b  the byte of random data that will be added to the entropy pools of a stripe.
+	 */
+
+	@Override
+	public void addRandomByte(byte b)
+	{
+		Fortuna prng = getEntropyStripe();
+		synchronized (prng)
+		{
+			prng.addRandomByte(b);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Adds the specified number of bytes of random data to the entropy pools of the next stripe in turn.
+	 *
+	 * @param data    the random data that will be added to the entropy pools of a stripe.
+	 * @param offset  the offset of the start of the random data in {@code data}.
+	 * @param length  the number of bytes of random data to add.
+	 */
+
+	@Override
+	public void addRandomBytes(byte[] data,
+							   int    offset,
+							   int    length)
+	{
+		Fortuna prng = getEntropyStripe();
+		synchronized (prng)
+		{
+			prng.addRandomBytes(data, offset, length);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Returns the number of stripes of this concurrent CSPRNG.
+	 *
+	 * @return the number of stripes of this concurrent CSPRNG.
+	 */
+
+	public int getNumStripes()
+	{
+		return stripes.length;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Generates and returns a random byte.
+	 *
+	 * @return a random byte.
+	 */
+
+	public byte getRandomByte()
+	{
+		Fortuna prng = getStripe();
+		synchronized (prng)
+		{
+			return prng.getRandomByte();
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Generates and returns the specified number of random bytes, which are stored in a buffer that is
+	 * allocated by this method.
+	 *
+	 * @param  length  the number of bytes to generate.
+	 * @return a buffer containing {@code length} random bytes.
+	 * @throws IllegalArgumentException
+	 *           if {@code length} is negative or greater than 2<sup>20</sup> (1048576).
+	 */
+
+	public byte[] getRandomBytes(int length)
+	{
+		if ((length < 0) || (length > Fortuna.MAX_BLOCK_SIZE))
+			throw new IllegalArgumentException();
+
+		byte[] buffer = new byte[length];
+		getRandomBytes(buffer, 0, length);
+		return buffer;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Generates random bytes and stores them in the specified buffer.  The number of bytes generated is equal
+	 * to the length of the buffer.
+	 *
+	 * @param  buffer  the buffer in which the random data will be stored.
+	 * @throws IllegalArgumentException
+	 *           if {@code buffer} is {@code null} or the length of {@code buffer} is greater than
+	 *           2<sup>20</sup> (1048576).
+	 */
+
+	public void getRandomBytes(byte[] buffer)
+	{
+		if (buffer == null)
+			throw new IllegalArgumentException("Null buffer");
+
+		getRandomBytes(buffer, 0, buffer.length);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Generates the specified number of random bytes and stores them in the specified buffer.
+	 *
+	 * @param  buffer  the buffer in which the random data will be stored.
+	 * @param  offset  the offset in {@code buffer} at which the first byte of random data will be stored.
+	 * @param  length  the number of bytes to generate.
+	 * @throws IllegalArgumentException
+	 *           if
+	 *           <ul>
+	 *             <li>{@code buffer} is {@code null}, or</li>
+	 *             <li>{@code length} is negative or greater than 2<sup>20</sup> (1048576), or</li>
+	 *             <li>{@code offset} + {@code length} is greater than the length of {@code buffer}.</li>
+	 *           </ul>
+	 * @throws IndexOutOfBoundsException
+	 *           if {@code offset} is negative or greater than the length of {@code buffer}.
+	 */
+
+	public void getRandomBytes(byte[] buffer,
+							   int    offset,
+							   int    length)
+	{
+		Fortuna prng = getStripe();
+		synchronized (prng)
+		{
+			prng.getRandomBytes(buffer, offset, length);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Generates and returns a random 32-bit integer.
+	 *
+	 * @return a random 32-bit integer.
+	 */
+
+	public int getRandomInt()
+	{
+		Fortuna prng = getStripe();
+		synchronized (prng)
+		{
+			return prng.getRandomInt();
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Generates and returns a random 64-bit integer.
+	 *
+	 * @return a random 64-bit integer.
+	 */
+
+	public long getRandomLong()
+	{
+		Fortuna prng = getStripe();
+		synchronized (prng)
+		{
+			return prng.getRandomLong();
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the stripe to which the current thread is mapped.
+	 *
+	 * @return the stripe to which the current thread is mapped.
+	 */
+
+	private Fortuna getStripe()
+	{
+		long hash = Thread.currentThread().getId() * THREAD_ID_MULTIPLIER;
+		return stripes[(int)(hash >>> 32) & stripeMask];
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the stripe to which the next random data from an entropy source will be added.
+	 *
+	 * @return the stripe to which the next random data from an entropy source will be added.
+	 */
+
+	private Fortuna getEntropyStripe()
+	{
+		return stripes[entropyStripeIndex.getAndIncrement() & stripeMask];
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance variables
+////////////////////////////////////////////////////////////////////////
+
+	private	Fortuna[]		stripes;
+	private	int				stripeMask;
+	private	AtomicInteger	entropyStripeIndex;
+
+}
+
+//----------------------------------------------------------------------
@@ -0,0 +1,511 @@
+/*====================================================================*\
+
+DerivedKeyCache.java
+
+Class: cache of derived keys.
+
+\*====================================================================*/
+
+
+// PACKAGE
+
+
+package uk.blankaspect.common.crypto;
+
+//----------------------------------------------------------------------
+
+
+// IMPORTS
+
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.blankaspect.common.exception.AppException;
+
+import uk.blankaspect.common.number.NumberUtils;
+
+//----------------------------------------------------------------------
+
+
+// CLASS: CACHE OF DERIVED KEYS
+
+
+/**
+ * This class implements a size-bounded cache of keys that have been derived by a key derivation function (KDF) such
+ * as {@linkplain Scrypt scrypt}.  It allows the cost of the KDF to be paid once by a sequence of operations that
+ * derive a key from the same passphrase, salt and KDF parameters; for example, the decryption of a batch of files
+ * that were encrypted with the same key.
+ * <p>
+ * An entry of the cache is identified by an HMAC-SHA256 hash value of the salt and the encoded KDF parameters that
+ * is keyed with the passphrase, so neither the passphrase nor the salt is retained by the cache.  When the cache is
+ * full, the least recently used entry is evicted.  An entry expires after a specified time, after which the key is
+ * derived again.  The derived key of an entry is overwritten with zeros when the entry is evicted, when it expires
+ * and when the cache is cleared.
+ * </p>
+ * <p>
+ * The cache is thread-safe.  If several threads request the same key concurrently, the key is derived by only one of
+ * them and the others wait for it.
+ * </p>
+ */
+
+public class DerivedKeyCache
+{
+
+////////////////////////////////////////////////////////////////////////
+//  Constants
+////////////////////////////////////////////////////////////////////////
+
+	/** The minimum maximum number of entries of a cache. */
+	public static final		int	MIN_MAX_NUM_ENTRIES	= 1;
+
+	/** The maximum maximum number of entries of a cache. */
+	public static final		int	MAX_MAX_NUM_ENTRIES	= 1 << 16;
+
+	/** The size (in bytes) of the field that contains the encoded KDF parameters in the input to the hash function. */
+	private static final	int	PARAMETERS_FIELD_SIZE	= 4;
+
+	/** The factor by which a time in milliseconds is multiplied to convert it to nanoseconds. */
+	private static final	long	NANOSECONDS_PER_MILLISECOND	= 1_000_000;
+
+////////////////////////////////////////////////////////////////////////
+//  Member interfaces
+////////////////////////////////////////////////////////////////////////
+
+
+	// KEY DERIVER INTERFACE
+
+
+	/**
+	 * This functional interface defines the method that is called by a {@linkplain DerivedKeyCache cache of derived
+	 * keys} to derive a key that is not in the cache.
+	 */
+
+	@FunctionalInterface
+	public interface IKeyDeriver
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Derives a key.
+		 *
+		 * @return the derived key.
+		 * @throws AppException
+		 *           if an error occurred when deriving the key.
+		 */
+
+		byte[] deriveKey()
+			throws AppException;
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Member classes : non-inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// ENTRY IDENTIFIER CLASS
+
+
+	/**
+	 * This class encapsulates the identifier of an entry of the cache: a hash value of a passphrase, a salt and some
+	 * encoded KDF parameters.
+	 */
+
+	private static class Id
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		/** The hash value. */
+		private	byte[]	value;
+
+		/** The hash code of the hash value. */
+		private	int		hashCode;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private Id(byte[] value)
+		{
+			this.value = value;
+			hashCode = Arrays.hashCode(value);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : overriding methods
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return ((obj instanceof Id) && Arrays.equals(value, ((Id)obj).value));
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CACHE ENTRY CLASS
+
+
+	/**
+	 * This class encapsulates an entry of the cache.  The derived key of an entry is {@code null} while the key is
+	 * being derived.
+	 */
+
+	private static class CacheEntry
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		/** The derived key. */
+		private	byte[]	derivedKey;
+
+		/** The time (in nanoseconds, as returned by {@link System#nanoTime()}) at which the entry was created. */
+		private	long	creationTime;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private CacheEntry()
+		{
+			creationTime = System.nanoTime();
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		private boolean isPending()
+		{
+			return (derivedKey == null);
+		}
+
+		//--------------------------------------------------------------
+
+		private void erase()
+		{
+			if (derivedKey != null)
+			{
+				Arrays.fill(derivedKey, (byte)0);
+				derivedKey = null;
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Constructors
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Creates a cache of derived keys.
+	 *
+	 * @param  maxNumEntries
+	 *           the maximum number of entries of the cache.
+	 * @param  expiryTime
+	 *           the time (in milliseconds) after which an entry of the cache expires, or 0 if the entries do not
+	 *           expire.
+	 * @throws IllegalArgumentException
+	 *           if
+	 *           <ul>
+	 *             <li>{@code maxNumEntries} is less than {@link #MIN_MAX_NUM_ENTRIES} or greater than {@link
+	 *                 #MAX_MAX_NUM_ENTRIES}, or</li>
+	 *             <li>{@code expiryTime} is negative.</li>
+	 *           </ul>
+	 */
+
+	public DerivedKeyCache(int  maxNumEntries,
+						   long expiryTime)
+	{
+		// Validate arguments
+		if ((maxNumEntries < MIN_MAX_NUM_ENTRIES) || (maxNumEntries > MAX_MAX_NUM_ENTRIES))
+			throw new IllegalArgumentException("Maximum number of entries out of bounds: " + maxNumEntries);
+		if (expiryTime < 0)
+			throw new IllegalArgumentException("Expiry time out of bounds: " + expiryTime);
+
+		// Initialise instance variables
+		this.maxNumEntries = maxNumEntries;
+		this.expiryTime = expiryTime;
+		entries = new LinkedHashMap<>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Id, CacheEntry> eldest)
+			{
+				boolean remove = (size() > DerivedKeyCache.this.maxNumEntries);
+				if (remove)
+					eldest.getValue().erase();
+				return remove;
+			}
+		};
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Class methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Returns the identifier of the cache entry for the specified passphrase, salt and encoded KDF parameters.
+	 *
+	 * @param  key
+	 *           the passphrase.
+	 * @param  salt
+	 *           the salt.
+	 * @param  encodedParams
+	 *           the encoded KDF parameters.
+	 * @return the identifier of the cache entry for {@code key}, {@code salt} and {@code encodedParams}.
+	 */
+
+	private static Id createId(byte[] key,
+							   byte[] salt,
+							   int    encodedParams)
+	{
+		byte[] paramData = new byte[PARAMETERS_FIELD_SIZE];
+		NumberUtils.intToBytesLE(encodedParams, paramData);
+
+		HmacSha256 hmac = new HmacSha256(key);
+		hmac.update(paramData);
+		return new Id(hmac.getValue(salt));
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Returns the maximum number of entries of this cache.
+	 *
+	 * @return the maximum number of entries of this cache.
+	 */
+
+	public int getMaxNumEntries()
+	{
+		return maxNumEntries;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the time after which an entry of this cache expires.
+	 *
+	 * @return the time (in milliseconds) after which an entry of this cache expires, or 0 if the entries do not
+	 *         expire.
+	 */
+
+	public long getExpiryTime()
+	{
+		return expiryTime;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the number of keys that are currently held by this cache.  Expired entries are removed before the keys
+	 * are counted.
+	 *
+	 * @return the number of keys that are currently held by this cache.
+	 */
+
+	public synchronized int getNumEntries()
+	{
+		removeExpiredEntries();
+		int numEntries = 0;
+		for (CacheEntry entry : entries.values())
+		{
+			if (!entry.isPending())
+				++numEntries;
+		}
+		return numEntries;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Removes all the entries from this cache and overwrites their derived keys with zeros.  A key that is being
+	 * derived when this method is called will not be added to the cache.
+	 */
+
+	public synchronized void clear()
+	{
+		for (CacheEntry entry : entries.values())
+			entry.erase();
+		entries.clear();
+		notifyAll();
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns a copy of the derived key for the specified passphrase, salt and encoded KDF parameters.  If the key is
+	 * not in this cache, it is derived by the specified deriver and added to the cache.  If the key is being derived
+	 * by another thread, this method waits for that thread to finish.
+	 *
+	 * @param  key
+	 *           the passphrase from which the key is derived.
+	 * @param  salt
+	 *           the salt from which the key is derived.
+	 * @param  encodedParams
+	 *           the encoded parameters of the KDF.
+	 * @param  deriver
+	 *           the object that will derive the key if it is not in this cache.
+	 * @return a copy of the derived key.
+	 * @throws IllegalArgumentException
+	 *           if any of the arguments is {@code null}.
+	 * @throws AppException
+	 *           if an error occurred when deriving the key.
+	 */
+
+	public byte[] getDerivedKey(byte[]      key,
+								byte[]      salt,
+								int         encodedParams,
+								IKeyDeriver deriver)
+		throws AppException
+	{
+		// Validate arguments
+		if (key == null)
+			throw new IllegalArgumentException("Null key");
+		if (salt == null)
+			throw new IllegalArgumentException("Null salt");
+		if (deriver == null)
+			throw new IllegalArgumentException("Null deriver");
+
+		// Get entry from cache, or add a pending entry for a key that will be derived by this thread
+		Id id = createId(key, salt, encodedParams);
+		CacheEntry entry = null;
+		synchronized (this)
+		{
+			while (true)
+			{
+				removeExpiredEntries();
+				entry = entries.get(id);
+				if (entry == null)
+				{
+					entry = new CacheEntry();
+					entries.put(id, entry);
+					break;
+				}
+				if (!entry.isPending())
+					return entry.derivedKey.clone();
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					// Derive the key without adding it to the cache
+					Thread.currentThread().interrupt();
+					entry = null;
+					break;
+				}
+			}
+		}
+
+		// Derive key
+		byte[] derivedKey = null;
+		try
+		{
+			derivedKey = deriver.deriveKey();
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				// Store key in entry if the entry is still in the cache; otherwise, remove the pending entry
+				if ((entry != null) && (entries.get(id) == entry))
+				{
+					if (derivedKey == null)
+						entries.remove(id);
+					else
+						entry.derivedKey = derivedKey.clone();
+				}
+
+				// Wake any threads that are waiting for the key
+				notifyAll();
+			}
+		}
+		return derivedKey;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Removes the expired entries from this cache and overwrites their derived keys with zeros.  The caller must hold
+	 * the lock on this cache.
+	 */
+
+	private void removeExpiredEntries()
+	{
+		if (expiryTime > 0)
+		{
+			long currentTime = System.nanoTime();
+			long expiryInterval = expiryTime * NANOSECONDS_PER_MILLISECOND;
+			Iterator<CacheEntry> it = entries.values().iterator();
+			while (it.hasNext())
+			{
+				CacheEntry entry = it.next();
+				if (!entry.isPending() && (currentTime - entry.creationTime >= expiryInterval))
+				{
+					entry.erase();
+					it.remove();
+				}
+			}
+		}
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance variables
+////////////////////////////////////////////////////////////////////////
+
+	/** The maximum number of entries of this cache. */
+	private	int					maxNumEntries;
+
+	/** The time (in milliseconds) after which an entry of this cache expires, or 0 if the entries do not expire. */
+	private	long				expiryTime;
+
+	/** The entries of this cache in order of access, from least recently used to most recently used. */
+	private	Map<Id, CacheEntry>	entries;
+
+}
+
+//----------------------------------------------------------------------
@@ -30,7 +30,6 @@ import uk.blankaspect.common.exception.TaskCancelledException;
 import uk.blankaspect.common.exception.TempFileException;
 
 import uk.blankaspect.common.misc.IProgressListener;
-import uk.blankaspect.common.misc.NullOutputStream;
 import uk.blankaspect.common.misc.Task;
 
 import uk.blankaspect.common.ui.progress.IProgressView;
@@ -245,10 +244,62 @@ public class FileEncrypter
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Creates an instance of {@link FileEncrypter} that is a copy of the specified file encrypter.  The copy has its
+	 * own copy of the header, into which the supplementary data of a file is read when it is decrypted, so that the
+	 * copy and the original may decrypt files concurrently.  The cache of derived keys is shared.
+	 *
+	 * @param encrypter  the file encrypter that will be copied.
+	 */
+
+	FileEncrypter(FileEncrypter encrypter)
+	{
+		this(encrypter.cipher, encrypter.kdfParams,
+			 (encrypter.header == null) ? null : new StreamEncrypter.Header(encrypter.header));
+		derivedKeyCache = encrypter.derivedKeyCache;
+	}
+
+	//------------------------------------------------------------------
+
 ////////////////////////////////////////////////////////////////////////
 //  Instance methods
 ////////////////////////////////////////////////////////////////////////
 
+	/**
+	 * Returns the cache of derived keys that is used by the {@link #decrypt(File, File, byte[])} and {@link
+	 * #validate(File, byte[])} methods.
+	 *
+	 * @return the cache of derived keys that is used when decrypting and validating files, or {@code null} if
+	 *         derived keys are not cached.
+	 * @see    #setDerivedKeyCache(DerivedKeyCache)
+	 */
+
+	public DerivedKeyCache getDerivedKeyCache()
+	{
+		return derivedKeyCache;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the cache of derived keys that will be used by the {@link #decrypt(File, File, byte[])} and {@link
+	 * #validate(File, byte[])} methods.  If a cache is set, the content-encryption key of a file that was
+	 * encrypted with the same key, salt and KDF parameters as a file that was decrypted or validated earlier
+	 * is taken from the cache rather than derived again.
+	 *
+	 * @param cache  the cache of derived keys that will be used when decrypting and validating files, or
+	 *               {@code null} if derived keys are not to be cached.
+	 * @see   #getDerivedKeyCache()
+	 * @see   StreamEncrypter#setDerivedKeyCache(DerivedKeyCache)
+	 */
+
+	public void setDerivedKeyCache(DerivedKeyCache cache)
+	{
+		derivedKeyCache = cache;
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * Encrypts data from a specified input file and writes the resulting ciphertext to the specified output
 	 * file.
@@ -273,9 +324,38 @@ public class FileEncrypter
 						byte[] key,
 						byte[] randomKey)
 		throws AppException, TaskCancelledException
+	{
+		encrypt(inFile, outFile, key, randomKey, Task.getProgressView(), null);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Encrypts data from a specified input file and writes the resulting ciphertext to the specified output
+	 * file, reporting progress to the specified progress view and progress listener.
+	 *
+	 * @param  inFile            the file from which the data to be encrypted will be read.
+	 * @param  outFile           the file to which the ciphertext will be written.
+	 * @param  key               the key from which the CEK will be derived, or the CEK itself.
+	 * @param  randomKey         the key that will be used as a seed for the pseudo-random number generator.
+	 * @param  progressView      the progress view, which may be {@code null}.  If it is {@code null}, no
+	 *                           message dialog is displayed while the CEK is being generated.
+	 * @param  progressListener  an additional progress listener, which may be {@code null}.
+	 * @throws AppException
+	 *           if an error occurred during the encryption operation.
+	 * @throws TaskCancelledException
+	 *           if the encryption operation was cancelled.
+	 */
+
+	void encrypt(File              inFile,
+				 File              outFile,
+				 byte[]            key,
+				 byte[]            randomKey,
+				 IProgressView     progressView,
+				 IProgressListener progressListener)
+		throws AppException, TaskCancelledException
 	{
 		// Reset progress in progress view
-		IProgressView progressView = Task.getProgressView();
 		if (progressView != null)
 		{
 			progressView.setInfo(ENCRYPTING_STR, inFile);
@@ -363,9 +443,14 @@ public class FileEncrypter
 			try
 			{
 				StreamEncrypter encrypter = new StreamEncrypter(cipher, kdfParams, header);
+				encrypter.setKeyGenerationMessageEnabled(progressView != null);
 				if (progressView instanceof IProgressListener)
 					encrypter.addProgressListener((IProgressListener)progressView);
-				encrypter.encrypt(inStream, outStream, fileLength, timestamp, key, randomKey);
+				if (progressListener != null)
+					encrypter.addProgressListener(progressListener);
+				encrypter.encrypt(new StreamEncrypter.FileChannelInput(inStream.getChannel()),
+								  new StreamEncrypter.FileChannelOutput(outStream.getChannel()), fileLength, timestamp,
+								  key, randomKey);
 			}
 			catch (StreamEncrypter.InputException e)
 			{
@@ -486,9 +571,36 @@ public class FileEncrypter
 						File   outFile,
 						byte[] key)
 		throws AppException, TaskCancelledException
+	{
+		decrypt(inFile, outFile, key, Task.getProgressView(), null);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Decrypts data from a specified input file and writes the resulting plaintext to a specified output
+	 * file, reporting progress to the specified progress view and progress listener.
+	 *
+	 * @param  inFile            the file from which the data to be decrypted will be read.
+	 * @param  outFile           the file to which the plaintext will be written.
+	 * @param  key               the key from which the CEK will be derived, or the CEK itself.
+	 * @param  progressView      the progress view, which may be {@code null}.  If it is {@code null}, no
+	 *                           message dialog is displayed while the CEK is being generated.
+	 * @param  progressListener  an additional progress listener, which may be {@code null}.
+	 * @throws AppException
+	 *           if an error occurred during the decryption operation.
+	 * @throws TaskCancelledException
+	 *           if the decryption operation was cancelled.
+	 */
+
+	void decrypt(File              inFile,
+				 File              outFile,
+				 byte[]            key,
+				 IProgressView     progressView,
+				 IProgressListener progressListener)
+		throws AppException, TaskCancelledException
 	{
 		// Reset progress in progress view
-		IProgressView progressView = Task.getProgressView();
 		if (progressView != null)
 		{
 			progressView.setInfo(DECRYPTING_STR, inFile);
@@ -566,6 +678,8 @@ public class FileEncrypter
 
 			// Create decrypter
 			StreamEncrypter decrypter = new StreamEncrypter(cipher, kdfParams, header);
+			decrypter.setDerivedKeyCache(derivedKeyCache);
+			decrypter.setKeyGenerationMessageEnabled(progressView != null);
 
 			// Test length of input file
 			long fileLength = inFile.length();
@@ -578,7 +692,11 @@ public class FileEncrypter
 			{
 				if (progressView instanceof IProgressListener)
 					decrypter.addProgressListener((IProgressListener)progressView);
-				timestamp = decrypter.decrypt(inStream, outStream, fileLength, key);
+				if (progressListener != null)
+					decrypter.addProgressListener(progressListener);
+				timestamp = decrypter.decrypt(new StreamEncrypter.FileChannelInput(inStream.getChannel()),
+											  new StreamEncrypter.FileChannelOutput(outStream.getChannel()),
+											  fileLength, key);
 			}
 			catch (StreamEncrypter.InputException e)
 			{
@@ -700,9 +818,34 @@ public class FileEncrypter
 	public void validate(File   file,
 						 byte[] key)
 		throws AppException, TaskCancelledException
+	{
+		validate(file, key, Task.getProgressView(), null);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Validates data from a specified input file by decrypting it and discarding the resulting plaintext,
+	 * reporting progress to the specified progress view and progress listener.
+	 *
+	 * @param  file              the file from which the data to be validated will be read.
+	 * @param  key               the key from which the CEK will be derived, or the CEK itself.
+	 * @param  progressView      the progress view, which may be {@code null}.  If it is {@code null}, no
+	 *                           message dialog is displayed while the CEK is being generated.
+	 * @param  progressListener  an additional progress listener, which may be {@code null}.
+	 * @throws AppException
+	 *           if an error occurred during the decryption operation.
+	 * @throws TaskCancelledException
+	 *           if the decryption operation was cancelled.
+	 */
+
+	void validate(File              file,
+				  byte[]            key,
+				  IProgressView     progressView,
+				  IProgressListener progressListener)
+		throws AppException, TaskCancelledException
 	{
 		// Reset progress in progress view
-		IProgressView progressView = Task.getProgressView();
 		if (progressView != null)
 		{
 			progressView.setInfo(VALIDATING_STR, file);
@@ -741,6 +884,8 @@ public class FileEncrypter
 
 			// Create decrypter
 			StreamEncrypter decrypter = new StreamEncrypter(cipher, kdfParams, header);
+			decrypter.setDerivedKeyCache(derivedKeyCache);
+			decrypter.setKeyGenerationMessageEnabled(progressView != null);
 
 			// Test length of input file
 			long fileLength = file.length();
@@ -752,7 +897,10 @@ public class FileEncrypter
 			{
 				if (progressView instanceof IProgressListener)
 					decrypter.addProgressListener((IProgressListener)progressView);
-				decrypter.decrypt(inStream, new NullOutputStream(), fileLength, key);
+				if (progressListener != null)
+					decrypter.addProgressListener(progressListener);
+				decrypter.decrypt(new StreamEncrypter.FileChannelInput(inStream.getChannel()),
+								  (data, offset, length) -> { }, fileLength, key);
 			}
 			catch (StreamEncrypter.InputException e)
 			{
@@ -798,6 +946,7 @@ public class FileEncrypter
 	private	FortunaCipher				cipher;
 	private	StreamEncrypter.KdfParams	kdfParams;
 	private	StreamEncrypter.Header		header;
+	private	DerivedKeyCache				derivedKeyCache;
 
 }
 
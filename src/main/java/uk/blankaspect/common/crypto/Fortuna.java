@@ -18,8 +18,17 @@ package uk.blankaspect.common.crypto;
 // IMPORTS
 
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
 import java.nio.charset.StandardCharsets;
 
+import java.util.Arrays;
+
 import uk.blankaspect.common.exception.UnexpectedRuntimeException;
 
 //----------------------------------------------------------------------
@@ -69,6 +78,18 @@ public abstract class Fortuna
 
 	private static final	int	MIN_RESEED_INTERVAL	= 100;
 
+	/** A view of a byte array as an array of little-endian 64-bit words. */
+	private static final	VarHandle	LONG_VIEW	=
+			MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/** A view of a byte array as an array of big-endian 32-bit integers. */
+	private static final	VarHandle	INT_BE_VIEW	=
+			MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+	/** A view of a byte array as an array of big-endian 64-bit integers. */
+	private static final	VarHandle	LONG_BE_VIEW	=
+			MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
 ////////////////////////////////////////////////////////////////////////
 //  Member classes : non-inner classes
 ////////////////////////////////////////////////////////////////////////
@@ -187,13 +208,87 @@ public abstract class Fortuna
 				throw new IllegalArgumentException();
 
 			int endOffset = offset + length;
-			for (int i = offset; i < endOffset; i++)
+			while (offset < endOffset)
+			{
+				if (index == 0)
+				{
+					// Combine whole blocks of data in bulk
+					int numBlocks = (endOffset - offset) / buffer.length;
+					if (numBlocks > 0)
+					{
+						prng.combineRandomBytes(data, offset, numBlocks, buffer.length);
+						offset += numBlocks * buffer.length;
+						continue;
+					}
+
+					// Generate next block of random data
+					prng.getRandomBytes(buffer);
+				}
+				data[offset++] ^= buffer[index++];
+				index &= indexMask;
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Combines the remaining data in the specified buffer and random data generated by this object's PRNG
+		 * with an exclusive-OR operation.
+		 * <p>
+		 * The exclusive-OR operation is applied to {@code data} in place.  On return, the position of the
+		 * buffer is equal to its limit.  If the buffer is backed by an array, this method is equivalent to
+		 * {@link #combine(byte[], int, int)}; otherwise, the data are combined with the random data eight
+		 * bytes at a time, without being copied.
+		 * </p>
+		 *
+		 * @param  data  the buffer to whose remaining data the exclusive-OR operation will be applied.
+		 * @throws IllegalArgumentException
+		 *           if {@code data} is {@code null}.
+		 * @throws ReadOnlyBufferException
+		 *           if {@code data} is read-only.
+		 */
+
+		public void combine(ByteBuffer data)
+		{
+			if (data == null)
+				throw new IllegalArgumentException();
+
+			// Combine data in backing array
+			int offset = data.position();
+			int endOffset = data.limit();
+			if (data.hasArray())
+			{
+				combine(data.array(), data.arrayOffset() + offset, endOffset - offset);
+				data.position(endOffset);
+				return;
+			}
+			if (data.isReadOnly())
+				throw new ReadOnlyBufferException();
+
+			// Combine data in buffer
+			ByteBuffer words = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			while (offset < endOffset)
 			{
+				// Generate next block of random data
 				if (index == 0)
 					prng.getRandomBytes(buffer);
-				data[i] ^= buffer[index++];
+
+				// Combine data with random data, eight bytes at a time while possible
+				int end = offset + Math.min(endOffset - offset, buffer.length - index);
+				while (end - offset >= Long.BYTES)
+				{
+					words.putLong(offset, words.getLong(offset) ^ (long)LONG_VIEW.get(buffer, index));
+					offset += Long.BYTES;
+					index += Long.BYTES;
+				}
+				while (offset < end)
+				{
+					words.put(offset, (byte)(words.get(offset) ^ buffer[index++]));
+					++offset;
+				}
 				index &= indexMask;
 			}
+			data.position(endOffset);
 		}
 
 		//--------------------------------------------------------------
@@ -212,6 +307,352 @@ public abstract class Fortuna
 	//==================================================================
 
 
+	// BUFFERED EXTRACTOR CLASS
+
+
+	/**
+	 * This class implements a buffer of random data that is extracted from a PRNG in blocks.  Random bytes,
+	 * integers and bounded integers are served from the buffer without allocating memory, and the PRNG is
+	 * rekeyed only when the buffer is refilled, rather than once for each value.
+	 * <p>
+	 * Random data that has been extracted from the PRNG but not yet served remains in the buffer until it is
+	 * served or until {@link #clear()} is called.  An extractor is not thread-safe.
+	 * </p>
+	 */
+
+	public static class BufferedExtractor
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a buffered extractor of random data that is generated by the specified PRNG.
+		 *
+		 * @param  prng
+		 *           the pseudo-random number generator that will generate the random data.
+		 * @param  blockSize
+		 *           the number of bytes of random data that will be extracted from {@code prng} with each
+		 *           request.
+		 * @throws IllegalArgumentException
+		 *           if {@code prng} is {@code null} or {@code blockSize} is less than 8 or greater than
+		 *           2<sup>20</sup> (1048576).
+		 */
+
+		public BufferedExtractor(Fortuna prng,
+								 int     blockSize)
+		{
+			// Validate arguments
+			if (prng == null)
+				throw new IllegalArgumentException("Null PRNG");
+			if ((blockSize < Long.BYTES) || (blockSize > MAX_BLOCK_SIZE))
+				throw new IllegalArgumentException("Block size out of bounds: " + blockSize);
+
+			// Initialise instance variables
+			this.prng = prng;
+			buffer = new byte[blockSize];
+			index = blockSize;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns the PRNG of this extractor.
+		 *
+		 * @return the PRNG of this extractor.
+		 */
+
+		public Fortuna getPrng()
+		{
+			return prng;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns a random byte.
+		 *
+		 * @return a random byte.
+		 * @throws IllegalStateException
+		 *           if the PRNG has not been seeded.
+		 */
+
+		public byte getByte()
+		{
+			if (index >= buffer.length)
+				refill();
+			return buffer[index++];
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Stores random bytes in the specified buffer.  The number of bytes is equal to the length of the
+		 * buffer.
+		 *
+		 * @param  buffer
+		 *           the buffer in which the random bytes will be stored.
+		 * @throws IllegalArgumentException
+		 *           if {@code buffer} is {@code null}.
+		 * @throws IllegalStateException
+		 *           if the PRNG has not been seeded.
+		 */
+
+		public void getBytes(byte[] buffer)
+		{
+			if (buffer == null)
+				throw new IllegalArgumentException("Null buffer");
+
+			getBytes(buffer, 0, buffer.length);
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Stores the specified number of random bytes in the specified buffer.  Whole blocks of random data
+		 * are extracted from the PRNG directly into {@code buffer}.
+		 *
+		 * @param  buffer
+		 *           the buffer in which the random bytes will be stored.
+		 * @param  offset
+		 *           the offset in {@code buffer} at which the first random byte will be stored.
+		 * @param  length
+		 *           the number of random bytes that will be stored.
+		 * @throws IllegalArgumentException
+		 *           if {@code buffer} is {@code null}, or {@code length} is negative, or {@code offset} +
+		 *           {@code length} is greater than the length of {@code buffer}.
+		 * @throws IndexOutOfBoundsException
+		 *           if {@code offset} is negative or greater than the length of {@code buffer}.
+		 * @throws IllegalStateException
+		 *           if the PRNG has not been seeded.
+		 */
+
+		public void getBytes(byte[] buffer,
+							 int    offset,
+							 int    length)
+		{
+			// Validate arguments
+			if (buffer == null)
+				throw new IllegalArgumentException("Null buffer");
+			if ((offset < 0) || (offset > buffer.length))
+				throw new IndexOutOfBoundsException();
+			if ((length < 0) || (length > buffer.length - offset))
+				throw new IllegalArgumentException();
+
+			// Copy random data from buffer
+			int blockSize = this.buffer.length;
+			int endOffset = offset + length;
+			while (offset < endOffset)
+			{
+				if (index >= blockSize)
+				{
+					// Extract whole blocks directly into the target buffer
+					while (endOffset - offset >= blockSize)
+					{
+						prng.getRandomBytes(buffer, offset, blockSize);
+						offset += blockSize;
+					}
+					if (offset >= endOffset)
+						break;
+					refill();
+				}
+				int count = Math.min(endOffset - offset, blockSize - index);
+				System.arraycopy(this.buffer, index, buffer, offset, count);
+				index += count;
+				offset += count;
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns a random 32-bit integer.
+		 *
+		 * @return a random 32-bit integer.
+		 * @throws IllegalStateException
+		 *           if the PRNG has not been seeded.
+		 */
+
+		public int getInt()
+		{
+			if (index > buffer.length - Integer.BYTES)
+				refill();
+			int value = (int)INT_BE_VIEW.get(buffer, index);
+			index += Integer.BYTES;
+			return value;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns a random integer that is uniformly distributed between zero (inclusive) and the specified
+		 * bound (exclusive).  Rejection sampling is used to avoid the bias that would result from reducing a
+		 * random value modulo {@code bound}.
+		 *
+		 * @param  bound
+		 *           the upper bound (exclusive) of the random integer.
+		 * @return a random integer that is greater than or equal to zero and less than {@code bound}.
+		 * @throws IllegalArgumentException
+		 *           if {@code bound} is not positive.
+		 * @throws IllegalStateException
+		 *           if the PRNG has not been seeded.
+		 */
+
+		public int getInt(int bound)
+		{
+			// Validate argument
+			if (bound <= 0)
+				throw new IllegalArgumentException("Bound out of bounds: " + bound);
+
+			// Case: bound is a power of 2
+			int value = getInt() >>> 1;
+			int mask = bound - 1;
+			if ((bound & mask) == 0)
+				return (int)((bound * (long)value) >> 31);
+
+			// Case: bound is not a power of 2; reject values from the incomplete interval at the top of the range
+			int r = value % bound;
+			while (value - r + mask < 0)
+			{
+				value = getInt() >>> 1;
+				r = value % bound;
+			}
+			return r;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns a random 64-bit integer.
+		 *
+		 * @return a random 64-bit integer.
+		 * @throws IllegalStateException
+		 *           if the PRNG has not been seeded.
+		 */
+
+		public long getLong()
+		{
+			if (index > buffer.length - Long.BYTES)
+				refill();
+			long value = (long)LONG_BE_VIEW.get(buffer, index);
+			index += Long.BYTES;
+			return value;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Fills the specified array with random 32-bit integers.
+		 *
+		 * @param  values
+		 *           the array that will be filled with random integers.
+		 * @throws IllegalArgumentException
+		 *           if {@code values} is {@code null}.
+		 * @throws IllegalStateException
+		 *           if the PRNG has not been seeded.
+		 */
+
+		public void fill(int[] values)
+		{
+			// Validate argument
+			if (values == null)
+				throw new IllegalArgumentException("Null values");
+
+			// Fill array
+			int i = 0;
+			while (i < values.length)
+			{
+				if (index > buffer.length - Integer.BYTES)
+					refill();
+				int end = Math.min(values.length, i + (buffer.length - index) / Integer.BYTES);
+				while (i < end)
+				{
+					values[i++] = (int)INT_BE_VIEW.get(buffer, index);
+					index += Integer.BYTES;
+				}
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Fills the specified array with random 64-bit integers.
+		 *
+		 * @param  values
+		 *           the array that will be filled with random integers.
+		 * @throws IllegalArgumentException
+		 *           if {@code values} is {@code null}.
+		 * @throws IllegalStateException
+		 *           if the PRNG has not been seeded.
+		 */
+
+		public void fill(long[] values)
+		{
+			// Validate argument
+			if (values == null)
+				throw new IllegalArgumentException("Null values");
+
+			// Fill array
+			int i = 0;
+			while (i < values.length)
+			{
+				if (index > buffer.length - Long.BYTES)
+					refill();
+				int end = Math.min(values.length, i + (buffer.length - index) / Long.BYTES);
+				while (i < end)
+				{
+					values[i++] = (long)LONG_BE_VIEW.get(buffer, index);
+					index += Long.BYTES;
+				}
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Overwrites the random data in the buffer of this extractor with zeros and discards it.  The buffer
+		 * will be refilled from the PRNG when the next value is requested.
+		 */
+
+		public void clear()
+		{
+			Arrays.fill(buffer, (byte)0);
+			index = buffer.length;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Refills the buffer of this extractor with random data from the PRNG.  Any bytes remaining from the
+		 * previous block are discarded.
+		 */
+
+		private void refill()
+		{
+			prng.getRandomBytes(buffer);
+			index = 0;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	Fortuna	prng;
+		private	byte[]	buffer;
+		private	int		index;
+
+	}
+
+	//==================================================================
+
+
 	// ENTROPY POOL CLASS
 
 
@@ -393,6 +834,7 @@ public abstract class Fortuna
 		this.keySize = keySize;
 		hash = new ShaD256();
 		blockBuffer = new byte[blockSize];
+		numberBuffer = new byte[Long.BYTES];
 		entropyPools = new EntropyPool[NUM_ENTROPY_POOLS];
 		for (int i = 0; i < entropyPools.length; i++)
 			entropyPools[i] = new EntropyPool();
@@ -574,6 +1016,7 @@ public abstract class Fortuna
 			copy.hash = new ShaD256();
 			copy.key = key.clone();
 			copy.blockBuffer = blockBuffer.clone();
+			copy.numberBuffer = new byte[Long.BYTES];
 			for (int i = 0; i < entropyPools.length; i++)
 				copy.entropyPools[i] = entropyPools[i].clone();
 
@@ -716,7 +1159,8 @@ public abstract class Fortuna
 
 	public byte getRandomByte()
 	{
-		return getRandomBytes(1)[0];
+		getRandomBytes(numberBuffer, 0, 1);
+		return numberBuffer[0];
 	}
 
 	//------------------------------------------------------------------
@@ -823,14 +1267,8 @@ public abstract class Fortuna
 
 	public int getRandomInt()
 	{
-		byte[] data = getRandomBytes(Integer.SIZE / Byte.SIZE);
-		int value = 0;
-		for (int i = 0; i < data.length; i++)
-		{
-			value <<= 8;
-			value |= data[i] & 0xFF;
-		}
-		return value;
+		getRandomBytes(numberBuffer, 0, Integer.BYTES);
+		return (int)INT_BE_VIEW.get(numberBuffer, 0);
 	}
 
 	//------------------------------------------------------------------
@@ -845,14 +1283,8 @@ public abstract class Fortuna
 
 	public long getRandomLong()
 	{
-		byte[] data = getRandomBytes(Long.SIZE / Byte.SIZE);
-		long value = 0;
-		for (int i = 0; i < data.length; i++)
-		{
-			value <<= 8;
-			value |= data[i] & 0xFF;
-		}
-		return value;
+		getRandomBytes(numberBuffer, 0, Long.BYTES);
+		return (long)LONG_BE_VIEW.get(numberBuffer, 0);
 	}
 
 	//------------------------------------------------------------------
@@ -907,6 +1339,106 @@ public abstract class Fortuna
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Creates a buffered extractor of random data that uses this PRNG and has the specified block size.
+	 *
+	 * @param  blockSize  the number of bytes of random data that the extractor will extract from this PRNG
+	 *                    with each request.
+	 * @return a buffered extractor of random data that uses this PRNG.
+	 */
+
+	public BufferedExtractor createBufferedExtractor(int blockSize)
+	{
+		return new BufferedExtractor(this, blockSize);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Generates the random data of the specified number of consecutive requests of the specified size, and combines
+	 * it with the specified data with an exclusive-OR operation.
+	 * <p>
+	 * The result is the same as that of calling {@link #getRandomBytes(byte[], int, int)} {@code numRequests} times
+	 * with a length of {@code requestSize} and combining the random data of each request with the corresponding
+	 * {@code requestSize} bytes of {@code data}.  This implementation does exactly that; subclasses may override it
+	 * to generate the random data more efficiently.
+	 * </p>
+	 *
+	 * @param  data         the data to which the exclusive-OR operation will be applied.
+	 * @param  offset       the start offset of the data in {@code data}.
+	 * @param  numRequests  the number of requests for random data.
+	 * @param  requestSize  the number of bytes of random data that will be generated for each request.
+	 * @throws IllegalArgumentException
+	 *           if {@code requestSize} is negative or greater than 2<sup>20</sup> (1048576).
+	 * @throws IllegalStateException
+	 *           if the generator has not been seeded.
+	 */
+
+	protected void combineRandomBytes(byte[] data,
+									  int    offset,
+									  int    numRequests,
+									  int    requestSize)
+	{
+		if ((requestSize < 0) || (requestSize > MAX_BLOCK_SIZE))
+			throw new IllegalArgumentException();
+
+		byte[] buffer = new byte[requestSize];
+		for (int i = 0; i < numRequests; i++)
+		{
+			getRandomBytes(buffer, 0, requestSize);
+			for (int j = 0; j < requestSize; j++)
+				data[offset++] ^= buffer[j];
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the key of this PRNG without changing the state of its cipher.
+	 * <p>
+	 * This method is intended to be called by a subclass that has advanced the state of its cipher by generating
+	 * random data itself (for example, in an overriding implementation of {@link #combineRandomBytes(byte[], int,
+	 * int, int)}), and that has already set the key of the cipher to {@code key}.
+	 * </p>
+	 *
+	 * @param key  the key that will be set.
+	 */
+
+	protected void setGeneratorKey(byte[] key)
+	{
+		this.key = key;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Encrypts the specified number of consecutive values of the block counter with this PRNG's cipher, starting
+	 * with the current value, and stores the results in the specified buffer.  The block counter is incremented
+	 * after each value is encrypted.
+	 * <p>
+	 * This implementation calls {@link #encryptCounter(byte[], int)} and {@link #incrementCounter()} for each
+	 * block in turn; subclasses may override it to encrypt several blocks at once.
+	 * </p>
+	 *
+	 * @param buffer     the buffer in which the encrypted data will be stored.
+	 * @param offset     the offset in {@code buffer} at which the first byte of encrypted data will be stored.
+	 * @param numBlocks  the number of values of the block counter that will be encrypted.
+	 */
+
+	protected void encryptCounters(byte[] buffer,
+								   int    offset,
+								   int    numBlocks)
+	{
+		for (int i = 0; i < numBlocks; i++)
+		{
+			encryptCounter(buffer, offset);
+			incrementCounter();
+			offset += blockBuffer.length;
+		}
+	}
+
+	//------------------------------------------------------------------
+
 	private void reseed()
 	{
 		lastReseedTime = System.currentTimeMillis();
@@ -940,19 +1472,21 @@ public abstract class Fortuna
 							   int    offset,
 							   int    length)
 	{
-		int endOffset = offset + length;
-		while (offset < endOffset)
+		// Generate whole blocks
+		int numBlocks = length / blockBuffer.length;
+		if (numBlocks > 0)
 		{
-			int blockLength = Math.min(endOffset - offset, blockBuffer.length);
-			if (blockLength < blockBuffer.length)
-			{
-				encryptCounter(blockBuffer, 0);
-				System.arraycopy(blockBuffer, 0, buffer, offset, blockLength);
-			}
-			else
-				encryptCounter(buffer, offset);
+			encryptCounters(buffer, offset, numBlocks);
+			offset += numBlocks * blockBuffer.length;
+			length -= numBlocks * blockBuffer.length;
+		}
+
+		// Generate partial block
+		if (length > 0)
+		{
+			encryptCounter(blockBuffer, 0);
+			System.arraycopy(blockBuffer, 0, buffer, offset, length);
 			incrementCounter();
-			offset += blockLength;
 		}
 	}
 
@@ -966,6 +1500,7 @@ public abstract class Fortuna
 	private	ShaD256			hash;
 	private	byte[]			key;
 	private	byte[]			blockBuffer;
+	private	byte[]			numberBuffer;
 	private	EntropyPool[]	entropyPools;
 	private	int				entropyPoolIndex;
 	private	int				reseedIndex;
@@ -173,6 +173,7 @@ public class FortunaAes256
 	protected void initCipher()
 	{
 		cipher = new Aes256();
+		cipher.setJdkCipherEnabled(true);
 		counter = new byte[Aes256.BLOCK_SIZE];
 	}
 
@@ -240,6 +241,29 @@ public class FortunaAes256
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Encrypts the specified number of consecutive values of the block counter with this PRNG's cipher, starting with
+	 * the current value, and stores the results in the specified buffer.  The block counter is advanced past the
+	 * encrypted values.
+	 *
+	 * @param buffer
+	 *          the buffer in which the encrypted data will be stored.
+	 * @param offset
+	 *          the offset in {@code buffer} at which the first byte of encrypted data will be stored.
+	 * @param numBlocks
+	 *          the number of values of the block counter that will be encrypted.
+	 */
+
+	@Override
+	protected void encryptCounters(byte[] buffer,
+								   int    offset,
+								   int    numBlocks)
+	{
+		cipher.generateKeystream(counter, false, buffer, offset, numBlocks * Aes256.BLOCK_SIZE);
+	}
+
+	//------------------------------------------------------------------
+
 }
 
 //----------------------------------------------------------------------
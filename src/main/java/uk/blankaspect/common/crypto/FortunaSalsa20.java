@@ -21,6 +21,9 @@ package uk.blankaspect.common.crypto;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 //----------------------------------------------------------------------
 
 
@@ -47,6 +50,24 @@ public class FortunaSalsa20
 	/** The number of rounds of the Salsa20 cipher. */
 	private static final	int	NUM_ROUNDS	= 20;
 
+	/**
+	 * The minimum number of bytes of random data for which {@link #combineRandomBytes(byte[], int, int, int)} will
+	 * generate the random data in parallel.
+	 */
+	private static final	int	MIN_PARALLEL_LENGTH	= 1 << 16;
+
+	/**
+	 * The maximum number of bytes of random data that will be generated by a single task of the parallel
+	 * implementation of {@link #combineRandomBytes(byte[], int, int, int)}.
+	 */
+	private static final	int	MAX_TASK_LENGTH	= 1 << 15;
+
+	/**
+	 * The number of blocks of random data that are generated together by a task of the parallel implementation of
+	 * {@link #combineRandomBytes(byte[], int, int, int)}.
+	 */
+	private static final	int	TASK_BATCH_SIZE	= 8;
+
 	private static final	Charset	NONCE_ENCODING	= StandardCharsets.US_ASCII;
 	private static final	String	NONCE_STR		= "OFortuna";
 
@@ -171,6 +192,79 @@ public class FortunaSalsa20
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Generates the random data of the specified number of consecutive requests of the specified size, and combines
+	 * it with the specified data with an exclusive-OR operation.
+	 * <p>
+	 * The result is the same as that of the implementation of this method in {@link Fortuna}.  Each request for
+	 * random data encrypts a range of consecutive values of the block counter with the current key, and the key for
+	 * the next request is derived from the block that follows that range.  The keys and the initial counter values of
+	 * all the requests can therefore be derived sequentially at a cost of one block per request, after which the
+	 * random data of the requests is generated in parallel on the common fork-join pool, each task using its own
+	 * Salsa20 cipher.  The random data is generated sequentially if the amount of data is small, if the common pool
+	 * does not support parallelism or if the PRNG is due to be reseeded.
+	 * </p>
+	 *
+	 * @param  data
+	 *           the data to which the exclusive-OR operation will be applied.
+	 * @param  offset
+	 *           the start offset of the data in {@code data}.
+	 * @param  numRequests
+	 *           the number of requests for random data.
+	 * @param  requestSize
+	 *           the number of bytes of random data that will be generated for each request.
+	 * @throws IllegalArgumentException
+	 *           if {@code requestSize} is negative or greater than 2<sup>20</sup> (1048576).
+	 * @throws IllegalStateException
+	 *           if the generator has not been seeded.
+	 */
+
+	@Override
+	protected void combineRandomBytes(byte[] data,
+									  int    offset,
+									  int    numRequests,
+									  int    requestSize)
+	{
+		// If amount of data is small, parallelism is not available or generator is due to be reseeded, generate random
+		// data sequentially
+		if (((long)numRequests * requestSize < MIN_PARALLEL_LENGTH) || (requestSize > MAX_BLOCK_SIZE)
+				|| (ForkJoinPool.getCommonPoolParallelism() < 2) || canReseed() || !canGenerate())
+		{
+			super.combineRandomBytes(data, offset, numRequests, requestSize);
+			return;
+		}
+
+		// Derive the key and initial block counter of each request
+		int numBlocks = (requestSize + Salsa20.BLOCK_SIZE - 1) / Salsa20.BLOCK_SIZE;
+		byte[] nonce = NONCE_STR.getBytes(NONCE_ENCODING);
+		byte[][] keys = new byte[numRequests][];
+		long[] counters = new long[numRequests];
+		byte[] key = cipher.getKey();
+		byte[] block = new byte[Salsa20.BLOCK_SIZE];
+		for (int i = 0; i < numRequests; i++)
+		{
+			keys[i] = key;
+			counters[i] = counter;
+
+			// Derive key for next request from block that follows random data of this request
+			cipher.getBlock(counter + numBlocks, block, 0);
+			key = new byte[KEY_SIZE];
+			System.arraycopy(block, 0, key, 0, KEY_SIZE);
+			cipher.init(key, nonce);
+
+			// Advance counter past random data, new-key block and setting of key
+			counter += numBlocks + 2;
+		}
+		setGeneratorKey(key);
+
+		// Generate random data of requests in parallel
+		int requestsPerTask = Math.max(1, MAX_TASK_LENGTH / requestSize);
+		ForkJoinPool.commonPool().invoke(new CombineTask(data, offset, requestSize, keys, counters, nonce, 0,
+														 numRequests, requestsPerTask));
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * Initialises this PRNG's cipher.
 	 */
@@ -241,6 +335,159 @@ public class FortunaSalsa20
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Encrypts the specified number of consecutive values of the block counter with this PRNG's cipher, starting with
+	 * the current value, and stores the results in the specified buffer.  The block counter is advanced past the
+	 * encrypted values.
+	 *
+	 * @param buffer
+	 *          the buffer in which the encrypted data will be stored.
+	 * @param offset
+	 *          the offset in {@code buffer} at which the first byte of encrypted data will be stored.
+	 * @param numBlocks
+	 *          the number of values of the block counter that will be encrypted.
+	 */
+
+	@Override
+	protected void encryptCounters(byte[] buffer,
+								   int    offset,
+								   int    numBlocks)
+	{
+		cipher.getBlocks(counter, numBlocks, buffer, offset);
+		counter += numBlocks;
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Member classes : non-inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// CLASS: COMBINATION TASK
+
+
+	/**
+	 * This class implements a task that generates the random data of a range of requests and combines it with data
+	 * with an exclusive-OR operation.  The task is split into subtasks if the range contains more than a specified
+	 * number of requests.
+	 */
+
+	private static class CombineTask
+		extends RecursiveAction
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	byte[]		data;
+		private	int			offset;
+		private	int			requestSize;
+		private	byte[][]	keys;
+		private	long[]		counters;
+		private	byte[]		nonce;
+		private	int			startIndex;
+		private	int			endIndex;
+		private	int			maxNumRequests;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a task that will generate the random data of a range of requests and combine it with the specified
+		 * data.
+		 *
+		 * @param data
+		 *          the data to which the exclusive-OR operation will be applied.
+		 * @param offset
+		 *          the offset in {@code data} of the data that corresponds to the first request.
+		 * @param requestSize
+		 *          the number of bytes of random data of each request.
+		 * @param keys
+		 *          the keys of the requests.
+		 * @param counters
+		 *          the initial block counters of the requests.
+		 * @param nonce
+		 *          the nonce of the Salsa20 cipher.
+		 * @param startIndex
+		 *          the index of the first request of the range.
+		 * @param endIndex
+		 *          the index of the request that follows the last request of the range.
+		 * @param maxNumRequests
+		 *          the maximum number of requests that will be processed by a task without splitting it.
+		 */
+
+		private CombineTask(byte[]   data,
+							int      offset,
+							int      requestSize,
+							byte[][] keys,
+							long[]   counters,
+							byte[]   nonce,
+							int      startIndex,
+							int      endIndex,
+							int      maxNumRequests)
+		{
+			// Initialise instance variables
+			this.data = data;
+			this.offset = offset;
+			this.requestSize = requestSize;
+			this.keys = keys;
+			this.counters = counters;
+			this.nonce = nonce;
+			this.startIndex = startIndex;
+			this.endIndex = endIndex;
+			this.maxNumRequests = maxNumRequests;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : overriding methods
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		protected void compute()
+		{
+			// Split task if range is too large
+			if (endIndex - startIndex > maxNumRequests)
+			{
+				int midIndex = (startIndex + endIndex) >>> 1;
+				invokeAll(new CombineTask(data, offset, requestSize, keys, counters, nonce, startIndex, midIndex,
+										  maxNumRequests),
+						  new CombineTask(data, offset, requestSize, keys, counters, nonce, midIndex, endIndex,
+										  maxNumRequests));
+				return;
+			}
+
+			// Generate random data of each request and combine it with data
+			Salsa20 cipher = new Salsa20(NUM_ROUNDS);
+			byte[] buffer = new byte[TASK_BATCH_SIZE * Salsa20.BLOCK_SIZE];
+			for (int i = startIndex; i < endIndex; i++)
+			{
+				cipher.init(keys[i], nonce);
+				long counter = counters[i];
+				int index = offset + i * requestSize;
+				int endOffset = index + requestSize;
+				while (index < endOffset)
+				{
+					int length = Math.min(endOffset - index, buffer.length);
+					int numBlocks = (length + Salsa20.BLOCK_SIZE - 1) / Salsa20.BLOCK_SIZE;
+					cipher.getBlocks(counter, numBlocks, buffer, 0);
+					counter += numBlocks;
+					for (int j = 0; j < length; j++)
+						data[index++] ^= buffer[j];
+				}
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
 }
 
 //----------------------------------------------------------------------
@@ -18,9 +18,14 @@ package uk.blankaspect.common.crypto;
 // IMPORTS
 
 
+import java.nio.ByteBuffer;
+
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import java.util.Arrays;
+
 import uk.blankaspect.common.exception.UnexpectedRuntimeException;
 
 //----------------------------------------------------------------------
@@ -63,8 +68,14 @@ public class HmacSha256
 //  Instance variables
 ////////////////////////////////////////////////////////////////////////
 
-	/** The key, hashed or padded to the block size of the hash function */
-	private	byte[]			key;
+	/** The key, hashed or padded to the block size of the hash function, combined with the inner padding. */
+	private	byte[]			innerKey;
+
+	/** The key, hashed or padded to the block size of the hash function, combined with the outer padding. */
+	private	byte[]			outerKey;
+
+	/** The buffer for the inner hash value. */
+	private	byte[]			innerHashValue;
 
 	/** The hash function. */
 	private	MessageDigest	hash;
@@ -95,31 +106,51 @@ public class HmacSha256
 			throw new UnexpectedRuntimeException(e);
 		}
 
+		// Allocate buffers
+		innerKey = new byte[HASH_BLOCK_SIZE];
+		outerKey = new byte[HASH_BLOCK_SIZE];
+		innerHashValue = new byte[HASH_VALUE_SIZE];
+
+		// Set the key and initialise the function
+		setKey(key);
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Sets the key of this HMAC and resets it.  This method allows an HMAC to be reused with a different key
+	 * without allocating any memory, unless the key is longer than the block size of the hash function.
+	 *
+	 * @param key
+	 *          the new key for the HMAC.
+	 */
+
+	public void setKey(byte[] key)
+	{
 		// If the key is longer than the block size of the hash function, reduce its length by hashing it
+		hash.reset();
 		if (key.length > HASH_BLOCK_SIZE)
 			key = hash.digest(key);
 
-		// If the key is shorter than the block size of the hash function, pad it with trailing zeros
-		if (key.length < HASH_BLOCK_SIZE)
+		// Create the padded inner and outer keys; a key that is shorter than the block size of the hash function
+		// is padded with trailing zeros
+		for (int i = 0; i < HASH_BLOCK_SIZE; i++)
 		{
-			byte[] k = key;
-			key = new byte[HASH_BLOCK_SIZE];
-			System.arraycopy(k, 0, key, 0, k.length);
+			byte b = (i < key.length) ? key[i] : 0;
+			innerKey[i] = (byte)(b ^ INNER_PADDING);
+			outerKey[i] = (byte)(b ^ OUTER_PADDING);
 		}
 
-		// Set the key instance variable
-		this.key = key.clone();
-
 		// Initialise the function
 		reset();
 	}
 
 	//------------------------------------------------------------------
 
-////////////////////////////////////////////////////////////////////////
-//  Instance methods
-////////////////////////////////////////////////////////////////////////
-
 	/**
 	 * Updates this HMAC with the specified data.
 	 *
@@ -154,6 +185,21 @@ public class HmacSha256
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Updates this HMAC with the remaining data in the specified buffer.  On return, the position of the buffer is
+	 * equal to its limit.  The data are not copied if the buffer is backed by an array.
+	 *
+	 * @param data
+	 *          the buffer that contains the data with which the HMAC will be updated.
+	 */
+
+	public void update(ByteBuffer data)
+	{
+		hash.update(data);
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * Returns the value of this HMAC.
 	 * <p>
@@ -162,29 +208,73 @@ public class HmacSha256
 	 * </p>
 	 *
 	 * @return the value of the HMAC.
+	 * @see    #getValueInto(byte[], int)
 	 * @see    #getValue(byte[])
 	 * @see    #getValue(byte[], int, int)
 	 */
 
 	public byte[] getValue()
 	{
-		// Get the inner hash value
-		byte[] innerHashValue = hash.digest();
+		byte[] value = new byte[HASH_VALUE_SIZE];
+		getValueInto(value, 0);
+		return value;
+	}
 
-		// Create the padded outer key
-		byte[] outerKey = key.clone();
-		for (int i = 0; i < outerKey.length; i++)
-			outerKey[i] ^= OUTER_PADDING;
+	//------------------------------------------------------------------
 
-		// Hash the outer key and inner hash value, and return the result
-		hash.update(outerKey);
-		return hash.digest(innerHashValue);
+	/**
+	 * Stores the value of this HMAC in the specified buffer.  This method does not allocate any memory.  Unlike
+	 * {@link #getValue(byte[])}, which updates the HMAC with the contents of its argument, this method writes to
+	 * {@code buffer}: the contents of {@code buffer} are not hashed.
+	 * <p>
+	 * The HMAC is left in an invalid state by this method, and it must be explicitly reset with {@link #reset()} before
+	 * it can be used again.
+	 * </p>
+	 *
+	 * @param  buffer
+	 *           the buffer in which the value of the HMAC will be stored.
+	 * @param  offset
+	 *           the offset in {@code buffer} at which the value of the HMAC will be stored.
+	 * @throws IllegalArgumentException
+	 *           if {@code buffer} is {@code null}.
+	 * @throws IndexOutOfBoundsException
+	 *           if {@code offset} is negative or there are fewer than {@link #HASH_VALUE_SIZE} bytes in {@code
+	 *           buffer} after {@code offset}.
+	 * @see    #getValue()
+	 */
+
+	public void getValueInto(byte[] buffer,
+							 int    offset)
+	{
+		// Validate arguments
+		if (buffer == null)
+			throw new IllegalArgumentException("Null buffer");
+		if ((offset < 0) || (offset > buffer.length - HASH_VALUE_SIZE))
+			throw new IndexOutOfBoundsException("Offset out of bounds: " + offset);
+
+		// Hash the outer key and inner hash value
+		try
+		{
+			hash.digest(innerHashValue, 0, HASH_VALUE_SIZE);
+			hash.update(outerKey);
+			hash.update(innerHashValue);
+			hash.digest(buffer, offset, HASH_VALUE_SIZE);
+		}
+		catch (DigestException e)
+		{
+			throw new UnexpectedRuntimeException(e);
+		}
+		finally
+		{
+			Arrays.fill(innerHashValue, (byte)0);
+		}
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Updates this HMAC with the specified data and returns the value of the HMAC.
+	 * Updates this HMAC with the specified data and returns the value of the HMAC.  The array is an input to the
+	 * HMAC; to store the value of the HMAC in an existing buffer, use {@link #getValueInto(byte[], int)}.
 	 * <p>
 	 * The HMAC is left in an invalid state by this method, and it must be explicitly reset with {@link #reset()} before
 	 * it can be used again.
@@ -194,6 +284,7 @@ public class HmacSha256
 	 *           the data with which the HMAC will be updated.
 	 * @return the value of the HMAC after it has been updated.
 	 * @see    #getValue()
+	 * @see    #getValueInto(byte[], int)
 	 * @see    #getValue(byte[], int, int)
 	 */
 
@@ -243,6 +334,7 @@ public class HmacSha256
 	 * @see #getValue()
 	 * @see #getValue(byte[])
 	 * @see #getValue(byte[], int, int)
+	 * @see #getValueInto(byte[], int)
 	 */
 
 	public void reset()
@@ -250,12 +342,7 @@ public class HmacSha256
 		// Reset the hash function
 		hash.reset();
 
-		// Create the padded inner key
-		byte[] innerKey = key.clone();
-		for (int i = 0; i < innerKey.length; i++)
-			innerKey[i] ^= INNER_PADDING;
-
-		// Update the hash with the inner key
+		// Update the hash with the padded inner key
 		hash.update(innerKey);
 	}
 
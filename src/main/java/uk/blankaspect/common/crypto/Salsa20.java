@@ -18,6 +18,11 @@ package uk.blankaspect.common.crypto;
 // IMPORTS
 
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import java.nio.ByteOrder;
+
 import java.nio.charset.StandardCharsets;
 
 import java.security.MessageDigest;
@@ -94,6 +99,13 @@ public class Salsa20
 	/** The name of the hash function. */
 	private static final	String	HASH_NAME	= "SHA-256";
 
+	/** The number of blocks that are generated together by the batched core hash function. */
+	private static final	int		BATCH_SIZE	= 8;
+
+	/** A view of a byte array as an array of little-endian 32-bit words. */
+	private static final	VarHandle	WORD_VIEW	=
+			MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
 ////////////////////////////////////////////////////////////////////////
 //  Instance variables
 ////////////////////////////////////////////////////////////////////////
@@ -110,6 +122,12 @@ public class Salsa20
 	/** The output block. */
 	private	int[]	outBlock;
 
+	/** The input blocks of the batched core hash function, interleaved word by word. */
+	private	int[]	batchInBlock;
+
+	/** The output blocks of the batched core hash function, interleaved word by word. */
+	private	int[]	batchOutBlock;
+
 ////////////////////////////////////////////////////////////////////////
 //  Constructors
 ////////////////////////////////////////////////////////////////////////
@@ -128,6 +146,8 @@ public class Salsa20
 		this.numRounds = numRounds;
 		inBlock = new int[BLOCK_SIZE_WORDS];
 		outBlock = new int[BLOCK_SIZE_WORDS];
+		batchInBlock = new int[BLOCK_SIZE_WORDS * BATCH_SIZE];
+		batchOutBlock = new int[BLOCK_SIZE_WORDS * BATCH_SIZE];
 	}
 
 	//------------------------------------------------------------------
@@ -464,6 +484,89 @@ public class Salsa20
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Performs the specified number of rounds of the Salsa20 core hash function on a batch of blocks of data.  In both
+	 * the input and output arrays, word <i>i</i> of block <i>j</i> is at index <i>i</i> &times; {@link #BATCH_SIZE}
+	 * + <i>j</i>, so that each step of the core hash function is applied to all the blocks by a simple loop.
+	 *
+	 * @param inData
+	 *          the blocks of data that will be hashed.
+	 * @param outBuffer
+	 *          a buffer in which the hashed blocks of data will be stored.
+	 * @param numRounds
+	 *          the number of rounds of the Salsa20 core hash function that will be performed.
+	 */
+
+	private static void hashBatch(int[] inData,
+								  int[] outBuffer,
+								  int   numRounds)
+	{
+		// Initialise state from the input data
+		int[] x = outBuffer;
+		System.arraycopy(inData, 0, x, 0, x.length);
+
+		// Transform the input data
+		numRounds >>= 1;
+		for (int i = 0; i < numRounds; i++)
+		{
+			// Column round
+			quarterRound(x,  0,  4,  8, 12);
+			quarterRound(x,  5,  9, 13,  1);
+			quarterRound(x, 10, 14,  2,  6);
+			quarterRound(x, 15,  3,  7, 11);
+
+			// Row round
+			quarterRound(x,  0,  1,  2,  3);
+			quarterRound(x,  5,  6,  7,  4);
+			quarterRound(x, 10, 11,  8,  9);
+			quarterRound(x, 15, 12, 13, 14);
+		}
+
+		// Set the output data to the sum of the input data and the transformed data
+		for (int i = 0; i < x.length; i++)
+			x[i] += inData[i];
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Performs a quarter-round of the Salsa20 core hash function on the specified words of each block of a batch.
+	 *
+	 * @param x
+	 *          the state of the batch of blocks.
+	 * @param a
+	 *          the index of the first word of the quarter-round.
+	 * @param b
+	 *          the index of the second word of the quarter-round.
+	 * @param c
+	 *          the index of the third word of the quarter-round.
+	 * @param d
+	 *          the index of the fourth word of the quarter-round.
+	 */
+
+	private static void quarterRound(int[] x,
+									 int   a,
+									 int   b,
+									 int   c,
+									 int   d)
+	{
+		a *= BATCH_SIZE;
+		b *= BATCH_SIZE;
+		c *= BATCH_SIZE;
+		d *= BATCH_SIZE;
+
+		for (int i = 0; i < BATCH_SIZE; i++)
+			x[b + i] ^= Integer.rotateLeft(x[a + i] + x[d + i], 7);
+		for (int i = 0; i < BATCH_SIZE; i++)
+			x[c + i] ^= Integer.rotateLeft(x[b + i] + x[a + i], 9);
+		for (int i = 0; i < BATCH_SIZE; i++)
+			x[d + i] ^= Integer.rotateLeft(x[c + i] + x[b + i], 13);
+		for (int i = 0; i < BATCH_SIZE; i++)
+			x[a + i] ^= Integer.rotateLeft(x[d + i] + x[c + i], 18);
+	}
+
+	//------------------------------------------------------------------
+
 ////////////////////////////////////////////////////////////////////////
 //  Instance methods : overriding methods
 ////////////////////////////////////////////////////////////////////////
@@ -482,6 +585,8 @@ public class Salsa20
 			Salsa20 copy = (Salsa20)super.clone();
 			copy.inBlock = inBlock.clone();
 			copy.outBlock = outBlock.clone();
+			copy.batchInBlock = batchInBlock.clone();
+			copy.batchOutBlock = batchOutBlock.clone();
 			return copy;
 		}
 		catch (CloneNotSupportedException e)
@@ -759,13 +864,95 @@ public class Salsa20
 		// Copy output block to buffer
 		for (int i = 0; i < BLOCK_SIZE_WORDS; i++)
 		{
-			wordToBytes(outBlock[i], buffer, offset);
+			WORD_VIEW.set(buffer, offset, outBlock[i]);
 			offset += BYTES_PER_WORD;
 		}
 	}
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Generates the specified number of consecutive blocks of data, starting with the specified counter value, and
+	 * stores the resulting data as a sequence of bytes in the specified buffer.
+	 * <p>
+	 * The result is the same as that of calling {@link #getBlock(long, byte[], int)} for each block in turn, but the
+	 * blocks are generated in batches by a version of the core hash function that transforms several blocks at once.
+	 * </p>
+	 *
+	 * @param  blockCounter
+	 *           the value of the block counter that will be used for generating the first block.
+	 * @param  numBlocks
+	 *           the number of blocks that will be generated.
+	 * @param  buffer
+	 *           the buffer in which the generated data will be stored.
+	 * @param  offset
+	 *           the offset in {@code buffer} at which the first byte of the generated data will be stored.
+	 * @throws IllegalArgumentException
+	 *           if {@code numBlocks} is negative.
+	 * @throws IndexOutOfBoundsException
+	 *           if {@code offset} is negative or the generated data would extend beyond the end of {@code buffer}.
+	 * @see    #getBlock(long, byte[], int)
+	 */
+
+	public void getBlocks(long   blockCounter,
+						  int    numBlocks,
+						  byte[] buffer,
+						  int    offset)
+	{
+		// Validate arguments
+		if (numBlocks < 0)
+			throw new IllegalArgumentException("Number of blocks out of bounds");
+		if ((offset < 0) || ((long)numBlocks * BLOCK_SIZE > buffer.length - offset))
+			throw new IndexOutOfBoundsException();
+
+		// Generate whole batches of blocks
+		if (numBlocks >= BATCH_SIZE)
+		{
+			// Copy the input block to each lane of the batched input block
+			for (int i = 0; i < BLOCK_SIZE_WORDS; i++)
+				Arrays.fill(batchInBlock, i * BATCH_SIZE, (i + 1) * BATCH_SIZE, inBlock[i]);
+
+			while (numBlocks >= BATCH_SIZE)
+			{
+				// Set block counters in batched input block
+				for (int i = 0; i < BATCH_SIZE; i++)
+				{
+					long counter = blockCounter + i;
+					batchInBlock[COUNTER_OFFSET * BATCH_SIZE + i] = (int)counter;
+					batchInBlock[(COUNTER_OFFSET + 1) * BATCH_SIZE + i] = (int)(counter >>> 32);
+				}
+
+				// Perform hash
+				hashBatch(batchInBlock, batchOutBlock, numRounds);
+
+				// Copy output blocks to buffer
+				for (int i = 0; i < BATCH_SIZE; i++)
+				{
+					int j = i;
+					for (int k = 0; k < BLOCK_SIZE_WORDS; k++)
+					{
+						WORD_VIEW.set(buffer, offset, batchOutBlock[j]);
+						offset += BYTES_PER_WORD;
+						j += BATCH_SIZE;
+					}
+				}
+
+				// Increment block counter
+				blockCounter += BATCH_SIZE;
+				numBlocks -= BATCH_SIZE;
+			}
+		}
+
+		// Generate remaining blocks
+		while (numBlocks-- > 0)
+		{
+			getBlock(blockCounter++, buffer, offset);
+			offset += BLOCK_SIZE;
+		}
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * Generates a block of data with the current block counter of this cipher and stores the resulting data as a
 	 * sequence of bytes in the specified buffer.
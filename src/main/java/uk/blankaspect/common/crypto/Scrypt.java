@@ -18,12 +18,27 @@ package uk.blankaspect.common.crypto;
 // IMPORTS
 
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 import uk.blankaspect.common.exception.UnexpectedRuntimeException;
 
 import uk.blankaspect.common.misc.IStringKeyed;
@@ -96,6 +111,13 @@ public class Scrypt
 	/** The size (in ints) of a block. */
 	private static final	int	BLOCK_SIZE_INTS	= BLOCK_SIZE / Integer.BYTES;
 
+	/** The default timeout (in milliseconds) of a key derivation. */
+	private static final	long	DEFAULT_TIMEOUT	= 1000 * 1000;
+
+	/** The mask that determines the interval (in iterations of the <i>V</i> array) at which the mixing of a superblock
+		tests whether it has been cancelled. */
+	private static final	int		CANCELLATION_TEST_MASK	= (1 << 10) - 1;
+
 ////////////////////////////////////////////////////////////////////////
 //  Enumerated types
 ////////////////////////////////////////////////////////////////////////
@@ -437,304 +459,1370 @@ public class Scrypt
 
 	//==================================================================
 
-////////////////////////////////////////////////////////////////////////
-//  Member classes : inner classes
-////////////////////////////////////////////////////////////////////////
-
-
-	// CLASS: KEY GENERATOR
+	// CLASS: SCRATCH-MEMORY ARENA
 
 
 	/**
-	 * This class implements a convenient mechanism for running the scrypt key-derivation function (KDF) on its own
-	 * thread.
+	 * This class implements an arena from which the scrypt algorithm draws the scratch memory for the costly <i>V</i>
+	 * array of its highest level of mixing.  The memory of each <i>V</i> array is stored in a small number of large
+	 * flat chunks rather than as an array of rows.  The chunks may be allocated on the Java heap or, for an arena that
+	 * is <i>direct</i>, outside the heap in direct byte buffers.
 	 * <p>
-	 * It is intended that the KDF be run by invoking the {@link KeyGenerator#run() run()} method of this class.  The
-	 * {@link KeyGenerator#run() run()} method handles the two expected error conditions, {@code
-	 * IllegalArgumentException} and {@code OutOfMemoryError}, by setting flags that can be tested by the caller.
+	 * When a key derivation has finished with its scratch memory, the memory is returned to the arena, which retains it
+	 * for reuse by a later derivation with the same block size if the total size of the retained memory would not
+	 * exceed a specified maximum.  An arena whose maximum retained size is zero allocates new memory for every
+	 * derivation.
+	 * </p>
+	 * <p>
+	 * An arena may be shared by several instances of {@link Scrypt}, and it is safe for use by concurrent derivations.
 	 * </p>
 	 */
 
-	public class KeyGenerator
-		implements Runnable
+	public static class ScratchArena
 	{
 
 	////////////////////////////////////////////////////////////////////
-	//  Instance variables
+	//  Constants
 	////////////////////////////////////////////////////////////////////
 
-		/** The key from which the generated key is derived. */
-		private	byte[]			key;
-
-		/** The salt from which the generated key is derived. */
-		private	byte[]			salt;
-
-		/** The parameters of the key-derivation function. */
-		private	Scrypt.Params	params;
+		/** The maximum length (in ints) of a chunk of scratch memory. */
+		private static final	int	MAX_CHUNK_LENGTH	= 1 << 26;
 
-		/** The maximum number of threads that should be allocated for the processing of parallel superblocks in the
-			key-derivation function. */
-		private	int				maxNumThreads;
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
 
-		/** The length (in bytes) of the derived key. */
-		private	int				outKeyLength;
+		/** Flag: if {@code true}, scratch memory is allocated outside the Java heap. */
+		private	boolean			direct;
 
-		/** The derived key. */
-		private	byte[]			derivedKey;
+		/** The maximum size (in bytes) of the scratch memory that is retained by this arena for reuse. */
+		private	long			maxRetainedSize;
 
-		/** Flag: if {@code true}, a parameter of the key-derivation function was invalid. */
-		private	boolean			invalidParameterValue;
+		/** The size (in bytes) of the scratch memory that is currently retained by this arena. */
+		private	long			retainedSize;
 
-		/** Flag: if {@code true}, an {@code OutOfMemoryError} was thrown. */
-		private	boolean			outOfMemory;
+		/** The blocks of scratch memory that are retained by this arena for reuse. */
+		private	List<Scratch>	freeScratches;
 
 	////////////////////////////////////////////////////////////////////
 	//  Constructors
 	////////////////////////////////////////////////////////////////////
 
 		/**
-		 * Creates a new instance of {@code KeyGenerator} for deriving a key from the specified key and salt by means of
-		 * the scrypt key-derivation function with the specified KDF parameters.
+		 * Creates a new instance of a scratch-memory arena.
 		 *
-		 * @param key
-		 *          the key from which the generated key will be derived.
-		 * @param salt
-		 *          the salt from which the generated key will be derived.
-		 * @param params
-		 *          the parameters of the key-derivation function.
-		 * @param maxNumThreads
-		 *          the maximum number of threads that should be allocated for the processing of parallel superblocks in
-		 *          the key-derivation function.
-		 * @param outKeyLength
-		 *          the length (in bytes) of the derived key, which must be a positive integral multiple of 32.
+		 * @param  direct
+		 *           if {@code true}, scratch memory will be allocated outside the Java heap in direct byte buffers;
+		 *           otherwise, it will be allocated on the heap.
+		 * @param  maxRetainedSize
+		 *           the maximum size (in bytes) of the scratch memory that will be retained by the arena for reuse.
+		 * @throws IllegalArgumentException
+		 *           if {@code maxRetainedSize} is negative.
 		 */
 
-		private KeyGenerator(byte[]        key,
-							 byte[]        salt,
-							 Scrypt.Params params,
-							 int           maxNumThreads,
-							 int           outKeyLength)
+		public ScratchArena(boolean direct,
+							long    maxRetainedSize)
 		{
+			// Validate arguments
+			if (maxRetainedSize < 0)
+				throw new IllegalArgumentException("Maximum retained size out of bounds");
+
 			// Initialise instance variables
-			this.key = key;
-			this.salt = salt;
-			this.params = params;
-			this.maxNumThreads = maxNumThreads;
-			this.outKeyLength = outKeyLength;
+			this.direct = direct;
+			this.maxRetainedSize = maxRetainedSize;
+			freeScratches = new ArrayList<>();
 		}
 
 		//--------------------------------------------------------------
 
 	////////////////////////////////////////////////////////////////////
-	//  Instance methods : Runnable interface
+	//  Instance methods
 	////////////////////////////////////////////////////////////////////
 
 		/**
-		 * Runs the scrypt key-derivation function using the key, salt and KDF parameters that were specified when this
-		 * object was created.
-		 * <p>
-		 * The two expected error conditions, {@code IllegalArgumentException} and {@code OutOfMemoryError}, are handled
-		 * by setting flags that can be tested by the caller with {@link #isInvalidParameterValue()} and {@code
-		 * #isOutOfMemory()} respectively.
-		 * </p>
-		 * <p>
-		 * If the KDF completes normally, the derived key can be accessed with {@link #getDerivedKey()}.
-		 * </p>
+		 * Returns {@code true} if this arena allocates scratch memory outside the Java heap.
+		 *
+		 * @return {@code true} if this arena allocates scratch memory outside the Java heap, {@code false} if it
+		 *         allocates it on the heap.
 		 */
 
-		@Override
-		public void run()
+		public boolean isDirect()
 		{
-			try
-			{
-				derivedKey = deriveKey(key, salt, params, maxNumThreads, outKeyLength);
-			}
-			catch (IllegalArgumentException e)
-			{
-				invalidParameterValue = true;
-			}
-			catch (OutOfMemoryError e)
-			{
-				outOfMemory = true;
-			}
+			return direct;
 		}
 
 		//--------------------------------------------------------------
 
-	////////////////////////////////////////////////////////////////////
-	//  Instance methods
-	////////////////////////////////////////////////////////////////////
-
 		/**
-		 * Returns {@code true} if a parameter of the scrypt KDF was invalid when the KDF was executed from this
-		 * generator's {@link #run()} method.
+		 * Returns the maximum size (in bytes) of the scratch memory that is retained by this arena for reuse.
 		 *
-		 * @return {@code true} if a parameter of the scrypt KDF was invalid when the KDF was executed from this
-		 *         generator's {@link #run()} method, {@code false} otherwise.
-		 * @see    #run()
+		 * @return the maximum size (in bytes) of the scratch memory that is retained by this arena for reuse.
 		 */
 
-		public boolean isInvalidParameterValue()
+		public long getMaxRetainedSize()
 		{
-			return invalidParameterValue;
+			return maxRetainedSize;
 		}
 
 		//--------------------------------------------------------------
 
 		/**
-		 * Returns {@code true} if there was not enough memory for the scrypt KDF when it was executed from this
-		 * generator's {@link #run()} method.
+		 * Returns the size (in bytes) of the scratch memory that is currently retained by this arena for reuse.
 		 *
-		 * @return {@code true} if there was not enough memory for the scrypt KDF when it was executed from this
-		 *         generator's {@link #run()} method, {@code false} otherwise.
-		 * @see    #run()
+		 * @return the size (in bytes) of the scratch memory that is currently retained by this arena for reuse.
 		 */
 
-		public boolean isOutOfMemory()
+		public synchronized long getRetainedSize()
 		{
-			return outOfMemory;
+			return retainedSize;
 		}
 
 		//--------------------------------------------------------------
 
 		/**
-		 * Returns the key that was derived by the scrypt KDF when it was executed from this object's {@link #run()}
-		 * method.
+		 * Discards all the scratch memory that is retained by this arena for reuse.
+		 */
+
+		public synchronized void clear()
+		{
+			freeScratches.clear();
+			retainedSize = 0;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns a block of scratch memory that can hold at least the specified number of rows of the specified
+		 * length.  A block that is retained by this arena is returned if a suitable one is available; otherwise, a new
+		 * block is allocated.
 		 *
-		 * @return the key that was derived by the scrypt KDF when it was executed from this object's {@link #run()}
-		 *         method.  The returned value will be {@code null} if the KDF has not been executed or if it did not
-		 *         complete normally.
+		 * @param  numRows
+		 *           the number of rows.
+		 * @param  rowLength
+		 *           the length (in ints) of a row.
+		 * @return a block of scratch memory for {@code numRows} rows of length {@code rowLength}.
 		 */
 
-		public byte[] getDerivedKey()
+		private Scratch allocate(int numRows,
+								 int rowLength)
 		{
-			return derivedKey;
+			// Look for a retained block of memory of a suitable size
+			synchronized (this)
+			{
+				for (int i = 0; i < freeScratches.size(); i++)
+				{
+					Scratch scratch = freeScratches.get(i);
+					if ((scratch.rowLength == rowLength) && (scratch.numRows >= numRows))
+					{
+						freeScratches.remove(i);
+						retainedSize -= scratch.getSize();
+						return scratch;
+					}
+				}
+			}
+
+			// Allocate a new block of memory
+			return new Scratch(numRows, rowLength, direct);
 		}
 
 		//--------------------------------------------------------------
 
-	}
+		/**
+		 * Returns the specified block of scratch memory to this arena.  The block is cleared so that it no longer holds
+		 * any state of the KDF, and it is retained for reuse if the total size of the retained memory would not exceed
+		 * the maximum retained size of this arena.
+		 *
+		 * @param scratch
+		 *          the block of scratch memory that will be returned to this arena.
+		 */
 
-	//==================================================================
+		private void release(Scratch scratch)
+		{
+			// Clear the block outside the lock, because it may be large
+			scratch.clear();
 
-////////////////////////////////////////////////////////////////////////
-//  Class variables
-////////////////////////////////////////////////////////////////////////
+			// Retain the block for reuse
+			synchronized (this)
+			{
+				long size = scratch.getSize();
+				if (retainedSize + size <= maxRetainedSize)
+				{
+					freeScratches.add(scratch);
+					retainedSize += size;
+				}
+			}
+		}
 
-	/** The index of the next thread that is created when deriving a key. */
-	private static	int	threadIndex;
+		//--------------------------------------------------------------
 
-////////////////////////////////////////////////////////////////////////
-//  Instance variables
-////////////////////////////////////////////////////////////////////////
+	}
 
-	/** The number of rounds of the core hash function. */
-	private CoreHashNumRounds	coreHashNumRounds;
+	//==================================================================
 
-	/** The core hash function. */
-	private ICoreHashFunction	coreHashFunction;
 
-////////////////////////////////////////////////////////////////////////
-//  Constructors
-////////////////////////////////////////////////////////////////////////
+	// CLASS: SCRATCH MEMORY
+
 
 	/**
-	 * Creates a new instance of a scrypt password-based key-derivation function with the specified core hash function
-	 * and number of rounds of that function.
-	 *
-	 * @param coreHashNumRounds
-	 *          the number of rounds of the core hash function.
-	 * @param coreHashFunction
-	 *          the core hash function.
+	 * This class implements a block of scratch memory that holds the rows of the <i>V</i> array of the scrypt
+	 * algorithm.  The rows are stored consecutively in one or more flat chunks, each of which is either an {@code int}
+	 * array or a view of a direct byte buffer.  A block is used by only one key derivation at a time, so a row of a
+	 * direct chunk is accessed by setting the position of the chunk and performing a relative bulk operation.
 	 */
 
-	public Scrypt(CoreHashNumRounds coreHashNumRounds,
-				  ICoreHashFunction coreHashFunction)
+	private static class Scratch
 	{
-		// Validate arguments
-		if (coreHashNumRounds == null)
-			throw new IllegalArgumentException("Null core hash number of rounds");
-		if (coreHashFunction == null)
-			throw new IllegalArgumentException("Null core hash function");
 
-		// Initialise instance variables
-		this.coreHashNumRounds = coreHashNumRounds;
-		this.coreHashFunction = coreHashFunction;
-	}
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
 
-	//------------------------------------------------------------------
+		/** The number of rows. */
+		private	int			numRows;
 
-////////////////////////////////////////////////////////////////////////
-//  Instance methods
-////////////////////////////////////////////////////////////////////////
+		/** The length (in ints) of a row. */
+		private	int			rowLength;
 
-	/**
-	 * Returns the number of rounds of the core hash function that will be performed by the scrypt key-derivation
-	 * function.
-	 * <p>
-	 * In the scrypt specification, the number of rounds is fixed at 8, but this implementation supports 8, 12, 16 and
-	 * 20 rounds.
-	 * </p>
-	 * <p>
-	 * The default value is 8.
-	 * </p>
-	 *
-	 * @return the number of rounds of the core hash function that will be performed by the scrypt key-derivation
-	 *         function.
-	 * @see    #setCoreHashNumRounds(CoreHashNumRounds)
-	 */
+		/** The number of rows in a chunk. */
+		private	int			rowsPerChunk;
 
-	public CoreHashNumRounds getCoreHashNumRounds()
-	{
-		return coreHashNumRounds;
-	}
+		/** The chunks of memory on the Java heap, or {@code null} if the memory is outside the heap. */
+		private	int[][]		heapChunks;
 
-	//------------------------------------------------------------------
+		/** The chunks of memory outside the Java heap, or {@code null} if the memory is on the heap. */
+		private	IntBuffer[]	directChunks;
 
-	/**
-	 * Derives a key from the specified key and salt using the scrypt key-derivation function with the specified
-	 * parameters, and returns the derived key.
-	 *
-	 * @param  key
-	 *           the key from which the key will be derived.
-	 * @param  salt
-	 *           the salt from which the key will be derived.
-	 * @param  params
-	 *           the parameters of the scrypt algorithm: CPU/memory cost, block size and parallelisation.
-	 * @param  maxNumThreads
-	 *           the maximum number of threads that will be created to perform the mixing of the parallel superblocks at
-	 *           the highest level of the KDF.
-	 * @param  outKeyLength
-	 *           the length (in bytes) of the derived key, which must be a positive integral multiple of 32.
-	 * @return a derived key of length {@code outKeyLength}.
-	 * @throws IllegalArgumentException
-	 *           if
-	 *           <ul>
-	 *             <li>{@code key} is {@code null}, or</li>
-	 *             <li>{@code salt} is {@code null}, or</li>
-	 *             <li>{@code params.cost} is less than 1 or greater than 24, or</li>
-	 *             <li>{@code params.numBlocks} is less than 1 or greater than 1024, or</li>
-	 *             <li>{@code params.numSuperblocks} is less than 1 or greater than 64, or</li>
-	 *             <li>{@code maxNumThreads} is less than 1 or greater than 64, or</li>
-	 *             <li>{@code outKeyLength} is not a positive integral multiple of 32.</li>
-	 *           </ul>
-	 * @see    #deriveKey(byte[], byte[], int, int, int, int, int)
-	 * @see    Scrypt.Params
-	 */
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
 
-	public byte[] deriveKey(byte[] key,
-							byte[] salt,
-							Params params,
-							int    maxNumThreads,
-							int    outKeyLength)
-	{
-		return deriveKey(key, salt, params.cost, params.numBlocks, params.numSuperblocks, maxNumThreads,
-						 outKeyLength);
-	}
+		/**
+		 * Creates a block of scratch memory that can hold the specified number of rows of the specified length.
+		 *
+		 * @param numRows
+		 *          the number of rows.
+		 * @param rowLength
+		 *          the length (in ints) of a row.
+		 * @param direct
+		 *          if {@code true}, the memory will be allocated outside the Java heap in direct byte buffers.
+		 */
 
-	//------------------------------------------------------------------
+		private Scratch(int     numRows,
+						int     rowLength,
+						boolean direct)
+		{
+			// Initialise instance variables
+			this.numRows = numRows;
+			this.rowLength = rowLength;
+			rowsPerChunk = Math.min(Math.max(1, ScratchArena.MAX_CHUNK_LENGTH / rowLength), numRows);
 
-	/**
+			// Allocate chunks
+			int numChunks = (numRows + rowsPerChunk - 1) / rowsPerChunk;
+			if (direct)
+			{
+				directChunks = new IntBuffer[numChunks];
+				for (int i = 0; i < numChunks; i++)
+				{
+					int numChunkRows = Math.min(numRows - i * rowsPerChunk, rowsPerChunk);
+					directChunks[i] = ByteBuffer.allocateDirect(numChunkRows * rowLength * Integer.BYTES)
+													.order(ByteOrder.nativeOrder()).asIntBuffer();
+				}
+			}
+			else
+			{
+				heapChunks = new int[numChunks][];
+				for (int i = 0; i < numChunks; i++)
+				{
+					int numChunkRows = Math.min(numRows - i * rowsPerChunk, rowsPerChunk);
+					heapChunks[i] = new int[numChunkRows * rowLength];
+				}
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns the size (in bytes) of this block of scratch memory.
+		 *
+		 * @return the size (in bytes) of this block of scratch memory.
+		 */
+
+		private long getSize()
+		{
+			return (long)numRows * rowLength * Integer.BYTES;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Sets all the elements of this block of scratch memory to zero.
+		 */
+
+		private void clear()
+		{
+			if (heapChunks == null)
+			{
+				int[] zeros = new int[Math.min(directChunks[0].capacity(), 1 << 12)];
+				for (IntBuffer chunk : directChunks)
+				{
+					int length = chunk.capacity();
+					chunk.clear();
+					for (int offset = 0; offset < length; offset += zeros.length)
+						chunk.put(zeros, 0, Math.min(zeros.length, length - offset));
+				}
+			}
+			else
+			{
+				for (int[] chunk : heapChunks)
+					Arrays.fill(chunk, 0);
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Copies the specified data to the specified row.
+		 *
+		 * @param index
+		 *          the index of the row.
+		 * @param data
+		 *          the data that will be copied to the row.
+		 */
+
+		private void putRow(int   index,
+							int[] data)
+		{
+			int chunkIndex = index / rowsPerChunk;
+			int offset = (index - chunkIndex * rowsPerChunk) * rowLength;
+			if (heapChunks == null)
+			{
+				IntBuffer chunk = directChunks[chunkIndex];
+				chunk.position(offset);
+				chunk.put(data, 0, rowLength);
+			}
+			else
+				System.arraycopy(data, 0, heapChunks[chunkIndex], offset, rowLength);
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Copies the specified row to the specified buffer.
+		 *
+		 * @param index
+		 *          the index of the row.
+		 * @param buffer
+		 *          the buffer in which the data of the row will be stored.
+		 */
+
+		private void getRow(int   index,
+							int[] buffer)
+		{
+			int chunkIndex = index / rowsPerChunk;
+			int offset = (index - chunkIndex * rowsPerChunk) * rowLength;
+			if (heapChunks == null)
+			{
+				IntBuffer chunk = directChunks[chunkIndex];
+				chunk.position(offset);
+				chunk.get(buffer, 0, rowLength);
+			}
+			else
+				System.arraycopy(heapChunks[chunkIndex], offset, buffer, 0, rowLength);
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CLASS: MEMORY BUDGET
+
+
+	/**
+	 * This class implements a mechanism for controlling the admission of scrypt key derivations according to the amount
+	 * of memory that they require.
+	 * <p style="margin-bottom: 0.25em">
+	 * A memory budget has a fixed capacity.  Before a derivation starts, it acquires the amount of memory that it
+	 * requires from the budget, and it releases the memory when it has finished:
+	 * </p>
+	 * <ul style="margin-top: 0.25em">
+	 *   <li>If the required amount exceeds the capacity of the budget, the derivation is refused by throwing an {@link
+	 *       OutOfMemoryError}, which is reported in the same way as a lack of memory.</li>
+	 *   <li>Otherwise, if the required amount exceeds the amount that is currently available, the derivation waits
+	 *       until enough memory has been released by other derivations.</li>
+	 * </ul>
+	 * <p>
+	 * A memory budget is typically shared by all the instances of {@link Scrypt} in an application (see {@link
+	 * Scrypt#setDefaultMemoryBudget(MemoryBudget)}) so that concurrent derivations cannot together exhaust the heap.
+	 * </p>
+	 */
+
+	public static class MemoryBudget
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		/** The capacity (in bytes) of this budget. */
+		private	long	capacity;
+
+		/** The amount of memory (in bytes) that is currently available. */
+		private	long	available;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a new instance of a memory budget with the specified capacity.
+		 *
+		 * @param  capacity
+		 *           the capacity (in bytes) of the budget.
+		 * @throws IllegalArgumentException
+		 *           if {@code capacity} is not positive.
+		 */
+
+		public MemoryBudget(long capacity)
+		{
+			// Validate arguments
+			if (capacity <= 0)
+				throw new IllegalArgumentException("Capacity out of bounds");
+
+			// Initialise instance variables
+			this.capacity = capacity;
+			available = capacity;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns the capacity (in bytes) of this budget.
+		 *
+		 * @return the capacity (in bytes) of this budget.
+		 */
+
+		public long getCapacity()
+		{
+			return capacity;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the amount of memory (in bytes) that is currently available from this budget.
+		 *
+		 * @return the amount of memory (in bytes) that is currently available from this budget.
+		 */
+
+		public synchronized long getAvailable()
+		{
+			return available;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Acquires the specified amount of memory from this budget without waiting.
+		 *
+		 * @param  size
+		 *           the amount of memory (in bytes) that will be acquired.
+		 * @return {@code true} if the memory was acquired, {@code false} if not enough memory was available.
+		 */
+
+		public synchronized boolean tryAcquire(long size)
+		{
+			if (size > available)
+				return false;
+			available -= size;
+			return true;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Acquires the specified amount of memory from this budget, waiting until enough memory is available.
+		 *
+		 * @param  size
+		 *           the amount of memory (in bytes) that will be acquired.
+		 * @throws OutOfMemoryError
+		 *           if {@code size} exceeds the capacity of this budget.
+		 * @throws InterruptedException
+		 *           if the current thread is interrupted while it is waiting for memory to become available.
+		 */
+
+		public synchronized void acquire(long size)
+			throws InterruptedException
+		{
+			if (size > capacity)
+				throw new OutOfMemoryError("Memory budget exceeded");
+			while (size > available)
+				wait();
+			available -= size;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Acquires the specified amount of memory from this budget, waiting until enough memory is available or the
+		 * specified timeout expires.
+		 *
+		 * @param  size
+		 *           the amount of memory (in bytes) that will be acquired.
+		 * @param  timeout
+		 *           the maximum time (in milliseconds) to wait for memory to become available.  If it is zero or
+		 *           negative, this method does not wait.
+		 * @return {@code true} if the memory was acquired, {@code false} if the timeout expired before enough memory
+		 *         became available.
+		 * @throws OutOfMemoryError
+		 *           if {@code size} exceeds the capacity of this budget.
+		 * @throws InterruptedException
+		 *           if the current thread is interrupted while it is waiting for memory to become available.
+		 */
+
+		public synchronized boolean acquire(long size,
+											long timeout)
+			throws InterruptedException
+		{
+			if (size > capacity)
+				throw new OutOfMemoryError("Memory budget exceeded");
+			long deadline = System.currentTimeMillis() + timeout;
+			while (size > available)
+			{
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					return false;
+				wait(remaining);
+			}
+			available -= size;
+			return true;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Releases the specified amount of memory to this budget.
+		 *
+		 * @param size
+		 *          the amount of memory (in bytes) that will be released.
+		 */
+
+		public synchronized void release(long size)
+		{
+			available = Math.min(available + size, capacity);
+			notifyAll();
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CLASS: TIMEOUT-EXPIRED EXCEPTION
+
+
+	/**
+	 * This class implements an exception that is thrown when a key derivation is abandoned because its timeout expired.
+	 * It is a kind of {@link CancellationException}, so a caller that does not need to distinguish between the two
+	 * causes may treat a timeout in the same way as a cancellation.
+	 *
+	 * @see Scrypt#setTimeout(long)
+	 */
+
+	public static class TimeoutExpiredException
+		extends CancellationException
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a new instance of an exception that is thrown when the timeout of a key derivation expires.
+		 */
+
+		public TimeoutExpiredException()
+		{
+			super("Key derivation timed out");
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Member classes : inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// CLASS: KEY GENERATOR
+
+
+	/**
+	 * This class implements a convenient mechanism for running the scrypt key-derivation function (KDF) on its own
+	 * thread.
+	 * <p>
+	 * It is intended that the KDF be run by invoking the {@link KeyGenerator#run() run()} method of this class.  The
+	 * {@link KeyGenerator#run() run()} method handles the two expected error conditions, {@code
+	 * IllegalArgumentException} and {@code OutOfMemoryError}, by setting flags that can be tested by the caller.
+	 * </p>
+	 */
+
+	public class KeyGenerator
+		implements Runnable
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		/** The key from which the generated key is derived. */
+		private	byte[]			key;
+
+		/** The salt from which the generated key is derived. */
+		private	byte[]			salt;
+
+		/** The parameters of the key-derivation function. */
+		private	Scrypt.Params	params;
+
+		/** The maximum number of threads that should be allocated for the processing of parallel superblocks in the
+			key-derivation function. */
+		private	int				maxNumThreads;
+
+		/** The length (in bytes) of the derived key. */
+		private	int				outKeyLength;
+
+		/** The derived key. */
+		private	byte[]			derivedKey;
+
+		/** Flag: if {@code true}, a parameter of the key-derivation function was invalid. */
+		private	boolean			invalidParameterValue;
+
+		/** Flag: if {@code true}, an {@code OutOfMemoryError} was thrown. */
+		private	boolean			outOfMemory;
+
+		/** Flag: if {@code true}, the timeout of the key derivation expired. */
+		private	boolean			timedOut;
+
+		/** The thread on which the key derivation is running, or {@code null} if it is not running. */
+		private	Thread			thread;
+
+		/** Flag: if {@code true}, the key derivation was cancelled. */
+		private volatile	boolean	cancelled;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a new instance of {@code KeyGenerator} for deriving a key from the specified key and salt by means of
+		 * the scrypt key-derivation function with the specified KDF parameters.
+		 *
+		 * @param key
+		 *          the key from which the generated key will be derived.
+		 * @param salt
+		 *          the salt from which the generated key will be derived.
+		 * @param params
+		 *          the parameters of the key-derivation function.
+		 * @param maxNumThreads
+		 *          the maximum number of threads that should be allocated for the processing of parallel superblocks in
+		 *          the key-derivation function.
+		 * @param outKeyLength
+		 *          the length (in bytes) of the derived key, which must be a positive integral multiple of 32.
+		 */
+
+		private KeyGenerator(byte[]        key,
+							 byte[]        salt,
+							 Scrypt.Params params,
+							 int           maxNumThreads,
+							 int           outKeyLength)
+		{
+			// Initialise instance variables
+			this.key = key;
+			this.salt = salt;
+			this.params = params;
+			this.maxNumThreads = maxNumThreads;
+			this.outKeyLength = outKeyLength;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : Runnable interface
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Runs the scrypt key-derivation function using the key, salt and KDF parameters that were specified when this
+		 * object was created.
+		 * <p>
+		 * The two expected error conditions, {@code IllegalArgumentException} and {@code OutOfMemoryError}, are handled
+		 * by setting flags that can be tested by the caller with {@link #isInvalidParameterValue()} and {@code
+		 * #isOutOfMemory()} respectively.  Similarly, the cancellation of the KDF by {@link #cancel()} and the expiry
+		 * of its timeout can be tested with {@link #isCancelled()} and {@link #isTimedOut()}.
+		 * </p>
+		 * <p>
+		 * If the KDF completes normally, the derived key can be accessed with {@link #getDerivedKey()}.
+		 * </p>
+		 */
+
+		@Override
+		public void run()
+		{
+			// Record the thread on which the KDF is running, unless the generator has already been cancelled
+			synchronized (this)
+			{
+				if (cancelled)
+					return;
+				thread = Thread.currentThread();
+			}
+
+			// Run the KDF
+			try
+			{
+				derivedKey = deriveKey(key, salt, params, maxNumThreads, outKeyLength);
+			}
+			catch (IllegalArgumentException e)
+			{
+				invalidParameterValue = true;
+			}
+			catch (OutOfMemoryError e)
+			{
+				outOfMemory = true;
+			}
+			catch (TimeoutExpiredException e)
+			{
+				timedOut = true;
+			}
+			catch (CancellationException e)
+			{
+				cancelled = true;
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					thread = null;
+					if (cancelled)
+						Thread.interrupted();
+				}
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns {@code true} if a parameter of the scrypt KDF was invalid when the KDF was executed from this
+		 * generator's {@link #run()} method.
+		 *
+		 * @return {@code true} if a parameter of the scrypt KDF was invalid when the KDF was executed from this
+		 *         generator's {@link #run()} method, {@code false} otherwise.
+		 * @see    #run()
+		 */
+
+		public boolean isInvalidParameterValue()
+		{
+			return invalidParameterValue;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns {@code true} if there was not enough memory for the scrypt KDF when it was executed from this
+		 * generator's {@link #run()} method.
+		 *
+		 * @return {@code true} if there was not enough memory for the scrypt KDF when it was executed from this
+		 *         generator's {@link #run()} method, {@code false} otherwise.
+		 * @see    #run()
+		 */
+
+		public boolean isOutOfMemory()
+		{
+			return outOfMemory;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns {@code true} if the scrypt KDF was cancelled.
+		 *
+		 * @return {@code true} if the scrypt KDF was cancelled, {@code false} otherwise.
+		 * @see    #cancel()
+		 */
+
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns {@code true} if the scrypt KDF was abandoned because its timeout expired when it was executed from
+		 * this generator's {@link #run()} method.
+		 *
+		 * @return {@code true} if the scrypt KDF was abandoned because its timeout expired, {@code false} otherwise.
+		 * @see    Scrypt#setTimeout(long)
+		 */
+
+		public boolean isTimedOut()
+		{
+			return timedOut;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Cancels the scrypt KDF.  If the KDF is running, the thread on which it is running is interrupted, which causes
+		 * the KDF to stop at the next opportunity; if it has not started, it will not run.
+		 *
+		 * @see #isCancelled()
+		 */
+
+		public synchronized void cancel()
+		{
+			cancelled = true;
+			if (thread != null)
+				thread.interrupt();
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the key that was derived by the scrypt KDF when it was executed from this object's {@link #run()}
+		 * method.
+		 *
+		 * @return the key that was derived by the scrypt KDF when it was executed from this object's {@link #run()}
+		 *         method.  The returned value will be {@code null} if the KDF has not been executed or if it did not
+		 *         complete normally.
+		 */
+
+		public byte[] getDerivedKey()
+		{
+			return derivedKey;
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Class variables
+////////////////////////////////////////////////////////////////////////
+
+	/** The index of the next thread that is created when deriving a key. */
+	private static final	AtomicInteger	threadIndex	= new AtomicInteger();
+
+	/** The scratch-memory arena that is used by new instances of this class. */
+	private static	ScratchArena	defaultScratchArena	= new ScratchArena(false, 0);
+
+	/** The memory budget that is used by new instances of this class. */
+	private static	MemoryBudget	defaultMemoryBudget;
+
+	/** The executor that is used by new instances of this class to mix superblocks. */
+	private static	ExecutorService	defaultExecutor;
+
+	/** The timeout (in milliseconds) of a key derivation by new instances of this class. */
+	private static	long			defaultTimeout	= DEFAULT_TIMEOUT;
+
+////////////////////////////////////////////////////////////////////////
+//  Instance variables
+////////////////////////////////////////////////////////////////////////
+
+	/** The number of rounds of the core hash function. */
+	private CoreHashNumRounds	coreHashNumRounds;
+
+	/** The core hash function. */
+	private ICoreHashFunction	coreHashFunction;
+
+	/** The arena from which scratch memory is drawn. */
+	private ScratchArena		scratchArena;
+
+	/** The memory budget that controls the admission of key derivations, or {@code null} if there is no budget. */
+	private MemoryBudget		memoryBudget;
+
+	/** The executor that mixes superblocks, or {@code null} if a thread pool is created for each key derivation. */
+	private ExecutorService		executor;
+
+	/** The timeout (in milliseconds) of a key derivation. */
+	private long				timeout;
+
+////////////////////////////////////////////////////////////////////////
+//  Constructors
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Creates a new instance of a scrypt password-based key-derivation function with the specified core hash function
+	 * and number of rounds of that function.
+	 *
+	 * @param coreHashNumRounds
+	 *          the number of rounds of the core hash function.
+	 * @param coreHashFunction
+	 *          the core hash function.
+	 */
+
+	public Scrypt(CoreHashNumRounds coreHashNumRounds,
+				  ICoreHashFunction coreHashFunction)
+	{
+		// Validate arguments
+		if (coreHashNumRounds == null)
+			throw new IllegalArgumentException("Null core hash number of rounds");
+		if (coreHashFunction == null)
+			throw new IllegalArgumentException("Null core hash function");
+
+		// Initialise instance variables
+		this.coreHashNumRounds = coreHashNumRounds;
+		this.coreHashFunction = coreHashFunction;
+		scratchArena = defaultScratchArena;
+		memoryBudget = defaultMemoryBudget;
+		executor = defaultExecutor;
+		timeout = defaultTimeout;
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Class methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Returns the scratch-memory arena that is used by new instances of this class.
+	 * <p>
+	 * The initial default arena allocates scratch memory on the Java heap and does not retain it for reuse.
+	 * </p>
+	 *
+	 * @return the scratch-memory arena that is used by new instances of this class.
+	 * @see    #setDefaultScratchArena(ScratchArena)
+	 */
+
+	public static ScratchArena getDefaultScratchArena()
+	{
+		return defaultScratchArena;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the scratch-memory arena that will be used by new instances of this class.
+	 *
+	 * @param  arena
+	 *           the scratch-memory arena that will be used by new instances of this class.
+	 * @throws IllegalArgumentException
+	 *           if {@code arena} is {@code null}.
+	 * @see    #getDefaultScratchArena()
+	 */
+
+	public static void setDefaultScratchArena(ScratchArena arena)
+	{
+		// Validate argument
+		if (arena == null)
+			throw new IllegalArgumentException("Null arena");
+
+		// Update class variable
+		defaultScratchArena = arena;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the memory budget that is used by new instances of this class.
+	 *
+	 * @return the memory budget that is used by new instances of this class, or {@code null} if new instances have no
+	 *         memory budget.
+	 * @see    #setDefaultMemoryBudget(MemoryBudget)
+	 */
+
+	public static MemoryBudget getDefaultMemoryBudget()
+	{
+		return defaultMemoryBudget;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the memory budget that will be used by new instances of this class.
+	 *
+	 * @param budget
+	 *          the memory budget that will be used by new instances of this class, which may be {@code null}.
+	 * @see   #getDefaultMemoryBudget()
+	 */
+
+	public static void setDefaultMemoryBudget(MemoryBudget budget)
+	{
+		defaultMemoryBudget = budget;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the executor that is used by new instances of this class to mix the superblocks of a key derivation.
+	 *
+	 * @return the executor that is used by new instances of this class, or {@code null} if new instances create a
+	 *         thread pool for each key derivation.
+	 * @see    #setDefaultExecutor(ExecutorService)
+	 */
+
+	public static ExecutorService getDefaultExecutor()
+	{
+		return defaultExecutor;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the executor that will be used by new instances of this class to mix the superblocks of a key derivation.
+	 *
+	 * @param executor
+	 *          the executor that will be used by new instances of this class, or {@code null} if new instances are to
+	 *          create a thread pool for each key derivation.
+	 * @see   #getDefaultExecutor()
+	 * @see   #createExecutor(int)
+	 */
+
+	public static void setDefaultExecutor(ExecutorService executor)
+	{
+		defaultExecutor = executor;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the timeout of a key derivation by new instances of this class.
+	 *
+	 * @return the timeout (in milliseconds) of a key derivation by new instances of this class.  A value of zero
+	 *         denotes no timeout.
+	 * @see    #setDefaultTimeout(long)
+	 */
+
+	public static long getDefaultTimeout()
+	{
+		return defaultTimeout;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the timeout of a key derivation by new instances of this class.
+	 *
+	 * @param  timeout
+	 *           the timeout (in milliseconds) of a key derivation by new instances of this class.  A value of zero
+	 *           denotes no timeout.
+	 * @throws IllegalArgumentException
+	 *           if {@code timeout} is negative.
+	 * @see    #getDefaultTimeout()
+	 */
+
+	public static void setDefaultTimeout(long timeout)
+	{
+		// Validate argument
+		if (timeout < 0)
+			throw new IllegalArgumentException("Timeout out of bounds");
+
+		// Update class variable
+		defaultTimeout = timeout;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Creates and returns a thread pool with the specified number of daemon threads that is suitable for sharing between
+	 * instances of this class for the mixing of superblocks.  The superblocks of concurrent key derivations are queued
+	 * for the threads of the pool.
+	 * <p>
+	 * The pool must not be used to run key derivations themselves: a derivation waits for the mixing of its
+	 * superblocks, which could not proceed if all the threads of the pool were occupied by waiting derivations.
+	 * </p>
+	 *
+	 * @param  numThreads
+	 *           the number of threads of the pool.
+	 * @return a thread pool with {@code numThreads} daemon threads.
+	 * @throws IllegalArgumentException
+	 *           if {@code numThreads} is less than 1 or greater than 64.
+	 * @see    #setDefaultExecutor(ExecutorService)
+	 * @see    #setExecutor(ExecutorService)
+	 */
+
+	public static ExecutorService createExecutor(int numThreads)
+	{
+		// Validate argument
+		if ((numThreads < MIN_NUM_THREADS) || (numThreads > MAX_NUM_THREADS))
+			throw new IllegalArgumentException("Number of threads out of bounds");
+
+		// Create thread pool
+		return Executors.newFixedThreadPool(numThreads, runnable ->
+				DaemonFactory.create(Scrypt.class.getSimpleName() + "-" + threadIndex.getAndIncrement(), runnable));
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the approximate amount of memory that is required to derive a key with the specified parameters.  The
+	 * amount is dominated by the <i>V</i> array of each superblock that is mixed concurrently.
+	 *
+	 * @param  cost
+	 *           the binary logarithm of the scrypt CPU/memory cost parameter, <i>N</i>.
+	 * @param  numBlocks
+	 *           the number of blocks: the scrypt block size parameter, <i>r</i>.
+	 * @param  numSuperblocks
+	 *           the number of parallel superblocks: the scrypt parallelisation parameter, <i>p</i>.
+	 * @param  maxNumThreads
+	 *           the maximum number of threads that will be created to perform the mixing of the parallel superblocks.
+	 * @return the approximate amount of memory (in bytes) that is required to derive a key.
+	 */
+
+	public static long getMemorySize(int cost,
+									 int numBlocks,
+									 int numSuperblocks,
+									 int maxNumThreads)
+	{
+		final	int	NUM_WORKING_ARRAYS	= 4;
+
+		long superblockSize = (long)numBlocks * BLOCK_SIZE;
+		int numThreads = Math.min(numSuperblocks, maxNumThreads);
+		return (numThreads * ((1L << cost) + NUM_WORKING_ARRAYS) + numSuperblocks) * superblockSize;
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Returns the number of rounds of the core hash function that will be performed by the scrypt key-derivation
+	 * function.
+	 * <p>
+	 * In the scrypt specification, the number of rounds is fixed at 8, but this implementation supports 8, 12, 16 and
+	 * 20 rounds.
+	 * </p>
+	 * <p>
+	 * The default value is 8.
+	 * </p>
+	 *
+	 * @return the number of rounds of the core hash function that will be performed by the scrypt key-derivation
+	 *         function.
+	 * @see    #setCoreHashNumRounds(CoreHashNumRounds)
+	 */
+
+	public CoreHashNumRounds getCoreHashNumRounds()
+	{
+		return coreHashNumRounds;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the arena from which this KDF draws its scratch memory.
+	 *
+	 * @return the arena from which this KDF draws its scratch memory.
+	 * @see    #setScratchArena(ScratchArena)
+	 */
+
+	public ScratchArena getScratchArena()
+	{
+		return scratchArena;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the arena from which this KDF will draw its scratch memory.
+	 *
+	 * @param  arena
+	 *           the arena from which this KDF will draw its scratch memory.
+	 * @throws IllegalArgumentException
+	 *           if {@code arena} is {@code null}.
+	 * @see    #getScratchArena()
+	 */
+
+	public void setScratchArena(ScratchArena arena)
+	{
+		// Validate argument
+		if (arena == null)
+			throw new IllegalArgumentException("Null arena");
+
+		// Update instance variable
+		scratchArena = arena;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the memory budget that controls the admission of key derivations by this KDF.
+	 *
+	 * @return the memory budget that controls the admission of key derivations by this KDF, or {@code null} if there
+	 *         is no budget.
+	 * @see    #setMemoryBudget(MemoryBudget)
+	 */
+
+	public MemoryBudget getMemoryBudget()
+	{
+		return memoryBudget;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the memory budget that will control the admission of key derivations by this KDF.
+	 *
+	 * @param budget
+	 *          the memory budget that will control the admission of key derivations by this KDF, or {@code null} if
+	 *          derivations are not to be controlled by a budget.
+	 * @see   #getMemoryBudget()
+	 */
+
+	public void setMemoryBudget(MemoryBudget budget)
+	{
+		memoryBudget = budget;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the executor that mixes the superblocks of a key derivation by this KDF.
+	 *
+	 * @return the executor that mixes the superblocks of a key derivation by this KDF, or {@code null} if a thread pool
+	 *         is created for each key derivation.
+	 * @see    #setExecutor(ExecutorService)
+	 */
+
+	public ExecutorService getExecutor()
+	{
+		return executor;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the executor that will mix the superblocks of a key derivation by this KDF.  A shared executor with a bounded
+	 * number of threads (for example, one that is created by {@link #createExecutor(int)}) avoids the creation of a
+	 * thread pool for each derivation when many keys are derived concurrently.  When an executor is set, the {@code
+	 * maxNumThreads} argument of {@code deriveKey} limits the number of superblocks of a derivation that are submitted
+	 * to the executor at any time, so that the memory that the derivation uses does not exceed the estimate from
+	 * which its reservation against the memory budget is made.
+	 *
+	 * @param executor
+	 *          the executor that will mix the superblocks of a key derivation by this KDF, or {@code null} if a thread
+	 *          pool is to be created for each key derivation.
+	 * @see   #getExecutor()
+	 */
+
+	public void setExecutor(ExecutorService executor)
+	{
+		this.executor = executor;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the timeout of a key derivation by this KDF.
+	 *
+	 * @return the timeout (in milliseconds) of a key derivation by this KDF.  A value of zero denotes no timeout.
+	 * @see    #setTimeout(long)
+	 */
+
+	public long getTimeout()
+	{
+		return timeout;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the timeout of a key derivation by this KDF.  The timeout includes any time that a derivation spends waiting
+	 * for admission by the {@linkplain #getMemoryBudget() memory budget} and for a thread of a shared {@linkplain
+	 * #getExecutor() executor}.  If the timeout expires, the derivation is abandoned and a {@link
+	 * TimeoutExpiredException} is thrown.
+	 *
+	 * @param  timeout
+	 *           the timeout (in milliseconds) of a key derivation by this KDF.  A value of zero denotes no timeout.
+	 * @throws IllegalArgumentException
+	 *           if {@code timeout} is negative.
+	 * @see    #getTimeout()
+	 */
+
+	public void setTimeout(long timeout)
+	{
+		// Validate argument
+		if (timeout < 0)
+			throw new IllegalArgumentException("Timeout out of bounds");
+
+		// Update instance variable
+		this.timeout = timeout;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Derives a key from the specified key and salt using the scrypt key-derivation function with the specified
+	 * parameters, and returns the derived key.
+	 *
+	 * @param  key
+	 *           the key from which the key will be derived.
+	 * @param  salt
+	 *           the salt from which the key will be derived.
+	 * @param  params
+	 *           the parameters of the scrypt algorithm: CPU/memory cost, block size and parallelisation.
+	 * @param  maxNumThreads
+	 *           the maximum number of threads that will be created to perform the mixing of the parallel superblocks at
+	 *           the highest level of the KDF.
+	 * @param  outKeyLength
+	 *           the length (in bytes) of the derived key, which must be a positive integral multiple of 32.
+	 * @return a derived key of length {@code outKeyLength}.
+	 * @throws IllegalArgumentException
+	 *           if
+	 *           <ul>
+	 *             <li>{@code key} is {@code null}, or</li>
+	 *             <li>{@code salt} is {@code null}, or</li>
+	 *             <li>{@code params.cost} is less than 1 or greater than 24, or</li>
+	 *             <li>{@code params.numBlocks} is less than 1 or greater than 1024, or</li>
+	 *             <li>{@code params.numSuperblocks} is less than 1 or greater than 64, or</li>
+	 *             <li>{@code maxNumThreads} is less than 1 or greater than 64, or</li>
+	 *             <li>{@code outKeyLength} is not a positive integral multiple of 32.</li>
+	 *           </ul>
+	 * @throws OutOfMemoryError
+	 *           if there is not enough memory to derive the key, or if the amount of memory that is required to derive
+	 *           the key exceeds the capacity of the memory budget of this KDF.
+	 * @throws TimeoutExpiredException
+	 *           if the timeout of this KDF expired before the key was derived.
+	 * @throws CancellationException
+	 *           if the current thread was interrupted before the key was derived.
+	 * @see    #deriveKey(byte[], byte[], int, int, int, int, int)
+	 * @see    Scrypt.Params
+	 */
+
+	public byte[] deriveKey(byte[] key,
+							byte[] salt,
+							Params params,
+							int    maxNumThreads,
+							int    outKeyLength)
+	{
+		return deriveKey(key, salt, params.cost, params.numBlocks, params.numSuperblocks, maxNumThreads,
+						 outKeyLength);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
 	 * Derives a key from the specified key and salt using the scrypt key-derivation function with the specified
 	 * parameters, and returns the derived key.
 	 *
@@ -765,6 +1853,13 @@ public class Scrypt
 	 *             <li>{@code maxNumThreads} is less than 1 or greater than 64, or</li>
 	 *             <li>{@code outKeyLength} is not a positive integral multiple of 32.</li>
 	 *           </ul>
+	 * @throws OutOfMemoryError
+	 *           if there is not enough memory to derive the key, or if the amount of memory that is required to derive
+	 *           the key exceeds the capacity of the memory budget of this KDF.
+	 * @throws TimeoutExpiredException
+	 *           if the timeout of this KDF expired before the key was derived.
+	 * @throws CancellationException
+	 *           if the current thread was interrupted before the key was derived.
 	 * @see    #deriveKey(byte[], byte[], Params, int, int)
 	 */
 
@@ -776,8 +1871,6 @@ public class Scrypt
 							int    maxNumThreads,
 							int    outKeyLength)
 	{
-		final	int	NUM_HMAC_ITERATIONS	= 1;
-
 		// Validate arguments
 		if (key == null)
 			throw new IllegalArgumentException("Null key");
@@ -794,79 +1887,179 @@ public class Scrypt
 		if ((outKeyLength <= 0) || (outKeyLength % HmacSha256.HASH_VALUE_SIZE != 0))
 			throw new IllegalArgumentException("Invalid output key length");
 
-		// Define class for local variables
-		class Vars
+		// Calculate deadline of derivation
+		long timeout = this.timeout;
+		long deadline = (timeout == 0) ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+		// Obtain admission from the memory budget, waiting for memory to become available if necessary
+		MemoryBudget budget = memoryBudget;
+		long memorySize = getMemorySize(cost, numBlocks, numSuperblocks, maxNumThreads);
+		if (budget != null)
+		{
+			try
+			{
+				if (timeout == 0)
+					budget.acquire(memorySize);
+				else if (!budget.acquire(memorySize, timeout))
+					throw new TimeoutExpiredException();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new CancellationException();
+			}
+		}
+
+		// Derive key
+		try
+		{
+			return mixAndDeriveKey(key, salt, cost, numBlocks, numSuperblocks, maxNumThreads, outKeyLength, deadline);
+		}
+		finally
 		{
-			boolean outOfMemory;
+			if (budget != null)
+				budget.release(memorySize);
 		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Derives a key from the specified key and salt using the scrypt key-derivation function with the specified
+	 * parameters, and returns the derived key.  The arguments are assumed to have been validated by the caller.
+	 *
+	 * @param  key
+	 *           the key from which the key will be derived.
+	 * @param  salt
+	 *           the salt from which the key will be derived.
+	 * @param  cost
+	 *           the binary logarithm of the scrypt CPU/memory cost parameter, <i>N</i>.
+	 * @param  numBlocks
+	 *           the number of blocks: the scrypt block size parameter, <i>r</i>.
+	 * @param  numSuperblocks
+	 *           the number of parallel superblocks: the scrypt parallelisation parameter, <i>p</i>.
+	 * @param  maxNumThreads
+	 *           the maximum number of threads that will be created to perform the mixing of the parallel superblocks at
+	 *           the highest level of the KDF.
+	 * @param  outKeyLength
+	 *           the length (in bytes) of the derived key, which must be a positive integral multiple of 32.
+	 * @param  deadline
+	 *           the value of {@link System#nanoTime()} by which the key must be derived, or zero if there is no
+	 *           deadline.
+	 * @return a derived key of length {@code outKeyLength}.
+	 * @throws OutOfMemoryError
+	 *           if there is not enough memory to derive the key.
+	 * @throws TimeoutExpiredException
+	 *           if the deadline passed before the key was derived.
+	 * @throws CancellationException
+	 *           if the current thread was interrupted before the key was derived.
+	 */
 
-		// Initialise local variables
-		Vars vars = new Vars();
+	private byte[] mixAndDeriveKey(byte[] key,
+								   byte[] salt,
+								   int    cost,
+								   int    numBlocks,
+								   int    numSuperblocks,
+								   int    maxNumThreads,
+								   int    outKeyLength,
+								   long   deadline)
+	{
+		final	int	NUM_HMAC_ITERATIONS	= 1;
 
 		// Generate key data from the input key and salt
 		int superblockSize = numBlocks * BLOCK_SIZE;
 		byte[] keyData = pbkdf2HmacSha256(key, salt, NUM_HMAC_ITERATIONS, numSuperblocks * superblockSize);
 
-		// Mix the key data using a thread pool.
+		// Mix the key data using the shared executor or a thread pool that is created for this derivation.
 		// The superblocks of the scrypt KDF can be processed independently of each other, which makes the set of tasks
-		// suitable for execution in parallel
-		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numSuperblocks, maxNumThreads), runnable ->
-				DaemonFactory.create(getClass().getSimpleName() + "-" + threadIndex++, runnable));
-		for (int offset = 0; offset < keyData.length; offset += superblockSize)
+		// suitable for execution in parallel.  The number of tasks that are in flight is limited by a semaphore so that
+		// no more than the number of V arrays that were reserved against the memory budget are in use at any time.
+		int numThreads = Math.min(numSuperblocks, maxNumThreads);
+		ExecutorService executor = this.executor;
+		boolean localExecutor = (executor == null);
+		if (localExecutor)
+		{
+			executor = Executors.newFixedThreadPool(numThreads, runnable ->
+					DaemonFactory.create(getClass().getSimpleName() + "-" + threadIndex.getAndIncrement(), runnable));
+		}
+		Semaphore permits = new Semaphore(numThreads);
+		AtomicIntegerArray started = new AtomicIntegerArray(numSuperblocks);
+		List<Future<?>> futures = new ArrayList<>();
+		try
 		{
-			int offset0 = offset;
-			executor.execute(() ->
+			for (int offset = 0; offset < keyData.length; offset += superblockSize)
 			{
+				// Wait for a task to finish if the maximum number of tasks are in flight
+				if (deadline == 0)
+					permits.acquire();
+				else if (!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+					throw new TimeoutException();
+
+				// Submit task to mix superblock
+				int index = futures.size();
+				int offset0 = offset;
 				try
 				{
-					// Get length of superblock
-					int length = numBlocks * BLOCK_SIZE_INTS;
-
-					// Convert the key data to integers
-					int[] buffer = new int[length];
-					int j = offset0;
-					for (int i = 0; i < length; i++)
-						buffer[i] = (keyData[j++] & 0xFF)
-									| (keyData[j++] & 0xFF) << 8
-									| (keyData[j++] & 0xFF) << 16
-									| (keyData[j++] & 0xFF) << 24;
-
-					// Mix the key data
-					sMix(buffer, buffer, cost);
-
-					// Convert the mixed key data back to bytes
-					j = offset0;
-					for (int i = 0; i < length; i++)
+					futures.add(executor.submit(() ->
 					{
-						int value = buffer[i];
-						keyData[j++] = (byte)value;
-						keyData[j++] = (byte)(value >>> 8);
-						keyData[j++] = (byte)(value >>> 16);
-						keyData[j++] = (byte)(value >>> 24);
-					}
+						// Claim the task, unless it was cancelled before it started
+						if (!started.compareAndSet(index, 0, 1))
+							return;
+
+						try
+						{
+							mixSuperblock(keyData, offset0, numBlocks, cost);
+						}
+						finally
+						{
+							permits.release();
+						}
+					}));
 				}
-				catch (OutOfMemoryError e)
+				catch (RejectedExecutionException e)
 				{
-					vars.outOfMemory = true;
+					// Release the permit of the rejected task, and stop the tasks that have been submitted
+					permits.release();
+					cancel(futures, started, permits, numThreads);
+					throw e;
 				}
-			});
-		}
+			}
 
-		// Wait for threads to terminate
-		try
-		{
-			executor.shutdown();
-			if (!executor.awaitTermination(1000, TimeUnit.SECONDS))
-				throw new UnexpectedRuntimeException();
+			// Wait for the superblocks to be mixed
+			for (Future<?> future : futures)
+			{
+				if (deadline == 0)
+					future.get();
+				else
+					future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
 		}
 		catch (InterruptedException e)
 		{
-			throw new UnexpectedRuntimeException(e);
+			cancel(futures, started, permits, numThreads);
+			Thread.currentThread().interrupt();
+			throw new CancellationException();
+		}
+		catch (TimeoutException e)
+		{
+			cancel(futures, started, permits, numThreads);
+			throw new TimeoutExpiredException();
+		}
+		catch (ExecutionException e)
+		{
+			cancel(futures, started, permits, numThreads);
+			Throwable cause = e.getCause();
+			if (cause instanceof Error)
+				throw (Error)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new UnexpectedRuntimeException(cause);
+		}
+		finally
+		{
+			if (localExecutor)
+				executor.shutdownNow();
 		}
-
-		// Throw an exception if there was an 'out of memory' error when mixing key data
-		if (vars.outOfMemory)
-			throw new OutOfMemoryError();
 
 		// Return a key derived from the input key and the processed key data
 		return pbkdf2HmacSha256(key, keyData, NUM_HMAC_ITERATIONS, outKeyLength);
@@ -874,6 +2067,53 @@ public class Scrypt
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Mixes the specified superblock of key data at the highest level of the scrypt KDF.
+	 *
+	 * @param keyData
+	 *          the key data that contains the superblock.
+	 * @param offset
+	 *          the offset of the superblock in {@code keyData}.
+	 * @param numBlocks
+	 *          the number of blocks: the scrypt block size parameter, <i>r</i>.
+	 * @param cost
+	 *          the binary logarithm of the scrypt CPU/memory cost parameter, <i>N</i>.
+	 */
+
+	private void mixSuperblock(byte[] keyData,
+							   int    offset,
+							   int    numBlocks,
+							   int    cost)
+	{
+		// Get length of superblock
+		int length = numBlocks * BLOCK_SIZE_INTS;
+
+		// Convert the key data to integers
+		int[] buffer = new int[length];
+		int j = offset;
+		for (int i = 0; i < length; i++)
+			buffer[i] = (keyData[j++] & 0xFF)
+						| (keyData[j++] & 0xFF) << 8
+						| (keyData[j++] & 0xFF) << 16
+						| (keyData[j++] & 0xFF) << 24;
+
+		// Mix the key data
+		sMix(buffer, buffer, cost);
+
+		// Convert the mixed key data back to bytes
+		j = offset;
+		for (int i = 0; i < length; i++)
+		{
+			int value = buffer[i];
+			keyData[j++] = (byte)value;
+			keyData[j++] = (byte)(value >>> 8);
+			keyData[j++] = (byte)(value >>> 16);
+			keyData[j++] = (byte)(value >>> 24);
+		}
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * Creates and returns a new instance of {@link KeyGenerator} for deriving a key from the specified key and salt by
 	 * means of the scrypt key-derivation function with the specified KDF parameters.
@@ -917,45 +2157,18 @@ public class Scrypt
 	{
 		final	int	BLOCK_LENGTH	= CORE_HASH_BLOCK_SIZE / Integer.BYTES;
 
-		// Copy the last block of input data to the X array
-		int length = in.length;
-		int[] x = new int[BLOCK_LENGTH];
-		System.arraycopy(in, in.length - BLOCK_LENGTH, x, 0, BLOCK_LENGTH);
-
-		// Hash the input data with the core hash function
-		int[] y = new int[length];
-		int[] z = new int[BLOCK_LENGTH];
-		int j = 0;
-		for (int offset = 0; offset < length; offset += BLOCK_LENGTH)
-		{
-			for (int i = 0; i < BLOCK_LENGTH; i++)
-				z[i] = x[i] ^ in[j++];
-
-			coreHashFunction.hash(z, x, coreHashNumRounds.value);
-
-			System.arraycopy(x, 0, y, offset, BLOCK_LENGTH);
-		}
-
-		// Move the processed input data to the output array
-		int offset = 0;
-		int offset0 = 0;
-		int offset1 = length / 2;
-		while (offset < length)
-		{
-			System.arraycopy(y, offset, out, offset0, BLOCK_LENGTH);
-			offset += BLOCK_LENGTH;
-			offset0 += BLOCK_LENGTH;
-
-			System.arraycopy(y, offset, out, offset1, BLOCK_LENGTH);
-			offset += BLOCK_LENGTH;
-			offset1 += BLOCK_LENGTH;
-		}
+		blockMix(in, out, new int[BLOCK_LENGTH], new int[in.length], new int[BLOCK_LENGTH]);
 	}
 
 	//------------------------------------------------------------------
 
 	/**
 	 * Mixes the specified superblock of data at the highest level of the scrypt KDF.
+	 * <p>
+	 * The <i>V</i> array is drawn from the {@linkplain #getScratchArena() scratch-memory arena} of this KDF, and it is
+	 * returned to the arena when the data has been mixed.  The mixing stops with a {@link CancellationException} if the
+	 * current thread is interrupted.
+	 * </p>
 	 *
 	 * @param in
 	 *          the data that will be mixed.
@@ -969,31 +2182,51 @@ public class Scrypt
 						int[] out,
 						int   cost)
 	{
-		// Copy the input data to the X array
+		final	int	BLOCK_LENGTH	= CORE_HASH_BLOCK_SIZE / Integer.BYTES;
+
+		// Allocate working arrays
 		int length = in.length;
 		int[] x = new int[length];
+		int[] t = new int[length];
+		int[] y = new int[length];
+		int[] z0 = new int[BLOCK_LENGTH];
+		int[] z1 = new int[BLOCK_LENGTH];
+
+		// Copy the input data to the X array
 		System.arraycopy(in, 0, x, 0, length);
 
-		// Mix the data in the costly V array
+		// Draw the costly V array from the scratch-memory arena
 		int numIterations = 1 << cost;
-		int[][] v = new int[numIterations][length];
-		for (int i = 0; i < numIterations; i++)
+		ScratchArena arena = scratchArena;
+		Scratch v = arena.allocate(numIterations, length);
+		try
 		{
-			System.arraycopy(x, 0, v[i], 0, length);
+			// Mix the data in the V array
+			for (int i = 0; i < numIterations; i++)
+			{
+				testCancelled(i);
 
-			blockMix(x, x);
-		}
+				v.putRow(i, x);
 
-		// Perform further mixing
-		int mask = numIterations - 1;
-		int[] t = new int[length];
-		for (int i = 0; i < numIterations; i++)
-		{
-			int[] u = v[x[length - (BLOCK_SIZE_INTS / 2)] & mask];
-			for (int j = 0; j < length; j++)
-				t[j] = x[j] ^ u[j];
+				blockMix(x, x, z0, y, z1);
+			}
+
+			// Perform further mixing
+			int mask = numIterations - 1;
+			for (int i = 0; i < numIterations; i++)
+			{
+				testCancelled(i);
 
-			blockMix(t, x);
+				v.getRow(x[length - (BLOCK_SIZE_INTS / 2)] & mask, t);
+				for (int j = 0; j < length; j++)
+					t[j] ^= x[j];
+
+				blockMix(t, x, z0, y, z1);
+			}
+		}
+		finally
+		{
+			arena.release(v);
 		}
 
 		// Copy the mixed data to the output array
@@ -1093,6 +2326,118 @@ public class Scrypt
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Throws a {@link CancellationException} if the specified iteration of the mixing of a superblock is one at which a
+	 * test for cancellation is made and the current thread has been interrupted.
+	 *
+	 * @param  iteration
+	 *           the index of the iteration.
+	 * @throws CancellationException
+	 *           if the current thread has been interrupted.
+	 */
+
+	private static void testCancelled(int iteration)
+	{
+		if (((iteration & CANCELLATION_TEST_MASK) == 0) && Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Cancels the specified superblock tasks, interrupting those that are running, and waits for the running tasks to
+	 * stop, so that the memory that they use may safely be returned to the memory budget.
+	 *
+	 * @param futures
+	 *          the tasks that will be cancelled.
+	 * @param started
+	 *          the flags that are set by the tasks when they start, indexed in the same order as {@code futures}.
+	 * @param permits
+	 *          the semaphore from which a permit was acquired for each task before it was submitted, and to which the
+	 *          task releases the permit when it finishes.
+	 * @param numPermits
+	 *          the total number of permits of {@code permits}.
+	 */
+
+	private static void cancel(List<Future<?>>    futures,
+							   AtomicIntegerArray started,
+							   Semaphore          permits,
+							   int                numPermits)
+	{
+		// Cancel tasks, interrupting those that are running
+		for (Future<?> future : futures)
+			future.cancel(true);
+
+		// Release the permit of each task that had not started, preventing it from starting
+		for (int i = 0; i < futures.size(); i++)
+		{
+			if (started.compareAndSet(i, 0, 1))
+				permits.release();
+		}
+
+		// Wait for the running tasks to stop
+		permits.acquireUninterruptibly(numPermits);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Mixes the specified block of data at the intermediate level of the scrypt KDF, using the specified working
+	 * arrays.
+	 *
+	 * @param in
+	 *          the data that will be mixed.
+	 * @param out
+	 *          the buffer in which the mixed output data will be stored.  It may be the same array as {@code in}.
+	 * @param x
+	 *          a working array whose length is the block size of the core hash function.
+	 * @param y
+	 *          a working array whose length is the length of {@code in}.
+	 * @param z
+	 *          a working array whose length is the block size of the core hash function.
+	 */
+
+	private void blockMix(int[] in,
+						  int[] out,
+						  int[] x,
+						  int[] y,
+						  int[] z)
+	{
+		// Copy the last block of input data to the X array
+		int length = in.length;
+		int blockLength = x.length;
+		System.arraycopy(in, length - blockLength, x, 0, blockLength);
+
+		// Hash the input data with the core hash function
+		int j = 0;
+		for (int offset = 0; offset < length; offset += blockLength)
+		{
+			for (int i = 0; i < blockLength; i++)
+				z[i] = x[i] ^ in[j++];
+
+			coreHashFunction.hash(z, x, coreHashNumRounds.value);
+
+			System.arraycopy(x, 0, y, offset, blockLength);
+		}
+
+		// Move the processed input data to the output array
+		int offset = 0;
+		int offset0 = 0;
+		int offset1 = length / 2;
+		while (offset < length)
+		{
+			System.arraycopy(y, offset, out, offset0, blockLength);
+			offset += blockLength;
+			offset0 += blockLength;
+
+			System.arraycopy(y, offset, out, offset1, blockLength);
+			offset += blockLength;
+			offset1 += blockLength;
+		}
+	}
+
+	//------------------------------------------------------------------
+
 }
 
 //----------------------------------------------------------------------
@@ -18,6 +18,9 @@ package uk.blankaspect.common.crypto;
 // IMPORTS
 
 
+import java.nio.ByteBuffer;
+
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -54,9 +57,6 @@ public class ShaD256
 	/** The name of the hash function. */
 	private static final	String	HASH_NAME	= "SHA-256";
 
-	/** The outer hash function. */
-	private static final	MessageDigest	OUTER_HASH;
-
 ////////////////////////////////////////////////////////////////////////
 //  Instance variables
 ////////////////////////////////////////////////////////////////////////
@@ -64,22 +64,11 @@ public class ShaD256
 	/** The inner hash function. */
 	private	MessageDigest	hash;
 
-////////////////////////////////////////////////////////////////////////
-//  Static initialiser
-////////////////////////////////////////////////////////////////////////
+	/** The outer hash function. */
+	private	MessageDigest	outerHash;
 
-	static
-	{
-		// Initialise the outer SHA-256 hash function
-		try
-		{
-			OUTER_HASH = MessageDigest.getInstance(HASH_NAME);
-		}
-		catch (NoSuchAlgorithmException e)
-		{
-			throw new UnexpectedRuntimeException(e);
-		}
-	}
+	/** The buffer for the value of the inner hash function. */
+	private	byte[]			innerHashValue;
 
 ////////////////////////////////////////////////////////////////////////
 //  Constructors
@@ -98,11 +87,13 @@ public class ShaD256
 		try
 		{
 			hash = MessageDigest.getInstance(HASH_NAME);
+			outerHash = MessageDigest.getInstance(HASH_NAME);
 		}
 		catch (NoSuchAlgorithmException e)
 		{
 			throw new UnexpectedRuntimeException(e);
 		}
+		innerHashValue = new byte[HASH_VALUE_SIZE];
 	}
 
 	//------------------------------------------------------------------
@@ -125,6 +116,8 @@ public class ShaD256
 	{
 		ShaD256 copy = (ShaD256)super.clone();
 		copy.hash = (MessageDigest)hash.clone();
+		copy.outerHash = (MessageDigest)outerHash.clone();
+		copy.innerHashValue = new byte[HASH_VALUE_SIZE];
 		return copy;
 	}
 
@@ -183,24 +176,87 @@ public class ShaD256
 	//------------------------------------------------------------------
 
 	/**
-	 * Returns the value of this hash function.
+	 * Updates this hash function with the remaining data in the specified buffer.  On return, the position of the
+	 * buffer is equal to its limit.  The data are not copied if the buffer is backed by an array.
+	 *
+	 * @param data
+	 *          the buffer that contains the data with which the hash function will be updated.
+	 */
+
+	public void update(ByteBuffer data)
+	{
+		hash.update(data);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the value of this hash function.  The hash function is reset.
 	 *
 	 * @return the value of this hash function.
+	 * @see    #digestInto(byte[], int)
 	 */
 
 	public byte[] digest()
 	{
-		return OUTER_HASH.digest(hash.digest());
+		byte[] value = new byte[HASH_VALUE_SIZE];
+		digestInto(value, 0);
+		return value;
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Updates this hash function with the specified data, and returns the value of the hash function.
+	 * Stores the value of this hash function in the specified buffer.  The hash function is reset.  This method
+	 * does not allocate any memory.  Unlike {@link #digest(byte[])}, which updates the hash function with the
+	 * contents of its argument, this method writes to {@code buffer}: the contents of {@code buffer} are not
+	 * hashed.
+	 *
+	 * @param  buffer
+	 *           the buffer in which the hash value will be stored.
+	 * @param  offset
+	 *           the offset in {@code buffer} at which the hash value will be stored.
+	 * @throws IllegalArgumentException
+	 *           if {@code buffer} is {@code null}.
+	 * @throws IndexOutOfBoundsException
+	 *           if {@code offset} is negative or there are fewer than {@link #HASH_VALUE_SIZE} bytes in {@code
+	 *           buffer} after {@code offset}.
+	 * @see    #digest()
+	 */
+
+	public void digestInto(byte[] buffer,
+						   int    offset)
+	{
+		// Validate arguments
+		if (buffer == null)
+			throw new IllegalArgumentException("Null buffer");
+		if ((offset < 0) || (offset > buffer.length - HASH_VALUE_SIZE))
+			throw new IndexOutOfBoundsException("Offset out of bounds: " + offset);
+
+		// Hash the inner hash value
+		try
+		{
+			hash.digest(innerHashValue, 0, HASH_VALUE_SIZE);
+			outerHash.update(innerHashValue);
+			outerHash.digest(buffer, offset, HASH_VALUE_SIZE);
+		}
+		catch (DigestException e)
+		{
+			throw new UnexpectedRuntimeException(e);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Updates this hash function with the specified data, and returns the value of the hash function.  The array
+	 * is an input to the hash function; to store the hash value in an existing buffer, use {@link
+	 * #digestInto(byte[], int)}.
 	 *
 	 * @param  data
 	 *           the data with which the hash function will be updated.
 	 * @return the value of this hash function after it has been updated.
+	 * @see    #digestInto(byte[], int)
 	 */
 
 	public byte[] digest(byte[] data)
@@ -23,6 +23,7 @@ import java.awt.Toolkit;
 
 import java.io.File;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import uk.blankaspect.common.exception.AppException;
@@ -215,6 +216,7 @@ public class StandardCsprng
 		throws AppException
 	{
 		// Create the PRNG
+		this.cipher = cipher;
 		prng = cipher.createPrng(CryptoUtils.getSeedFromNanoTime(cipher.getKeySize(), timerDivisor));
 
 		// Create the entropy accumulator and set it as the supplier of entropy to the PRNG
@@ -266,6 +268,42 @@ public class StandardCsprng
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Creates a concurrent cryptographically secure PRNG whose stripes are seeded with random data from the
+	 * PRNG of this object, and adds it to the list of entropy consumers of this object's entropy accumulator.
+	 * The entropy from the accumulator is subsequently shared in turn between the PRNG of this object and
+	 * the new concurrent PRNG.
+	 * <p>
+	 * The PRNG of this object is used only to seed a private root PRNG, in the same way as the other methods
+	 * of this object use it, and the stripes are seeded from the private root PRNG.  The PRNG of this object
+	 * is therefore not shared with the constructor of the concurrent PRNG.
+	 * </p>
+	 *
+	 * @param  numStripes
+	 *           the minimum number of stripes of the concurrent PRNG.  The number of stripes is rounded up to
+	 *           a power of 2.
+	 * @return a concurrent cryptographically secure PRNG that is seeded from the PRNG of this object.
+	 * @throws IllegalArgumentException
+	 *           if {@code numStripes} is less than 1 or greater than 256.
+	 * @throws IllegalStateException
+	 *           if the PRNG of this object has not been seeded.
+	 */
+
+	public ConcurrentCsprng createConcurrentCsprng(int numStripes)
+	{
+		// Create private root PRNG that is seeded from PRNG of this object
+		byte[] seed = prng.getRandomBytes(cipher.getKeySize());
+		Fortuna root = cipher.createPrng(seed);
+		Arrays.fill(seed, (byte)0);
+
+		// Create concurrent PRNG and add it to entropy consumers
+		ConcurrentCsprng csprng = new ConcurrentCsprng(cipher, numStripes, root);
+		entropyAccumulator.addEntropyConsumer(csprng);
+		return csprng;
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * Generates and returns a random byte.
 	 *
@@ -276,7 +314,7 @@ public class StandardCsprng
 
 	public byte getRandomByte()
 	{
-		return prng.getRandomBytes(1)[0];
+		return prng.getRandomByte();
 	}
 
 	//------------------------------------------------------------------
@@ -453,6 +491,7 @@ public class StandardCsprng
 //  Instance variables
 ////////////////////////////////////////////////////////////////////////
 
+	private	FortunaCipher		cipher;
 	private	Fortuna				prng;
 	private	EntropyAccumulator	entropyAccumulator;
 
@@ -24,10 +24,19 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
@@ -37,6 +46,7 @@ import uk.blankaspect.common.bitarray.BitUtils;
 
 import uk.blankaspect.common.exception.AppException;
 import uk.blankaspect.common.exception.TaskCancelledException;
+import uk.blankaspect.common.exception.UnexpectedRuntimeException;
 import uk.blankaspect.common.exception.ValueOutOfBoundsException;
 
 import uk.blankaspect.common.misc.IProgressListener;
@@ -46,6 +56,8 @@ import uk.blankaspect.common.number.NumberUtils;
 
 import uk.blankaspect.common.swing.dialog.RunnableMessageDialog;
 
+import uk.blankaspect.common.thread.DaemonFactory;
+
 import uk.blankaspect.common.ui.progress.IProgressView;
 
 //----------------------------------------------------------------------
@@ -156,6 +168,22 @@ public class StreamEncrypter
 		an encryption operation. */
 	public static final		int	MAX_COMPRESSION_LEVEL	= Deflater.BEST_COMPRESSION;
 
+	/** The minimum depth of the pipeline that processes the payload of an encryption or decryption operation.  The
+		depth is the maximum number of blocks of data that may be queued between two threads of the pipeline. */
+	public static final		int	MIN_PIPELINE_DEPTH	= 1;
+
+	/** The maximum depth of the pipeline that processes the payload of an encryption or decryption operation.  The
+		depth is the maximum number of blocks of data that may be queued between two threads of the pipeline. */
+	public static final		int	MAX_PIPELINE_DEPTH	= 1024;
+
+	/** The minimum number of worker threads of the pipeline that processes the payload of an encryption or decryption
+		operation. */
+	public static final		int	MIN_PIPELINE_NUM_THREADS	= 1;
+
+	/** The maximum number of worker threads of the pipeline that processes the payload of an encryption or decryption
+		operation. */
+	public static final		int	MAX_PIPELINE_NUM_THREADS	= 4;
+
 	private static final	int	NUM_PADDINGS	= 3;
 	private static final	int	PADDING_SIZE	= 255;
 	private static final	int	MIN_LENGTH		= 512;
@@ -215,7 +243,10 @@ public class StreamEncrypter
 		("The current key does not match the one that was used to encrypt the %1."),
 
 		NOT_ENOUGH_MEMORY
-		("There was not enough memory to generate the content-encryption key.");
+		("There was not enough memory to generate the content-encryption key."),
+
+		KEY_GENERATION_TIMED_OUT
+		("The generation of the content-encryption key timed out.");
 
 	////////////////////////////////////////////////////////////////////
 	//  Constructors
@@ -290,6 +321,32 @@ public class StreamEncrypter
 
 		//--------------------------------------------------------------
 
+		/**
+		 * Returns a buffer whose remaining bytes are the next bytes of the input, up to the specified length, and
+		 * advances the input past them.  This method allows an input whose data are already in memory, such as a
+		 * file that has been read into a direct buffer, to be read without the data being copied.  The returned buffer
+		 * may be a view of storage that is reused by the input, so its contents are valid only until the next call to
+		 * a read method of the input.
+		 * <p>
+		 * The default implementation returns {@code null}, which indicates that the input does not support this
+		 * method and that its data must be read with {@link #read(byte[], int, int)}.
+		 * </p>
+		 *
+		 * @param  length  the maximum number of bytes to read.
+		 * @return a buffer whose remaining bytes are the next bytes of the input, which is empty if the end of
+		 *         the input has been reached, or {@code null} if the input does not support this method.
+		 * @throws IOException
+		 *           if an error occurs when reading from the input.
+		 */
+
+		default ByteBuffer readBuffer(int length)
+			throws IOException
+		{
+			return null;
+		}
+
+		//--------------------------------------------------------------
+
 	}
 
 	//==================================================================
@@ -330,6 +387,140 @@ public class StreamEncrypter
 
 		//--------------------------------------------------------------
 
+		/**
+		 * Writes the remaining bytes of the specified buffer to the output.  On return, the position of the buffer
+		 * is equal to its limit.
+		 * <p>
+		 * The default implementation passes the backing array of the buffer to {@link #write(byte[], int, int)}
+		 * or, if the buffer is not backed by an array, a copy of its remaining bytes.
+		 * </p>
+		 *
+		 * @param  data  the buffer that contains the data to be written.
+		 * @throws IOException
+		 *           if an error occurs when writing to the output.
+		 */
+
+		default void write(ByteBuffer data)
+			throws IOException
+		{
+			if (data.hasArray())
+			{
+				write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+				data.position(data.limit());
+			}
+			else
+			{
+				byte[] buffer = new byte[data.remaining()];
+				data.get(buffer);
+				write(buffer, 0, buffer.length);
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// PIPELINE SOURCE INTERFACE
+
+
+	/**
+	 * This interface specifies the source of the blocks of data that are processed by a {@linkplain Pipeline pipeline}.
+	 */
+
+	private interface IPipelineSource
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns the next block of data from this source.
+		 *
+		 * @return the next block of data from this source, or an end-of-data block if there is no more data.
+		 * @throws AppException
+		 *           if an error occurs when reading the data.
+		 */
+
+		PipelineBlock nextBlock()
+			throws AppException;
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// PIPELINE SINK INTERFACE
+
+
+	/**
+	 * This interface specifies a consumer of the blocks of data that are processed by a {@linkplain Pipeline pipeline}.
+	 */
+
+	private interface IPipelineSink
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Accepts the specified block of data.
+		 *
+		 * @param  block  the block of data that will be accepted.
+		 * @throws AppException
+		 *           if an error occurs when processing the block.
+		 * @throws InterruptedException
+		 *           if the current thread is interrupted while waiting to pass on the block.
+		 */
+
+		void accept(PipelineBlock block)
+			throws AppException, InterruptedException;
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// PIPELINE STAGE INTERFACE
+
+
+	/**
+	 * This interface specifies a stage of a {@linkplain Pipeline pipeline}.
+	 */
+
+	private interface IPipelineStage
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Processes the specified block of data and passes the result, which may be zero or more blocks, to the
+		 * specified sink.  The end-of-data block must always be passed on.
+		 *
+		 * @param  block  the block of data that will be processed.
+		 * @param  sink   the sink to which the processed data will be passed.
+		 * @throws AppException
+		 *           if an error occurs when processing the block.
+		 * @throws InterruptedException
+		 *           if the current thread is interrupted while waiting to pass on the processed data.
+		 */
+
+		void process(PipelineBlock block,
+					 IPipelineSink sink)
+			throws AppException, InterruptedException;
+
+		//--------------------------------------------------------------
+
 	}
 
 	//==================================================================
@@ -513,6 +704,21 @@ public class StreamEncrypter
 
 		//--------------------------------------------------------------
 
+		/**
+		 * Creates a header that is a copy of the specified header.  The supplementary data of the copy is a copy of
+		 * the supplementary data of the specified header.
+		 *
+		 * @param header  the header that will be copied.
+		 */
+
+		Header(Header header)
+		{
+			this(header.id, header.version, header.minSupportedVersion, header.maxSupportedVersion,
+				 (header.supplementaryData == null) ? null : header.supplementaryData.clone());
+		}
+
+		//--------------------------------------------------------------
+
 	////////////////////////////////////////////////////////////////////
 	//  Instance methods
 	////////////////////////////////////////////////////////////////////
@@ -1369,705 +1575,1864 @@ public class StreamEncrypter
 	//==================================================================
 
 
-	// KEY GENERATOR CLASS
+	// FILE-CHANNEL INPUT CLASS
 
 
-	private static class KeyGenerator
+	/**
+	 * This class implements an {@link IInput} that reads a file through a {@link FileChannel} with positional reads
+	 * into a direct buffer, which is reused for the whole file.  The file is read from the position of the channel when
+	 * the first byte is requested to the end of the file.  The position of the channel is not changed.
+	 * <p>
+	 * The {@link #readBuffer(int)} method returns views of the direct buffer, so that the payload of an encryption
+	 * operation is hashed and compressed without being copied to the Java heap.  The file is not mapped into memory,
+	 * so no mapping outlives the channel: a file that has been read through an instance of this class may be deleted
+	 * or replaced as soon as its channel is closed, even on platforms that do not allow a mapped file to be deleted.
+	 * </p>
+	 *
+	 * @see StreamEncrypter#encrypt(IInput, IOutput, long, long, byte[], byte[])
+	 * @see StreamEncrypter#decrypt(IInput, IOutput, long, byte[])
+	 */
+
+	public static class FileChannelInput
+		implements IInput
 	{
 
 	////////////////////////////////////////////////////////////////////
 	//  Constants
 	////////////////////////////////////////////////////////////////////
 
-		private static final	String	MESSAGE_STR	= "Generating the content-encryption key ...";
-
-	////////////////////////////////////////////////////////////////////
-	//  Instance variables
-	////////////////////////////////////////////////////////////////////
-
-		private	Scrypt.KeyGenerator	generator;
+		/** The size (in bytes) of the direct buffer into which the file is read. */
+		private static final	int	BUFFER_SIZE	= 1 << 16;
 
 	////////////////////////////////////////////////////////////////////
 	//  Constructors
 	////////////////////////////////////////////////////////////////////
 
-		private KeyGenerator(byte[]    key,
-							 byte[]    salt,
-							 KdfParams kdfParams)
+		/**
+		 * Creates an input that reads a file through the specified channel.
+		 *
+		 * @param channel  the channel through which the file will be read.
+		 */
+
+		public FileChannelInput(FileChannel channel)
 		{
-			generator = new ScryptSalsa20(kdfParams.numRounds)
-								.createKeyGenerator(key, salt, kdfParams, kdfParams.getNumThreads(), DERIVED_KEY_SIZE);
+			this.channel = channel;
+			position = -1;
 		}
 
 		//--------------------------------------------------------------
 
 	////////////////////////////////////////////////////////////////////
-	//  Instance methods
+	//  Instance methods : IInput interface
 	////////////////////////////////////////////////////////////////////
 
 		/**
-		 * Generates a key with the scrypt key derivation function.
-		 * <p>
-		 * A modal message dialog is optionally displayed while the key derivation function is running.  The
-		 * dialog cannot be closed by the user.
-		 * </p>
+		 * Reads data from the file up to the specified length, and stores it in a buffer.
 		 *
-		 * @param  window  the window that will be the owner of the message dialog, or {@code null} if the
-		 *                 key is to be generated without a message dialog.
-		 * @return the key that was generated by the KDF.
-		 * @throws AppException
-		 *           if there is not enough memory to generate the key.
+		 * @param  buffer  the buffer in which the data will be stored.
+		 * @param  offset  the offset in {@code buffer} at which the first byte of data will be stored.
+		 * @param  length  the maximum number of bytes to read.
+		 * @return the number of bytes that were read from the file, or -1 if the end of the file has been reached.
+		 * @throws IOException
+		 *           if an error occurs when reading the file.
 		 */
 
-		private byte[] generate(Window window)
-			throws AppException
+		@Override
+		public int read(byte[] buffer,
+						int    offset,
+						int    length)
+			throws IOException
 		{
-			if (window == null)
-				generator.run();
-			else
-				RunnableMessageDialog.showDialog(window, MESSAGE_STR, generator);
-			if (generator.isOutOfMemory())
-				throw new AppException(ErrorId.NOT_ENOUGH_MEMORY);
-			return generator.getDerivedKey();
+			ByteBuffer data = readBuffer(length);
+			int readLength = data.remaining();
+			if ((readLength == 0) && (length > 0))
+				return -1;
+			data.get(buffer, offset, readLength);
+			return readLength;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * {@inheritDoc}  The returned buffer is a read-only view of the direct buffer of this input, whose contents are
+		 * replaced when the buffer is next filled from the file.
+		 */
+
+		@Override
+		public ByteBuffer readBuffer(int length)
+			throws IOException
+		{
+			// Get position and size of file, and allocate buffer
+			if (position < 0)
+			{
+				position = channel.position();
+				endPosition = channel.size();
+				buffer = ByteBuffer.allocateDirect((int)Math.max(1, Math.min(endPosition - position, BUFFER_SIZE)));
+				buffer.limit(0);
+			}
+
+			// Fill buffer from next bytes of file
+			if (!buffer.hasRemaining())
+			{
+				if (position >= endPosition)
+					return ByteBuffer.allocate(0);
+				buffer.clear();
+				buffer.limit((int)Math.min(endPosition - position, buffer.capacity()));
+				while (buffer.hasRemaining())
+				{
+					int readLength = channel.read(buffer, position);
+					if (readLength < 0)
+						break;
+					position += readLength;
+				}
+				buffer.flip();
+				if (!buffer.hasRemaining())
+				{
+					endPosition = position;
+					return ByteBuffer.allocate(0);
+				}
+			}
+
+			// Return view of next bytes of buffer
+			int readLength = Math.min(length, buffer.remaining());
+			ByteBuffer data = buffer.duplicate().limit(buffer.position() + readLength).slice().asReadOnlyBuffer();
+			buffer.position(buffer.position() + readLength);
+			return data;
 		}
 
 		//--------------------------------------------------------------
 
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	FileChannel	channel;
+		private	long		position;
+		private	long		endPosition;
+		private	ByteBuffer	buffer;
+
 	}
 
 	//==================================================================
 
-////////////////////////////////////////////////////////////////////////
-//  Constructors
-////////////////////////////////////////////////////////////////////////
+
+	// FILE-CHANNEL OUTPUT CLASS
+
 
 	/**
-	 * Creates an instance of {@link StreamEncrypter} with the specified kind of cipher but no KDF
-	 * parameters or header.
+	 * This class implements an {@link IOutput} that writes to a file through a {@link FileChannel}.
 	 * <p>
-	 * The absence of KDF parameters means that the {@link #encrypt(IInput, IOutput, long, long, byte[],
-	 * byte[])} and {@link #decrypt(IInput, IOutput, long, byte[])} methods and their overloaded variants will
-	 * not derive a content-encryption key (CEK) from their {@code key} argument but will use the {@code
-	 * key} argument directly as the CEK.
+	 * When the output of an encryption or decryption operation is an instance of this class, the payload is
+	 * compressed or decompressed into a direct buffer, which is combined with the stream cipher or hashed and then
+	 * written to the channel without being copied.
 	 * </p>
 	 *
-	 * @param cipher  the kind of cipher that will be used by the pseudo-random number generator to generate
-	 *                a stream cipher for encryption.  {@code cipher} may be {@code null} if the encrypter
-	 *                will not be used for encryption.
+	 * @see StreamEncrypter#encrypt(IInput, IOutput, long, long, byte[], byte[])
+	 * @see StreamEncrypter#decrypt(IInput, IOutput, long, byte[])
 	 */
 
-	public StreamEncrypter(FortunaCipher cipher)
+	public static class FileChannelOutput
+		implements IOutput
 	{
-		this(cipher, null, null);
-	}
 
-	//------------------------------------------------------------------
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
 
-	/**
-	 * Creates an instance of {@link StreamEncrypter} with the specified kind of cipher and KDF parameters
-	 * but no header.
-	 *
-	 * @param cipher     the kind of cipher that will be used by the pseudo-random number generator to
-	 *                   generate a stream cipher for encryption.  {@code cipher} may be {@code null} if the
-	 *                   encrypter will not be used for encryption.
-	 * @param kdfParams  the parameters that will be used by the key derivation function to derive the
-	 *                   content-encryption key when encrypting and decrypting a stream.  If {@code
-	 *                   kdfParams} is {@code null}, the {@link #encrypt(IInput, IOutput, long, long, byte[],
-	 *                   byte[])} and {@link #decrypt(IInput, IOutput, long, byte[])} methods and their
-	 *                   overloaded variants will not derive a content-encryption key (CEK) from their
-	 *                   {@code key} argument but will use the {@code key} argument directly as the CEK.
-	 */
+		/**
+		 * Creates an output that writes to a file through the specified channel.
+		 *
+		 * @param channel  the channel through which the file will be written.
+		 */
 
-	public StreamEncrypter(FortunaCipher cipher,
-						   KdfParams     kdfParams)
-	{
-		this(cipher, kdfParams, null);
-	}
+		public FileChannelOutput(FileChannel channel)
+		{
+			this.channel = channel;
+		}
 
-	//------------------------------------------------------------------
+		//--------------------------------------------------------------
 
-	/**
-	 * Creates an instance of {@link StreamEncrypter} with the specified kind of cipher and header but no
-	 * KDF parameters.
-	 * <p>
-	 * The absence of KDF parameters means that the {@link #encrypt(IInput, IOutput, long, long, byte[],
-	 * byte[])} and {@link #decrypt(IInput, IOutput, long, byte[])} methods and their overloaded variants will
-	 * not derive a content-encryption key (CEK) from their {@code key} argument but will use the {@code
-	 * key} argument directly as the CEK.
-	 * </p>
-	 *
-	 * @param cipher  the kind of cipher that will be used by the pseudo-random number generator to generate
-	 *                a stream cipher for encryption.  {@code cipher} may be {@code null} if the encrypter
-	 *                will not be used for encryption.
-	 * @param header  the header that will be included in the output stream, in the case of encryption, or
-	 *                that will be used to check the identifier and version number against, in the case of
-	 *                decryption.
-	 */
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : IOutput interface
+	////////////////////////////////////////////////////////////////////
 
-	public StreamEncrypter(FortunaCipher cipher,
-						   Header        header)
-	{
-		this(cipher, null, header);
-	}
+		/**
+		 * Writes data from an array of bytes to the file.
+		 *
+		 * @param  data    the array of data to be written.
+		 * @param  offset  the start offset of the data in {@code data}.
+		 * @param  length  the number of bytes to write.
+		 * @throws IOException
+		 *           if an error occurs when writing to the file.
+		 */
 
-	//------------------------------------------------------------------
+		@Override
+		public void write(byte[] data,
+						  int    offset,
+						  int    length)
+			throws IOException
+		{
+			write(ByteBuffer.wrap(data, offset, length));
+		}
 
-	/**
-	 * Creates an instance of {@link StreamEncrypter} with the specified kind of cipher, KDF parameters and
-	 * header.
-	 *
-	 * @param cipher     the kind of cipher that will be used by the pseudo-random number generator to
-	 *                   generate a stream cipher for encryption.  {@code cipher} may be {@code null} if the
-	 *                   encrypter will not be used for encryption.
-	 * @param kdfParams  the parameters that will be used by the key derivation function to derive the
-	 *                   content-encryption key when encrypting and decrypting a stream.  If {@code
-	 *                   kdfParams} is {@code null}, the {@link #encrypt(IInput, IOutput, long, long, byte[],
-	 *                   byte[])} and {@link #decrypt(IInput, IOutput, long, byte[])} methods and their
-	 *                   overloaded variants will not derive a content-encryption key (CEK) from their
-	 *                   {@code key} argument but will use the {@code key} argument directly as the CEK.
-	 * @param header     the header that will be included in the output stream, in the case of encryption,
-	 *                   or that will be used to check the identifier and version number against, in the
-	 *                   case of decryption.
-	 */
+		//--------------------------------------------------------------
 
-	public StreamEncrypter(FortunaCipher cipher,
-						   KdfParams     kdfParams,
-						   Header        header)
-	{
-		this.cipher = cipher;
-		if (kdfParams != null)
-			this.kdfParams = kdfParams.clone();
-		this.header = header;
-		compressionLevel = MAX_COMPRESSION_LEVEL;
-		progressListeners = new ArrayList<>();
-	}
+		/**
+		 * Writes the remaining bytes of the specified buffer to the file.
+		 *
+		 * @param  data  the buffer that contains the data to be written.
+		 * @throws IOException
+		 *           if an error occurs when writing to the file.
+		 */
 
-	//------------------------------------------------------------------
+		@Override
+		public void write(ByteBuffer data)
+			throws IOException
+		{
+			while (data.hasRemaining())
+				channel.write(data);
+		}
 
-////////////////////////////////////////////////////////////////////////
-//  Class methods
-////////////////////////////////////////////////////////////////////////
+		//--------------------------------------------------------------
 
-	/**
-	 * Reads data from the specified input, and stores it in a buffer.
-	 *
-	 * @param  input   the input object from which data will be read.
-	 * @param  buffer  the buffer in which the data will be stored.
-	 * @throws InputException
-	 *           if an error occurs when reading from the input.
-	 */
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	FileChannel	channel;
 
-	private static void read(IInput input,
-							 byte[] buffer)
-		throws InputException
-	{
-		read(input, buffer, 0, buffer.length);
 	}
 
-	//------------------------------------------------------------------
+	//==================================================================
 
-	/**
-	 * Reads data from the specified input up to a specifed length, and stores it in a buffer.
-	 *
-	 * @param  input   the input object from which data will be read.
-	 * @param  buffer  the buffer in which the data will be stored.
-	 * @param  offset  the offset in {@code buffer} at which the first byte of data will be stored.
-	 * @param  length  the maximum number of bytes to read.
-	 * @throws InputException
-	 *           if an error occurs when reading from the input.
-	 */
 
-	private static void read(IInput input,
-							 byte[] buffer,
-							 int    offset,
-							 int    length)
-		throws InputException
+	// KEY GENERATOR CLASS
+
+
+	private static class KeyGenerator
 	{
-		try
-		{
-			int endOffset = offset + length;
-			while (offset < endOffset)
-			{
-				int readLength = input.read(buffer, offset, endOffset - offset);
-				if (readLength < 0)
-					throw new InputException(ErrorId.PREMATURE_END_OF_DATA);
-				offset += readLength;
-			}
-		}
-		catch (IOException e)
-		{
-			throw new InputException(ErrorId.ERROR_READING_DATA, e);
-		}
-	}
 
-	//------------------------------------------------------------------
+	////////////////////////////////////////////////////////////////////
+	//  Constants
+	////////////////////////////////////////////////////////////////////
 
-	/**
-	 * Writes data from an array of bytes to the specified output.
-	 *
-	 * @param  output  the output object to whicg the data will be written.
-	 * @param  data    the array of data to be written.
-	 * @throws IOException
-	 *           if an error occurs when writing to the output.
-	 */
+		private static final	String	MESSAGE_STR	= "Generating the content-encryption key ...";
 
-	private static void write(IOutput output,
-							  byte[]  data)
-		throws OutputException
-	{
-		write(output, data, 0, data.length);
-	}
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
 
-	//------------------------------------------------------------------
+		private	Scrypt.KeyGenerator	generator;
 
-	/**
-	 * Writes data from an array of bytes to the specified output.
-	 *
-	 * @param  output  the output object to whicg the data will be written.
-	 * @param  data    the array of data to be written.
-	 * @param  offset  the start offset of the data in {@code data}.
-	 * @param  length  the number of bytes to write.
-	 * @throws IOException
-	 *           if an error occurs when writing to the output.
-	 */
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
 
-	private static void write(IOutput output,
-							  byte[]  data,
-							  int     offset,
-							  int     length)
-		throws OutputException
-	{
-		try
+		private KeyGenerator(byte[]    key,
+							 byte[]    salt,
+							 KdfParams kdfParams)
 		{
-			output.write(data, offset, length);
+			generator = new ScryptSalsa20(kdfParams.numRounds)
+								.createKeyGenerator(key, salt, kdfParams, kdfParams.getNumThreads(), DERIVED_KEY_SIZE);
 		}
-		catch (IOException e)
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Generates a key with the scrypt key derivation function.
+		 * <p>
+		 * A modal message dialog is optionally displayed while the key derivation function is running.  The
+		 * dialog cannot be closed by the user.
+		 * </p>
+		 *
+		 * @param  window  the window that will be the owner of the message dialog, or {@code null} if the
+		 *                 key is to be generated without a message dialog.
+		 * @return the key that was generated by the KDF.
+		 * @throws AppException
+		 *           if there is not enough memory to generate the key or the KDF timed out.
+		 * @throws TaskCancelledException
+		 *           if the KDF was cancelled.
+		 */
+
+		private byte[] generate(Window window)
+			throws AppException
 		{
-			throw new OutputException(ErrorId.ERROR_WRITING_DATA, e);
+			if (window == null)
+				generator.run();
+			else
+				RunnableMessageDialog.showDialog(window, MESSAGE_STR, generator);
+			if (generator.isOutOfMemory())
+				throw new AppException(ErrorId.NOT_ENOUGH_MEMORY);
+			if (generator.isTimedOut())
+				throw new AppException(ErrorId.KEY_GENERATION_TIMED_OUT);
+			if (generator.isCancelled())
+				throw new TaskCancelledException();
+			return generator.getDerivedKey();
 		}
+
+		//--------------------------------------------------------------
+
 	}
 
-	//------------------------------------------------------------------
+	//==================================================================
 
-	/**
-	 * Returns the window that will be used as the owner of the message dialog when generating a
-	 * content-encryption key.
-	 *
-	 * @return the window that will be used as the owner of the message dialog when generating a
-	 *         content-encryption key.
-	 */
 
-	private static Window getWindow()
-	{
-		Window window = null;
-		IProgressView progressView = Task.getProgressView();
-		if (progressView instanceof Window)
-			window = (Window)progressView;
-		return window;
-	}
+	// PIPELINE BLOCK CLASS
 
-	//------------------------------------------------------------------
 
 	/**
-	 * Returns an array of bit indices that will be used for permuting the bits of the timestamp.
-	 *
-	 * @param  numIndices  the number of indices required.
-	 * @param  prng        the pseudo-random number generator that will generate the permutation of indices.
-	 * @return an array of bit indices whose length is {@code numIndices}.
+	 * This class encapsulates a block of data that is passed between the stages of a {@linkplain Pipeline pipeline}.
+	 * A block whose data is {@code null} denotes the end of the data.
 	 */
 
-	private static int[] getBitIndices(int     numIndices,
-									   Fortuna prng)
+	private static class PipelineBlock
 	{
-		int[] indices = new int[numIndices];
-		for (int i = 0; i < numIndices; i++)
-		{
-			int j = ((prng.getRandomByte() & 0xFF) * (i + 1)) >>> 8;
-			indices[i] = indices[j];
-			indices[j] = i;
-		}
-		return indices;
-	}
 
-	//------------------------------------------------------------------
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a block of data.
+		 *
+		 * @param data      the buffer that contains the data of the block, or {@code null} for an end-of-data block.
+		 * @param length    the length of the data in {@code data}.
+		 * @param position  the number of bytes of the input that had been read when the data of the block was
+		 *                  derived.
+		 */
+
+		private PipelineBlock(byte[] data,
+							  int    length,
+							  long   position)
+		{
+			this.data = data;
+			this.length = length;
+			this.position = position;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns {@code true} if this block denotes the end of the data.
+		 *
+		 * @return {@code true} if this block denotes the end of the data, {@code false} otherwise.
+		 */
+
+		private boolean isEnd()
+		{
+			return (data == null);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	byte[]	data;
+		private	int		length;
+		private	long	position;
+
+	}
+
+	//==================================================================
+
+
+	// PIPELINE CLASS
+
+
+	/**
+	 * This class implements a pipeline that processes the payload of an encryption or decryption operation.
+	 * <p>
+	 * The pipeline consists of a source, a sequence of stages and a terminal sink.  The source and stages are
+	 * distributed in order over a number of worker threads that are connected by bounded queues; the terminal sink is
+	 * run on the thread that calls {@link #run(IPipelineSource, List, IPipelineSink) run(...)}.  The blocks of data
+	 * that pass through the pipeline are processed by each stage in the order in which they were produced by the
+	 * source, so the output of the pipeline is the same as that of the equivalent sequential processing.
+	 * </p>
+	 * <p>
+	 * The buffers of blocks that have been consumed may be returned to a pool of buffers, from which they are reused.
+	 * </p>
+	 */
+
+	private static class Pipeline
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constants
+	////////////////////////////////////////////////////////////////////
+
+		/** The block that is put on the output queue of the pipeline when a worker thread fails. */
+		private static final	PipelineBlock	ABORT_BLOCK	= new PipelineBlock(null, 0, 0);
+
+	////////////////////////////////////////////////////////////////////
+	//  Class variables
+	////////////////////////////////////////////////////////////////////
+
+		/** The index of the next thread that is created for a pipeline. */
+		private static	AtomicInteger	threadIndex	= new AtomicInteger();
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a pipeline.
+		 *
+		 * @param depth       the maximum number of blocks that may be queued between two worker threads.
+		 * @param numThreads  the maximum number of worker threads.
+		 */
+
+		private Pipeline(int depth,
+						 int numThreads)
+		{
+			this.depth = depth;
+			this.numThreads = numThreads;
+			bufferPool = new ArrayBlockingQueue<>((numThreads + 1) * (depth + 2));
+			threads = new ArrayList<>();
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Class methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns a sink that processes a block with the specified stage and passes the result to the specified sink.
+		 *
+		 * @param  stage  the stage that will process a block.
+		 * @param  sink   the sink to which the output of {@code stage} will be passed.
+		 * @return a sink that processes a block with {@code stage} and passes the result to {@code sink}.
+		 */
+
+		private static IPipelineSink chain(IPipelineStage stage,
+										   IPipelineSink  sink)
+		{
+			return block -> stage.process(block, sink);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns a buffer of size {@link #BUFFER_SIZE}, which is taken from the pool of buffers if the pool is not
+		 * empty.
+		 *
+		 * @return a buffer of size {@link #BUFFER_SIZE}.
+		 */
+
+		private byte[] allocateBuffer()
+		{
+			byte[] buffer = bufferPool.poll();
+			return (buffer == null) ? new byte[BUFFER_SIZE] : buffer;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the specified buffer to the pool of buffers.  The buffer is discarded if the pool is full.
+		 *
+		 * @param buffer  the buffer that will be returned to the pool.
+		 */
+
+		private void releaseBuffer(byte[] buffer)
+		{
+			bufferPool.offer(buffer);
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Runs this pipeline with the specified source, stages and terminal sink.  This method returns when the
+		 * end-of-data block has been accepted by the terminal sink or when an exception is thrown by any element of
+		 * the pipeline.
+		 *
+		 * @param  source    the source of the blocks of data.
+		 * @param  stages    the stages of the pipeline.
+		 * @param  terminal  the sink that will accept the output of the last stage on the current thread.
+		 * @throws AppException
+		 *           if an exception is thrown by an element of the pipeline.
+		 */
+
+		private void run(IPipelineSource      source,
+						 List<IPipelineStage> stages,
+						 IPipelineSink        terminal)
+			throws AppException
+		{
+			// Distribute the source and stages over the worker threads
+			int numElements = stages.size() + 1;
+			int numThreads = Math.min(this.numThreads, numElements);
+			BlockingQueue<PipelineBlock> inQueue = null;
+			for (int i = 0; i < numThreads; i++)
+			{
+				// Create a queue for the output of the thread
+				BlockingQueue<PipelineBlock> queue = new ArrayBlockingQueue<>(depth);
+				outQueue = queue;
+
+				// Chain the stages of the thread
+				int startIndex = Math.max(1, i * numElements / numThreads);
+				int endIndex = (i + 1) * numElements / numThreads;
+				IPipelineSink sink = queue::put;
+				for (int j = endIndex - 1; j >= startIndex; j--)
+					sink = chain(stages.get(j - 1), sink);
+
+				// Create the thread
+				IPipelineSource threadSource = (i == 0) ? source : null;
+				BlockingQueue<PipelineBlock> threadQueue = inQueue;
+				IPipelineSink threadSink = sink;
+				threads.add(DaemonFactory.create(StreamEncrypter.class.getSimpleName() + "-" + threadIndex.getAndIncrement(),
+												 () -> work(threadSource, threadQueue, threadSink)));
+
+				// The output queue of this thread is the input queue of the next thread
+				inQueue = queue;
+			}
+
+			// Start the worker threads
+			for (Thread thread : threads)
+				thread.start();
+
+			// Pass the output of the last worker thread to the terminal sink
+			try
+			{
+				while (true)
+				{
+					PipelineBlock block = outQueue.take();
+					if (failure != null)
+						break;
+					terminal.accept(block);
+					if (block.isEnd())
+						break;
+				}
+			}
+			catch (InterruptedException e)
+			{
+				abort();
+				throw new TaskCancelledException();
+			}
+			catch (AppException | RuntimeException | Error e)
+			{
+				abort();
+				throw e;
+			}
+			finally
+			{
+				join();
+			}
+
+			// Rethrow any exception from a worker thread
+			if (failure instanceof AppException)
+				throw (AppException)failure;
+			if (failure instanceof RuntimeException)
+				throw (RuntimeException)failure;
+			if (failure instanceof Error)
+				throw (Error)failure;
+			if (failure != null)
+				throw new UnexpectedRuntimeException(failure);
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Passes blocks from the specified source or input queue to the specified sink until the end-of-data block has
+		 * been passed on or the pipeline is aborted.
+		 *
+		 * @param source   the source of blocks, or {@code null} if blocks will be taken from {@code inQueue}.
+		 * @param inQueue  the queue from which blocks will be taken if {@code source} is {@code null}.
+		 * @param sink     the sink to which blocks will be passed.
+		 */
+
+		private void work(IPipelineSource              source,
+						  BlockingQueue<PipelineBlock> inQueue,
+						  IPipelineSink                sink)
+		{
+			try
+			{
+				while (!aborted)
+				{
+					PipelineBlock block = (source == null) ? inQueue.take() : source.nextBlock();
+					sink.accept(block);
+					if (block.isEnd())
+						break;
+				}
+			}
+			catch (InterruptedException e)
+			{
+				if (!aborted)
+					fail(e);
+			}
+			catch (Throwable e)
+			{
+				fail(e);
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Records the specified exception as the cause of the failure of this pipeline, aborts the pipeline and
+		 * notifies the terminal sink.
+		 *
+		 * @param exception  the exception that caused the failure.
+		 */
+
+		private synchronized void fail(Throwable exception)
+		{
+			if (failure == null)
+			{
+				failure = exception;
+				abort();
+				outQueue.offer(ABORT_BLOCK);
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Aborts this pipeline by interrupting its worker threads.
+		 */
+
+		private void abort()
+		{
+			aborted = true;
+			for (Thread thread : threads)
+			{
+				if (thread != Thread.currentThread())
+					thread.interrupt();
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Waits for the worker threads of this pipeline to terminate.
+		 */
+
+		private void join()
+		{
+			boolean interrupted = false;
+			for (Thread thread : threads)
+			{
+				while (thread.isAlive())
+				{
+					try
+					{
+						thread.join();
+					}
+					catch (InterruptedException e)
+					{
+						interrupted = true;
+						abort();
+					}
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	int								depth;
+		private	int								numThreads;
+		private	BlockingQueue<byte[]>			bufferPool;
+		private	List<Thread>					threads;
+		private	BlockingQueue<PipelineBlock>	outQueue;
+
+		private volatile	Throwable	failure;
+		private volatile	boolean		aborted;
+
+	}
+
+	//==================================================================
 
 ////////////////////////////////////////////////////////////////////////
-//  Instance methods
+//  Constructors
 ////////////////////////////////////////////////////////////////////////
 
-	/**
-	 * Returns the compression level of the DEFLATE algorithm that is applied to the payload before
-	 * encryption.
-	 * <p>
-	 * The compression level can have values from 1 to 9.
-	 * </p>
-	 *
-	 * @return the compression level of the DEFLATE algorithm that is applied to the payload before
-	 *         encryption.
-	 * @see    #setCompressionLevel(int)
-	 */
+	/**
+	 * Creates an instance of {@link StreamEncrypter} with the specified kind of cipher but no KDF
+	 * parameters or header.
+	 * <p>
+	 * The absence of KDF parameters means that the {@link #encrypt(IInput, IOutput, long, long, byte[],
+	 * byte[])} and {@link #decrypt(IInput, IOutput, long, byte[])} methods and their overloaded variants will
+	 * not derive a content-encryption key (CEK) from their {@code key} argument but will use the {@code
+	 * key} argument directly as the CEK.
+	 * </p>
+	 *
+	 * @param cipher  the kind of cipher that will be used by the pseudo-random number generator to generate
+	 *                a stream cipher for encryption.  {@code cipher} may be {@code null} if the encrypter
+	 *                will not be used for encryption.
+	 */
+
+	public StreamEncrypter(FortunaCipher cipher)
+	{
+		this(cipher, null, null);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Creates an instance of {@link StreamEncrypter} with the specified kind of cipher and KDF parameters
+	 * but no header.
+	 *
+	 * @param cipher     the kind of cipher that will be used by the pseudo-random number generator to
+	 *                   generate a stream cipher for encryption.  {@code cipher} may be {@code null} if the
+	 *                   encrypter will not be used for encryption.
+	 * @param kdfParams  the parameters that will be used by the key derivation function to derive the
+	 *                   content-encryption key when encrypting and decrypting a stream.  If {@code
+	 *                   kdfParams} is {@code null}, the {@link #encrypt(IInput, IOutput, long, long, byte[],
+	 *                   byte[])} and {@link #decrypt(IInput, IOutput, long, byte[])} methods and their
+	 *                   overloaded variants will not derive a content-encryption key (CEK) from their
+	 *                   {@code key} argument but will use the {@code key} argument directly as the CEK.
+	 */
+
+	public StreamEncrypter(FortunaCipher cipher,
+						   KdfParams     kdfParams)
+	{
+		this(cipher, kdfParams, null);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Creates an instance of {@link StreamEncrypter} with the specified kind of cipher and header but no
+	 * KDF parameters.
+	 * <p>
+	 * The absence of KDF parameters means that the {@link #encrypt(IInput, IOutput, long, long, byte[],
+	 * byte[])} and {@link #decrypt(IInput, IOutput, long, byte[])} methods and their overloaded variants will
+	 * not derive a content-encryption key (CEK) from their {@code key} argument but will use the {@code
+	 * key} argument directly as the CEK.
+	 * </p>
+	 *
+	 * @param cipher  the kind of cipher that will be used by the pseudo-random number generator to generate
+	 *                a stream cipher for encryption.  {@code cipher} may be {@code null} if the encrypter
+	 *                will not be used for encryption.
+	 * @param header  the header that will be included in the output stream, in the case of encryption, or
+	 *                that will be used to check the identifier and version number against, in the case of
+	 *                decryption.
+	 */
+
+	public StreamEncrypter(FortunaCipher cipher,
+						   Header        header)
+	{
+		this(cipher, null, header);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Creates an instance of {@link StreamEncrypter} with the specified kind of cipher, KDF parameters and
+	 * header.
+	 *
+	 * @param cipher     the kind of cipher that will be used by the pseudo-random number generator to
+	 *                   generate a stream cipher for encryption.  {@code cipher} may be {@code null} if the
+	 *                   encrypter will not be used for encryption.
+	 * @param kdfParams  the parameters that will be used by the key derivation function to derive the
+	 *                   content-encryption key when encrypting and decrypting a stream.  If {@code
+	 *                   kdfParams} is {@code null}, the {@link #encrypt(IInput, IOutput, long, long, byte[],
+	 *                   byte[])} and {@link #decrypt(IInput, IOutput, long, byte[])} methods and their
+	 *                   overloaded variants will not derive a content-encryption key (CEK) from their
+	 *                   {@code key} argument but will use the {@code key} argument directly as the CEK.
+	 * @param header     the header that will be included in the output stream, in the case of encryption,
+	 *                   or that will be used to check the identifier and version number against, in the
+	 *                   case of decryption.
+	 */
+
+	public StreamEncrypter(FortunaCipher cipher,
+						   KdfParams     kdfParams,
+						   Header        header)
+	{
+		this.cipher = cipher;
+		if (kdfParams != null)
+			this.kdfParams = kdfParams.clone();
+		this.header = header;
+		compressionLevel = MAX_COMPRESSION_LEVEL;
+		keyGenerationMessageEnabled = true;
+		progressListeners = new ArrayList<>();
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Class methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Reads data from the specified input, and stores it in a buffer.
+	 *
+	 * @param  input   the input object from which data will be read.
+	 * @param  buffer  the buffer in which the data will be stored.
+	 * @throws InputException
+	 *           if an error occurs when reading from the input.
+	 */
+
+	private static void read(IInput input,
+							 byte[] buffer)
+		throws InputException
+	{
+		read(input, buffer, 0, buffer.length);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Reads data from the specified input up to a specifed length, and stores it in a buffer.
+	 *
+	 * @param  input   the input object from which data will be read.
+	 * @param  buffer  the buffer in which the data will be stored.
+	 * @param  offset  the offset in {@code buffer} at which the first byte of data will be stored.
+	 * @param  length  the maximum number of bytes to read.
+	 * @throws InputException
+	 *           if an error occurs when reading from the input.
+	 */
+
+	private static void read(IInput input,
+							 byte[] buffer,
+							 int    offset,
+							 int    length)
+		throws InputException
+	{
+		try
+		{
+			int endOffset = offset + length;
+			while (offset < endOffset)
+			{
+				int readLength = input.read(buffer, offset, endOffset - offset);
+				if (readLength < 0)
+					throw new InputException(ErrorId.PREMATURE_END_OF_DATA);
+				offset += readLength;
+			}
+		}
+		catch (IOException e)
+		{
+			throw new InputException(ErrorId.ERROR_READING_DATA, e);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Writes data from an array of bytes to the specified output.
+	 *
+	 * @param  output  the output object to whicg the data will be written.
+	 * @param  data    the array of data to be written.
+	 * @throws IOException
+	 *           if an error occurs when writing to the output.
+	 */
+
+	private static void write(IOutput output,
+							  byte[]  data)
+		throws OutputException
+	{
+		write(output, data, 0, data.length);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Writes data from an array of bytes to the specified output.
+	 *
+	 * @param  output  the output object to whicg the data will be written.
+	 * @param  data    the array of data to be written.
+	 * @param  offset  the start offset of the data in {@code data}.
+	 * @param  length  the number of bytes to write.
+	 * @throws IOException
+	 *           if an error occurs when writing to the output.
+	 */
+
+	private static void write(IOutput output,
+							  byte[]  data,
+							  int     offset,
+							  int     length)
+		throws OutputException
+	{
+		try
+		{
+			output.write(data, offset, length);
+		}
+		catch (IOException e)
+		{
+			throw new OutputException(ErrorId.ERROR_WRITING_DATA, e);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns a buffer that contains the next bytes of the specified input, up to the specified length.  If the
+	 * input does not support {@link IInput#readBuffer(int)}, the data are read into the specified array, which is
+	 * wrapped in the returned buffer.
+	 *
+	 * @param  input   the input object from which data will be read.
+	 * @param  length  the maximum number of bytes to read.
+	 * @param  buffer  the array in which the data will be stored if the input does not support buffers.
+	 * @return a buffer whose remaining bytes are the next bytes of {@code input}.
+	 * @throws InputException
+	 *           if an error occurs when reading from the input or the end of the input has been reached.
+	 */
+
+	private static ByteBuffer readBuffer(IInput input,
+										 int    length,
+										 byte[] buffer)
+		throws InputException
+	{
+		ByteBuffer data = null;
+		try
+		{
+			data = input.readBuffer(length);
+		}
+		catch (IOException e)
+		{
+			throw new InputException(ErrorId.ERROR_READING_DATA, e);
+		}
+
+		if (data == null)
+		{
+			read(input, buffer, 0, length);
+			data = ByteBuffer.wrap(buffer, 0, length);
+		}
+		else if (!data.hasRemaining())
+			throw new InputException(ErrorId.PREMATURE_END_OF_DATA);
+		return data;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Writes the remaining bytes of the specified buffer to the specified output.
+	 *
+	 * @param  output  the output object to which the data will be written.
+	 * @param  data    the buffer that contains the data to be written.
+	 * @throws OutputException
+	 *           if an error occurs when writing to the output.
+	 */
+
+	private static void write(IOutput    output,
+							  ByteBuffer data)
+		throws OutputException
+	{
+		try
+		{
+			output.write(data);
+		}
+		catch (IOException e)
+		{
+			throw new OutputException(ErrorId.ERROR_WRITING_DATA, e);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Allocates a buffer for data that will be written to the specified output.  The buffer is direct if the output
+	 * is a {@link FileChannelOutput}.
+	 *
+	 * @param  output  the output to which the contents of the buffer will be written.
+	 * @return a buffer for data that will be written to {@code output}.
+	 */
+
+	private static ByteBuffer allocateBuffer(IOutput output)
+	{
+		return (output instanceof FileChannelOutput) ? ByteBuffer.allocateDirect(BUFFER_SIZE)
+													 : ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Compresses the pending input of the specified compressor, encrypts the compressed data with the specified
+	 * combiner and writes the resulting ciphertext to the specified output.
+	 *
+	 * @param  compressor  the compressor.
+	 * @param  buffer      the buffer into which the data will be compressed.
+	 * @param  combiner    the combiner that will encrypt the compressed data.
+	 * @param  output      the output to which the ciphertext will be written.
+	 * @throws OutputException
+	 *           if an error occurs when writing to the output.
+	 */
+
+	private static void deflate(Deflater            compressor,
+								ByteBuffer          buffer,
+								Fortuna.XorCombiner combiner,
+								IOutput             output)
+		throws OutputException
+	{
+		while (true)
+		{
+			buffer.clear();
+			if (compressor.deflate(buffer) == 0)
+				break;
+			buffer.flip();
+			combiner.combine(buffer.duplicate());
+			write(output, buffer);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns an array of bit indices that will be used for permuting the bits of the timestamp.
+	 *
+	 * @param  numIndices  the number of indices required.
+	 * @param  prng        the pseudo-random number generator that will generate the permutation of indices.
+	 * @return an array of bit indices whose length is {@code numIndices}.
+	 */
+
+	private static int[] getBitIndices(int     numIndices,
+									   Fortuna prng)
+	{
+		int[] indices = new int[numIndices];
+		for (int i = 0; i < numIndices; i++)
+		{
+			int j = ((prng.getRandomByte() & 0xFF) * (i + 1)) >>> 8;
+			indices[i] = indices[j];
+			indices[j] = i;
+		}
+		return indices;
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Returns the compression level of the DEFLATE algorithm that is applied to the payload before
+	 * encryption.
+	 * <p>
+	 * The compression level can have values from 1 to 9.
+	 * </p>
+	 *
+	 * @return the compression level of the DEFLATE algorithm that is applied to the payload before
+	 *         encryption.
+	 * @see    #setCompressionLevel(int)
+	 */
+
+	public int getCompressionLevel()
+	{
+		return compressionLevel;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the HMAC-SHA256 hash value of the unencrypted timestamp and payload for the last encryption
+	 * or decryption operation.
+	 * <p>
+	 * HMAC-SHA256 is a hash-based message authentication code whose underlying function is the SHA-256
+	 * cryptographic hash function.  The hash value is an array of 32 bytes.
+	 * </p>
+	 * <p>
+	 * The value returned by this method is updated with each encryption and decryption operation that
+	 * completes normally.
+	 * </p>
+	 *
+	 * @return the HMAC-SHA256 hash value of the unencrypted timestamp and payload.
+	 */
+
+	public byte[] getHashValue()
+	{
+		return hashValue;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the minimum size of the overhead of an encrypted stream.  The overhead is the content of the
+	 * stream excluding the payload.
+	 * <p>
+	 * The base value of the size of the overhead is the size of the metadata and the minimum amount of
+	 * padding.  If KDF parameters or a header were specified when this object was created, their sizes are
+	 * added to the base value.
+	 * </p>
+	 *
+	 * @return the minimum size of the overhead of an encrypted stream.
+	 * @see    #getMaxOverheadSize()
+	 */
+
+	public int getMinOverheadSize()
+	{
+		int size = METADATA1_SIZE + PADDING_SIZE;
+		if (kdfParams != null)
+			size += METADATA2_SIZE;
+		if (header != null)
+			size += header.getSize();
+		return size;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the maximum size of the overhead of an encrypted stream.  The overhead is the content of the
+	 * stream excluding the payload.
+	 * <p>
+	 * The base value of the size of the overhead is the size of the metadata and the maximum amount of
+	 * padding.  If KDF parameters or a header were specified when this object was created, their sizes are
+	 * added to the base value.
+	 * </p>
+	 *
+	 * @return the maximum size of the overhead of an encrypted stream.
+	 * @see    #getMinOverheadSize()
+	 */
+
+	public int getMaxOverheadSize()
+	{
+		return (getMinOverheadSize() + MIN_LENGTH - PADDING_SIZE);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the compression level of the DEFLATE algorithm that is applied to the payload before encryption.
+	 * <p>
+	 * The compression level can have values from 1 to 9.
+	 * </p>
+	 *
+	 * @param  level  the compression level that will be set, in the range [1..9].
+	 * @throws IllegalArgumentException
+	 *           if {@code level} is less than 1 or greater than 9.
+	 * @see    #getCompressionLevel()
+	 */
+
+	public void setCompressionLevel(int level)
+	{
+		if ((level < MIN_COMPRESSION_LEVEL) || (level > MAX_COMPRESSION_LEVEL))
+			throw new IllegalArgumentException();
+		compressionLevel = level;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the depth of the pipeline that processes the payload of an encryption or decryption operation.  The
+	 * depth is the maximum number of blocks of data that may be queued between two threads of the pipeline.
+	 *
+	 * @return the depth of the pipeline that processes the payload, or 0 if the payload is processed sequentially on
+	 *         the current thread.
+	 * @see    #getPipelineNumThreads()
+	 * @see    #setPipeline(int, int)
+	 */
+
+	public int getPipelineDepth()
+	{
+		return pipelineDepth;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the maximum number of worker threads of the pipeline that processes the payload of an encryption or
+	 * decryption operation.
+	 *
+	 * @return the maximum number of worker threads of the pipeline that processes the payload, or 0 if the payload is
+	 *         processed sequentially on the current thread.
+	 * @see    #getPipelineDepth()
+	 * @see    #setPipeline(int, int)
+	 */
+
+	public int getPipelineNumThreads()
+	{
+		return pipelineNumThreads;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the parameters of the pipeline that processes the payload of an encryption or decryption operation.
+	 * <p>
+	 * By default, the payload is read, hashed, compressed, encrypted and written sequentially on the thread that calls
+	 * the {@code encrypt} or {@code decrypt} method.  If a pipeline is enabled, the reading of the input, the
+	 * HMAC-SHA256 hash function, the compression or decompression and the combination with the stream cipher are
+	 * distributed over up to four worker threads, which are connected by bounded queues of recycled buffers, and the
+	 * output is written on the calling thread.  The stages of the pipeline run concurrently but each stage processes
+	 * the data in order, so the output of a pipelined operation is identical to that of a sequential one.
+	 * </p>
+	 *
+	 * @param  depth       the maximum number of blocks of data that may be queued between two threads of the
+	 *                     pipeline, or 0 to process the payload sequentially on the current thread.
+	 * @param  numThreads  the maximum number of worker threads of the pipeline.  This value is ignored if {@code
+	 *                     depth} is 0.
+	 * @throws IllegalArgumentException
+	 *           if {@code depth} is not 0 and it is less than 1 or greater than 1024, or if {@code depth} is not 0 and
+	 *           {@code numThreads} is less than 1 or greater than 4.
+	 * @see    #getPipelineDepth()
+	 * @see    #getPipelineNumThreads()
+	 */
+
+	public void setPipeline(int depth,
+							int numThreads)
+	{
+		if (depth == 0)
+		{
+			pipelineDepth = 0;
+			pipelineNumThreads = 0;
+		}
+		else
+		{
+			if ((depth < MIN_PIPELINE_DEPTH) || (depth > MAX_PIPELINE_DEPTH))
+				throw new IllegalArgumentException();
+			if ((numThreads < MIN_PIPELINE_NUM_THREADS) || (numThreads > MAX_PIPELINE_NUM_THREADS))
+				throw new IllegalArgumentException();
+			pipelineDepth = depth;
+			pipelineNumThreads = numThreads;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns {@code true} if a message dialog is displayed while the content-encryption key is being generated.
+	 *
+	 * @return {@code true} if a message dialog is displayed while the content-encryption key is being generated.
+	 * @see    #setKeyGenerationMessageEnabled(boolean)
+	 */
+
+	public boolean isKeyGenerationMessageEnabled()
+	{
+		return keyGenerationMessageEnabled;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets whether a message dialog is displayed while the content-encryption key is being generated.  By default,
+	 * the dialog is displayed if the progress view of the current {@link Task} is a window.  The dialog should be
+	 * disabled when the encrypter runs on a worker thread alongside other encrypters.
+	 *
+	 * @param enabled  if {@code true}, a message dialog will be displayed while the content-encryption key is being
+	 *                 generated.
+	 * @see   #isKeyGenerationMessageEnabled()
+	 */
+
+	public void setKeyGenerationMessageEnabled(boolean enabled)
+	{
+		keyGenerationMessageEnabled = enabled;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the cache of derived keys that is used by the {@code decrypt} methods of this encrypter.
+	 *
+	 * @return the cache of derived keys that is used when decrypting, or {@code null} if derived keys are not cached.
+	 * @see    #setDerivedKeyCache(DerivedKeyCache)
+	 */
+
+	public DerivedKeyCache getDerivedKeyCache()
+	{
+		return derivedKeyCache;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the cache of derived keys that will be used by the {@code decrypt} methods of this encrypter.
+	 * <p>
+	 * By default, the content-encryption key is derived from the {@code key} argument of a {@code decrypt} method by
+	 * running the scrypt key derivation function with the salt and KDF parameters that are read from the input.  If a
+	 * cache is set, a key that was derived from the same key, salt and KDF parameters by an earlier decryption
+	 * operation is taken from the cache instead, so that the cost of the KDF is paid only once by a batch of streams
+	 * that share a key and salt.  The cache may be shared by several encrypters.  The cache is not used for
+	 * encryption, which always generates a new salt.
+	 * </p>
+	 *
+	 * @param cache  the cache of derived keys that will be used when decrypting, or {@code null} if derived keys are
+	 *               not to be cached.
+	 * @see   #getDerivedKeyCache()
+	 */
+
+	public void setDerivedKeyCache(DerivedKeyCache cache)
+	{
+		derivedKeyCache = cache;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Adds the specified progress listener to this encrypter's list of listeners.
+	 * <p>
+	 * The progress listeners are notified during encryption and decryption operations after each block of
+	 * the payload is processed.
+	 * </p>
+	 *
+	 * @param listener  the progress listener that will be added to the list.
+	 * @see   #removeProgressListener(IProgressListener)
+	 * @see   #getProgressListeners()
+	 */
+
+	public void addProgressListener(IProgressListener listener)
+	{
+		progressListeners.add(listener);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Removes the specified progress listener from this encrypter's list of listeners.
+	 * <p>
+	 * The removal operation has no effect if the specified listener is not in the list.
+	 * </p>
+	 *
+	 * @param listener  the listener that will be removed from the list.
+	 * @see   #addProgressListener(IProgressListener)
+	 * @see   #getProgressListeners()
+	 */
+
+	public void removeProgressListener(IProgressListener listener)
+	{
+		progressListeners.remove(listener);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns this encrypter's list of progress listeners.
+	 *
+	 * @return the list of progress listeners as an array.
+	 * @see    #addProgressListener(IProgressListener)
+	 * @see    #removeProgressListener(IProgressListener)
+	 */
+
+	public IProgressListener[] getProgressListeners()
+	{
+		return progressListeners.toArray(new IProgressListener[progressListeners.size()]);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Encrypts data from the specified input stream and writes the resulting ciphertext to the specified output
+	 * stream.
+	 * <p>
+	 * The output stream also contains metadata and blocks of padding of random lengths in addition to the
+	 * ciphertext.  The composition of the output data is described in the class comment for {@link
+	 * StreamEncrypter}.
+	 * </p>
+	 *
+	 * @param  inStream   the input stream from which the data to be encrypted will be read.
+	 * @param  outStream  the output stream to which the ciphertext will be written, along with metadata and
+	 *                    blocks of random padding.
+	 * @param  length     the length of the data to be encrypted.
+	 * @param  timestamp  a timestamp that will be encrypted and written to the output stream.
+	 * @param  key        if key derivation function (KDF) parameters were specified when this object was
+	 *                    created, the key from which the content-encryption key (CEK) will be derived;
+	 *                    otherwise, the key that will be used as the CEK.
+	 * @param  randomKey  the key that will be used as a seed for the pseudo-random number generator that
+	 *                    will generate the random data for the salt of the KDF and for padding.
+	 * @throws AppException
+	 *           if there was not enough memory for the key derivation function to generate the
+	 *           content-encryption key.
+	 * @throws InputException
+	 *           if an error occurred when reading from the input stream.
+	 * @throws OutputException
+	 *           if an error occurred when writing to the output stream.
+	 * @throws TaskCancelledException
+	 *           if the encryption operation was cancelled by the user.
+	 * @see    #encrypt(IInput, IOutput, long, long, byte[], byte[])
+	 * @see    #decrypt(IInput, IOutput, long, byte[])
+	 * @see    #decrypt(InputStream, OutputStream, long, byte[])
+	 */
+
+	public void encrypt(InputStream  inStream,
+						OutputStream outStream,
+						long         length,
+						long         timestamp,
+						byte[]       key,
+						byte[]       randomKey)
+		throws AppException, InputException, OutputException, TaskCancelledException
+	{
+		encrypt(new InputStreamAdapter(inStream), new OutputStreamAdapter(outStream), length, timestamp, key,
+				randomKey);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Encrypts data from the specified input and writes the resulting ciphertext to the specified output.
+	 * <p>
+	 * The output data also contains metadata and blocks of padding of random lengths in addition to the
+	 * ciphertext.  The composition of the output data is described in the class comment for {@link
+	 * StreamEncrypter}.
+	 * </p>
+	 *
+	 * @param  input      the input from which the data to be encrypted will be read.
+	 * @param  output     the output to which the ciphertext will be written, along with metadata and blocks
+	 *                    of random padding.
+	 * @param  length     the length of the data to be encrypted.
+	 * @param  timestamp  a timestamp that will be encrypted and written to the output.
+	 * @param  key        if key derivation function (KDF) parameters were specified when this object was
+	 *                    created, the key from which the content-encryption key (CEK) will be derived;
+	 *                    otherwise, the key that will be used as the CEK.
+	 * @param  randomKey  the key that will be used as a seed for the pseudo-random number generator that
+	 *                    will generate the random data for the salt of the KDF and for padding.
+	 * @throws AppException
+	 *           if there was not enough memory for the key derivation function to generate the
+	 *           content-encryption key.
+	 * @throws InputException
+	 *           if an error occurred when reading from the input.
+	 * @throws OutputException
+	 *           if an error occurred when writing to the output.
+	 * @throws TaskCancelledException
+	 *           if the encryption operation was cancelled by the user.
+	 * @see    #encrypt(InputStream, OutputStream, long, long, byte[], byte[])
+	 * @see    #decrypt(IInput, IOutput, long, byte[])
+	 * @see    #decrypt(InputStream, OutputStream, long, byte[])
+	 */
+
+	public void encrypt(IInput  input,
+						IOutput output,
+						long    length,
+						long    timestamp,
+						byte[]  key,
+						byte[]  randomKey)
+		throws AppException, InputException, OutputException, TaskCancelledException
+	{
+		final	int	RANDOM_DATA_POOL_LENGTH	= 256;
+
+		// Generate random padding lengths
+		Fortuna prng = cipher.createPrng(randomKey);
+		Fortuna.BufferedExtractor randomDataPool = prng.createBufferedExtractor(RANDOM_DATA_POOL_LENGTH);
+		int[] paddingLengths = new int[NUM_PADDINGS];
+		int paddingIndex = 0;
+		while (true)
+		{
+			// Test total padding length
+			int paddingLength = 0;
+			for (int i = 0; i < NUM_PADDINGS; i++)
+				paddingLength += paddingLengths[i];
+			if ((paddingLength >= PADDING_SIZE) && (paddingLength + length >= MIN_LENGTH))
+				break;
+
+			// Update padding length with next random value
+			paddingLengths[paddingIndex] ^= randomDataPool.getByte() & 0xFF;
+			if (++paddingIndex >= NUM_PADDINGS)
+				paddingIndex = 0;
+		}
+
+		// Encode cipher ID; start from a new block of random data
+		randomDataPool.clear();
+		int cipherId = cipher.getId();
+		byte[] cipherData = new byte[CIPHER_FIELD_SIZE];
+		CRC32 crc = new CRC32();
+		while (true)
+		{
+			// Update cipher data
+			for (int i = 0; i < cipherData.length; i++)
+				cipherData[i] ^= randomDataPool.getByte();
+
+			// Calculate CRC of cipher data
+			crc.reset();
+			crc.update(cipherData);
+			if ((crc.getValue() & FortunaCipher.ID_MASK) == cipherId)
+				break;
+		}
+		randomDataPool.clear();
+
+		// Create random padding
+		byte[] padding = prng.getRandomBytes(NUM_PADDINGS * PADDING_SIZE);
+
+		// Write header
+		if (header != null)
+			write(output, header.toByteArray());
+
+		// Write salt and KDF parameters; generate encryption key
+		byte[] encryptionKey = key;
+		if (kdfParams != null)
+		{
+			// Generate and write salt
+			byte[] salt = prng.getRandomBytes(SALT_FIELD_SIZE);
+			write(output, salt);
+
+			// Encode and write KDF parameters
+			byte[] paramData = new byte[PARAMETERS_FIELD_SIZE];
+			NumberUtils.intToBytesLE(kdfParams.getEncodedValue(false), paramData);
+			for (int i = 0; i < paramData.length; i++)
+				paramData[i] ^= salt[i];
+			write(output, paramData);
+
+			// Generate encryption key
+			encryptionKey = new KeyGenerator(key, salt, kdfParams).generate(getWindow());
+		}
+
+		// Write cipher ID
+		write(output, cipherData);
+
+		// Create combiner from encryption key
+		Fortuna.XorCombiner combiner = cipher.createCombiner(encryptionKey, COMBINER_BLOCK_SIZE);
+
+		// Encrypt and write padding lengths
+		for (int i = 0; i < NUM_PADDINGS; i++)
+		{
+			byte[] paddingLengthData = { (byte)paddingLengths[i]  };
+			combiner.combine(paddingLengthData);
+			write(output, paddingLengthData);
+		}
+
+		// Write first padding
+		paddingIndex = 0;
+		write(output, padding, paddingIndex * PADDING_SIZE, paddingLengths[paddingIndex]);
+		++paddingIndex;
+
+		// Rearrange bits of timestamp
+		byte[] timestampData = new byte[TIMESTAMP_FIELD_SIZE];
+		int[] indices = getBitIndices(Long.SIZE, combiner.getPrng());
+		for (int i = 0; i < indices.length; i++)
+		{
+			if ((timestamp & 1L << indices[i]) != 0)
+				timestampData[i >>> 3] |= 1 << (i & 0x07);
+		}
+
+		// Encrypt and write timestamp
+		combiner.combine(timestampData);
+		write(output, timestampData);
+
+		// Create hash-function object
+		HmacSha256 hash = new HmacSha256(encryptionKey);
+
+		// Update hash with timestamp
+		NumberUtils.longToBytesLE(timestamp, timestampData, 0, timestampData.length);
+		hash.update(timestampData);
+
+		// Compress and encrypt data from input
+		encryptPayload(input, output, length, hash, combiner);
+
+		// Write second padding
+		write(output, padding, paddingIndex * PADDING_SIZE, paddingLengths[paddingIndex]);
+		++paddingIndex;
+
+		// Encrypt and write hash value
+		hashValue = hash.getValue();
+		byte[] hashValueData = hashValue.clone();
+		combiner.combine(hashValueData);
+		write(output, hashValueData);
 
-	public int getCompressionLevel()
-	{
-		return compressionLevel;
+		// Write third padding
+		write(output, padding, paddingIndex * PADDING_SIZE, paddingLengths[paddingIndex]);
+		++paddingIndex;
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Returns the HMAC-SHA256 hash value of the unencrypted timestamp and payload for the last encryption
-	 * or decryption operation.
-	 * <p>
-	 * HMAC-SHA256 is a hash-based message authentication code whose underlying function is the SHA-256
-	 * cryptographic hash function.  The hash value is an array of 32 bytes.
-	 * </p>
+	 * Decrypts data from the specified input stream and writes the resulting plaintext to the specified output
+	 * stream.
 	 * <p>
-	 * The value returned by this method is updated with each encryption and decryption operation that
-	 * completes normally.
+	 * The expected composition of the input data is described in the class comment for {@link
+	 * StreamEncrypter}.
 	 * </p>
 	 *
-	 * @return the HMAC-SHA256 hash value of the unencrypted timestamp and payload.
+	 * @param  inStream   the input stream from which the data to be decrypted will be read.
+	 * @param  outStream  the output stream to which the plaintext will be written.
+	 * @param  length     the length of the data to be decrypted.
+	 * @param  key        if key derivation function (KDF) parameters were specified when this object was
+	 *                    created, the key from which the content-encryption key (CEK) will be derived;
+	 *                    otherwise, the key that will be used as the CEK.
+	 * @return the timestamp of the input data.
+	 * @throws AppException
+	 *           if there was not enough memory for the key derivation function to generate the
+	 *           content-encryption key.
+	 * @throws InputException
+	 *           if an error occurred when reading from the input stream.
+	 * @throws OutputException
+	 *           if an error occurred when writing to the output stream.
+	 * @throws TaskCancelledException
+	 *           if the decryption operation was cancelled by the user.
+	 * @see    #decrypt(IInput, IOutput, long, byte[])
+	 * @see    #encrypt(IInput, IOutput, long, long, byte[], byte[])
+	 * @see    #encrypt(InputStream, OutputStream, long, long, byte[], byte[])
 	 */
 
-	public byte[] getHashValue()
+	public long decrypt(InputStream  inStream,
+						OutputStream outStream,
+						long         length,
+						byte[]       key)
+		throws AppException, InputException, OutputException, TaskCancelledException
 	{
-		return hashValue;
+		return decrypt(new InputStreamAdapter(inStream), new OutputStreamAdapter(outStream), length, key);
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Returns the minimum size of the overhead of an encrypted stream.  The overhead is the content of the
-	 * stream excluding the payload.
+	 * Decrypts data from the specified input and writes the resulting plaintext to the specified output.
 	 * <p>
-	 * The base value of the size of the overhead is the size of the metadata and the minimum amount of
-	 * padding.  If KDF parameters or a header were specified when this object was created, their sizes are
-	 * added to the base value.
+	 * The expected composition of the input data is described in the class comment for {@link
+	 * StreamEncrypter}.
 	 * </p>
 	 *
-	 * @return the minimum size of the overhead of an encrypted stream.
-	 * @see    #getMaxOverheadSize()
+	 * @param  input   the input from which the data to be decrypted will be read.
+	 * @param  output  the output to which the plaintext will be written.
+	 * @param  length  the length of the data to be decrypted.
+	 * @param  key     if key derivation function (KDF) parameters were specified when this object was
+	 *                 created, the key from which the content-encryption key (CEK) will be derived;
+	 *                 otherwise, the key that will be used as the CEK.
+	 * @return the timestamp of the input data.
+	 * @throws AppException
+	 *           if there was not enough memory for the key derivation function to generate the
+	 *           content-encryption key.
+	 * @throws InputException
+	 *           if an error occurred when reading from the input.
+	 * @throws OutputException
+	 *           if an error occurred when writing to the output.
+	 * @throws TaskCancelledException
+	 *           if the decryption operation was cancelled by the user.
+	 * @see    #decrypt(InputStream, OutputStream, long, byte[])
+	 * @see    #encrypt(IInput, IOutput, long, long, byte[], byte[])
+	 * @see    #encrypt(InputStream, OutputStream, long, long, byte[], byte[])
 	 */
 
-	public int getMinOverheadSize()
+	public long decrypt(IInput  input,
+						IOutput output,
+						long    length,
+						byte[]  key)
+		throws AppException, InputException, OutputException, TaskCancelledException
 	{
-		int size = METADATA1_SIZE + PADDING_SIZE;
-		if (kdfParams != null)
-			size += METADATA2_SIZE;
+		// Process header
 		if (header != null)
-			size += header.getSize();
-		return size;
-	}
+		{
+			// Read and test format identifier
+			byte[] idBuffer = new byte[Header.ID_FIELD_SIZE];
+			read(input, idBuffer);
 
-	//------------------------------------------------------------------
+			if (NumberUtils.bytesToUIntLE(idBuffer) != header.id)
+				throw new InputException(ErrorId.UNEXPECTED_DATA_FORMAT);
 
-	/**
-	 * Returns the maximum size of the overhead of an encrypted stream.  The overhead is the content of the
-	 * stream excluding the payload.
-	 * <p>
-	 * The base value of the size of the overhead is the size of the metadata and the maximum amount of
-	 * padding.  If KDF parameters or a header were specified when this object was created, their sizes are
-	 * added to the base value.
-	 * </p>
-	 *
-	 * @return the maximum size of the overhead of an encrypted stream.
-	 * @see    #getMinOverheadSize()
-	 */
+			// Read and test version number
+			byte[] versionNum = new byte[Header.VERSION_FIELD_SIZE];
+			read(input, versionNum);
 
-	public int getMaxOverheadSize()
-	{
-		return (getMinOverheadSize() + MIN_LENGTH - PADDING_SIZE);
-	}
+			int version = NumberUtils.bytesToUIntLE(versionNum);
+			if (!header.isSupportedVersion(version))
+				throw new InputException(ErrorId.UNSUPPORTED_DATA_VERSION, Integer.toString(version));
 
-	//------------------------------------------------------------------
+			// Read supplementary data
+			if (header.supplementaryData != null)
+				read(input, header.supplementaryData);
 
-	/**
-	 * Sets the compression level of the DEFLATE algorithm that is applied to the payload before encryption.
-	 * <p>
-	 * The compression level can have values from 1 to 9.
-	 * </p>
-	 *
-	 * @param  level  the compression level that will be set, in the range [1..9].
-	 * @throws IllegalArgumentException
-	 *           if {@code level} is less than 1 or greater than 9.
-	 * @see    #getCompressionLevel()
-	 */
+			// Decrement length
+			length -= header.getSize();
+		}
 
-	public void setCompressionLevel(int level)
-	{
-		if ((level < MIN_COMPRESSION_LEVEL) || (level > MAX_COMPRESSION_LEVEL))
-			throw new IllegalArgumentException();
-		compressionLevel = level;
-	}
+		// Read salt and KDF parameters; generate encryption key
+		byte[] encryptionKey = key;
+		if (kdfParams != null)
+		{
+			// Read salt
+			byte[] salt = new byte[SALT_FIELD_SIZE];
+			read(input, salt);
 
-	//------------------------------------------------------------------
+			// Read and decode KDF parameters
+			byte[] paramData = new byte[PARAMETERS_FIELD_SIZE];
+			read(input, paramData);
+			for (int i = 0; i < paramData.length; i++)
+				paramData[i] ^= salt[i];
+			KdfParams params = new KdfParams(NumberUtils.bytesToUIntLE(paramData));
+			params.maxNumThreads = kdfParams.maxNumThreads;
 
-	/**
-	 * Adds the specified progress listener to this encrypter's list of listeners.
-	 * <p>
-	 * The progress listeners are notified during encryption and decryption operations after each block of
-	 * the payload is processed.
-	 * </p>
-	 *
-	 * @param listener  the progress listener that will be added to the list.
-	 * @see   #removeProgressListener(IProgressListener)
-	 * @see   #getProgressListeners()
-	 */
+			// Generate encryption key, or get it from the cache
+			if (derivedKeyCache == null)
+				encryptionKey = new KeyGenerator(key, salt, params).generate(getWindow());
+			else
+			{
+				DerivedKeyCache.IKeyDeriver deriver = () -> new KeyGenerator(key, salt, params).generate(getWindow());
+				encryptionKey = derivedKeyCache.getDerivedKey(key, salt, params.getEncodedValue(false), deriver);
+			}
+			if (encryptionKey == null)
+				throw new InputException(ErrorId.UNEXPECTED_DATA_FORMAT);
+		}
+
+		// Read and decode cipher ID
+		byte[] cipherData = new byte[CIPHER_FIELD_SIZE];
+		read(input, cipherData);
+		CRC32 crc = new CRC32();
+		crc.update(cipherData);
+		FortunaCipher cipher = FortunaCipher.forId((int)crc.getValue() & FortunaCipher.ID_MASK);
+		if (cipher == null)
+			throw new InputException(ErrorId.UNRECOGNISED_CIPHER);
+
+		// Create combiner from encryption key
+		Fortuna.XorCombiner combiner = cipher.createCombiner(encryptionKey, COMBINER_BLOCK_SIZE);
+
+		// Read and decrypt padding lengths
+		int[] paddingLengths = new int[NUM_PADDINGS];
+		for (int i = 0; i < NUM_PADDINGS; i++)
+		{
+			byte[] paddingLengthData = new byte[PADDING_LENGTH_FIELD_SIZE];
+			read(input, paddingLengthData);
+			combiner.combine(paddingLengthData);
+			paddingLengths[i] = paddingLengthData[0] & 0xFF;
+		}
+		int paddingIndex = 0;
+
+		// Skip first padding
+		byte[] padding = new byte[paddingLengths[paddingIndex++]];
+		read(input, padding);
+
+		// Get indices of timestamp bits
+		int[] indices = getBitIndices(Long.SIZE, combiner.getPrng());
+
+		// Read and decrypt timestamp
+		byte[] timestampData = new byte[TIMESTAMP_FIELD_SIZE];
+		read(input, timestampData);
+		combiner.combine(timestampData);
+
+		// Rearrange bits of timestamp
+		long timestamp = 0;
+		for (int i = 0; i < indices.length; i++)
+		{
+			if ((timestampData[i >>> 3] & 1 << (i & 0x07)) != 0)
+				timestamp |= 1L << indices[i];
+		}
+
+		// Create hash-function object
+		HmacSha256 hash = new HmacSha256(encryptionKey);
+
+		// Update hash with timestamp
+		NumberUtils.longToBytesLE(timestamp, timestampData, 0, timestampData.length);
+		hash.update(timestampData);
+
+		// Read, decrypt and decompress payload
+		length -= METADATA1_SIZE;
+		if (kdfParams != null)
+			length -= METADATA2_SIZE;
+		for (int i = 0; i < NUM_PADDINGS; i++)
+			length -= paddingLengths[i];
+		decryptPayload(input, output, length, hash, combiner);
+
+		// Skip second padding
+		padding = new byte[paddingLengths[paddingIndex++]];
+		read(input, padding);
+
+		// Read and decrypt hash value
+		byte[] hashValueData = new byte[HASH_VALUE_FIELD_SIZE];
+		read(input, hashValueData);
+		combiner.combine(hashValueData);
+
+		// Compare actual hash value with value from input stream
+		if (!Arrays.equals(hashValueData, hash.getValue()))
+			throw new InputException(ErrorId.INCORRECT_KEY);
 
-	public void addProgressListener(IProgressListener listener)
-	{
-		progressListeners.add(listener);
+		// Update instance variables
+		hashValue = hashValueData;
+
+		// Return timestamp
+		return timestamp;
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Removes the specified progress listener from this encrypter's list of listeners.
-	 * <p>
-	 * The removal operation has no effect if the specified listener is not in the list.
-	 * </p>
+	 * Throws a {@link TaskCancelledException} if the task has been cancelled by any of the progress listeners of this
+	 * encrypter.
 	 *
-	 * @param listener  the listener that will be removed from the list.
-	 * @see   #addProgressListener(IProgressListener)
-	 * @see   #getProgressListeners()
+	 * @throws TaskCancelledException
+	 *           if the task has been cancelled by a progress listener.
 	 */
 
-	public void removeProgressListener(IProgressListener listener)
+	private void testTaskCancelled()
+		throws TaskCancelledException
 	{
-		progressListeners.remove(listener);
+		for (IProgressListener listener : progressListeners)
+		{
+			if (listener.isTaskCancelled())
+				throw new TaskCancelledException();
+		}
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Returns this encrypter's list of progress listeners.
+	 * Returns the window that will be used as the owner of the message dialog when generating a
+	 * content-encryption key.  No dialog is displayed if the message is disabled or if the progress view of
+	 * the current task is not a window.
 	 *
-	 * @return the list of progress listeners as an array.
-	 * @see    #addProgressListener(IProgressListener)
-	 * @see    #removeProgressListener(IProgressListener)
+	 * @return the window that will be used as the owner of the message dialog when generating a
+	 *         content-encryption key, or {@code null} if no dialog is to be displayed.
 	 */
 
-	public IProgressListener[] getProgressListeners()
+	private Window getWindow()
 	{
-		return progressListeners.toArray(new IProgressListener[progressListeners.size()]);
+		Window window = null;
+		IProgressView progressView = keyGenerationMessageEnabled ? Task.getProgressView() : null;
+		if (progressView instanceof Window)
+			window = (Window)progressView;
+		return window;
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Encrypts data from the specified input stream and writes the resulting ciphertext to the specified output
-	 * stream.
-	 * <p>
-	 * The output stream also contains metadata and blocks of padding of random lengths in addition to the
-	 * ciphertext.  The composition of the output data is described in the class comment for {@link
-	 * StreamEncrypter}.
-	 * </p>
+	 * Notifies the progress listeners of this encrypter of the progress of the current operation.
 	 *
-	 * @param  inStream   the input stream from which the data to be encrypted will be read.
-	 * @param  outStream  the output stream to which the ciphertext will be written, along with metadata and
-	 *                    blocks of random padding.
-	 * @param  length     the length of the data to be encrypted.
-	 * @param  timestamp  a timestamp that will be encrypted and written to the output stream.
-	 * @param  key        if key derivation function (KDF) parameters were specified when this object was
-	 *                    created, the key from which the content-encryption key (CEK) will be derived;
-	 *                    otherwise, the key that will be used as the CEK.
-	 * @param  randomKey  the key that will be used as a seed for the pseudo-random number generator that
-	 *                    will generate the random data for the salt of the KDF and for padding.
-	 * @throws AppException
-	 *           if there was not enough memory for the key derivation function to generate the
-	 *           content-encryption key.
-	 * @throws InputException
-	 *           if an error occurred when reading from the input stream.
-	 * @throws OutputException
-	 *           if an error occurred when writing to the output stream.
-	 * @throws TaskCancelledException
-	 *           if the encryption operation was cancelled by the user.
-	 * @see    #encrypt(IInput, IOutput, long, long, byte[], byte[])
-	 * @see    #decrypt(IInput, IOutput, long, byte[])
-	 * @see    #decrypt(InputStream, OutputStream, long, byte[])
+	 * @param offset  the offset of the current position in the payload.
+	 * @param length  the length of the payload.
 	 */
 
-	public void encrypt(InputStream  inStream,
-						OutputStream outStream,
-						long         length,
-						long         timestamp,
-						byte[]       key,
-						byte[]       randomKey)
-		throws AppException, InputException, OutputException, TaskCancelledException
+	private void updateProgress(long offset,
+								long length)
 	{
-		encrypt(new InputStreamAdapter(inStream), new OutputStreamAdapter(outStream), length, timestamp, key,
-				randomKey);
+		double progress = (double)offset / (double)length;
+		for (IProgressListener listener : progressListeners)
+			listener.setProgress(progress);
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Encrypts data from the specified input and writes the resulting ciphertext to the specified output.
-	 * <p>
-	 * The output data also contains metadata and blocks of padding of random lengths in addition to the
-	 * ciphertext.  The composition of the output data is described in the class comment for {@link
-	 * StreamEncrypter}.
-	 * </p>
+	 * Compresses and encrypts the payload of an encryption operation and writes the resulting ciphertext to the
+	 * specified output.  The payload is also hashed with the specified HMAC.
 	 *
-	 * @param  input      the input from which the data to be encrypted will be read.
-	 * @param  output     the output to which the ciphertext will be written, along with metadata and blocks
-	 *                    of random padding.
-	 * @param  length     the length of the data to be encrypted.
-	 * @param  timestamp  a timestamp that will be encrypted and written to the output.
-	 * @param  key        if key derivation function (KDF) parameters were specified when this object was
-	 *                    created, the key from which the content-encryption key (CEK) will be derived;
-	 *                    otherwise, the key that will be used as the CEK.
-	 * @param  randomKey  the key that will be used as a seed for the pseudo-random number generator that
-	 *                    will generate the random data for the salt of the KDF and for padding.
-	 * @throws AppException
-	 *           if there was not enough memory for the key derivation function to generate the
-	 *           content-encryption key.
+	 * @param  input     the input from which the payload will be read.
+	 * @param  output    the output to which the ciphertext will be written.
+	 * @param  length    the length of the payload.
+	 * @param  hash      the HMAC that will be updated with the payload.
+	 * @param  combiner  the combiner that will encrypt the compressed payload.
 	 * @throws InputException
 	 *           if an error occurred when reading from the input.
 	 * @throws OutputException
 	 *           if an error occurred when writing to the output.
 	 * @throws TaskCancelledException
 	 *           if the encryption operation was cancelled by the user.
-	 * @see    #encrypt(InputStream, OutputStream, long, long, byte[], byte[])
-	 * @see    #decrypt(IInput, IOutput, long, byte[])
-	 * @see    #decrypt(InputStream, OutputStream, long, byte[])
 	 */
 
-	public void encrypt(IInput  input,
-						IOutput output,
-						long    length,
-						long    timestamp,
-						byte[]  key,
-						byte[]  randomKey)
-		throws AppException, InputException, OutputException, TaskCancelledException
+	private void encryptPayload(IInput              input,
+								IOutput             output,
+								long                length,
+								HmacSha256          hash,
+								Fortuna.XorCombiner combiner)
+		throws AppException
 	{
-		final	int	RANDOM_DATA_POOL_LENGTH	= 256;
-
-		// Generate random padding lengths
-		byte[] randomDataPool = new byte[RANDOM_DATA_POOL_LENGTH];
-		int randomDataPoolIndex = 0;
-		Fortuna prng = cipher.createPrng(randomKey);
-		int[] paddingLengths = new int[NUM_PADDINGS];
-		int paddingIndex = 0;
-		while (true)
-		{
-			// Test total padding length
-			int paddingLength = 0;
-			for (int i = 0; i < NUM_PADDINGS; i++)
-				paddingLength += paddingLengths[i];
-			if ((paddingLength >= PADDING_SIZE) && (paddingLength + length >= MIN_LENGTH))
-				break;
-
-			// Fill pool of random data
-			if (randomDataPoolIndex == 0)
-			{
-				for (int i = 0; i < RANDOM_DATA_POOL_LENGTH; i++)
-					randomDataPool[i] = prng.getRandomByte();
-			}
-
-			// Update padding length with next random value
-			paddingLengths[paddingIndex] ^= randomDataPool[randomDataPoolIndex] & 0xFF;
-			if (++paddingIndex >= NUM_PADDINGS)
-				paddingIndex = 0;
-			if (++randomDataPoolIndex >= RANDOM_DATA_POOL_LENGTH)
-				randomDataPoolIndex = 0;
-		}
-
-		// Encode cipher ID
-		randomDataPoolIndex = 0;
-		int cipherId = cipher.getId();
-		byte[] cipherData = new byte[CIPHER_FIELD_SIZE];
-		CRC32 crc = new CRC32();
-		while (true)
-		{
-			// Fill pool of random data
-			if (randomDataPoolIndex == 0)
-			{
-				for (int i = 0; i < RANDOM_DATA_POOL_LENGTH; i++)
-					randomDataPool[i] = prng.getRandomByte();
-			}
-
-			// Update cipher data
-			for (int i = 0; i < cipherData.length; i++)
-			{
-				cipherData[i] ^= randomDataPool[randomDataPoolIndex];
-				if (++randomDataPoolIndex >= RANDOM_DATA_POOL_LENGTH)
-					randomDataPoolIndex = 0;
-			}
-
-			// Calculate CRC of cipher data
-			crc.reset();
-			crc.update(cipherData);
-			if ((crc.getValue() & FortunaCipher.ID_MASK) == cipherId)
-				break;
-		}
-
-		// Create random padding
-		byte[] padding = prng.getRandomBytes(NUM_PADDINGS * PADDING_SIZE);
-
-		// Write header
-		if (header != null)
-			write(output, header.toByteArray());
-
-		// Write salt and KDF parameters; generate encryption key
-		byte[] encryptionKey = key;
-		if (kdfParams != null)
-		{
-			// Generate and write salt
-			byte[] salt = prng.getRandomBytes(SALT_FIELD_SIZE);
-			write(output, salt);
-
-			// Encode and write KDF parameters
-			byte[] paramData = new byte[PARAMETERS_FIELD_SIZE];
-			NumberUtils.intToBytesLE(kdfParams.getEncodedValue(false), paramData);
-			for (int i = 0; i < paramData.length; i++)
-				paramData[i] ^= salt[i];
-			write(output, paramData);
-
-			// Generate encryption key
-			encryptionKey = new KeyGenerator(key, salt, kdfParams).generate(getWindow());
-		}
-
-		// Write cipher ID
-		write(output, cipherData);
-
-		// Create combiner from encryption key
-		Fortuna.XorCombiner combiner = cipher.createCombiner(encryptionKey, COMBINER_BLOCK_SIZE);
-
-		// Encrypt and write padding lengths
-		for (int i = 0; i < NUM_PADDINGS; i++)
+		// Process payload with a pipeline
+		if (pipelineDepth > 0)
 		{
-			byte[] paddingLengthData = { (byte)paddingLengths[i]  };
-			combiner.combine(paddingLengthData);
-			write(output, paddingLengthData);
+			encryptPayloadPipelined(input, output, length, hash, combiner);
+			return;
 		}
 
-		// Write first padding
-		paddingIndex = 0;
-		write(output, padding, paddingIndex * PADDING_SIZE, paddingLengths[paddingIndex]);
-		++paddingIndex;
-
-		// Rearrange bits of timestamp
-		byte[] timestampData = new byte[TIMESTAMP_FIELD_SIZE];
-		int[] indices = getBitIndices(Long.SIZE, combiner.getPrng());
-		for (int i = 0; i < indices.length; i++)
+		// Process payload with buffers if the input or output is a file channel
+		if ((input instanceof FileChannelInput) || (output instanceof FileChannelOutput))
 		{
-			if ((timestamp & 1L << indices[i]) != 0)
-				timestampData[i >>> 3] |= 1 << (i & 0x07);
+			encryptPayloadBuffered(input, output, length, hash, combiner);
+			return;
 		}
 
-		// Encrypt and write timestamp
-		combiner.combine(timestampData);
-		write(output, timestampData);
-
-		// Create hash-function object
-		HmacSha256 hash = new HmacSha256(encryptionKey);
-
-		// Update hash with timestamp
-		NumberUtils.longToBytesLE(timestamp, timestampData, 0, timestampData.length);
-		hash.update(timestampData);
-
-		// Compress and encrypt data from input stream
+		// Compress and encrypt data from input
 		Deflater compressor = new Deflater(compressionLevel, true);
 		byte[] inBuffer = new byte[BUFFER_SIZE];
 		byte[] outBuffer = new byte[BUFFER_SIZE];
@@ -2075,11 +3440,7 @@ public class StreamEncrypter
 		while (offset < length)
 		{
 			// Test whether task has been cancelled by a monitor
-			for (IProgressListener listener : progressListeners)
-			{
-				if (listener.isTaskCancelled())
-					throw new TaskCancelledException();
-			}
+			testTaskCancelled();
 
 			// Read block of data from input stream
 			int blockLength = (int)Math.min(length - offset, BUFFER_SIZE);
@@ -2101,9 +3462,7 @@ public class StreamEncrypter
 			offset += blockLength;
 
 			// Update progress of task
-			double progress = (double)offset / (double)length;
-			for (IProgressListener listener : progressListeners)
-				listener.setProgress(progress);
+			updateProgress(offset, length);
 		}
 
 		// Write remaining compressed data
@@ -2116,214 +3475,231 @@ public class StreamEncrypter
 			combiner.combine(outBuffer, 0, outLength);
 			write(output, outBuffer, 0, outLength);
 		}
-
-		// Write second padding
-		write(output, padding, paddingIndex * PADDING_SIZE, paddingLengths[paddingIndex]);
-		++paddingIndex;
-
-		// Encrypt and write hash value
-		hashValue = hash.getValue();
-		byte[] hashValueData = hashValue.clone();
-		combiner.combine(hashValueData);
-		write(output, hashValueData);
-
-		// Write third padding
-		write(output, padding, paddingIndex * PADDING_SIZE, paddingLengths[paddingIndex]);
-		++paddingIndex;
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Decrypts data from the specified input stream and writes the resulting plaintext to the specified output
-	 * stream.
+	 * Compresses and encrypts the payload of an encryption operation with buffers, and writes the resulting
+	 * ciphertext to the specified output.  The payload is also hashed with the specified HMAC.
 	 * <p>
-	 * The expected composition of the input data is described in the class comment for {@link
-	 * StreamEncrypter}.
+	 * If the input supports {@link IInput#readBuffer(int)}, the payload is hashed and compressed directly from the
+	 * buffers of the input.  If the output is a {@link FileChannelOutput}, the payload is compressed into a direct
+	 * buffer, which is encrypted in place and written to the channel.
 	 * </p>
 	 *
-	 * @param  inStream   the input stream from which the data to be decrypted will be read.
-	 * @param  outStream  the output stream to which the plaintext will be written.
-	 * @param  length     the length of the data to be decrypted.
-	 * @param  key        if key derivation function (KDF) parameters were specified when this object was
-	 *                    created, the key from which the content-encryption key (CEK) will be derived;
-	 *                    otherwise, the key that will be used as the CEK.
-	 * @return the timestamp of the input data.
-	 * @throws AppException
-	 *           if there was not enough memory for the key derivation function to generate the
-	 *           content-encryption key.
+	 * @param  input     the input from which the payload will be read.
+	 * @param  output    the output to which the ciphertext will be written.
+	 * @param  length    the length of the payload.
+	 * @param  hash      the HMAC that will be updated with the payload.
+	 * @param  combiner  the combiner that will encrypt the compressed payload.
 	 * @throws InputException
-	 *           if an error occurred when reading from the input stream.
+	 *           if an error occurred when reading from the input.
 	 * @throws OutputException
-	 *           if an error occurred when writing to the output stream.
+	 *           if an error occurred when writing to the output.
 	 * @throws TaskCancelledException
-	 *           if the decryption operation was cancelled by the user.
-	 * @see    #decrypt(IInput, IOutput, long, byte[])
-	 * @see    #encrypt(IInput, IOutput, long, long, byte[], byte[])
-	 * @see    #encrypt(InputStream, OutputStream, long, long, byte[], byte[])
+	 *           if the encryption operation was cancelled by the user.
 	 */
 
-	public long decrypt(InputStream  inStream,
-						OutputStream outStream,
-						long         length,
-						byte[]       key)
-		throws AppException, InputException, OutputException, TaskCancelledException
-	{
-		return decrypt(new InputStreamAdapter(inStream), new OutputStreamAdapter(outStream), length, key);
+	private void encryptPayloadBuffered(IInput              input,
+										IOutput             output,
+										long                length,
+										HmacSha256          hash,
+										Fortuna.XorCombiner combiner)
+		throws AppException
+	{
+		// Compress and encrypt data from input
+		Deflater compressor = new Deflater(compressionLevel, true);
+		byte[] inBuffer = new byte[BUFFER_SIZE];
+		ByteBuffer outBuffer = allocateBuffer(output);
+		long offset = 0;
+		while (offset < length)
+		{
+			// Test whether task has been cancelled by a monitor
+			testTaskCancelled();
+
+			// Read block of data from input
+			ByteBuffer inData = readBuffer(input, (int)Math.min(length - offset, BUFFER_SIZE), inBuffer);
+			int blockLength = inData.remaining();
+			hash.update(inData.duplicate());
+
+			// Compress and encrypt input data and write it to output
+			compressor.setInput(inData);
+			deflate(compressor, outBuffer, combiner, output);
+
+			// Increment offset
+			offset += blockLength;
+
+			// Update progress of task
+			updateProgress(offset, length);
+		}
+
+		// Write remaining compressed data
+		compressor.finish();
+		deflate(compressor, outBuffer, combiner, output);
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Decrypts data from the specified input and writes the resulting plaintext to the specified output.
+	 * Compresses and encrypts the payload of an encryption operation with a pipeline, and writes the resulting
+	 * ciphertext to the specified output.  The payload is also hashed with the specified HMAC.
 	 * <p>
-	 * The expected composition of the input data is described in the class comment for {@link
-	 * StreamEncrypter}.
+	 * The stages of the pipeline are: read, hash, compress, encrypt and write.  The output is identical to that of
+	 * {@link #encryptPayload(IInput, IOutput, long, HmacSha256, Fortuna.XorCombiner) encryptPayload(...)} when no
+	 * pipeline is set, because the payload is read in blocks of the same size and each stage processes the blocks in
+	 * order.
 	 * </p>
 	 *
-	 * @param  input   the input from which the data to be decrypted will be read.
-	 * @param  output  the output to which the plaintext will be written.
-	 * @param  length  the length of the data to be decrypted.
-	 * @param  key     if key derivation function (KDF) parameters were specified when this object was
-	 *                 created, the key from which the content-encryption key (CEK) will be derived;
-	 *                 otherwise, the key that will be used as the CEK.
-	 * @return the timestamp of the input data.
-	 * @throws AppException
-	 *           if there was not enough memory for the key derivation function to generate the
-	 *           content-encryption key.
+	 * @param  input     the input from which the payload will be read.
+	 * @param  output    the output to which the ciphertext will be written.
+	 * @param  length    the length of the payload.
+	 * @param  hash      the HMAC that will be updated with the payload.
+	 * @param  combiner  the combiner that will encrypt the compressed payload.
 	 * @throws InputException
 	 *           if an error occurred when reading from the input.
 	 * @throws OutputException
 	 *           if an error occurred when writing to the output.
 	 * @throws TaskCancelledException
-	 *           if the decryption operation was cancelled by the user.
-	 * @see    #decrypt(InputStream, OutputStream, long, byte[])
-	 * @see    #encrypt(IInput, IOutput, long, long, byte[], byte[])
-	 * @see    #encrypt(InputStream, OutputStream, long, long, byte[], byte[])
+	 *           if the encryption operation was cancelled by the user.
 	 */
 
-	public long decrypt(IInput  input,
-						IOutput output,
-						long    length,
-						byte[]  key)
-		throws AppException, InputException, OutputException, TaskCancelledException
+	private void encryptPayloadPipelined(IInput              input,
+										 IOutput             output,
+										 long                length,
+										 HmacSha256          hash,
+										 Fortuna.XorCombiner combiner)
+		throws AppException
 	{
-		// Process header
-		if (header != null)
-		{
-			// Read and test format identifier
-			byte[] idBuffer = new byte[Header.ID_FIELD_SIZE];
-			read(input, idBuffer);
-
-			if (NumberUtils.bytesToUIntLE(idBuffer) != header.id)
-				throw new InputException(ErrorId.UNEXPECTED_DATA_FORMAT);
+		Pipeline pipeline = new Pipeline(pipelineDepth, pipelineNumThreads);
+		Deflater compressor = new Deflater(compressionLevel, true);
 
-			// Read and test version number
-			byte[] versionNum = new byte[Header.VERSION_FIELD_SIZE];
-			read(input, versionNum);
+		// Source: read blocks of data from input
+		IPipelineSource source = new IPipelineSource()
+		{
+			long offset;
 
-			int version = NumberUtils.bytesToUIntLE(versionNum);
-			if (!header.isSupportedVersion(version))
-				throw new InputException(ErrorId.UNSUPPORTED_DATA_VERSION, Integer.toString(version));
+			@Override
+			public PipelineBlock nextBlock()
+				throws AppException
+			{
+				if (offset >= length)
+					return new PipelineBlock(null, 0, offset);
+
+				int blockLength = (int)Math.min(length - offset, BUFFER_SIZE);
+				byte[] buffer = pipeline.allocateBuffer();
+				read(input, buffer, 0, blockLength);
+				offset += blockLength;
+				return new PipelineBlock(buffer, blockLength, offset);
+			}
+		};
 
-			// Read supplementary data
-			if (header.supplementaryData != null)
-				read(input, header.supplementaryData);
+		// Stage: update hash with input data
+		IPipelineStage hashStage = (block, sink) ->
+		{
+			if (!block.isEnd())
+				hash.update(block.data, 0, block.length);
+			sink.accept(block);
+		};
 
-			// Decrement length
-			length -= header.getSize();
-		}
+		// Stage: compress input data
+		IPipelineStage compressionStage = (block, sink) ->
+		{
+			if (block.isEnd())
+				compressor.finish();
+			else
+				compressor.setInput(block.data, 0, block.length);
+			while (true)
+			{
+				byte[] buffer = pipeline.allocateBuffer();
+				int outLength = compressor.deflate(buffer);
+				if (outLength == 0)
+				{
+					pipeline.releaseBuffer(buffer);
+					break;
+				}
+				sink.accept(new PipelineBlock(buffer, outLength, block.position));
+			}
+			if (block.isEnd())
+				sink.accept(block);
+			else
+				pipeline.releaseBuffer(block.data);
+		};
 
-		// Read salt and KDF parameters; generate encryption key
-		byte[] encryptionKey = key;
-		if (kdfParams != null)
+		// Stage: encrypt compressed data
+		IPipelineStage encryptionStage = (block, sink) ->
 		{
-			// Read salt
-			byte[] salt = new byte[SALT_FIELD_SIZE];
-			read(input, salt);
+			if (!block.isEnd())
+				combiner.combine(block.data, 0, block.length);
+			sink.accept(block);
+		};
 
-			// Read and decode KDF parameters
-			byte[] paramData = new byte[PARAMETERS_FIELD_SIZE];
-			read(input, paramData);
-			for (int i = 0; i < paramData.length; i++)
-				paramData[i] ^= salt[i];
-			KdfParams params = new KdfParams(NumberUtils.bytesToUIntLE(paramData));
-			params.maxNumThreads = kdfParams.maxNumThreads;
+		// Terminal sink: write encrypted data to output
+		IPipelineSink terminal = block ->
+		{
+			testTaskCancelled();
+			if (!block.isEnd())
+			{
+				write(output, block.data, 0, block.length);
+				pipeline.releaseBuffer(block.data);
+			}
+			if (length > 0)
+				updateProgress(block.position, length);
+		};
 
-			// Generate encryption key
-			encryptionKey = new KeyGenerator(key, salt, params).generate(getWindow());
-			if (encryptionKey == null)
-				throw new InputException(ErrorId.UNEXPECTED_DATA_FORMAT);
-		}
+		// Run pipeline
+		pipeline.run(source, Arrays.asList(hashStage, compressionStage, encryptionStage), terminal);
+	}
 
-		// Read and decode cipher ID
-		byte[] cipherData = new byte[CIPHER_FIELD_SIZE];
-		read(input, cipherData);
-		CRC32 crc = new CRC32();
-		crc.update(cipherData);
-		FortunaCipher cipher = FortunaCipher.forId((int)crc.getValue() & FortunaCipher.ID_MASK);
-		if (cipher == null)
-			throw new InputException(ErrorId.UNRECOGNISED_CIPHER);
+	//------------------------------------------------------------------
 
-		// Create combiner from encryption key
-		Fortuna.XorCombiner combiner = cipher.createCombiner(encryptionKey, COMBINER_BLOCK_SIZE);
+	/**
+	 * Decrypts and decompresses the payload of a decryption operation and writes the resulting plaintext to the
+	 * specified output.  The plaintext is also hashed with the specified HMAC.
+	 *
+	 * @param  input     the input from which the encrypted payload will be read.
+	 * @param  output    the output to which the plaintext will be written.
+	 * @param  length    the length of the encrypted payload.
+	 * @param  hash      the HMAC that will be updated with the plaintext.
+	 * @param  combiner  the combiner that will decrypt the payload.
+	 * @throws InputException
+	 *           if an error occurred when reading from the input or the payload could not be decompressed.
+	 * @throws OutputException
+	 *           if an error occurred when writing to the output.
+	 * @throws TaskCancelledException
+	 *           if the decryption operation was cancelled by the user.
+	 */
 
-		// Read and decrypt padding lengths
-		int[] paddingLengths = new int[NUM_PADDINGS];
-		for (int i = 0; i < NUM_PADDINGS; i++)
+	private void decryptPayload(IInput              input,
+								IOutput             output,
+								long                length,
+								HmacSha256          hash,
+								Fortuna.XorCombiner combiner)
+		throws AppException
+	{
+		// Process payload with a pipeline
+		if (pipelineDepth > 0)
 		{
-			byte[] paddingLengthData = new byte[PADDING_LENGTH_FIELD_SIZE];
-			read(input, paddingLengthData);
-			combiner.combine(paddingLengthData);
-			paddingLengths[i] = paddingLengthData[0] & 0xFF;
+			decryptPayloadPipelined(input, output, length, hash, combiner);
+			return;
 		}
-		int paddingIndex = 0;
-
-		// Skip first padding
-		byte[] padding = new byte[paddingLengths[paddingIndex++]];
-		read(input, padding);
-
-		// Get indices of timestamp bits
-		int[] indices = getBitIndices(Long.SIZE, combiner.getPrng());
-
-		// Read and decrypt timestamp
-		byte[] timestampData = new byte[TIMESTAMP_FIELD_SIZE];
-		read(input, timestampData);
-		combiner.combine(timestampData);
 
-		// Rearrange bits of timestamp
-		long timestamp = 0;
-		for (int i = 0; i < indices.length; i++)
+		// Process payload with buffers if the output is a file channel
+		if (output instanceof FileChannelOutput)
 		{
-			if ((timestampData[i >>> 3] & 1 << (i & 0x07)) != 0)
-				timestamp |= 1L << indices[i];
+			decryptPayloadBuffered(input, output, length, hash, combiner);
+			return;
 		}
 
-		// Create hash-function object
-		HmacSha256 hash = new HmacSha256(encryptionKey);
-
-		// Update hash with timestamp
-		NumberUtils.longToBytesLE(timestamp, timestampData, 0, timestampData.length);
-		hash.update(timestampData);
-
 		// Read and decrypt payload
 		Inflater decompressor = new Inflater(true);
 		byte[] inBuffer = new byte[BUFFER_SIZE];
 		byte[] outBuffer = new byte[BUFFER_SIZE];
-		length -= METADATA1_SIZE;
-		if (kdfParams != null)
-			length -= METADATA2_SIZE;
-		for (int i = 0; i < NUM_PADDINGS; i++)
-			length -= paddingLengths[i];
 		long offset = 0;
 		while (offset < length)
 		{
 			// Test whether task has been cancelled by a monitor
-			for (IProgressListener listener : progressListeners)
-			{
-				if (listener.isTaskCancelled())
-					throw new TaskCancelledException();
-			}
+			testTaskCancelled();
 
 			// Read and decrypt block of data from input stream
 			int blockLength = (int)Math.min(length - offset, BUFFER_SIZE);
@@ -2352,29 +3728,197 @@ public class StreamEncrypter
 			offset += blockLength;
 
 			// Update progress of task
-			double progress = (double)offset / (double)length;
-			for (IProgressListener listener : progressListeners)
-				listener.setProgress(progress);
+			updateProgress(offset, length);
 		}
+	}
 
-		// Skip second padding
-		padding = new byte[paddingLengths[paddingIndex++]];
-		read(input, padding);
+	//------------------------------------------------------------------
 
-		// Read and decrypt hash value
-		byte[] hashValueData = new byte[HASH_VALUE_FIELD_SIZE];
-		read(input, hashValueData);
-		combiner.combine(hashValueData);
+	/**
+	 * Decrypts and decompresses the payload of a decryption operation with buffers, and writes the resulting
+	 * plaintext to the specified output.  The plaintext is also hashed with the specified HMAC.
+	 * <p>
+	 * The payload is decompressed into a buffer that is direct if the output is a {@link FileChannelOutput}, so
+	 * that the plaintext is hashed and written to the channel without being copied.
+	 * </p>
+	 *
+	 * @param  input     the input from which the encrypted payload will be read.
+	 * @param  output    the output to which the plaintext will be written.
+	 * @param  length    the length of the encrypted payload.
+	 * @param  hash      the HMAC that will be updated with the plaintext.
+	 * @param  combiner  the combiner that will decrypt the payload.
+	 * @throws InputException
+	 *           if an error occurred when reading from the input or the payload could not be decompressed.
+	 * @throws OutputException
+	 *           if an error occurred when writing to the output.
+	 * @throws TaskCancelledException
+	 *           if the decryption operation was cancelled by the user.
+	 */
 
-		// Compare actual hash value with value from input stream
-		if (!Arrays.equals(hashValueData, hash.getValue()))
-			throw new InputException(ErrorId.INCORRECT_KEY);
+	private void decryptPayloadBuffered(IInput              input,
+										IOutput             output,
+										long                length,
+										HmacSha256          hash,
+										Fortuna.XorCombiner combiner)
+		throws AppException
+	{
+		// Read and decrypt payload
+		Inflater decompressor = new Inflater(true);
+		byte[] inBuffer = new byte[BUFFER_SIZE];
+		ByteBuffer outBuffer = allocateBuffer(output);
+		long offset = 0;
+		while (offset < length)
+		{
+			// Test whether task has been cancelled by a monitor
+			testTaskCancelled();
 
-		// Update instance variables
-		hashValue = hashValueData;
+			// Read and decrypt block of data from input
+			int blockLength = (int)Math.min(length - offset, BUFFER_SIZE);
+			read(input, inBuffer, 0, blockLength);
+			combiner.combine(inBuffer, 0, blockLength);
 
-		// Return timestamp
-		return timestamp;
+			// Decompress data and write it to output
+			decompressor.setInput(inBuffer, 0, blockLength);
+			try
+			{
+				while (true)
+				{
+					outBuffer.clear();
+					int outLength = decompressor.inflate(outBuffer);
+					if ((outLength == 0) && decompressor.needsInput())
+						break;
+					outBuffer.flip();
+					hash.update(outBuffer.duplicate());
+					write(output, outBuffer);
+				}
+			}
+			catch (DataFormatException e)
+			{
+				throw new InputException(ErrorId.INCORRECT_KEY);
+			}
+
+			// Increment offset
+			offset += blockLength;
+
+			// Update progress of task
+			updateProgress(offset, length);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Decrypts and decompresses the payload of a decryption operation with a pipeline, and writes the resulting
+	 * plaintext to the specified output.  The plaintext is also hashed with the specified HMAC.
+	 * <p>
+	 * The stages of the pipeline are: read, decrypt, decompress, hash and write.
+	 * </p>
+	 *
+	 * @param  input     the input from which the encrypted payload will be read.
+	 * @param  output    the output to which the plaintext will be written.
+	 * @param  length    the length of the encrypted payload.
+	 * @param  hash      the HMAC that will be updated with the plaintext.
+	 * @param  combiner  the combiner that will decrypt the payload.
+	 * @throws InputException
+	 *           if an error occurred when reading from the input or the payload could not be decompressed.
+	 * @throws OutputException
+	 *           if an error occurred when writing to the output.
+	 * @throws TaskCancelledException
+	 *           if the decryption operation was cancelled by the user.
+	 */
+
+	private void decryptPayloadPipelined(IInput              input,
+										 IOutput             output,
+										 long                length,
+										 HmacSha256          hash,
+										 Fortuna.XorCombiner combiner)
+		throws AppException
+	{
+		Pipeline pipeline = new Pipeline(pipelineDepth, pipelineNumThreads);
+		Inflater decompressor = new Inflater(true);
+
+		// Source: read blocks of encrypted data from input
+		IPipelineSource source = new IPipelineSource()
+		{
+			long offset;
+
+			@Override
+			public PipelineBlock nextBlock()
+				throws AppException
+			{
+				if (offset >= length)
+					return new PipelineBlock(null, 0, offset);
+
+				int blockLength = (int)Math.min(length - offset, BUFFER_SIZE);
+				byte[] buffer = pipeline.allocateBuffer();
+				read(input, buffer, 0, blockLength);
+				offset += blockLength;
+				return new PipelineBlock(buffer, blockLength, offset);
+			}
+		};
+
+		// Stage: decrypt data
+		IPipelineStage decryptionStage = (block, sink) ->
+		{
+			if (!block.isEnd())
+				combiner.combine(block.data, 0, block.length);
+			sink.accept(block);
+		};
+
+		// Stage: decompress decrypted data
+		IPipelineStage decompressionStage = (block, sink) ->
+		{
+			if (block.isEnd())
+			{
+				sink.accept(block);
+				return;
+			}
+
+			decompressor.setInput(block.data, 0, block.length);
+			try
+			{
+				while (true)
+				{
+					byte[] buffer = pipeline.allocateBuffer();
+					int outLength = decompressor.inflate(buffer);
+					if ((outLength == 0) && decompressor.needsInput())
+					{
+						pipeline.releaseBuffer(buffer);
+						break;
+					}
+					sink.accept(new PipelineBlock(buffer, outLength, block.position));
+				}
+			}
+			catch (DataFormatException e)
+			{
+				throw new InputException(ErrorId.INCORRECT_KEY);
+			}
+			pipeline.releaseBuffer(block.data);
+		};
+
+		// Stage: update hash with decompressed data
+		IPipelineStage hashStage = (block, sink) ->
+		{
+			if (!block.isEnd())
+				hash.update(block.data, 0, block.length);
+			sink.accept(block);
+		};
+
+		// Terminal sink: write decompressed data to output
+		IPipelineSink terminal = block ->
+		{
+			testTaskCancelled();
+			if (!block.isEnd())
+			{
+				write(output, block.data, 0, block.length);
+				pipeline.releaseBuffer(block.data);
+			}
+			if (length > 0)
+				updateProgress(block.position, length);
+		};
+
+		// Run pipeline
+		pipeline.run(source, Arrays.asList(decryptionStage, decompressionStage, hashStage), terminal);
 	}
 
 	//------------------------------------------------------------------
@@ -2387,8 +3931,12 @@ public class StreamEncrypter
 	private	KdfParams				kdfParams;
 	private	Header					header;
 	private	int						compressionLevel;
+	private	int						pipelineDepth;
+	private	int						pipelineNumThreads;
+	private	boolean					keyGenerationMessageEnabled;
 	private	byte[]					hashValue;
 	private	List<IProgressListener>	progressListeners;
+	private	DerivedKeyCache			derivedKeyCache;
 
 }
 
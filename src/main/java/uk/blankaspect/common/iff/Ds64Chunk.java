@@ -0,0 +1,308 @@
+/*====================================================================*\
+
+Ds64Chunk.java
+
+Class: RF64 data-size chunk.
+
+\*====================================================================*/
+
+
+// PACKAGE
+
+
+package uk.blankaspect.common.iff;
+
+//----------------------------------------------------------------------
+
+
+// IMPORTS
+
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.blankaspect.common.number.NumberUtils;
+
+//----------------------------------------------------------------------
+
+
+// CLASS: RF64 DATA-SIZE CHUNK
+
+
+public class Ds64Chunk
+{
+
+////////////////////////////////////////////////////////////////////////
+//  Constants
+////////////////////////////////////////////////////////////////////////
+
+	public static final		IffId	ID		= new IffId("ds64");
+	public static final		IffId	DATA_ID	= new IffId("data");
+
+	public static final		long	SIZE_PLACEHOLDER	= 0xFFFFFFFFL;
+
+	private static final	int	RIFF_SIZE_SIZE		= 8;
+	private static final	int	DATA_SIZE_SIZE		= 8;
+	private static final	int	SAMPLE_COUNT_SIZE	= 8;
+	private static final	int	TABLE_LENGTH_SIZE	= 4;
+	private static final	int	CHUNK_SIZE_SIZE		= 8;
+
+	public static final		int	MIN_SIZE	= RIFF_SIZE_SIZE + DATA_SIZE_SIZE + SAMPLE_COUNT_SIZE +
+																					TABLE_LENGTH_SIZE;
+
+	private static final	int	TABLE_ENTRY_SIZE	= IffId.SIZE + CHUNK_SIZE_SIZE;
+
+	private static final	int	MAX_SIZE	= 1 << 20;
+
+////////////////////////////////////////////////////////////////////////
+//  Instance variables
+////////////////////////////////////////////////////////////////////////
+
+	private	long				riffSize;
+	private	long				dataSize;
+	private	long				sampleCount;
+	private	Map<IffId, Long>	chunkSizes;
+
+////////////////////////////////////////////////////////////////////////
+//  Constructors
+////////////////////////////////////////////////////////////////////////
+
+	public Ds64Chunk()
+	{
+		chunkSizes = new LinkedHashMap<>();
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * @throws IllegalArgumentException
+	 */
+
+	public Ds64Chunk(byte[] data)
+	{
+		this();
+		set(data);
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Class methods
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * @throws IllegalArgumentException
+	 */
+
+	public static Ds64Chunk read(FileChannel channel,
+								 long        offset)
+		throws IOException
+	{
+		// Read chunk header
+		byte[] header = new byte[Chunk.HEADER_SIZE];
+		readFully(channel, ByteBuffer.wrap(header), offset);
+		if (!new IffId(header).equals(ID))
+			throw new IllegalArgumentException();
+
+		// Read chunk data
+		int size = RiffChunk.getSize(header, IffId.SIZE);
+		if ((size < MIN_SIZE) || (size > MAX_SIZE))
+			throw new IllegalArgumentException();
+		byte[] data = new byte[size];
+		readFully(channel, ByteBuffer.wrap(data), offset + Chunk.HEADER_SIZE);
+
+		return new Ds64Chunk(data);
+	}
+
+	//------------------------------------------------------------------
+
+	private static void readFully(FileChannel channel,
+								  ByteBuffer  buffer,
+								  long        offset)
+		throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, offset + buffer.position()) < 0)
+				throw new EOFException();
+		}
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance methods
+////////////////////////////////////////////////////////////////////////
+
+	public long getRiffSize()
+	{
+		return riffSize;
+	}
+
+	//------------------------------------------------------------------
+
+	public long getDataSize()
+	{
+		return dataSize;
+	}
+
+	//------------------------------------------------------------------
+
+	public long getSampleCount()
+	{
+		return sampleCount;
+	}
+
+	//------------------------------------------------------------------
+
+	public long getChunkSize(IffId id)
+	{
+		if (id.equals(DATA_ID))
+			return dataSize;
+		Long size = chunkSizes.get(id);
+		return ((size == null) ? -1 : size);
+	}
+
+	//------------------------------------------------------------------
+
+	public int getSize()
+	{
+		return (MIN_SIZE + chunkSizes.size() * TABLE_ENTRY_SIZE);
+	}
+
+	//------------------------------------------------------------------
+
+	public void setRiffSize(long size)
+	{
+		riffSize = size;
+	}
+
+	//------------------------------------------------------------------
+
+	public void setDataSize(long size)
+	{
+		dataSize = size;
+	}
+
+	//------------------------------------------------------------------
+
+	public void setSampleCount(long count)
+	{
+		sampleCount = count;
+	}
+
+	//------------------------------------------------------------------
+
+	public void setChunkSize(IffId id,
+							 long  size)
+	{
+		if (id.equals(DATA_ID))
+			dataSize = size;
+		else
+			chunkSizes.put(id, size);
+	}
+
+	//------------------------------------------------------------------
+
+	public long resolveSize(IffId id,
+							long  size)
+	{
+		return ((size == SIZE_PLACEHOLDER) ? getChunkSize(id) : size);
+	}
+
+	//------------------------------------------------------------------
+
+	public byte[] get()
+	{
+		byte[] buffer = new byte[getSize()];
+		put(buffer, 0);
+		return buffer;
+	}
+
+	//------------------------------------------------------------------
+
+	public int put(byte[] buffer,
+				   int    offset)
+	{
+		NumberUtils.longToBytesLE(riffSize, buffer, offset, RIFF_SIZE_SIZE);
+		offset += RIFF_SIZE_SIZE;
+
+		NumberUtils.longToBytesLE(dataSize, buffer, offset, DATA_SIZE_SIZE);
+		offset += DATA_SIZE_SIZE;
+
+		NumberUtils.longToBytesLE(sampleCount, buffer, offset, SAMPLE_COUNT_SIZE);
+		offset += SAMPLE_COUNT_SIZE;
+
+		NumberUtils.intToBytesLE(chunkSizes.size(), buffer, offset, TABLE_LENGTH_SIZE);
+		offset += TABLE_LENGTH_SIZE;
+
+		for (IffId id : chunkSizes.keySet())
+		{
+			id.put(buffer, offset);
+			offset += IffId.SIZE;
+
+			NumberUtils.longToBytesLE(chunkSizes.get(id), buffer, offset, CHUNK_SIZE_SIZE);
+			offset += CHUNK_SIZE_SIZE;
+		}
+
+		return offset;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * @throws IllegalArgumentException
+	 */
+
+	public void set(byte[] data)
+	{
+		// Test size of data
+		if (data.length < MIN_SIZE)
+			throw new IllegalArgumentException();
+
+		// Parse sizes
+		int offset = 0;
+		riffSize = NumberUtils.bytesToLongLE(data, offset, RIFF_SIZE_SIZE);
+		offset += RIFF_SIZE_SIZE;
+
+		dataSize = NumberUtils.bytesToLongLE(data, offset, DATA_SIZE_SIZE);
+		offset += DATA_SIZE_SIZE;
+
+		sampleCount = NumberUtils.bytesToLongLE(data, offset, SAMPLE_COUNT_SIZE);
+		offset += SAMPLE_COUNT_SIZE;
+
+		int tableLength = NumberUtils.bytesToIntLE(data, offset, TABLE_LENGTH_SIZE);
+		offset += TABLE_LENGTH_SIZE;
+
+		if ((riffSize < 0) || (dataSize < 0) || (sampleCount < 0) || (tableLength < 0) ||
+			 (tableLength > (data.length - offset) / TABLE_ENTRY_SIZE))
+			throw new IllegalArgumentException();
+
+		// Parse table of chunk sizes
+		chunkSizes.clear();
+		for (int i = 0; i < tableLength; i++)
+		{
+			IffId id = new IffId(data, offset);
+			offset += IffId.SIZE;
+
+			long size = NumberUtils.bytesToLongLE(data, offset, CHUNK_SIZE_SIZE);
+			offset += CHUNK_SIZE_SIZE;
+			if (size < 0)
+				throw new IllegalArgumentException();
+
+			chunkSizes.put(id, size);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+}
+
+//----------------------------------------------------------------------
@@ -19,11 +19,20 @@ package uk.blankaspect.common.iff;
 
 
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.file.StandardOpenOption;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -40,6 +49,12 @@ import uk.blankaspect.common.exception.TempFileException;
 public abstract class FormFile
 {
 
+////////////////////////////////////////////////////////////////////////
+//  Constants
+////////////////////////////////////////////////////////////////////////
+
+	private static final	long	MAX_DEFAULT_MAPPED_LENGTH	= 1 << 26;
+
 ////////////////////////////////////////////////////////////////////////
 //  Enumerated types
 ////////////////////////////////////////////////////////////////////////
@@ -93,7 +108,13 @@ public abstract class FormFile
 		("The file is malformed."),
 
 		ILLEGAL_CHUNK_ID
-		("The file contains an illegal chunk identifier.");
+		("The file contains an illegal chunk identifier."),
+
+		CHUNK_IS_TOO_LARGE
+		("The chunk is larger than the maximum size that is supported by the file format."),
+
+		CHUNK_IS_TOO_LARGE_FOR_READER
+		("The chunk is too large for its size to be passed to the chunk reader.");
 
 	////////////////////////////////////////////////////////////////////
 	//  Constructors
@@ -166,6 +187,81 @@ public abstract class FormFile
 	//==================================================================
 
 
+	// LARGE CHUNK READER INTERFACE
+
+
+	public interface ILargeChunkReader
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Methods
+	////////////////////////////////////////////////////////////////////
+
+		void beginReading(RandomAccessFile raFile,
+						  IffId            typeId,
+						  long             size)
+			throws AppException;
+
+		//--------------------------------------------------------------
+
+		void read(RandomAccessFile raFile,
+				  IffId            id,
+				  long             size)
+			throws AppException, IOException;
+
+		//--------------------------------------------------------------
+
+		void endReading(RandomAccessFile raFile)
+			throws AppException, IOException;
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CHANNEL CHUNK READER INTERFACE
+
+
+	public interface IChannelChunkReader
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Methods
+	////////////////////////////////////////////////////////////////////
+
+		void beginReading(FileChannel channel,
+						  IffId       typeId,
+						  long        size)
+			throws AppException;
+
+		//--------------------------------------------------------------
+
+		void read(ByteBuffer data,
+				  IffId      id)
+			throws AppException, IOException;
+
+		//--------------------------------------------------------------
+
+		void read(FileChannel channel,
+				  long        offset,
+				  long        size,
+				  IffId       id)
+			throws AppException, IOException;
+
+		//--------------------------------------------------------------
+
+		void endReading(FileChannel channel)
+			throws AppException, IOException;
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
 	// CHUNK WRITER INTERFACE
 
 
@@ -247,7 +343,7 @@ public abstract class FormFile
 
 
 	private static class ChunkLister
-		implements IChunkReader
+		implements IChannelChunkReader
 	{
 
 	////////////////////////////////////////////////////////////////////
@@ -262,30 +358,117 @@ public abstract class FormFile
 		//--------------------------------------------------------------
 
 	////////////////////////////////////////////////////////////////////
-	//  Instance methods : ChunkReader interface
+	//  Instance methods : ChannelChunkReader interface
+	////////////////////////////////////////////////////////////////////
+
+		public void beginReading(FileChannel channel,
+								 IffId       typeId,
+								 long        size)
+		{
+			idList.groupTypeId = typeId;
+		}
+
+		//--------------------------------------------------------------
+
+		public void read(ByteBuffer data,
+						 IffId      id)
+		{
+			idList.chunkIds.add(id);
+		}
+
+		//--------------------------------------------------------------
+
+		public void read(FileChannel channel,
+						 long        offset,
+						 long        size,
+						 IffId       id)
+		{
+			idList.chunkIds.add(id);
+		}
+
+		//--------------------------------------------------------------
+
+		public void endReading(FileChannel channel)
+		{
+			// do nothing
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	IdList	idList;
+
+	}
+
+	//==================================================================
+
+
+	// CHUNK READER ADAPTER CLASS
+
+
+	private static class ChunkReaderAdapter
+		implements ILargeChunkReader
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private ChunkReaderAdapter(IChunkReader chunkReader,
+								   File         file)
+		{
+			this.chunkReader = chunkReader;
+			this.file = file;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : LargeChunkReader interface
 	////////////////////////////////////////////////////////////////////
 
 		public void beginReading(RandomAccessFile raFile,
 								 IffId            typeId,
-								 int              size)
+								 long             size)
+			throws AppException
 		{
-			idList.groupTypeId = typeId;
+			chunkReader.beginReading(raFile, typeId, toIntSize(typeId, size));
 		}
 
 		//--------------------------------------------------------------
 
 		public void read(RandomAccessFile raFile,
 						 IffId            id,
-						 int              size)
+						 long             size)
+			throws AppException, IOException
 		{
-			idList.chunkIds.add(id);
+			chunkReader.read(raFile, id, toIntSize(id, size));
 		}
 
 		//--------------------------------------------------------------
 
 		public void endReading(RandomAccessFile raFile)
+			throws AppException, IOException
 		{
-			// do nothing
+			chunkReader.endReading(raFile);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		private int toIntSize(IffId id,
+							  long  size)
+			throws AppException
+		{
+			if (size > Integer.MAX_VALUE)
+				throw new IffException(ErrorId.CHUNK_IS_TOO_LARGE_FOR_READER, file, id);
+			return (int)size;
 		}
 
 		//--------------------------------------------------------------
@@ -294,7 +477,8 @@ public abstract class FormFile
 	//  Instance variables
 	////////////////////////////////////////////////////////////////////
 
-		private	IdList	idList;
+		private	IChunkReader	chunkReader;
+		private	File			file;
 
 	}
 
@@ -324,8 +508,8 @@ public abstract class FormFile
 //  Abstract methods
 ////////////////////////////////////////////////////////////////////////
 
-	protected abstract int getChunkSize(byte[] sizeBytes,
-										int    offset);
+	protected abstract long getChunkSize(byte[] sizeBytes,
+										 int    offset);
 
 	//------------------------------------------------------------------
 
@@ -353,6 +537,14 @@ public abstract class FormFile
 
 	//------------------------------------------------------------------
 
+	protected abstract ByteOrder getByteOrder();
+
+	//------------------------------------------------------------------
+
+	protected abstract long getMaxChunkSize();
+
+	//------------------------------------------------------------------
+
 ////////////////////////////////////////////////////////////////////////
 //  Instance methods
 ////////////////////////////////////////////////////////////////////////
@@ -381,7 +573,70 @@ public abstract class FormFile
 
 	//------------------------------------------------------------------
 
-	public void read(IChunkReader chunkReader)
+	protected boolean isGroupId(IffId id)
+	{
+		return id.equals(groupId);
+	}
+
+	//------------------------------------------------------------------
+
+	protected long readGroupSize(FileChannel channel,
+								 IffId       groupId,
+								 long        size)
+		throws AppException, IOException
+	{
+		return size;
+	}
+
+	//------------------------------------------------------------------
+
+	protected long resolveChunkSize(IffId id,
+									long  size)
+	{
+		return size;
+	}
+
+	//------------------------------------------------------------------
+
+	protected void beginGroup(RandomAccessFile raFile)
+		throws AppException, IOException
+	{
+		// do nothing
+	}
+
+	//------------------------------------------------------------------
+
+	protected void writeChunkSize(RandomAccessFile raFile,
+								  long             offset,
+								  IffId            id,
+								  long             size)
+		throws AppException, IOException
+	{
+		if (size > getMaxChunkSize())
+			throw new IffException(ErrorId.CHUNK_IS_TOO_LARGE, file, id);
+		writeSize(raFile, offset, (int)size);
+	}
+
+	//------------------------------------------------------------------
+
+	protected void writeGroupSize(RandomAccessFile raFile,
+								  long             size)
+		throws AppException, IOException
+	{
+		writeChunkSize(raFile, IffId.SIZE, groupId, size);
+	}
+
+	//------------------------------------------------------------------
+
+	public IffId read(IChunkReader chunkReader)
+		throws AppException
+	{
+		return read(new ChunkReaderAdapter(chunkReader, file));
+	}
+
+	//------------------------------------------------------------------
+
+	public IffId read(ILargeChunkReader chunkReader)
 		throws AppException
 	{
 		// Test whether file exists
@@ -418,6 +673,7 @@ public abstract class FormFile
 			}
 
 			// Process file
+			IffId fileGroupId = null;
 			try
 			{
 				// Read group header
@@ -429,7 +685,7 @@ public abstract class FormFile
 				try
 				{
 					group = createGroup(buffer);
-					if (!group.getGroupId().equals(groupId))
+					if (!isGroupId(group.getGroupId()))
 						throw new IllegalArgumentException();
 				}
 				catch (IllegalArgumentException e)
@@ -437,8 +693,10 @@ public abstract class FormFile
 					throw new FileException(ErrorId.INCORRECT_FORMAT, file, groupId.toString());
 				}
 
+				fileGroupId = group.getGroupId();
+
 				// Test group size
-				int groupSize = getChunkSize(buffer, IffId.SIZE);
+				long groupSize = readGroupSize(raFile.getChannel(), fileGroupId, getChunkSize(buffer, IffId.SIZE));
 				if (groupSize > raFile.length() - Chunk.HEADER_SIZE)
 					throw new FileException(ErrorId.MALFORMED_FILE, file);
 
@@ -472,11 +730,11 @@ public abstract class FormFile
 					{
 						throw new FileException(ErrorId.ILLEGAL_CHUNK_ID, file);
 					}
-					int chunkSize = getChunkSize(buffer, IffId.SIZE);
+					long chunkSize = resolveChunkSize(chunkId, getChunkSize(buffer, IffId.SIZE));
 
 					// Test whether chunk extends beyond end of group
 					groupOffset += Chunk.HEADER_SIZE;
-					if (groupOffset + chunkSize > groupSize)
+					if ((chunkSize < 0) || (groupOffset + chunkSize > groupSize))
 						throw new IffException(ErrorId.MALFORMED_FILE, file, chunkId);
 
 					// Read chunk
@@ -506,6 +764,9 @@ public abstract class FormFile
 			{
 				throw new FileException(ErrorId.FAILED_TO_CLOSE_FILE, file, e);
 			}
+
+			// Return ID of group that was read
+			return fileGroupId;
 		}
 		catch (AppException e)
 		{
@@ -527,6 +788,219 @@ public abstract class FormFile
 
 	//------------------------------------------------------------------
 
+	public IffId read(IChannelChunkReader chunkReader)
+		throws AppException
+	{
+		return read(chunkReader, MAX_DEFAULT_MAPPED_LENGTH);
+	}
+
+	//------------------------------------------------------------------
+
+	public IffId read(IChannelChunkReader chunkReader,
+					  boolean             map)
+		throws AppException
+	{
+		return read(chunkReader, map ? Integer.MAX_VALUE : 0);
+	}
+
+	//------------------------------------------------------------------
+
+	private IffId read(IChannelChunkReader chunkReader,
+					   long                maxMappedLength)
+		throws AppException
+	{
+		final	int	BUFFER_LENGTH	= 1 << 16;
+
+		// Test whether file exists
+		if (!file.isFile())
+			throw new FileException(ErrorId.FILE_DOES_NOT_EXIST, file);
+
+		// Read file
+		FileChannel channel = null;
+		try
+		{
+			// Open file
+			try
+			{
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			}
+			catch (IOException e)
+			{
+				throw new FileException(ErrorId.FAILED_TO_OPEN_FILE, file, e);
+			}
+			catch (SecurityException e)
+			{
+				throw new FileException(ErrorId.FILE_ACCESS_NOT_PERMITTED, file, e);
+			}
+
+			// Lock file
+			try
+			{
+				if (channel.tryLock(0, Long.MAX_VALUE, true) == null)
+					throw new FileException(ErrorId.FAILED_TO_LOCK_FILE, file);
+			}
+			catch (Exception e)
+			{
+				throw new FileException(ErrorId.FAILED_TO_LOCK_FILE, file, e);
+			}
+
+			// Process file
+			IffId fileGroupId = null;
+			try
+			{
+				// Read group header
+				byte[] buffer = new byte[Group.HEADER_SIZE];
+				readFully(channel, ByteBuffer.wrap(buffer), 0);
+
+				// Test group
+				Group group = null;
+				try
+				{
+					group = createGroup(buffer);
+					if (!isGroupId(group.getGroupId()))
+						throw new IllegalArgumentException();
+				}
+				catch (IllegalArgumentException e)
+				{
+					throw new FileException(ErrorId.INCORRECT_FORMAT, file, groupId.toString());
+				}
+
+				fileGroupId = group.getGroupId();
+
+				// Test group size
+				long groupSize = readGroupSize(channel, fileGroupId, getChunkSize(buffer, IffId.SIZE));
+				if (groupSize > channel.size() - Chunk.HEADER_SIZE)
+					throw new FileException(ErrorId.MALFORMED_FILE, file);
+
+				// Begin reading chunks
+				chunkReader.beginReading(channel, group.getTypeId(), groupSize);
+
+				// Map group or allocate buffer for chunks.  A mapping is released only when its buffer is
+				// garbage-collected, and on some platforms (eg, Windows) a mapped file cannot be deleted or replaced
+				// until then, so only a group whose length does not exceed the limit is mapped.
+				long endOffset = Chunk.HEADER_SIZE + Math.max(0, groupSize);
+				boolean mapped = (endOffset <= Math.min(maxMappedLength, Integer.MAX_VALUE));
+				ByteBuffer dataBuffer = mapped
+											? channel.map(FileChannel.MapMode.READ_ONLY, 0, endOffset)
+											: ByteBuffer.allocate((int)Math.min(BUFFER_LENGTH, endOffset)).limit(0);
+				long dataBufferOffset = 0;
+
+				// Initialise variables
+				long groupOffset = IffId.SIZE;
+				buffer = new byte[Chunk.HEADER_SIZE];
+
+				// Call reader on each chunk in group
+				while (groupOffset < groupSize)
+				{
+					// Test whether chunk header extends beyond end of group
+					if (groupOffset + Chunk.HEADER_SIZE > groupSize)
+						throw new FileException(ErrorId.MALFORMED_FILE, file);
+
+					// Read chunk header
+					long offset = Chunk.HEADER_SIZE + groupOffset;
+					if (!mapped)
+					{
+						dataBuffer = fillBuffer(channel, dataBuffer, dataBufferOffset, offset, Chunk.HEADER_SIZE,
+												endOffset);
+						dataBufferOffset = offset - dataBuffer.position();
+					}
+					dataBuffer.duplicate().position((int)(offset - dataBufferOffset)).get(buffer);
+
+					// Get chunk ID and size
+					IffId chunkId = null;
+					try
+					{
+						chunkId = new IffId(buffer);
+					}
+					catch (IllegalArgumentException e)
+					{
+						throw new FileException(ErrorId.ILLEGAL_CHUNK_ID, file);
+					}
+					long chunkSize = resolveChunkSize(chunkId, getChunkSize(buffer, IffId.SIZE));
+
+					// Test whether chunk extends beyond end of group
+					groupOffset += Chunk.HEADER_SIZE;
+					if ((chunkSize < 0) || (groupOffset + chunkSize > groupSize))
+						throw new IffException(ErrorId.MALFORMED_FILE, file, chunkId);
+
+					// If chunk is not mapped and is too large for the buffer, let reader read it from channel ...
+					offset += Chunk.HEADER_SIZE;
+					if (!mapped && (chunkSize > dataBuffer.capacity()))
+						chunkReader.read(channel, offset, chunkSize, chunkId);
+
+					// ... otherwise, read chunk from buffer
+					else
+					{
+						// Get chunk data
+						if (!mapped)
+						{
+							dataBuffer = fillBuffer(channel, dataBuffer, dataBufferOffset, offset, (int)chunkSize,
+													endOffset);
+							dataBufferOffset = offset - dataBuffer.position();
+						}
+
+						// Read chunk
+						try
+						{
+							int dataOffset = (int)(offset - dataBufferOffset);
+							ByteBuffer data = dataBuffer.duplicate().position(dataOffset)
+															.limit(dataOffset + (int)chunkSize).slice();
+							chunkReader.read(data.asReadOnlyBuffer().order(getByteOrder()), chunkId);
+						}
+						catch (BufferUnderflowException e)
+						{
+							throw new IffException(ErrorId.MALFORMED_FILE, file, chunkId);
+						}
+					}
+
+					// Increment group offset
+					groupOffset += chunkSize;
+					if ((chunkSize & 1) != 0)
+						++groupOffset;
+				}
+
+				// End reading chunks
+				chunkReader.endReading(channel);
+			}
+			catch (IOException e)
+			{
+				throw new FileException(ErrorId.ERROR_READING_FILE, file, e);
+			}
+
+			// Close file
+			try
+			{
+				channel.close();
+				channel = null;
+			}
+			catch (IOException e)
+			{
+				throw new FileException(ErrorId.FAILED_TO_CLOSE_FILE, file, e);
+			}
+
+			// Return ID of group that was read
+			return fileGroupId;
+		}
+		catch (AppException e)
+		{
+			// Close file
+			try
+			{
+				if (channel != null)
+					channel.close();
+			}
+			catch (IOException e1)
+			{
+				// ignore
+			}
+
+			// Rethrow exception
+			throw e;
+		}
+	}
+
+	//------------------------------------------------------------------
+
 	public void write(IffId        typeId,
 					  IChunkWriter chunkWriter)
 		throws AppException
@@ -578,6 +1052,7 @@ public abstract class FormFile
 			{
 				// Write group header
 				writeGroupHeader(raFile, groupId, typeId, 0);
+				beginGroup(raFile);
 
 				// Begin writing chunks
 				chunkWriter.beginWriting(raFile);
@@ -606,7 +1081,7 @@ public abstract class FormFile
 							raFile.write(0);
 
 						// Write size of data into chunk header
-						writeSize(raFile, chunkOffset + IffId.SIZE, (int)dataSize);
+						writeChunkSize(raFile, chunkOffset + IffId.SIZE, id, dataSize);
 
 						// Seek end of file
 						raFile.seek(raFile.length());
@@ -617,7 +1092,7 @@ public abstract class FormFile
 				chunkWriter.endWriting(raFile);
 
 				// Write group size into FORM header
-				writeSize(raFile, IffId.SIZE, (int)raFile.length() - Chunk.HEADER_SIZE);
+				writeGroupSize(raFile, raFile.length() - Chunk.HEADER_SIZE);
 			}
 			catch (IOException e)
 			{
@@ -689,9 +1164,44 @@ public abstract class FormFile
 
 	//------------------------------------------------------------------
 
-	private void writeSize(RandomAccessFile raFile,
-						   long             offset,
-						   int              size)
+	private ByteBuffer fillBuffer(FileChannel channel,
+								  ByteBuffer  buffer,
+								  long        bufferOffset,
+								  long        offset,
+								  int         length,
+								  long        endOffset)
+		throws IOException
+	{
+		// If region is in buffer, set position of buffer to start of region
+		if ((offset >= bufferOffset) && (offset + length <= bufferOffset + buffer.limit()))
+			return buffer.position((int)(offset - bufferOffset));
+
+		// Read region and as many bytes that follow it as will fit in buffer
+		buffer.clear().limit((int)Math.min(buffer.capacity(), endOffset - offset));
+		readFully(channel, buffer, offset);
+		return buffer.flip();
+	}
+
+	//------------------------------------------------------------------
+
+	private void readFully(FileChannel channel,
+						   ByteBuffer  buffer,
+						   long        offset)
+		throws IOException
+	{
+		int startPosition = buffer.position();
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, offset + buffer.position() - startPosition) < 0)
+				throw new EOFException();
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	protected void writeSize(RandomAccessFile raFile,
+							 long             offset,
+							 int              size)
 		throws IOException
 	{
 		raFile.seek(offset);
@@ -22,6 +22,8 @@ import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 
+import java.nio.ByteOrder;
+
 //----------------------------------------------------------------------
 
 
@@ -54,8 +56,8 @@ public class IffFormFile
 ////////////////////////////////////////////////////////////////////////
 
 	@Override
-	protected int getChunkSize(byte[] sizeBytes,
-							   int    offset)
+	protected long getChunkSize(byte[] sizeBytes,
+								int    offset)
 	{
 		return IffChunk.getSize(sizeBytes, offset);
 	}
@@ -106,6 +108,22 @@ public class IffFormFile
 
 	//------------------------------------------------------------------
 
+	@Override
+	protected ByteOrder getByteOrder()
+	{
+		return ByteOrder.BIG_ENDIAN;
+	}
+
+	//------------------------------------------------------------------
+
+	@Override
+	protected long getMaxChunkSize()
+	{
+		return Integer.MAX_VALUE;
+	}
+
+	//------------------------------------------------------------------
+
 }
 
 //----------------------------------------------------------------------
@@ -21,6 +21,14 @@ package uk.blankaspect.common.iff;
 import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteOrder;
+
+import java.nio.channels.FileChannel;
+
+import uk.blankaspect.common.exception.AppException;
+import uk.blankaspect.common.exception.FileException;
 
 //----------------------------------------------------------------------
 
@@ -36,7 +44,18 @@ public class RiffFormFile
 //  Constants
 ////////////////////////////////////////////////////////////////////////
 
-	private static final	IffId	GROUP_ID	= new IffId("RIFF");
+	public static final		IffId	RIFF_GROUP_ID	= new IffId("RIFF");
+	public static final		IffId	RF64_GROUP_ID	= new IffId("RF64");
+	public static final		IffId	BW64_GROUP_ID	= new IffId("BW64");
+
+	private static final	long	MAX_CHUNK_SIZE	= 0xFFFFFFFFL;
+
+////////////////////////////////////////////////////////////////////////
+//  Instance variables
+////////////////////////////////////////////////////////////////////////
+
+	private	Ds64Chunk	ds64Chunk;
+	private	long		sampleCount;
 
 ////////////////////////////////////////////////////////////////////////
 //  Constructors
@@ -44,7 +63,39 @@ public class RiffFormFile
 
 	public RiffFormFile(File file)
 	{
-		super(GROUP_ID, file);
+		this(file, RIFF_GROUP_ID);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * @throws IllegalArgumentException
+	 */
+
+	public RiffFormFile(File  file,
+						IffId groupId)
+	{
+		super(groupId, file);
+		if (!isRiffGroupId(groupId))
+			throw new IllegalArgumentException();
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Class methods
+////////////////////////////////////////////////////////////////////////
+
+	public static boolean isRiffGroupId(IffId id)
+	{
+		return (id.equals(RIFF_GROUP_ID) || isExtendedGroupId(id));
+	}
+
+	//------------------------------------------------------------------
+
+	public static boolean isExtendedGroupId(IffId id)
+	{
+		return (id.equals(RF64_GROUP_ID) || id.equals(BW64_GROUP_ID));
 	}
 
 	//------------------------------------------------------------------
@@ -54,10 +105,10 @@ public class RiffFormFile
 ////////////////////////////////////////////////////////////////////////
 
 	@Override
-	protected int getChunkSize(byte[] sizeBytes,
-							   int    offset)
+	protected long getChunkSize(byte[] sizeBytes,
+								int    offset)
 	{
-		return RiffChunk.getSize(sizeBytes, offset);
+		return Integer.toUnsignedLong(RiffChunk.getSize(sizeBytes, offset));
 	}
 
 	//------------------------------------------------------------------
@@ -106,6 +157,138 @@ public class RiffFormFile
 
 	//------------------------------------------------------------------
 
+	@Override
+	protected ByteOrder getByteOrder()
+	{
+		return ByteOrder.LITTLE_ENDIAN;
+	}
+
+	//------------------------------------------------------------------
+
+	@Override
+	protected long getMaxChunkSize()
+	{
+		return MAX_CHUNK_SIZE;
+	}
+
+	//------------------------------------------------------------------
+
+	@Override
+	protected boolean isGroupId(IffId id)
+	{
+		return isRiffGroupId(id);
+	}
+
+	//------------------------------------------------------------------
+
+	@Override
+	protected long readGroupSize(FileChannel channel,
+								 IffId       groupId,
+								 long        size)
+		throws AppException, IOException
+	{
+		// Test for RF64 or BW64 group
+		ds64Chunk = null;
+		if (!isExtendedGroupId(groupId))
+			return size;
+
+		// Read ds64 chunk, which must be the first chunk in the group
+		try
+		{
+			ds64Chunk = Ds64Chunk.read(channel, Group.HEADER_SIZE);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new FileException(ErrorId.MALFORMED_FILE, getFile());
+		}
+		return ((size == Ds64Chunk.SIZE_PLACEHOLDER) ? ds64Chunk.getRiffSize() : size);
+	}
+
+	//------------------------------------------------------------------
+
+	@Override
+	protected long resolveChunkSize(IffId id,
+									long  size)
+	{
+		return ((ds64Chunk == null) ? size : ds64Chunk.resolveSize(id, size));
+	}
+
+	//------------------------------------------------------------------
+
+	@Override
+	protected void beginGroup(RandomAccessFile raFile)
+		throws IOException
+	{
+		// Reserve space for ds64 chunk in RF64 or BW64 group
+		ds64Chunk = null;
+		if (isExtendedGroupId(getGroupId()))
+		{
+			ds64Chunk = new Ds64Chunk();
+			ds64Chunk.setSampleCount(sampleCount);
+			RiffChunk.writeHeader(raFile, Ds64Chunk.ID, ds64Chunk.getSize());
+			raFile.write(ds64Chunk.get());
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	@Override
+	protected void writeChunkSize(RandomAccessFile raFile,
+								  long             offset,
+								  IffId            id,
+								  long             size)
+		throws AppException, IOException
+	{
+		// In RF64 or BW64 group, store size of data chunk in ds64 chunk
+		if ((ds64Chunk != null) && id.equals(Ds64Chunk.DATA_ID))
+		{
+			ds64Chunk.setDataSize(size);
+			size = Ds64Chunk.SIZE_PLACEHOLDER;
+		}
+		super.writeChunkSize(raFile, offset, id, size);
+	}
+
+	//------------------------------------------------------------------
+
+	@Override
+	protected void writeGroupSize(RandomAccessFile raFile,
+								  long             size)
+		throws AppException, IOException
+	{
+		// Write plain RIFF group size
+		if (ds64Chunk == null)
+			super.writeGroupSize(raFile, size);
+
+		// Write RF64 or BW64 group size and ds64 chunk
+		else
+		{
+			ds64Chunk.setRiffSize(size);
+			writeSize(raFile, IffId.SIZE, (int)Ds64Chunk.SIZE_PLACEHOLDER);
+			raFile.seek(Group.HEADER_SIZE + Chunk.HEADER_SIZE);
+			raFile.write(ds64Chunk.get());
+		}
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance methods
+////////////////////////////////////////////////////////////////////////
+
+	public Ds64Chunk getDs64Chunk()
+	{
+		return ds64Chunk;
+	}
+
+	//------------------------------------------------------------------
+
+	public void setSampleCount(long count)
+	{
+		sampleCount = count;
+	}
+
+	//------------------------------------------------------------------
+
 }
 
 //----------------------------------------------------------------------
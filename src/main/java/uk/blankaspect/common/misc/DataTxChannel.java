@@ -18,7 +18,15 @@ package uk.blankaspect.common.misc;
 // IMPORTS
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
@@ -33,12 +41,22 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 
+import java.nio.ByteBuffer;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
 import java.nio.charset.StandardCharsets;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import uk.blankaspect.common.exception2.ExceptionUtils;
 
 import uk.blankaspect.common.function.IProcedure1;
@@ -65,6 +83,10 @@ public class DataTxChannel
 
 	public static final		int		MAX_NUM_DATA_ITEMS	= 1 << 12;  // 4096;
 
+	public static final		int		MIN_WINDOW_SIZE		= 1;
+	public static final		int		MAX_WINDOW_SIZE		= MAX_NUM_DATA_ITEMS;
+	public static final		int		DEFAULT_WINDOW_SIZE	= 64;
+
 	private static final	String	HOST	= "localhost";
 
 	private static final	char	END_OF_MESSAGE	= '\u0003';
@@ -84,10 +106,22 @@ public class DataTxChannel
 	private static final	int	CONNECTION_ACCEPT_TIMEOUT	= 100;
 	private static final	int	LISTENER_TIMEOUT			= 500;
 	private static final	int	RESPONSE_TIMEOUT			= 400;
+	private static final	int	FIRST_MESSAGE_TIMEOUT		= 5000;
+	private static final	int	IDLE_CONNECTION_TIMEOUT		= 60000;
+	private static final	int	SELECT_TIMEOUT				= 100;
+
+	private static final	int	INPUT_BUFFER_SIZE	= 1 << 13;
+
+	// The header of a framed connection starts with a zero byte, which cannot be the first byte of a text message
+	private static final	byte[]	FRAMED_HEADER		= { 0x00, 'D', 'T', 'X', 0x01 };
+	private static final	int		FRAME_HEADER_LENGTH	= 1 + Integer.BYTES;
+	private static final	int		MAX_FRAME_LENGTH	= 1 << 24;
 
 	private static final	String	UNEXPECTED_RESPONSE_STR	= "Unexpected response";
 	private static final	String	INVALID_RESPONSE_STR	= "Invalid response";
 	private static final	String	TIMED_OUT_STR			= "Timed out waiting for response";
+	private static final	String	INVALID_FRAME_STR		= "Invalid frame";
+	private static final	String	DATA_ITEM_TOO_LONG_STR	= "Data item is too long";
 
 	private interface MessageId
 	{
@@ -98,6 +132,33 @@ public class DataTxChannel
 		String	START	= "START";
 	}
 
+	private interface FrameType
+	{
+		byte	START	= 1;
+		byte	DATA	= 2;
+		byte	END		= 3;
+		byte	ACK		= 4;
+		byte	NAK		= 5;
+	}
+
+	public enum Protocol
+	{
+		// Messages are text delimited by END_OF_MESSAGE; each data item is acknowledged before the next is sent
+		TEXT,
+
+		// Messages are length-prefixed binary frames; a window of data items may be unacknowledged
+		FRAMED
+	}
+
+	private enum ListenMode
+	{
+		// The server socket accepts connections in blocking mode, and each connection has its own thread
+		BLOCKING,
+
+		// The server channel is in non-blocking mode, and all connections are served by a selector on one thread
+		MULTIPLEXED
+	}
+
 	private enum ListenerState
 	{
 		READY,
@@ -106,66 +167,973 @@ public class DataTxChannel
 		STOP
 	}
 
-////////////////////////////////////////////////////////////////////////
-//  Member classes : non-inner classes
-////////////////////////////////////////////////////////////////////////
+////////////////////////////////////////////////////////////////////////
+//  Member classes : non-inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// CLASS: MESSAGE CONTENT
+
+
+	private static class MessageContent
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	String	sourceId;
+		private	String	targetId;
+		private	String	messageId;
+		private	String	data;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private MessageContent(String sourceId,
+							   String targetId,
+							   String messageId,
+							   String data)
+		{
+			this.sourceId = sourceId;
+			this.targetId = targetId;
+			this.messageId = messageId;
+			this.data = data;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Class methods
+	////////////////////////////////////////////////////////////////////
+
+		private boolean matches(String sourceId,
+								String targetId,
+								String messageId,
+								String data)
+		{
+			return this.sourceId.equals(sourceId) && this.targetId.equals(targetId)
+									&& this.messageId.equals(messageId) && this.data.equals(data);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : overriding methods
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public String toString()
+		{
+			return sourceId + MESSAGE_SEPARATOR + targetId + MESSAGE_SEPARATOR + messageId + MESSAGE_SEPARATOR + data;
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CLASS: FRAME
+
+
+	/*
+	 * A frame of the framed protocol comprises
+	 *   - the length of the rest of the frame (4 bytes),
+	 *   - the frame type (1 byte),
+	 *   - a value (4 bytes): the number of data items (START), the index of a data item (DATA) or the number of
+	 *     data items that have been received (ACK, NAK),
+	 *   - for START, the length-prefixed UTF-8 encodings of the source ID and target ID,
+	 *   - for DATA, the UTF-8 encoding of the data item.
+	 * All integers are big-endian.
+	 */
+
+	private static class Frame
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	byte	type;
+		private	int		value;
+		private	String	sourceId;
+		private	String	targetId;
+		private	String	data;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private Frame(byte type,
+					  int  value)
+		{
+			this.type = type;
+			this.value = value;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Class methods
+	////////////////////////////////////////////////////////////////////
+
+		private static Frame read(DataInputStream inStream)
+			throws IOException
+		{
+			// Read length and header
+			int length = inStream.readInt();
+			if ((length < FRAME_HEADER_LENGTH) || (length > MAX_FRAME_LENGTH))
+				throw new IOException(INVALID_FRAME_STR);
+			Frame frame = new Frame(inStream.readByte(), inStream.readInt());
+
+			// Read body
+			byte[] body = new byte[length - FRAME_HEADER_LENGTH];
+			inStream.readFully(body);
+
+			// Parse body
+			switch (frame.type)
+			{
+				case FrameType.START:
+				{
+					ByteBuffer buffer = ByteBuffer.wrap(body);
+					frame.sourceId = readString(buffer);
+					frame.targetId = readString(buffer);
+					break;
+				}
+
+				case FrameType.DATA:
+					frame.data = new String(body, StandardCharsets.UTF_8);
+					break;
+
+				case FrameType.END:
+				case FrameType.ACK:
+				case FrameType.NAK:
+					if (body.length > 0)
+						throw new IOException(INVALID_FRAME_STR);
+					break;
+
+				default:
+					throw new IOException(INVALID_FRAME_STR);
+			}
+
+			// Return frame
+			return frame;
+		}
+
+		//--------------------------------------------------------------
+
+		private static void write(DataOutputStream outStream,
+								  byte             type,
+								  int              value)
+			throws IOException
+		{
+			outStream.writeInt(FRAME_HEADER_LENGTH);
+			outStream.writeByte(type);
+			outStream.writeInt(value);
+		}
+
+		//--------------------------------------------------------------
+
+		private static void writeStart(DataOutputStream outStream,
+									   String           sourceId,
+									   String           targetId,
+									   int              numDataItems)
+			throws IOException
+		{
+			byte[] sourceIdBytes = sourceId.getBytes(StandardCharsets.UTF_8);
+			byte[] targetIdBytes = targetId.getBytes(StandardCharsets.UTF_8);
+			outStream.writeInt(FRAME_HEADER_LENGTH + 2 * Integer.BYTES + sourceIdBytes.length + targetIdBytes.length);
+			outStream.writeByte(FrameType.START);
+			outStream.writeInt(numDataItems);
+			outStream.writeInt(sourceIdBytes.length);
+			outStream.write(sourceIdBytes);
+			outStream.writeInt(targetIdBytes.length);
+			outStream.write(targetIdBytes);
+		}
+
+		//--------------------------------------------------------------
+
+		private static void writeData(DataOutputStream outStream,
+									  int              index,
+									  String           data)
+			throws IOException
+		{
+			byte[] dataBytes = (data == null) ? new byte[0] : data.getBytes(StandardCharsets.UTF_8);
+			if (dataBytes.length > MAX_FRAME_LENGTH - FRAME_HEADER_LENGTH)
+				throw new IOException(DATA_ITEM_TOO_LONG_STR);
+			outStream.writeInt(FRAME_HEADER_LENGTH + dataBytes.length);
+			outStream.writeByte(FrameType.DATA);
+			outStream.writeInt(index);
+			outStream.write(dataBytes);
+		}
+
+		//--------------------------------------------------------------
+
+		private static String readString(ByteBuffer buffer)
+			throws IOException
+		{
+			if (buffer.remaining() < Integer.BYTES)
+				throw new IOException(INVALID_FRAME_STR);
+			int length = buffer.getInt();
+			if ((length < 0) || (length > buffer.remaining()))
+				throw new IOException(INVALID_FRAME_STR);
+			String str = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+			return str;
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CLASS: CONNECTION FOR FRAMED PROTOCOL
+
+
+	private static class Connection
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	Socket				socket;
+		private	DataInputStream		inStream;
+		private	DataOutputStream	outStream;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private Connection(int port)
+			throws IOException
+		{
+			socket = new Socket();
+			try
+			{
+				// Connect socket to server
+				socket.connect(new InetSocketAddress(HOST, port), CONNECTION_TIMEOUT);
+				socket.setSoTimeout(RESPONSE_TIMEOUT);
+				socket.setTcpNoDelay(true);
+
+				// Get streams of socket
+				inStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				outStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+				// Write header of connection
+				outStream.write(FRAMED_HEADER);
+			}
+			catch (IOException | SecurityException e)
+			{
+				close();
+				throw e;
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		private Frame readResponse()
+			throws IOException
+		{
+			try
+			{
+				return Frame.read(inStream);
+			}
+			catch (SocketTimeoutException e)
+			{
+				throw new IOException(TIMED_OUT_STR);
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		private void close()
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+				// ignore
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CLASS: CONNECTION METRICS
+
+
+	public static class ConnectionMetrics
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	String		remoteAddress;
+		private	Protocol	protocol;
+		private	long		startTime;
+		private	long		endTime;
+		private	long		numBytesRead;
+		private	long		numBytesWritten;
+		private	int			numTransfers;
+		private	int			numDataItems;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private ConnectionMetrics(String remoteAddress,
+								  long   startTime)
+		{
+			this.remoteAddress = remoteAddress;
+			this.startTime = startTime;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : overriding methods
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public String toString()
+		{
+			return remoteAddress + ", " + protocol + ", " + getDuration() + " ms, " + numTransfers + " transfers, "
+					+ numDataItems + " items, " + numBytesRead + " bytes in, " + numBytesWritten + " bytes out, "
+					+ Math.round(getThroughput()) + " bytes/s";
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		public String getRemoteAddress()
+		{
+			return remoteAddress;
+		}
+
+		//--------------------------------------------------------------
+
+		public Protocol getProtocol()
+		{
+			return protocol;
+		}
+
+		//--------------------------------------------------------------
+
+		public long getStartTime()
+		{
+			return startTime;
+		}
+
+		//--------------------------------------------------------------
+
+		public long getEndTime()
+		{
+			return endTime;
+		}
+
+		//--------------------------------------------------------------
+
+		public long getDuration()
+		{
+			return endTime - startTime;
+		}
+
+		//--------------------------------------------------------------
+
+		public long getNumBytesRead()
+		{
+			return numBytesRead;
+		}
+
+		//--------------------------------------------------------------
+
+		public long getNumBytesWritten()
+		{
+			return numBytesWritten;
+		}
+
+		//--------------------------------------------------------------
+
+		public int getNumTransfers()
+		{
+			return numTransfers;
+		}
+
+		//--------------------------------------------------------------
+
+		public int getNumDataItems()
+		{
+			return numDataItems;
+		}
+
+		//--------------------------------------------------------------
+
+		// Returns the number of bytes read per second over the lifetime of the connection
+		public double getThroughput()
+		{
+			long duration = getDuration();
+			return (duration > 0) ? (double)numBytesRead * 1000.0 / (double)duration : 0.0;
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Member classes : inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// CLASS: TRANSFER
+
+
+	private class Transfer
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	IProcedure1<String>	dataHandler;
+		private	ListenerState		state;
+		private	int					numDataItems;
+		private	int					dataItemCount;
+		private	StringBuilder		buffer;
+		private	int					numTransfers;
+		private	int					numDataItemsReceived;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private Transfer(IProcedure1<String> dataHandler)
+		{
+			this.dataHandler = dataHandler;
+			state = ListenerState.READY;
+			buffer = new StringBuilder(1024);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		private boolean isReady()
+		{
+			return (state == ListenerState.READY);
+		}
+
+		//--------------------------------------------------------------
+
+		private boolean isStopped()
+		{
+			return (state == ListenerState.STOP);
+		}
+
+		//--------------------------------------------------------------
+
+		private void processMessage(MessageContent content,
+									Writer         outStream)
+			throws IOException
+		{
+			// Respond to message
+			switch (state)
+			{
+				case READY:
+					// Message: start
+					if (content.messageId.equals(MessageId.START))
+					{
+						// Parse number of data items
+						try
+						{
+							numDataItems = Integer.parseInt(content.data);
+							if (numDataItems > MAX_NUM_DATA_ITEMS)
+								numDataItems = -1;
+						}
+						catch (NumberFormatException e)
+						{
+							numDataItems = -1;
+						}
+
+						// If number of data items was invalid, disconnect ...
+						if (numDataItems < 0)
+						{
+							// Send NAK
+							writeNak(outStream, content);
+
+							// Disconnect
+							state = ListenerState.STOP;
+						}
+
+						// ... otherwise, send ACK
+						else
+						{
+							// Send ACK
+							writeAck(outStream, content);
+
+							// Change state
+							state = (numDataItems == 0) ? ListenerState.DONE
+														: ListenerState.DATA;
+						}
+					}
+
+					// Unexpected message: disconnect
+					else
+					{
+						// Send NAK
+						writeNak(outStream, content);
+
+						// Disconnect
+						state = ListenerState.STOP;
+					}
+					break;
+
+				case DATA:
+					// Message: data
+					if (content.messageId.startsWith(MessageId.DATA))
+					{
+						// Parse item index
+						int index = -1;
+						try
+						{
+							index = Integer.parseInt(content.messageId
+														.substring(MessageId.DATA.length()));
+						}
+						catch (NumberFormatException e)
+						{
+							// ignore
+						}
+
+						// If item index was correct, send ACK ...
+						if (index == dataItemCount)
+						{
+							// Send ACK
+							writeAck(outStream, content);
+
+							// Append data item to buffer
+							buffer.append(content.data);
+
+							// Increment item count and test for last item
+							if (++dataItemCount == numDataItems)
+								state = ListenerState.DONE;
+						}
+
+						// ... otherwise, disconnect
+						else
+						{
+							// Send NAK
+							writeNak(outStream, content);
+
+							// Disconnect
+							state = ListenerState.STOP;
+						}
+					}
+
+					// Unexpected message: disconnect
+					else
+					{
+						// Send NAK
+						writeNak(outStream, content);
+
+						// Disconnect
+						state = ListenerState.STOP;
+					}
+					break;
+
+				case DONE:
+					// Message: end
+					if (content.messageId.equals(MessageId.END))
+					{
+						// Send acknowledgement
+						writeAck(outStream, content);
+
+						// Handle data
+						++numTransfers;
+						numDataItemsReceived += numDataItems;
+						dataHandler.invoke(buffer.toString());
+
+						// Disconnect
+						state = ListenerState.STOP;
+					}
+
+					// Unexpected message: disconnect
+					else
+					{
+						// Send NAK
+						writeNak(outStream, content);
+
+						// Disconnect
+						state = ListenerState.STOP;
+					}
+					break;
+
+				case STOP:
+					// do nothing
+					break;
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		private void processFrame(Frame            frame,
+								  DataOutputStream outStream,
+								  boolean          moreInput)
+			throws IOException
+		{
+			// Respond to frame
+			switch (state)
+			{
+				case READY:
+					// Frame: start
+					if ((frame.type == FrameType.START) && frame.targetId.equals(id)
+							&& (frame.value >= 0) && (frame.value <= MAX_NUM_DATA_ITEMS))
+					{
+						// Send ACK
+						writeResponse(outStream, FrameType.ACK, 0);
+
+						// Initialise transfer
+						numDataItems = frame.value;
+						dataItemCount = 0;
+						buffer.setLength(0);
+
+						// Change state
+						state = (numDataItems == 0) ? ListenerState.DONE : ListenerState.DATA;
+					}
+
+					// Unexpected frame or invalid number of data items: disconnect
+					else
+					{
+						writeResponse(outStream, FrameType.NAK, 0);
+						state = ListenerState.STOP;
+					}
+					break;
+
+				case DATA:
+					// Frame: data item with expected index
+					if ((frame.type == FrameType.DATA) && (frame.value == dataItemCount))
+					{
+						// Append data item to buffer
+						buffer.append(frame.data);
+
+						// Increment item count and test for last item
+						if (++dataItemCount == numDataItems)
+							state = ListenerState.DONE;
+
+						// Send cumulative ACK when there are no more frames waiting to be read
+						if ((state == ListenerState.DONE) || !moreInput)
+							writeResponse(outStream, FrameType.ACK, dataItemCount);
+					}
+
+					// Unexpected frame: disconnect
+					else
+					{
+						writeResponse(outStream, FrameType.NAK, dataItemCount);
+						state = ListenerState.STOP;
+					}
+					break;
+
+				case DONE:
+					// Frame: end
+					if (frame.type == FrameType.END)
+					{
+						// Send ACK
+						writeResponse(outStream, FrameType.ACK, numDataItems);
+
+						// Handle data
+						++numTransfers;
+						numDataItemsReceived += numDataItems;
+						dataHandler.invoke(buffer.toString());
+
+						// Wait for next transfer on the same connection
+						state = ListenerState.READY;
+					}
+
+					// Unexpected frame: disconnect
+					else
+					{
+						writeResponse(outStream, FrameType.NAK, numDataItems);
+						state = ListenerState.STOP;
+					}
+					break;
+
+				case STOP:
+					// do nothing
+					break;
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CLASS: CONNECTION OF MULTIPLEXED RECEIVER
+
+
+	private class ChannelConnection
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	SocketChannel		channel;
+		private	Transfer			transfer;
+		private	ByteBuffer			inBuffer;
+		private	ByteBuffer			outBuffer;
+		private	int					numScannedBytes;
+		private	long				lastActivityTime;
+		private	boolean				closing;
+		private	ConnectionMetrics	metrics;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private ChannelConnection(SocketChannel       channel,
+								  IProcedure1<String> dataHandler)
+		{
+			// Initialise instance variables
+			this.channel = channel;
+			transfer = new Transfer(dataHandler);
+			inBuffer = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+			outBuffer = ByteBuffer.allocate(0);
+			lastActivityTime = System.currentTimeMillis();
+			metrics = new ConnectionMetrics(getRemoteAddress(channel), lastActivityTime);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		private boolean hasTimedOut(long time)
+		{
+			int timeout = (metrics.protocol == null)
+								? FIRST_MESSAGE_TIMEOUT
+								: ((metrics.protocol == Protocol.FRAMED) && !transfer.isReady())
+										? LISTENER_TIMEOUT
+										: IDLE_CONNECTION_TIMEOUT;
+			return (time - lastActivityTime > timeout);
+		}
+
+		//--------------------------------------------------------------
+
+		private boolean isDone()
+		{
+			return closing && !outBuffer.hasRemaining();
+		}
+
+		//--------------------------------------------------------------
+
+		private int getInterestOps()
+		{
+			int ops = closing ? 0 : SelectionKey.OP_READ;
+			if (outBuffer.hasRemaining())
+				ops |= SelectionKey.OP_WRITE;
+			return ops;
+		}
+
+		//--------------------------------------------------------------
+
+		private void read()
+			throws IOException
+		{
+			// Read from channel; if client closed connection, close it after sending any pending responses
+			int length = channel.read(inBuffer);
+			if (length < 0)
+			{
+				closing = true;
+				return;
+			}
+			metrics.numBytesRead += length;
+			lastActivityTime = System.currentTimeMillis();
+
+			// Process complete messages or frames in input buffer
+			ByteArrayOutputStream responses = new ByteArrayOutputStream();
+			inBuffer.flip();
+			try
+			{
+				process(responses);
+			}
+			finally
+			{
+				inBuffer.compact();
+			}
+
+			// Append responses to output buffer and try to send them
+			if (responses.size() > 0)
+			{
+				byte[] data = responses.toByteArray();
+				if (outBuffer.hasRemaining())
+				{
+					ByteBuffer buffer = ByteBuffer.allocate(outBuffer.remaining() + data.length);
+					buffer.put(outBuffer).put(data).flip();
+					outBuffer = buffer;
+				}
+				else
+					outBuffer = ByteBuffer.wrap(data);
+				write();
+			}
+
+			// Update metrics
+			metrics.numTransfers = transfer.numTransfers;
+			metrics.numDataItems = transfer.numDataItemsReceived;
+
+			// If transfer has stopped, close connection after sending responses
+			if (transfer.isStopped())
+				closing = true;
+		}
 
+		//--------------------------------------------------------------
 
-	// CLASS: MESSAGE CONTENT
+		private void write()
+			throws IOException
+		{
+			metrics.numBytesWritten += channel.write(outBuffer);
+		}
 
+		//--------------------------------------------------------------
 
-	private static class MessageContent
-	{
+		private void process(ByteArrayOutputStream responses)
+			throws IOException
+		{
+			// Determine protocol from first bytes
+			if (metrics.protocol == null)
+			{
+				if (!inBuffer.hasRemaining())
+					return;
+				if (inBuffer.get(inBuffer.position()) == FRAMED_HEADER[0])
+				{
+					if (inBuffer.remaining() < FRAMED_HEADER.length)
+						return;
+					byte[] header = new byte[FRAMED_HEADER.length];
+					inBuffer.get(header);
+					if (!Arrays.equals(header, FRAMED_HEADER))
+						throw new IOException(INVALID_FRAME_STR);
+					metrics.protocol = Protocol.FRAMED;
+				}
+				else
+					metrics.protocol = Protocol.TEXT;
+			}
 
-	////////////////////////////////////////////////////////////////////
-	//  Instance variables
-	////////////////////////////////////////////////////////////////////
+			// Process frames
+			if (metrics.protocol == Protocol.FRAMED)
+			{
+				DataOutputStream outStream = new DataOutputStream(responses);
+				while (!transfer.isStopped() && (inBuffer.remaining() >= Integer.BYTES))
+				{
+					// Test for complete frame
+					int length = inBuffer.getInt(inBuffer.position());
+					if ((length < FRAME_HEADER_LENGTH) || (length > MAX_FRAME_LENGTH))
+						throw new IOException(INVALID_FRAME_STR);
+					int frameLength = Integer.BYTES + length;
+					if (inBuffer.remaining() < frameLength)
+					{
+						ensureInputCapacity(frameLength);
+						break;
+					}
 
-		private	String	sourceId;
-		private	String	targetId;
-		private	String	messageId;
-		private	String	data;
+					// Read frame
+					Frame frame = Frame.read(new DataInputStream(
+							new ByteArrayInputStream(inBuffer.array(), inBuffer.position(), frameLength)));
+					inBuffer.position(inBuffer.position() + frameLength);
 
-	////////////////////////////////////////////////////////////////////
-	//  Constructors
-	////////////////////////////////////////////////////////////////////
+					// Process frame
+					transfer.processFrame(frame, outStream, inBuffer.hasRemaining());
+				}
+			}
 
-		private MessageContent(String sourceId,
-							   String targetId,
-							   String messageId,
-							   String data)
-		{
-			this.sourceId = sourceId;
-			this.targetId = targetId;
-			this.messageId = messageId;
-			this.data = data;
+			// Process text messages
+			else
+			{
+				Writer outStream = new OutputStreamWriter(responses, StandardCharsets.UTF_8);
+				while (!transfer.isStopped())
+				{
+					// Search for end of message
+					int start = inBuffer.position();
+					int end = start + numScannedBytes;
+					while ((end < inBuffer.limit()) && (inBuffer.get(end) != END_OF_MESSAGE))
+						++end;
+					numScannedBytes = end - start;
+					if (end >= inBuffer.limit())
+					{
+						ensureInputCapacity(numScannedBytes + 1);
+						break;
+					}
+
+					// Get message content
+					String message = new String(inBuffer.array(), start, end - start, StandardCharsets.UTF_8);
+					inBuffer.position(end + 1);
+					numScannedBytes = 0;
+					MessageContent content = getMessageContent(message);
+
+					// If target of message was this listener, process message
+					if ((content != null) && content.targetId.equals(id))
+						transfer.processMessage(content, outStream);
+				}
+			}
 		}
 
 		//--------------------------------------------------------------
 
-	////////////////////////////////////////////////////////////////////
-	//  Class methods
-	////////////////////////////////////////////////////////////////////
-
-		private boolean matches(String sourceId,
-								String targetId,
-								String messageId,
-								String data)
+		private void ensureInputCapacity(int capacity)
+			throws IOException
 		{
-			return this.sourceId.equals(sourceId) && this.targetId.equals(targetId)
-									&& this.messageId.equals(messageId) && this.data.equals(data);
+			if (capacity > inBuffer.capacity())
+			{
+				if (capacity > Integer.BYTES + MAX_FRAME_LENGTH)
+					throw new IOException(INVALID_FRAME_STR);
+				ByteBuffer buffer = ByteBuffer.allocate(Math.max(capacity, 2 * inBuffer.capacity()));
+				buffer.put(inBuffer).flip();
+				inBuffer = buffer;
+			}
 		}
 
 		//--------------------------------------------------------------
 
-	////////////////////////////////////////////////////////////////////
-	//  Instance methods : overriding methods
-	////////////////////////////////////////////////////////////////////
-
-		@Override
-		public String toString()
+		private void close(IProcedure1<ConnectionMetrics> metricsHandler)
 		{
-			return sourceId + MESSAGE_SEPARATOR + targetId + MESSAGE_SEPARATOR + messageId + MESSAGE_SEPARATOR + data;
+			// Close channel
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				// ignore
+			}
+
+			// Report metrics
+			metrics.endTime = System.currentTimeMillis();
+			if (metricsHandler != null)
+				metricsHandler.invoke(metrics);
 		}
 
 		//--------------------------------------------------------------
@@ -178,8 +1146,13 @@ public class DataTxChannel
 //  Instance variables
 ////////////////////////////////////////////////////////////////////////
 
-	private	String			id;
-	private	ServerSocket	serverSocket;
+	private	String						id;
+	private	ServerSocket				serverSocket;
+	private	ListenMode					listenMode;
+	private	Protocol					protocol;
+	private	int							windowSize;
+	private	boolean						persistentConnections;
+	private	Map<Integer, Connection>	connections;
 
 ////////////////////////////////////////////////////////////////////////
 //  Static initialiser
@@ -200,6 +1173,9 @@ public class DataTxChannel
 	{
 		// Initialise instance variables
 		this.id = id;
+		protocol = Protocol.TEXT;
+		windowSize = DEFAULT_WINDOW_SIZE;
+		connections = new ConcurrentHashMap<>();
 	}
 
 	//------------------------------------------------------------------
@@ -288,16 +1264,105 @@ public class DataTxChannel
 
 	//------------------------------------------------------------------
 
+	private static String getRemoteAddress(SocketChannel channel)
+	{
+		try
+		{
+			return String.valueOf(channel.getRemoteAddress());
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	private static void writeResponse(DataOutputStream outStream,
+									  byte             type,
+									  int              value)
+		throws IOException
+	{
+		Frame.write(outStream, type, value);
+		outStream.flush();
+	}
+
+	//------------------------------------------------------------------
+
 ////////////////////////////////////////////////////////////////////////
 //  Instance methods
 ////////////////////////////////////////////////////////////////////////
 
+	public Protocol getProtocol()
+	{
+		return protocol;
+	}
+
+	//------------------------------------------------------------------
+
+	public void setProtocol(Protocol protocol)
+	{
+		if (protocol == null)
+			throw new IllegalArgumentException("Null protocol");
+
+		this.protocol = protocol;
+	}
+
+	//------------------------------------------------------------------
+
+	public int getWindowSize()
+	{
+		return windowSize;
+	}
+
+	//------------------------------------------------------------------
+
+	public void setWindowSize(int windowSize)
+	{
+		if ((windowSize < MIN_WINDOW_SIZE) || (windowSize > MAX_WINDOW_SIZE))
+			throw new IllegalArgumentException("Window size out of bounds: " + windowSize);
+
+		this.windowSize = windowSize;
+	}
+
+	//------------------------------------------------------------------
+
+	public boolean isPersistentConnections()
+	{
+		return persistentConnections;
+	}
+
+	//------------------------------------------------------------------
+
+	public void setPersistentConnections(boolean persistentConnections)
+	{
+		this.persistentConnections = persistentConnections;
+		if (!persistentConnections)
+			closeConnections();
+	}
+
+	//------------------------------------------------------------------
+
+	public void closeConnections()
+	{
+		for (Integer port : connections.keySet())
+		{
+			Connection connection = connections.remove(port);
+			if (connection != null)
+				connection.close();
+		}
+	}
+
+	//------------------------------------------------------------------
+
 	public int openReceiver()
 	{
 		// Open server socket on automatically allocated port
+		listenMode = null;
 		try
 		{
-			serverSocket = new ServerSocket(0);
+			// The socket is obtained from a channel so that it can also be used by a multiplexed receiver
+			serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(0)).socket();
 			serverSocket.setSoTimeout(CONNECTION_ACCEPT_TIMEOUT);
 		}
 		catch (BindException e)
@@ -322,6 +1387,9 @@ public class DataTxChannel
 		if (serverSocket == null)
 			throw new IllegalStateException("Receiver is not open");
 
+		// Test for conflicting listen mode
+		setListenMode(ListenMode.BLOCKING);
+
 		// Create receiver
 		Runnable receiver = () ->
 		{
@@ -352,19 +1420,35 @@ public class DataTxChannel
 						Writer outStream = null;
 						try
 						{
+							// Read first byte of input stream to determine protocol
+							InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+							socket.setSoTimeout(FIRST_MESSAGE_TIMEOUT);
+							inputStream.mark(1);
+							int firstByte = inputStream.read();
+							inputStream.reset();
+							socket.setSoTimeout(0);
+
+							// If client closed connection, stop
+							if (firstByte < 0)
+								return;
+
+							// If client uses framed protocol, receive frames
+							if (firstByte == FRAMED_HEADER[0])
+							{
+								receiveFramed(socket, inputStream, dataHandler);
+								return;
+							}
+
 							// Get input stream of socket
-							inStream = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+							inStream = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
 
 							// Get output stream of socket
 							outStream = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
 																				  StandardCharsets.UTF_8));
 
 							// Read from input stream
-							StringBuilder buffer = new StringBuilder(1024);
-							int numDataItems = 0;
-							int dataItemCount = 0;
-							ListenerState state = ListenerState.READY;
-							while (state != ListenerState.STOP)
+							Transfer transfer = new Transfer(dataHandler);
+							while (!transfer.isStopped())
 							{
 								// Read message
 								String message = read(inStream, LISTENER_TIMEOUT);
@@ -375,142 +1459,14 @@ public class DataTxChannel
 								// If target of message was this listener, process message
 								if ((content != null) && content.targetId.equals(id))
 								{
-									// Respond to message
-									switch (state)
-									{
-										case READY:
-											// Message: start
-											if (content.messageId.equals(MessageId.START))
-											{
-												// Parse number of data items
-												try
-												{
-													numDataItems = Integer.parseInt(content.data);
-													if (numDataItems > MAX_NUM_DATA_ITEMS)
-														numDataItems = -1;
-												}
-												catch (NumberFormatException e)
-												{
-													numDataItems = -1;
-												}
-
-												// If number of data items was invalid, disconnect ...
-												if (numDataItems < 0)
-												{
-													// Send NAK
-													writeNak(outStream, content);
-
-													// Disconnect
-													state = ListenerState.STOP;
-												}
-
-												// ... otherwise, send ACK
-												else
-												{
-													// Send ACK
-													writeAck(outStream, content);
-
-													// Change state
-													state = (numDataItems == 0) ? ListenerState.DONE
-																				: ListenerState.DATA;
-												}
-											}
-
-											// Unexpected message: disconnect
-											else
-											{
-												// Send NAK
-												writeNak(outStream, content);
-
-												// Disconnect
-												state = ListenerState.STOP;
-											}
-											break;
-
-										case DATA:
-											// Message: data
-											if (content.messageId.startsWith(MessageId.DATA))
-											{
-												// Parse item index
-												int index = -1;
-												try
-												{
-													index = Integer.parseInt(content.messageId
-																				.substring(MessageId.DATA.length()));
-												}
-												catch (NumberFormatException e)
-												{
-													// ignore
-												}
-
-												// If item index was correct, send ACK ...
-												if (index == dataItemCount)
-												{
-													// Send ACK
-													writeAck(outStream, content);
-
-													// Append data item to buffer
-													buffer.append(content.data);
-
-													// Increment item count and test for last item
-													if (++dataItemCount == numDataItems)
-														state = ListenerState.DONE;
-												}
-
-												// ... otherwise, disconnect
-												else
-												{
-													// Send NAK
-													writeNak(outStream, content);
-
-													// Disconnect
-													state = ListenerState.STOP;
-												}
-											}
-
-											// Unexpected message: disconnect
-											else
-											{
-												// Send NAK
-												writeNak(outStream, content);
-
-												// Disconnect
-												state = ListenerState.STOP;
-											}
-											break;
-
-										case DONE:
-											// Message: end
-											if (content.messageId.equals(MessageId.END))
-											{
-												// Send acknowledgement
-												writeAck(outStream, content);
-
-												// Handle data
-												dataHandler.invoke(buffer.toString());
-
-												// Disconnect
-												state = ListenerState.STOP;
-											}
-
-											// Unexpected message: disconnect
-											else
-											{
-												// Send NAK
-												writeNak(outStream, content);
-
-												// Disconnect
-												state = ListenerState.STOP;
-											}
-											break;
-
-										case STOP:
-											// do nothing
-											break;
-									}
+									transfer.processMessage(content, outStream);
 								}
 							}
 						}
+						catch (EOFException | SocketTimeoutException e)
+						{
+							// ignore
+						}
 						catch (IOException | SecurityException e)
 						{
 							ExceptionUtils.printStderrLocated(e);
@@ -563,9 +1519,131 @@ public class DataTxChannel
 
 	//------------------------------------------------------------------
 
+	public void listenMultiplexed(IProcedure1<String> dataHandler)
+	{
+		listenMultiplexed(dataHandler, null);
+	}
+
+	//------------------------------------------------------------------
+
+	public void listenMultiplexed(IProcedure1<String>            dataHandler,
+								  IProcedure1<ConnectionMetrics> metricsHandler)
+	{
+		// Test for open server socket
+		if (serverSocket == null)
+			throw new IllegalStateException("Receiver is not open");
+
+		// Test for conflicting listen mode
+		setListenMode(ListenMode.MULTIPLEXED);
+
+		// Create receiver, which accepts connections and serves all of them on a single thread
+		ServerSocketChannel serverChannel = serverSocket.getChannel();
+		Runnable receiver = () ->
+		{
+			try (Selector selector = Selector.open())
+			{
+				// Register server channel with selector
+				serverChannel.configureBlocking(false);
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+				// Service connections until server channel is closed
+				while (serverChannel.isOpen())
+				{
+					// Wait for channels to become ready
+					selector.select(SELECT_TIMEOUT);
+
+					// Process ready channels
+					for (SelectionKey key : selector.selectedKeys())
+					{
+						// Accept connection from client
+						if (key.isAcceptable())
+						{
+							SocketChannel channel = serverChannel.accept();
+							if (channel != null)
+							{
+								channel.configureBlocking(false);
+								channel.socket().setTcpNoDelay(true);
+								channel.register(selector, SelectionKey.OP_READ,
+												 new ChannelConnection(channel, dataHandler));
+							}
+							continue;
+						}
+
+						// Read from or write to connection
+						ChannelConnection connection = (ChannelConnection)key.attachment();
+						try
+						{
+							if (key.isValid() && key.isWritable())
+								connection.write();
+							if (key.isValid() && key.isReadable())
+								connection.read();
+
+							// Update operations of interest or close connection
+							if (connection.isDone())
+								connection.close(metricsHandler);
+							else
+								key.interestOps(connection.getInterestOps());
+						}
+						catch (IOException e)
+						{
+							connection.close(metricsHandler);
+						}
+						catch (RuntimeException e)
+						{
+							ExceptionUtils.printStderrLocated(e);
+							connection.close(metricsHandler);
+						}
+					}
+					selector.selectedKeys().clear();
+
+					// Close connections that have timed out
+					long time = System.currentTimeMillis();
+					for (SelectionKey key : selector.keys())
+					{
+						if ((key.attachment() instanceof ChannelConnection) && key.isValid())
+						{
+							ChannelConnection connection = (ChannelConnection)key.attachment();
+							if (connection.hasTimedOut(time))
+								connection.close(metricsHandler);
+						}
+					}
+				}
+			}
+			catch (IOException | SecurityException e)
+			{
+				ExceptionUtils.printStderrLocated(e);
+			}
+		};
+
+		// Create and start receiver thread
+		DaemonFactory.create(RECEIVER_THREAD_NAME, receiver).start();
+	}
+
+	//------------------------------------------------------------------
+
+	private synchronized void setListenMode(ListenMode mode)
+	{
+		// A multiplexed receiver puts the server channel into non-blocking mode, in which ServerSocket.accept() fails
+		if ((listenMode != null) && (listenMode != mode))
+			throw new IllegalStateException("Receiver is already listening in " + listenMode + " mode");
+		listenMode = mode;
+	}
+
+	//------------------------------------------------------------------
+
 	public boolean transmit(int          port,
 							String       targetId,
 							List<String> data)
+	{
+		return (protocol == Protocol.FRAMED) ? transmitFramed(port, targetId, data)
+											 : transmitText(port, targetId, data);
+	}
+
+	//------------------------------------------------------------------
+
+	private boolean transmitText(int          port,
+								 String       targetId,
+								 List<String> data)
 	{
 		boolean success = false;
 
@@ -672,6 +1750,136 @@ public class DataTxChannel
 
 	//------------------------------------------------------------------
 
+	private boolean transmitFramed(int          port,
+								   String       targetId,
+								   List<String> data)
+	{
+		boolean success = false;
+
+		// Get persistent connection to port, if there is one
+		Connection connection = persistentConnections ? connections.remove(port) : null;
+
+		// Transmit data to target
+		try
+		{
+			// Send 'start' frame on persistent connection; if the receiver has closed the connection, discard it
+			Frame response = null;
+			if (connection != null)
+			{
+				try
+				{
+					response = startFramed(connection, targetId, data.size());
+				}
+				catch (IOException e)
+				{
+					connection.close();
+					connection = null;
+				}
+			}
+
+			// If there is no open connection, connect socket to server and send 'start' frame
+			if (connection == null)
+			{
+				connection = new Connection(port);
+				response = startFramed(connection, targetId, data.size());
+			}
+
+			// If expected response was received, send data
+			if ((response.type == FrameType.ACK) && (response.value == 0))
+			{
+				DataOutputStream outStream = connection.outStream;
+				int numDataItems = data.size();
+				int numSent = 0;
+				int numAcked = 0;
+				while (numAcked < numDataItems)
+				{
+					// Send data items until window of unacknowledged items is full
+					while ((numSent < numDataItems) && (numSent - numAcked < windowSize))
+					{
+						Frame.writeData(outStream, numSent, data.get(numSent));
+						++numSent;
+					}
+					outStream.flush();
+
+					// Wait for cumulative acknowledgement
+					response = connection.readResponse();
+					if ((response.type != FrameType.ACK) || (response.value <= numAcked) || (response.value > numSent))
+						throw new IOException(UNEXPECTED_RESPONSE_STR);
+					numAcked = response.value;
+				}
+
+				// Send 'end' frame and wait for response
+				writeResponse(outStream, FrameType.END, 0);
+				response = connection.readResponse();
+				if ((response.type != FrameType.ACK) || (response.value != numDataItems))
+					throw new IOException(UNEXPECTED_RESPONSE_STR);
+
+				// Indicate success
+				success = true;
+			}
+		}
+		catch (IOException | SecurityException e)
+		{
+			ExceptionUtils.printStderrLocated(e);
+		}
+		finally
+		{
+			// Keep connection for reuse or close it
+			if (connection != null)
+			{
+				if (!success || !persistentConnections || (connections.putIfAbsent(port, connection) != null))
+					connection.close();
+			}
+		}
+
+		return success;
+	}
+
+	//------------------------------------------------------------------
+
+	private Frame startFramed(Connection connection,
+							  String     targetId,
+							  int        numDataItems)
+		throws IOException
+	{
+		Frame.writeStart(connection.outStream, id, targetId, numDataItems);
+		connection.outStream.flush();
+		return connection.readResponse();
+	}
+
+	//------------------------------------------------------------------
+
+	private void receiveFramed(Socket              socket,
+							   InputStream         inputStream,
+							   IProcedure1<String> dataHandler)
+		throws IOException
+	{
+		// Create streams
+		DataInputStream inStream = new DataInputStream(inputStream);
+		DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		socket.setTcpNoDelay(true);
+
+		// Read header of connection
+		socket.setSoTimeout(LISTENER_TIMEOUT);
+		byte[] header = new byte[FRAMED_HEADER.length];
+		inStream.readFully(header);
+		if (!Arrays.equals(header, FRAMED_HEADER))
+			return;
+
+		// Receive transfers until the connection is closed, times out or fails
+		Transfer transfer = new Transfer(dataHandler);
+		while (!transfer.isStopped())
+		{
+			// Read frame; the connection may be idle between transfers
+			socket.setSoTimeout(transfer.isReady() ? IDLE_CONNECTION_TIMEOUT : LISTENER_TIMEOUT);
+			Frame frame = Frame.read(inStream);
+
+			transfer.processFrame(frame, outStream, inStream.available() > 0);
+		}
+	}
+
+	//------------------------------------------------------------------
+
 	private MessageContent readResponse(Reader reader)
 		throws IOException
 	{
@@ -22,8 +22,12 @@ import java.io.File;
 import java.io.FileFilter;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import uk.blankaspect.common.exception.AppException;
 
@@ -122,6 +126,13 @@ public class PathnameFilter
 	// CLASS: MULTIPLE FILTER
 
 
+	/**
+	 * This class implements a filter that accepts a pathname if it matches any of a set of patterns.  The patterns
+	 * are compiled into automata, one for the patterns that are matched against absolute pathnames and one for each
+	 * base pathname of the patterns that are matched against relative pathnames, so that a pathname is split into
+	 * components and matched against all the patterns in a single pass.
+	 */
+
 	public static class MultipleFilter
 		extends PathnameFilter
 	{
@@ -136,7 +147,9 @@ public class PathnameFilter
 	//  Instance variables
 	////////////////////////////////////////////////////////////////////
 
-		private	PathnameFilter[]	filters;
+		private	PathnameFilter[]				filters;
+		private	PathnameAutomaton				absoluteAutomaton;
+		private	Map<String, PathnameAutomaton>	relativeAutomata;
 
 	////////////////////////////////////////////////////////////////////
 	//  Constructors
@@ -227,6 +240,7 @@ public class PathnameFilter
 			filters = new PathnameFilter[patterns.length];
 			for (int i = 0; i < filters.length; i++)
 				filters[i] = new PathnameFilter(patterns[i], basePathname, ignoreCase, normaliseDirectory);
+			compile();
 		}
 
 		//--------------------------------------------------------------
@@ -316,6 +330,7 @@ public class PathnameFilter
 			filters = new PathnameFilter[patterns.size()];
 			for (int i = 0; i < filters.length; i++)
 				filters[i] = new PathnameFilter(patterns.get(i), basePathname, ignoreCase, normaliseDirectory);
+			compile();
 		}
 
 		//--------------------------------------------------------------
@@ -342,12 +357,12 @@ public class PathnameFilter
 		@Override
 		public boolean accept(File file)
 		{
-			for (PathnameFilter filter : filters)
-			{
-				if (filter.accept(file))
-					return true;
-			}
-			return false;
+			// Don't accept an existing entity that is not a normal file
+			if (file.exists() && !file.isFile())
+				return false;
+
+			// Match pathname against patterns
+			return match(file);
 		}
 
 		//--------------------------------------------------------------
@@ -355,22 +370,59 @@ public class PathnameFilter
 		@Override
 		public boolean acceptDirectory(File directory)
 		{
-			for (PathnameFilter filter : filters)
+			// Don't accept an existing entity that is not a directory
+			if (directory.exists() && !directory.isDirectory())
+				return false;
+
+			// Match pathname against patterns
+			return match(directory);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public boolean match(File file)
+		{
+			return findMatches(file, true).nextSetBit(0) >= 0;
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public boolean canMatchDescendants(File directory)
+		{
+			try
 			{
-				if (filter.acceptDirectory(directory))
-					return true;
+				for (Map.Entry<String, PathnameAutomaton> entry : relativeAutomata.entrySet())
+				{
+					if (PathnameFilter.canMatchDescendants(entry.getValue(), entry.getKey(), directory))
+						return true;
+				}
+				return (absoluteAutomaton != null) && PathnameFilter.canMatchDescendants(absoluteAutomaton, null, directory);
+			}
+			catch (AppException e)
+			{
+				reportMatchError(directory, e);
+				return false;
 			}
-			return false;
 		}
 
 		//--------------------------------------------------------------
 
+		/**
+		 * Updates the absolute patterns of the filters of this multiple filter and recompiles the patterns.  This
+		 * method must also be called after the base pathname of one of the filters is changed.
+		 *
+		 * @throws AppException
+		 */
+
 		@Override
 		public void updateAbsolute()
 			throws AppException
 		{
 			for (PathnameFilter filter : filters)
 				filter.updateAbsolute();
+			compile();
 		}
 
 		//--------------------------------------------------------------
@@ -393,6 +445,93 @@ public class PathnameFilter
 
 		//--------------------------------------------------------------
 
+		/**
+		 * Returns the filters of this multiple filter whose patterns match the pathname of the specified file, in
+		 * the order in which the filters were created.  Unlike {@link #accept(File)}, this method does not test the
+		 * kind of the file.
+		 */
+
+		public List<PathnameFilter> getMatchingFilters(File file)
+		{
+			List<PathnameFilter> matchingFilters = new ArrayList<>();
+			BitSet matches = findMatches(file, false);
+			for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1))
+				matchingFilters.add(filters[i]);
+			return matchingFilters;
+		}
+
+		//--------------------------------------------------------------
+
+		private void compile()
+		{
+			// All the filters are created with the same case sensitivity
+			boolean ignoreCase = (filters.length > 0) && filters[0].ignoreCase;
+
+			// Add the pattern tokens of each filter to the automaton for its kind of match
+			PathnameAutomaton absAutomaton = null;
+			Map<String, PathnameAutomaton> relAutomata = new LinkedHashMap<>();
+			for (int i = 0; i < filters.length; i++)
+			{
+				PathnameFilter filter = filters[i];
+				if (filter.isMatchAbsolute())
+				{
+					if (absAutomaton == null)
+						absAutomaton = new PathnameAutomaton(ignoreCase);
+					absAutomaton.addPattern(filter.absolutePatternTokens, i);
+				}
+				else
+				{
+					PathnameAutomaton automaton = relAutomata.get(filter.basePathname);
+					if (automaton == null)
+					{
+						automaton = new PathnameAutomaton(ignoreCase);
+						relAutomata.put(filter.basePathname, automaton);
+					}
+					automaton.addPattern(filter.patternTokens, i);
+				}
+			}
+			absoluteAutomaton = absAutomaton;
+			relativeAutomata = relAutomata;
+		}
+
+		//--------------------------------------------------------------
+
+		private BitSet findMatches(File    file,
+								   boolean firstOnly)
+		{
+			BitSet matches = new BitSet();
+			try
+			{
+				// Match relative pathname against the patterns for each base pathname
+				if (!relativeAutomata.isEmpty())
+				{
+					String pathname = toNormalisedPathname(file);
+					for (Map.Entry<String, PathnameAutomaton> entry : relativeAutomata.entrySet())
+					{
+						String basePathname = entry.getKey();
+						if (pathname.startsWith(basePathname))
+						{
+							List<String> pathnameComponents =
+									getPathnameComponents(new File(pathname.substring(basePathname.length())));
+							if (entry.getValue().match(pathnameComponents, firstOnly, matches) && firstOnly)
+								return matches;
+						}
+					}
+				}
+
+				// Match absolute pathname
+				if (absoluteAutomaton != null)
+					absoluteAutomaton.match(getAbsolutePathnameComponents(file), firstOnly, matches);
+			}
+			catch (AppException e)
+			{
+				reportMatchError(file, e);
+			}
+			return matches;
+		}
+
+		//--------------------------------------------------------------
+
 	}
 
 	//==================================================================
@@ -565,7 +704,7 @@ public class PathnameFilter
 						break;
 
 					case SINGLE_WILDCARD:
-						if (filenameIndex > filename.length())
+						if (filenameIndex >= filename.length())
 							return false;
 						++filenameIndex;
 						break;
@@ -602,6 +741,366 @@ public class PathnameFilter
 	//==================================================================
 
 
+	// CLASS: PATHNAME AUTOMATON
+
+
+	/**
+	 * This class implements a nondeterministic finite automaton that matches the components of a pathname against the
+	 * pattern tokens of a set of pathname filters in a single pass.  The literal components of the patterns form a trie
+	 * whose transitions are looked up by component; a component that contains name wildcards is a transition that is
+	 * tested with a non-backtracking glob matcher; and a path wildcard ("**") is a state that loops on any component and
+	 * is entered without consuming a component.  Each state records the indices of the patterns that it accepts.
+	 * <p>
+	 * An automaton is immutable once its patterns have been added, and it may be used by several threads concurrently.
+	 * </p>
+	 */
+
+	private static class PathnameAutomaton
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	boolean		ignoreCase;
+		private	List<State>	states;
+		private	State		root;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private PathnameAutomaton(boolean ignoreCase)
+		{
+			this.ignoreCase = ignoreCase;
+			states = new ArrayList<>();
+			root = createState();
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Class methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns {@code true} if the specified filename matches the specified pattern, in which '?' matches any single
+		 * character and '*' matches any sequence of characters.  When a mismatch follows a '*', only the input that the
+		 * most recent '*' has consumed is extended, so the time taken is at most proportional to the product of the
+		 * lengths of the pattern and the filename.
+		 */
+
+		private static boolean matchName(String pattern,
+										 String filename)
+		{
+			int patternIndex = 0;
+			int filenameIndex = 0;
+			int wildcardPatternIndex = -1;
+			int wildcardFilenameIndex = 0;
+			while (filenameIndex < filename.length())
+			{
+				if (patternIndex < pattern.length())
+				{
+					char ch = pattern.charAt(patternIndex);
+					if (ch == NAME_MULTIPLE_WILDCARD_CHAR)
+					{
+						wildcardPatternIndex = patternIndex++;
+						wildcardFilenameIndex = filenameIndex;
+						continue;
+					}
+					if ((ch == NAME_SINGLE_WILDCARD_CHAR) || (ch == filename.charAt(filenameIndex)))
+					{
+						++patternIndex;
+						++filenameIndex;
+						continue;
+					}
+				}
+				if (wildcardPatternIndex < 0)
+					return false;
+				patternIndex = wildcardPatternIndex + 1;
+				filenameIndex = ++wildcardFilenameIndex;
+			}
+			while ((patternIndex < pattern.length()) && (pattern.charAt(patternIndex) == NAME_MULTIPLE_WILDCARD_CHAR))
+				++patternIndex;
+			return (patternIndex >= pattern.length());
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		private void addPattern(List<PatternToken> tokens,
+								int                index)
+		{
+			State state = root;
+			for (PatternToken token : tokens)
+			{
+				switch (token.kind)
+				{
+					case LITERAL:
+					{
+						State nextState = state.literalTransitions.get(token.comparisonValue);
+						if (nextState == null)
+						{
+							nextState = createState();
+							state.literalTransitions.put(token.comparisonValue, nextState);
+						}
+						state = nextState;
+						break;
+					}
+
+					case PATTERN:
+					{
+						int i = state.namePatterns.indexOf(token.comparisonValue);
+						if (i < 0)
+						{
+							i = state.namePatterns.size();
+							state.namePatterns.add(token.comparisonValue);
+							state.namePatternStates.add(createState());
+						}
+						state = state.namePatternStates.get(i);
+						break;
+					}
+
+					case PATH_MULTIPLE_WILDCARD:
+						if (!state.anyComponent)
+						{
+							if (state.wildcardState == null)
+							{
+								state.wildcardState = createState();
+								state.wildcardState.anyComponent = true;
+							}
+							state = state.wildcardState;
+						}
+						break;
+
+					case SINGLE_WILDCARD:
+					case MULTIPLE_WILDCARD:
+						// do nothing
+						break;
+				}
+			}
+			if (state.acceptedPatterns == null)
+				state.acceptedPatterns = new BitSet();
+			state.acceptedPatterns.set(index);
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Matches the specified pathname components against the patterns of this automaton, and sets the indices of
+		 * the patterns that match in the specified set.
+		 *
+		 * @return {@code true} if at least one pattern matched.
+		 */
+
+		private boolean match(List<String> pathnameComponents,
+							  boolean      firstOnly,
+							  BitSet       matches)
+		{
+			// Initialise sets of active states; a state is in a set if its stamp is equal to the current step
+			int[] stamps = new int[states.size()];
+			int[] activeStates = new int[states.size()];
+			int[] nextStates = new int[states.size()];
+			int step = 1;
+			int numActiveStates = addState(root, activeStates, 0, stamps, step);
+
+			// Advance the active states over each component
+			for (String component : pathnameComponents)
+			{
+				// If a path wildcard that ends a pattern is active, the pattern matches whatever follows
+				if (firstOnly)
+				{
+					for (int i = 0; i < numActiveStates; i++)
+					{
+						State state = states.get(activeStates[i]);
+						if (state.anyComponent && (state.acceptedPatterns != null))
+						{
+							matches.or(state.acceptedPatterns);
+							return true;
+						}
+					}
+				}
+
+				// Advance the active states
+				int numNextStates = advance(activeStates, numActiveStates, component, nextStates, stamps, ++step);
+
+				// Stop if no state is active
+				if (numNextStates == 0)
+					return false;
+
+				// Swap sets of states
+				int[] temp = activeStates;
+				activeStates = nextStates;
+				nextStates = temp;
+				numActiveStates = numNextStates;
+			}
+
+			// Add the patterns that are accepted by the final states
+			boolean matched = false;
+			for (int i = 0; i < numActiveStates; i++)
+			{
+				BitSet acceptedPatterns = states.get(activeStates[i]).acceptedPatterns;
+				if (acceptedPatterns != null)
+				{
+					matches.or(acceptedPatterns);
+					matched = true;
+				}
+			}
+			return matched;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns {@code true} if a pathname that has the specified components as a proper prefix may match one of
+		 * the patterns of this automaton.
+		 */
+
+		private boolean canMatchDescendants(List<String> pathnameComponents)
+		{
+			// Initialise sets of active states
+			int[] stamps = new int[states.size()];
+			int[] activeStates = new int[states.size()];
+			int[] nextStates = new int[states.size()];
+			int step = 1;
+			int numActiveStates = addState(root, activeStates, 0, stamps, step);
+
+			// Advance the active states over each component
+			for (String component : pathnameComponents)
+			{
+				int numNextStates = advance(activeStates, numActiveStates, component, nextStates, stamps, ++step);
+				if (numNextStates == 0)
+					return false;
+
+				int[] temp = activeStates;
+				activeStates = nextStates;
+				nextStates = temp;
+				numActiveStates = numNextStates;
+			}
+
+			// Test whether any active state has a transition
+			for (int i = 0; i < numActiveStates; i++)
+			{
+				State state = states.get(activeStates[i]);
+				if (state.anyComponent || !state.literalTransitions.isEmpty() || !state.namePatterns.isEmpty())
+					return true;
+			}
+			return false;
+		}
+
+		//--------------------------------------------------------------
+
+		private int advance(int[]  activeStates,
+							int    numActiveStates,
+							String component,
+							int[]  nextStates,
+							int[]  stamps,
+							int    step)
+		{
+			if (ignoreCase)
+				component = component.toLowerCase();
+
+			int numNextStates = 0;
+			for (int i = 0; i < numActiveStates; i++)
+			{
+				State state = states.get(activeStates[i]);
+
+				// Path wildcard
+				if (state.anyComponent)
+					numNextStates = addState(state, nextStates, numNextStates, stamps, step);
+
+				// Literal component
+				State nextState = state.literalTransitions.get(component);
+				if (nextState != null)
+					numNextStates = addState(nextState, nextStates, numNextStates, stamps, step);
+
+				// Component with name wildcards
+				for (int j = 0; j < state.namePatterns.size(); j++)
+				{
+					if (matchName(state.namePatterns.get(j), component))
+						numNextStates = addState(state.namePatternStates.get(j), nextStates, numNextStates, stamps, step);
+				}
+			}
+			return numNextStates;
+		}
+
+		//--------------------------------------------------------------
+
+		private State createState()
+		{
+			State state = new State(states.size());
+			states.add(state);
+			return state;
+		}
+
+		//--------------------------------------------------------------
+
+		private int addState(State state,
+							 int[] stateSet,
+							 int   numStates,
+							 int[] stamps,
+							 int   step)
+		{
+			while ((state != null) && (stamps[state.index] != step))
+			{
+				stamps[state.index] = step;
+				stateSet[numStates++] = state.index;
+				state = state.wildcardState;
+			}
+			return numStates;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Member classes : non-inner classes
+	////////////////////////////////////////////////////////////////////
+
+
+		// CLASS: STATE
+
+
+		private static class State
+		{
+
+		////////////////////////////////////////////////////////////////
+		//  Instance variables
+		////////////////////////////////////////////////////////////////
+
+			private	int					index;
+			private	Map<String, State>	literalTransitions;
+			private	List<String>		namePatterns;
+			private	List<State>			namePatternStates;
+			private	State				wildcardState;
+			private	boolean				anyComponent;
+			private	BitSet				acceptedPatterns;
+
+		////////////////////////////////////////////////////////////////
+		//  Constructors
+		////////////////////////////////////////////////////////////////
+
+			private State(int index)
+			{
+				this.index = index;
+				literalTransitions = new HashMap<>();
+				namePatterns = new ArrayList<>();
+				namePatternStates = new ArrayList<>();
+			}
+
+			//----------------------------------------------------------
+
+		}
+
+		//==============================================================
+
+	}
+
+	//==================================================================
+
+
 	// CLASS: FILE EXCEPTION
 
 
@@ -651,7 +1150,7 @@ public class PathnameFilter
 ////////////////////////////////////////////////////////////////////////
 
 	private static	ErrorMode	errorMode;
-	private static	List<File>	errors		= new ArrayList<>();
+	private static final	List<File>	errors	= new ArrayList<>();
 
 ////////////////////////////////////////////////////////////////////////
 //  Instance variables
@@ -661,6 +1160,7 @@ public class PathnameFilter
 	private	String				basePathname;
 	private	List<PatternToken>	patternTokens;
 	private	List<PatternToken>	absolutePatternTokens;
+	private	PathnameAutomaton	automaton;
 	private	boolean				hasWildcards;
 	private	boolean				hasPathWildcards;
 	private	boolean				ignoreCase;
@@ -839,14 +1339,21 @@ public class PathnameFilter
 
 	public static List<File> getErrors()
 	{
-		return Collections.unmodifiableList(errors);
+		// Return a snapshot, because errors may be added concurrently by the tasks of a parallel walk
+		synchronized (errors)
+		{
+			return Collections.unmodifiableList(new ArrayList<>(errors));
+		}
 	}
 
 	//------------------------------------------------------------------
 
 	public static void clearErrors()
 	{
-		errors.clear();
+		synchronized (errors)
+		{
+			errors.clear();
+		}
 	}
 
 	//------------------------------------------------------------------
@@ -967,6 +1474,46 @@ public class PathnameFilter
 
 	//------------------------------------------------------------------
 
+	private static void reportMatchError(File         file,
+										 AppException exception)
+	{
+		if ((errorMode == ErrorMode.LIST) || (errorMode == ErrorMode.LIST_AND_WRITE))
+		{
+			synchronized (errors)
+			{
+				errors.add(file);
+			}
+		}
+		if ((errorMode == ErrorMode.WRITE) || (errorMode == ErrorMode.LIST_AND_WRITE))
+			ExceptionUtils.printStderrLocated(exception);
+	}
+
+	//------------------------------------------------------------------
+
+	private static boolean canMatchDescendants(PathnameAutomaton automaton,
+											   String            basePathname,
+											   File              directory)
+		throws AppException
+	{
+		// Match absolute pathname
+		if (basePathname == null)
+			return automaton.canMatchDescendants(StringUtils.split(toAbsolutePathname(directory), SEPARATOR_CHAR, true));
+
+		// Accept an ancestor of the base directory
+		String pathname = toNormalisedPathname(directory);
+		if (!pathname.endsWith(SEPARATOR))
+			pathname += SEPARATOR;
+		if (basePathname.startsWith(pathname))
+			return true;
+
+		// Match pathname relative to base directory
+		return pathname.startsWith(basePathname)
+				&& automaton.canMatchDescendants(StringUtils.split(pathname.substring(basePathname.length()),
+																   SEPARATOR_CHAR, true));
+	}
+
+	//------------------------------------------------------------------
+
 	private static boolean match(List<String>       pathnameComponents,
 								 int                pathnameComponentIndex,
 								 List<PatternToken> patternTokens,
@@ -1180,10 +1727,34 @@ public class PathnameFilter
 		}
 		catch (AppException e)
 		{
-			if ((errorMode == ErrorMode.LIST) || (errorMode == ErrorMode.LIST_AND_WRITE))
-				errors.add(file);
-			if ((errorMode == ErrorMode.WRITE) || (errorMode == ErrorMode.LIST_AND_WRITE))
-				ExceptionUtils.printStderrLocated(e);
+			reportMatchError(file, e);
+			return false;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns {@code true} if an entry below the specified directory may match the pattern of this filter.  The
+	 * pattern tokens are matched against the components of the pathname of the directory, so a directory is pruned
+	 * if it is not on the literal prefix of the pattern or if it does not match a wildcard component that follows
+	 * the prefix.  The existence and kind of the directory are not tested.
+	 */
+
+	public boolean canMatchDescendants(File directory)
+	{
+		// Accept all directories if no pattern has been set
+		if (pattern == null)
+			return true;
+
+		// Match pathname of directory against pattern
+		try
+		{
+			return canMatchDescendants(automaton, isMatchAbsolute() ? null : basePathname, directory);
+		}
+		catch (AppException e)
+		{
+			reportMatchError(directory, e);
 			return false;
 		}
 	}
@@ -1214,6 +1785,8 @@ public class PathnameFilter
 			}
 			absolutePatternTokens = stringsToTokens(splitPathname(pathname));
 		}
+		automaton = new PathnameAutomaton(ignoreCase);
+		automaton.addPattern(isMatchAbsolute() ? absolutePatternTokens : patternTokens, 0);
 	}
 
 	//------------------------------------------------------------------
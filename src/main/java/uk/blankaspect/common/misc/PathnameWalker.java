@@ -0,0 +1,667 @@
+/*====================================================================*\
+
+PathnameWalker.java
+
+Class: pathname walker.
+
+\*====================================================================*/
+
+
+// PACKAGE
+
+
+package uk.blankaspect.common.misc;
+
+//----------------------------------------------------------------------
+
+
+// IMPORTS
+
+
+import java.io.File;
+import java.io.IOException;
+
+import java.lang.ref.Cleaner;
+
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import uk.blankaspect.common.exception.AppException;
+import uk.blankaspect.common.exception.FileException;
+
+//----------------------------------------------------------------------
+
+
+// CLASS: PATHNAME WALKER
+
+
+/**
+ * This class walks a directory tree on a fork/join pool of its own and streams the entries that are accepted by a {@link
+ * PathnameFilter}.
+ * <p>
+ * The entries of each directory are read with {@link Files#walkFileTree(Path, Set, int, java.nio.file.FileVisitor)
+ * Files.walkFileTree}, and the attributes that it provides for each entry are used to distinguish normal files from
+ * directories, so the filter is applied with {@link PathnameFilter#match(File)} rather than {@link
+ * PathnameFilter#accept(File)}, which tests the existence and kind of the file again.  A subdirectory is entered
+ * only if {@link PathnameFilter#canMatchDescendants(File)} returns {@code true} for it, so the parts of the tree that
+ * are outside the literal prefix of a pattern or that do not match its wildcard components are not read.  Each
+ * subdirectory is read by a separate task.
+ * </p>
+ * <p>
+ * The entries are delivered in no particular order.  If a directory cannot be read, the walk continues; the error is
+ * thrown by {@link #getFiles(File)} when the walk has finished, or by the stream that is returned by {@link
+ * #walk(File)} when the stream reaches the point at which the error occurred.
+ * </p>
+ * <p>
+ * Each walk creates a pool whose number of threads is set with {@link #setParallelism(int)}, and shuts the pool
+ * down when the walk has finished or has been cancelled.  A task that finds the queue of waiting entries full does
+ * not block indefinitely: it tests at short intervals whether the walk has been cancelled.  A walk that was started
+ * by {@link #walk(File)} is cancelled when its stream is closed or, if the stream is discarded without being closed
+ * (for example, after a short-circuiting operation such as {@link Stream#findFirst() findFirst}), when the stream
+ * becomes unreachable.
+ * </p>
+ */
+
+public class PathnameWalker
+{
+
+////////////////////////////////////////////////////////////////////////
+//  Constants
+////////////////////////////////////////////////////////////////////////
+
+	/** The maximum number of entries that may be waiting to be taken from a stream. */
+	private static final	int	QUEUE_CAPACITY	= 1 << 12;
+
+	/** The interval (in milliseconds) at which a task that is waiting to add an entry to a full queue tests whether
+		the walk has been cancelled. */
+	private static final	long	PUT_TIMEOUT	= 100;
+
+	/** The time (in seconds) after which an idle thread of the pool of a walk is terminated. */
+	private static final	long	KEEP_ALIVE_TIME	= 30;
+
+	/** The marker that follows the last entry of a walk. */
+	private static final	Object	END_OF_WALK	= new Object();
+
+////////////////////////////////////////////////////////////////////////
+//  Enumerated types
+////////////////////////////////////////////////////////////////////////
+
+
+	// ENUMERATION: ERROR IDENTIFIERS
+
+
+	private enum ErrorId
+		implements AppException.IId
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constants
+	////////////////////////////////////////////////////////////////////
+
+		NOT_A_DIRECTORY
+		("The pathname does not denote a directory."),
+
+		FAILED_TO_LIST_DIRECTORY
+		("Failed to get a list of the entries of the directory.");
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	String	message;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private ErrorId(String message)
+		{
+			this.message = message;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : AppException.IId interface
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public String getMessage()
+		{
+			return message;
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Member classes : non-inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// CLASS: UNCHECKED WALK EXCEPTION
+
+
+	/**
+	 * This class implements an unchecked exception that is thrown by the stream of a walk when a directory could not
+	 * be read.
+	 */
+
+	public static class UncheckedWalkException
+		extends RuntimeException
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private UncheckedWalkException(AppException exception)
+		{
+			super(exception);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : overriding methods
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public AppException getCause()
+		{
+			return (AppException)super.getCause();
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Member classes : inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// CLASS: WALK
+
+
+	/**
+	 * This class holds the state of a walk that is shared by the tasks that read directories and the iterator that
+	 * takes entries from the queue.  It must not refer to the iterator, so that the iterator can become unreachable
+	 * while the tasks are still running.
+	 */
+
+	private class Walk
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	ForkJoinPool			pool;
+		private	BlockingQueue<Object>	queue;
+		private	Set<Object>				directoryKeys;
+		private	volatile	boolean		cancelled;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private Walk()
+		{
+			pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, false, 0,
+									parallelism, 1, pool -> true, KEEP_ALIVE_TIME, TimeUnit.SECONDS);
+			queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+			directoryKeys = followLinks ? ConcurrentHashMap.newKeySet() : null;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		private void start(Path directory)
+		{
+			pool.execute(new RecursiveAction()
+			{
+				@Override
+				protected void compute()
+				{
+					try
+					{
+						new DirectoryTask(Walk.this, directory).invoke();
+					}
+					finally
+					{
+						put(END_OF_WALK);
+						pool.shutdown();
+					}
+				}
+			});
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Cancels this walk: stops the tasks that are reading directories, discards the entries that have not been
+		 * taken and releases a consumer that is waiting for an entry.  This method may be called more than once and
+		 * from any thread.
+		 */
+
+		private void cancel()
+		{
+			cancelled = true;
+			pool.shutdownNow();
+			queue.clear();
+			queue.offer(END_OF_WALK);
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Adds the specified item to the queue of this walk.  If the queue is full, this method waits for space in
+		 * the queue, testing at intervals of {@link #PUT_TIMEOUT} whether the walk has been cancelled.  The item is
+		 * discarded if the walk is cancelled.
+		 */
+
+		private void put(Object item)
+		{
+			try
+			{
+				while (!cancelled)
+				{
+					if (queue.offer(item, PUT_TIMEOUT, TimeUnit.MILLISECONDS))
+						break;
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CLASS: ENTRY ITERATOR
+
+
+	private static class EntryIterator
+		implements Iterator<File>
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	Walk	walk;
+		private	Object	next;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private EntryIterator(Walk walk)
+		{
+			this.walk = walk;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : Iterator interface
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public boolean hasNext()
+		{
+			// Take next item from queue
+			if (next == null)
+			{
+				try
+				{
+					next = walk.cancelled ? END_OF_WALK : walk.queue.take();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					walk.cancel();
+					next = END_OF_WALK;
+				}
+			}
+
+			// Throw any error that occurred when reading a directory
+			if (next instanceof AppException)
+			{
+				AppException exception = (AppException)next;
+				next = null;
+				throw new UncheckedWalkException(exception);
+			}
+
+			return (next != END_OF_WALK);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public File next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			File file = (File)next;
+			next = null;
+			return file;
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CLASS: DIRECTORY TASK
+
+
+	private class DirectoryTask
+		extends RecursiveAction
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	Walk	walk;
+		private	Path	directory;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private DirectoryTask(Walk walk,
+							  Path directory)
+		{
+			this.walk = walk;
+			this.directory = directory;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : overriding methods
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		protected void compute()
+		{
+			// Test whether walk has been cancelled
+			if (walk.cancelled)
+				return;
+
+			// Read entries of directory
+			List<DirectoryTask> subtasks = new ArrayList<>();
+			try
+			{
+				EnumSet<FileVisitOption> options = followLinks ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+															   : EnumSet.noneOf(FileVisitOption.class);
+				Files.walkFileTree(directory, options, 1, new SimpleFileVisitor<Path>()
+				{
+					@Override
+					public FileVisitResult visitFile(Path                path,
+													 BasicFileAttributes attrs)
+					{
+						if (walk.cancelled)
+							return FileVisitResult.TERMINATE;
+
+						File file = path.toFile();
+						if (attrs.isDirectory())
+						{
+							// Report directory
+							if (includeDirectories && ((filter == null) || filter.match(file)))
+								walk.put(file);
+
+							// Enter directory if it may contain matching entries and, if links are followed, if it has
+							// not been entered already
+							if (((filter == null) || filter.canMatchDescendants(file))
+									&& ((walk.directoryKeys == null) || (attrs.fileKey() == null)
+											|| walk.directoryKeys.add(attrs.fileKey())))
+								subtasks.add(new DirectoryTask(walk, path));
+						}
+						else if (attrs.isRegularFile() && ((filter == null) || filter.match(file)))
+							walk.put(file);
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path        path,
+														   IOException exception)
+						throws IOException
+					{
+						// Propagate a failure to read the directory; ignore an entry whose attributes could not be read
+						if (path.equals(directory))
+							throw exception;
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+			catch (IOException | SecurityException e)
+			{
+				walk.put(new FileException(ErrorId.FAILED_TO_LIST_DIRECTORY, directory.toFile(), e));
+			}
+
+			// Read subdirectories
+			invokeAll(subtasks);
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Class variables
+////////////////////////////////////////////////////////////////////////
+
+	/** The cleaner that cancels a walk whose stream has become unreachable. */
+	private static final	Cleaner	cleaner	= Cleaner.create();
+
+////////////////////////////////////////////////////////////////////////
+//  Instance variables
+////////////////////////////////////////////////////////////////////////
+
+	private	PathnameFilter	filter;
+	private	int				parallelism;
+	private	boolean			includeDirectories;
+	private	boolean			followLinks;
+
+////////////////////////////////////////////////////////////////////////
+//  Constructors
+////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Creates a walker that streams the normal files that are accepted by the specified filter, reading directories
+	 * on as many threads as there are available processors.
+	 *
+	 * @param filter  the filter that will be applied to the entries of a directory tree, or {@code null} to accept all
+	 *                entries.
+	 */
+
+	public PathnameWalker(PathnameFilter filter)
+	{
+		this.filter = filter;
+		parallelism = Runtime.getRuntime().availableProcessors();
+	}
+
+	//------------------------------------------------------------------
+
+////////////////////////////////////////////////////////////////////////
+//  Instance methods
+////////////////////////////////////////////////////////////////////////
+
+	public PathnameFilter getFilter()
+	{
+		return filter;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the maximum number of threads on which the directories of a walk are read.
+	 *
+	 * @throws IllegalArgumentException
+	 *           if {@code parallelism} is less than 1.
+	 */
+
+	public void setParallelism(int parallelism)
+	{
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism out of bounds: " + parallelism);
+
+		this.parallelism = parallelism;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets whether the directories that are accepted by the filter are included in the entries of a walk, along with
+	 * the normal files.
+	 */
+
+	public void setIncludeDirectories(boolean includeDirectories)
+	{
+		this.includeDirectories = includeDirectories;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets whether symbolic links are followed.  If they are, a directory that is reached by more than one path is
+	 * entered only once.
+	 */
+
+	public void setFollowLinks(boolean followLinks)
+	{
+		this.followLinks = followLinks;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Walks the directory tree whose root is the specified directory and returns a stream of the accepted entries.
+	 * The walk runs ahead of the stream by a bounded number of entries.  It is cancelled when the stream is closed or,
+	 * if the stream is discarded without being closed, when the stream becomes unreachable.
+	 *
+	 * @param  directory
+	 *           the root of the directory tree.
+	 * @return a stream of the entries of the directory tree that are accepted by the filter.
+	 * @throws AppException
+	 *           if {@code directory} does not denote a directory.
+	 */
+
+	public Stream<File> walk(File directory)
+		throws AppException
+	{
+		Walk walk = startWalk(directory);
+		EntryIterator iterator = new EntryIterator(walk);
+		Cleaner.Cleanable cleanable = cleaner.register(iterator, walk::cancel);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+							.onClose(cleanable::clean);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Walks the directory tree whose root is the specified directory and returns a list of the accepted entries.
+	 *
+	 * @param  directory
+	 *           the root of the directory tree.
+	 * @return a list of the entries of the directory tree that are accepted by the filter.
+	 * @throws AppException
+	 *           if {@code directory} does not denote a directory or if the entries of a directory could not be
+	 *           obtained.
+	 */
+
+	public List<File> getFiles(File directory)
+		throws AppException
+	{
+		// Collect entries, keeping the first error
+		EntryIterator iterator = new EntryIterator(startWalk(directory));
+		List<File> files = new ArrayList<>();
+		AppException exception = null;
+		while (true)
+		{
+			try
+			{
+				if (!iterator.hasNext())
+					break;
+				files.add(iterator.next());
+			}
+			catch (UncheckedWalkException e)
+			{
+				if (exception == null)
+					exception = e.getCause();
+			}
+		}
+
+		// Throw any error
+		if (exception != null)
+			throw exception;
+
+		return files;
+	}
+
+	//------------------------------------------------------------------
+
+	private Walk startWalk(File directory)
+		throws AppException
+	{
+		// Test for directory
+		if (!directory.isDirectory())
+			throw new FileException(ErrorId.NOT_A_DIRECTORY, directory);
+
+		// Start walk
+		Walk walk = new Walk();
+		walk.start(directory.toPath().normalize());
+		return walk;
+	}
+
+	//------------------------------------------------------------------
+
+}
+
+//----------------------------------------------------------------------
@@ -19,10 +19,12 @@ package uk.blankaspect.common.misc;
 
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
@@ -35,14 +37,32 @@ import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
 import java.nio.channels.FileChannel;
 
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -68,6 +88,10 @@ public class TextFile
 
 	private static final	int	BLOCK_LENGTH	= 1 << 13;  // 8192
 
+	private static final	int	MIN_SEGMENT_LENGTH			= 1 << 22;  // 4194304
+	private static final	int	MIN_PARALLEL_DECODING_LENGTH	= 2 * MIN_SEGMENT_LENGTH;
+	private static final	int	SEGMENT_BUFFER_LENGTH			= 1 << 16;  // 65536
+
 	private static final	int	URI_CONNECTION_TIMEOUT	= 30 * 1000;
 	private static final	int	URI_READ_TIMEOUT		= 30 * 1000;
 
@@ -214,22 +238,677 @@ public class TextFile
 			return (sync ? syncBuffer : nonSyncBuffer);
 		}
 
-		//--------------------------------------------------------------
+		//--------------------------------------------------------------
+
+		private int getLength()
+		{
+			return (sync ? syncBuffer.length() : nonSyncBuffer.length());
+		}
+
+		//--------------------------------------------------------------
+
+		private void append(char[] data,
+							int    length)
+		{
+			if (sync)
+				syncBuffer.append(data, 0, length);
+			else
+				nonSyncBuffer.append(data, 0, length);
+		}
+
+		//--------------------------------------------------------------
+
+		private void append(CharSequence text)
+		{
+			if (sync)
+				syncBuffer.append(text);
+			else
+				nonSyncBuffer.append(text);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	boolean			sync;
+		private	StringBuilder	nonSyncBuffer;
+		private	StringBuffer	syncBuffer;
+
+	}
+
+	//==================================================================
+
+
+	// COUNTING INPUT STREAM CLASS
+
+
+	private static class CountingInputStream
+		extends FilterInputStream
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private CountingInputStream(InputStream inStream)
+		{
+			super(inStream);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : overriding methods
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public int read()
+			throws IOException
+		{
+			int b = super.read();
+			if (b >= 0)
+				++count;
+			return b;
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public int read(byte[] buffer,
+						int    offset,
+						int    length)
+			throws IOException
+		{
+			int readLength = super.read(buffer, offset, length);
+			if (readLength > 0)
+				count += readLength;
+			return readLength;
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public long skip(long length)
+			throws IOException
+		{
+			long skipLength = super.skip(length);
+			count += skipLength;
+			return skipLength;
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	long	count;
+
+	}
+
+	//==================================================================
+
+
+	// UNCHECKED READ EXCEPTION CLASS
+
+
+	/**
+	 * This class implements an unchecked exception that wraps an {@link AppException} that was thrown when reading
+	 * lines through an {@link Iterator} or a {@link Stream} of a {@link TextReader}.
+	 */
+
+	public static class UncheckedReadException
+		extends RuntimeException
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private UncheckedReadException(AppException exception)
+		{
+			super(exception);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : overriding methods
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public AppException getCause()
+		{
+			return (AppException)super.getCause();
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+	// SEGMENTED TEXT CLASS
+
+
+	/**
+	 * This class implements a sequence of characters that is composed of segments of text that were decoded
+	 * independently.  The segments are not concatenated, so no contiguous buffer of the total length is allocated.
+	 */
+
+	public static class SegmentedText
+		implements CharSequence
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private SegmentedText(List<StringBuilder>             segments,
+							  EnumMap<LineSeparator, Integer> lineSeparatorCounts)
+		{
+			// Initialise instance variables
+			this.segments = segments.toArray(new StringBuilder[0]);
+			this.lineSeparatorCounts = lineSeparatorCounts;
+
+			// Calculate offsets of segments
+			offsets = new int[this.segments.length + 1];
+			for (int i = 0; i < this.segments.length; i++)
+				offsets[i + 1] = offsets[i] + this.segments[i].length();
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : CharSequence interface
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public int length()
+		{
+			return offsets[segments.length];
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public char charAt(int index)
+		{
+			// Validate argument
+			if ((index < 0) || (index >= length()))
+				throw new IndexOutOfBoundsException();
+
+			// Find segment; test the last segment that was accessed first to optimise sequential access
+			int i = segmentIndex;
+			if ((index < offsets[i]) || (index >= offsets[i + 1]))
+			{
+				i = Arrays.binarySearch(offsets, index);
+				if (i < 0)
+					i = -i - 2;
+				while (offsets[i + 1] == offsets[i])
+					++i;
+				segmentIndex = i;
+			}
+
+			// Return character
+			return segments[i].charAt(index - offsets[i]);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public CharSequence subSequence(int start,
+										int end)
+		{
+			// Validate arguments
+			if ((start < 0) || (end > length()) || (start > end))
+				throw new IndexOutOfBoundsException();
+
+			// Append characters from segments
+			StringBuilder buffer = new StringBuilder(end - start);
+			for (int i = 0; (i < segments.length) && (start < end); i++)
+			{
+				if (start < offsets[i + 1])
+				{
+					int segmentEnd = Math.min(end, offsets[i + 1]);
+					buffer.append(segments[i], start - offsets[i], segmentEnd - offsets[i]);
+					start = segmentEnd;
+				}
+			}
+			return buffer;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : overriding methods
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public String toString()
+		{
+			return subSequence(0, length()).toString();
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		public int getNumSegments()
+		{
+			return segments.length;
+		}
+
+		//--------------------------------------------------------------
+
+		public CharSequence getSegment(int index)
+		{
+			return segments[index];
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the counts of the line separators that were changed to LF when the text was decoded, or {@code
+		 * null} if line separators were not changed.
+		 */
+
+		public EnumMap<LineSeparator, Integer> getLineSeparatorCounts()
+		{
+			return lineSeparatorCounts;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	StringBuilder[]					segments;
+		private	int[]							offsets;
+		private	EnumMap<LineSeparator, Integer>	lineSeparatorCounts;
+		private	int								segmentIndex;
+
+	}
+
+	//==================================================================
+
+
+	// DECODED SEGMENT CLASS
+
+
+	private static class DecodedSegment
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private DecodedSegment(StringBuilder                   text,
+							   EnumMap<LineSeparator, Integer> lineSeparatorCounts)
+		{
+			this.text = text;
+			this.lineSeparatorCounts = lineSeparatorCounts;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	StringBuilder					text;
+		private	EnumMap<LineSeparator, Integer>	lineSeparatorCounts;
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Member classes : inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// TEXT READER CLASS
+
+
+	/**
+	 * This class implements a reader that streams the text of a {@link TextFile} in blocks, so that a file of any
+	 * length can be read in constant memory.  The text may be read as lines, which are terminated by any of the
+	 * line separators CR, LF and CR+LF, or as chunks of characters, or as a mixture of both.
+	 * <p>
+	 * The progress listeners of the text file are notified of the proportion of the input that has been read
+	 * after each block, and the reader throws a {@link TaskCancelledException} if a listener reports that the task
+	 * has been cancelled.
+	 * </p>
+	 */
+
+	public class TextReader
+		implements AutoCloseable
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		private TextReader(InputStream inStream,
+						   long        length,
+						   Charset     charEncoding,
+						   boolean     compressed)
+			throws AppException
+		{
+			// Initialise instance variables
+			countingStream = new CountingInputStream(inStream);
+			this.length = length;
+			buffer = new char[BLOCK_LENGTH];
+			lineBuffer = new StringBuilder(256);
+			lineSeparatorCounts = new long[LineSeparator.values().length];
+
+			// Open reader on input stream
+			try
+			{
+				reader = new InputStreamReader(compressed ? new GZIPInputStream(countingStream, BLOCK_LENGTH)
+														  : countingStream,
+											   charEncoding);
+			}
+			catch (IOException e)
+			{
+				throw createException(ErrorId.FAILED_TO_OPEN_FILE, e);
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : AutoCloseable interface
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public void close()
+			throws AppException
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (IOException e)
+				{
+					throw createException(ErrorId.FAILED_TO_CLOSE_FILE, e);
+				}
+				finally
+				{
+					reader = null;
+				}
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Reads the next line of text, excluding its line separator.
+		 *
+		 * @return the next line of text, or {@code null} if the end of the input has been reached.
+		 * @throws AppException
+		 *           if an error occurred when reading the input, or if the task was cancelled.
+		 */
+
+		public String readLine()
+			throws AppException
+		{
+			lineBuffer.setLength(0);
+			boolean started = false;
+			while (true)
+			{
+				// Fill buffer; at end of input, return any partial line
+				if ((index >= endIndex) && !fill())
+					return started ? lineBuffer.toString() : null;
+				started = true;
+
+				// Search buffer for line separator
+				int startIndex = index;
+				while (index < endIndex)
+				{
+					char ch = buffer[index];
+					if ((ch == '\n') || (ch == '\r'))
+					{
+						// Append text to line
+						lineBuffer.append(buffer, startIndex, index - startIndex);
+						++index;
+
+						// Count line separator; a CR at the end of the buffer may be followed by LF in the next block
+						LineSeparator lineSeparator = LineSeparator.LF;
+						if (ch == '\r')
+						{
+							lineSeparator = LineSeparator.CR;
+							if (((index < endIndex) || fill()) && (buffer[index] == '\n'))
+							{
+								++index;
+								lineSeparator = LineSeparator.CR_LF;
+							}
+						}
+						++lineSeparatorCounts[lineSeparator.ordinal()];
+
+						// Return line
+						return lineBuffer.toString();
+					}
+					++index;
+				}
+				lineBuffer.append(buffer, startIndex, index - startIndex);
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Reads characters into the specified buffer.  The characters are not subject to any transformation of
+		 * line separators.
+		 *
+		 * @param  charBuffer
+		 *           the buffer into which characters will be read.
+		 * @return the number of characters that were read, or -1 if the end of the input has been reached.
+		 * @throws AppException
+		 *           if an error occurred when reading the input, or if the task was cancelled.
+		 */
+
+		public int read(CharBuffer charBuffer)
+			throws AppException
+		{
+			if ((index >= endIndex) && !fill())
+				return -1;
+
+			int readLength = Math.min(charBuffer.remaining(), endIndex - index);
+			charBuffer.put(buffer, index, readLength);
+			index += readLength;
+			return readLength;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns an iterator over the remaining lines of text.  An {@link AppException} that is thrown when reading
+		 * a line is wrapped in an {@link UncheckedReadException}.
+		 *
+		 * @return an iterator over the remaining lines of text.
+		 */
+
+		public Iterator<CharSequence> lineIterator()
+		{
+			return new Iterator<>()
+			{
+				private	String	nextLine;
+
+				@Override
+				public boolean hasNext()
+				{
+					if (nextLine == null)
+					{
+						try
+						{
+							nextLine = readLine();
+						}
+						catch (AppException e)
+						{
+							throw new UncheckedReadException(e);
+						}
+					}
+					return (nextLine != null);
+				}
+
+				@Override
+				public CharSequence next()
+				{
+					if (!hasNext())
+						throw new NoSuchElementException();
+					String line = nextLine;
+					nextLine = null;
+					return line;
+				}
+			};
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns a sequential stream of the remaining lines of text.  Closing the stream closes this reader.  An
+		 * {@link AppException} that is thrown when reading a line is wrapped in an {@link UncheckedReadException}.
+		 *
+		 * @return a sequential stream of the remaining lines of text.
+		 */
+
+		public Stream<CharSequence> lines()
+		{
+			Spliterator<CharSequence> spliterator =
+					Spliterators.spliteratorUnknownSize(lineIterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+			return StreamSupport.stream(spliterator, false).onClose(() ->
+			{
+				try
+				{
+					close();
+				}
+				catch (AppException e)
+				{
+					throw new UncheckedReadException(e);
+				}
+			});
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the number of each kind of line separator that has terminated a line returned by {@link
+		 * #readLine()}.  Only kinds of line separator that have been encountered are included.
+		 *
+		 * @return a map from each kind of line separator that has been encountered to the number of times it was
+		 *         encountered.
+		 */
+
+		public EnumMap<LineSeparator, Long> getLineSeparatorCounts()
+		{
+			EnumMap<LineSeparator, Long> counts = new EnumMap<>(LineSeparator.class);
+			for (LineSeparator lineSeparator : LineSeparator.values())
+			{
+				long numSeparators = lineSeparatorCounts[lineSeparator.ordinal()];
+				if (numSeparators > 0)
+					counts.put(lineSeparator, numSeparators);
+			}
+			return counts;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the number of bytes of the input (before decompression) that have been read.
+		 *
+		 * @return the number of bytes of the input that have been read.
+		 */
+
+		public long getNumBytesRead()
+		{
+			return countingStream.count;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the number of characters that have been decoded from the input.
+		 *
+		 * @return the number of characters that have been decoded from the input.
+		 */
+
+		public long getNumCharsRead()
+		{
+			return numCharsRead;
+		}
+
+		//--------------------------------------------------------------
+
+		private boolean fill()
+			throws AppException
+		{
+			// Test whether reader is closed
+			if (reader == null)
+				throw new IllegalStateException("Reader is closed");
+
+			// Test whether task has been cancelled by a monitor
+			for (IProgressListener listener : progressListeners)
+			{
+				if (listener.isTaskCancelled())
+					throw new TaskCancelledException();
+			}
+
+			// Read block of characters
+			int readLength = 0;
+			try
+			{
+				while (readLength == 0)
+					readLength = reader.read(buffer, 0, buffer.length);
+			}
+			catch (SocketTimeoutException e)
+			{
+				throw createException(ErrorId.TIMED_OUT_READING_FROM_URI, e);
+			}
+			catch (IOException e)
+			{
+				throw createException(ErrorId.ERROR_READING_FILE, e);
+			}
+			if (readLength < 0)
+				return false;
+			index = 0;
+			endIndex = readLength;
+			numCharsRead += readLength;
+
+			// Notify monitors of progress
+			double progress = (length <= 0) ? -1.0 : Math.min((double)countingStream.count / (double)length, 1.0);
+			for (IProgressListener listener : progressListeners)
+				listener.setProgress(progress);
 
-		private int getLength()
-		{
-			return (sync ? syncBuffer.length() : nonSyncBuffer.length());
+			return true;
 		}
 
 		//--------------------------------------------------------------
 
-		private void append(char[] data,
-							int    length)
+		private AppException createException(ErrorId   id,
+											 Throwable cause)
 		{
-			if (sync)
-				syncBuffer.append(data, 0, length);
-			else
-				nonSyncBuffer.append(data, 0, length);
+			return isFile() ? new FileException(id, file, cause) : new UriException(id, uri, cause);
 		}
 
 		//--------------------------------------------------------------
@@ -238,9 +917,15 @@ public class TextFile
 	//  Instance variables
 	////////////////////////////////////////////////////////////////////
 
-		private	boolean			sync;
-		private	StringBuilder	nonSyncBuffer;
-		private	StringBuffer	syncBuffer;
+		private	CountingInputStream	countingStream;
+		private	long				length;
+		private	InputStreamReader	reader;
+		private	char[]				buffer;
+		private	int					index;
+		private	int					endIndex;
+		private	long				numCharsRead;
+		private	StringBuilder		lineBuffer;
+		private	long[]				lineSeparatorCounts;
 
 	}
 
@@ -666,6 +1351,115 @@ public class TextFile
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Reads this file by dividing it into segments at line separators and decoding the segments in parallel, and
+	 * returns the segments without concatenating them.  The file is divided into more than one segment only if its
+	 * character encoding is UTF-8, US-ASCII or ISO-8859-1, in which the bytes of CR and LF cannot be part of another
+	 * character.  Each segment is read with positional reads into a buffer of 64 KB that is reused until the segment
+	 * has been decoded; the file is not memory-mapped.
+	 *
+	 * @param  changeLineSeparators
+	 *           if {@code true}, the line separators of each segment will be changed to LF, as by {@link
+	 *           #changeLineSeparators(StringBuilder, boolean)}, and counted.
+	 * @return the text of this file as a {@link SegmentedText} whose segments are in the order in which they occur in
+	 *         the file.
+	 * @throws IllegalStateException
+	 *           if this object does not denote a file.
+	 * @throws AppException
+	 *           if the file could not be opened, locked, read or decoded, or if it is too long.
+	 */
+
+	public SegmentedText readSegmented(boolean changeLineSeparators)
+		throws AppException
+	{
+		// Test for file
+		if (!isFile())
+			throw new IllegalStateException();
+
+		// Test file length
+		if (file.length() >= Integer.MAX_VALUE)
+			throw new FileException(ErrorId.FILE_IS_TOO_LONG, file);
+
+		// Read file
+		FileInputStream inStream = null;
+		try
+		{
+			// Open input stream on file
+			FileChannel fileChannel = null;
+			try
+			{
+				inStream = new FileInputStream(file);
+				fileChannel = inStream.getChannel();
+			}
+			catch (SecurityException e)
+			{
+				throw new FileException(ErrorId.FILE_ACCESS_NOT_PERMITTED, file, e);
+			}
+			catch (FileNotFoundException e)
+			{
+				throw new FileException(ErrorId.FAILED_TO_OPEN_FILE, file, e);
+			}
+
+			// Lock file
+			try
+			{
+				if (fileChannel.tryLock(0, Long.MAX_VALUE, true) == null)
+					throw new FileException(ErrorId.FAILED_TO_LOCK_FILE, file);
+			}
+			catch (Exception e)
+			{
+				throw new FileException(ErrorId.FAILED_TO_LOCK_FILE, file, e);
+			}
+
+			// Read file and return segments
+			try
+			{
+				return readSegments(inStream, changeLineSeparators);
+			}
+			catch (AppException e)
+			{
+				throw new FileException(e, file);
+			}
+		}
+		catch (AppException e)
+		{
+			// Close input stream
+			try
+			{
+				if (inStream != null)
+					inStream.close();
+			}
+			catch (IOException e1)
+			{
+				// ignore
+			}
+
+			// Rethrow exception
+			throw e;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	public boolean isParallelDecoding()
+	{
+		return parallelDecoding;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets whether the {@code read} methods decode a large uncompressed file in parallel, as {@link
+	 * #readSegmented(boolean)} does, before concatenating the segments.
+	 */
+
+	public void setParallelDecoding(boolean parallelDecoding)
+	{
+		this.parallelDecoding = parallelDecoding;
+	}
+
+	//------------------------------------------------------------------
+
 	public List<String> readLines()
 		throws AppException
 	{
@@ -682,6 +1476,20 @@ public class TextFile
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Opens a reader that streams the text of this file in constant memory, and returns it.  Unlike the {@code
+	 * read} methods, the reader is not limited by the length of the file.  The reader should be closed when it is
+	 * no longer needed.
+	 */
+
+	public TextReader openReader()
+		throws AppException
+	{
+		return openReader(false);
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * @throws IllegalStateException
 	 * @throws AppException
@@ -767,6 +1575,14 @@ public class TextFile
 			// Read file and return buffer
 			try
 			{
+				if (!compressed && parallelDecoding && (fileLength >= MIN_PARALLEL_DECODING_LENGTH))
+				{
+					SegmentedText text = readSegments(inStream, false);
+					TextBuffer buffer = new TextBuffer(sync, text.length());
+					for (int i = 0; i < text.getNumSegments(); i++)
+						buffer.append(text.getSegment(i));
+					return buffer.getBuffer();
+				}
 				return read(inStream, charEncoding, fileLength, compressed, sync);
 			}
 			catch (AppException e)
@@ -844,6 +1660,87 @@ public class TextFile
 
 	//------------------------------------------------------------------
 
+	protected TextReader openReader(boolean compressed)
+		throws AppException
+	{
+		InputStream inStream = null;
+		try
+		{
+			// Open input stream on file
+			if (isFile())
+			{
+				FileChannel fileChannel = null;
+				try
+				{
+					FileInputStream fileInStream = new FileInputStream(file);
+					inStream = fileInStream;
+					fileChannel = fileInStream.getChannel();
+				}
+				catch (SecurityException e)
+				{
+					throw new FileException(ErrorId.FILE_ACCESS_NOT_PERMITTED, file, e);
+				}
+				catch (FileNotFoundException e)
+				{
+					throw new FileException(ErrorId.FAILED_TO_OPEN_FILE, file, e);
+				}
+
+				// Lock file
+				try
+				{
+					if (fileChannel.tryLock(0, Long.MAX_VALUE, true) == null)
+						throw new FileException(ErrorId.FAILED_TO_LOCK_FILE, file);
+				}
+				catch (Exception e)
+				{
+					throw new FileException(ErrorId.FAILED_TO_LOCK_FILE, file, e);
+				}
+
+				// Create reader
+				return new TextReader(inStream, file.length(), charEncoding, compressed);
+			}
+
+			// Open input stream on connection to object specified by URI
+			else
+			{
+				// Open connection to object specified by URI
+				URLConnection connection = openConnection();
+
+				// Get input stream for connection
+				try
+				{
+					inStream = connection.getInputStream();
+				}
+				catch (IOException e)
+				{
+					throw new UriException(ErrorId.READING_FROM_URI_NOT_SUPPORTED, uri);
+				}
+
+				// Create reader
+				return new TextReader(inStream, connection.getContentLengthLong(), getCharEncoding(connection),
+									  compressed);
+			}
+		}
+		catch (AppException e)
+		{
+			// Close input stream
+			try
+			{
+				if (inStream != null)
+					inStream.close();
+			}
+			catch (IOException e1)
+			{
+				// ignore
+			}
+
+			// Rethrow exception
+			throw e;
+		}
+	}
+
+	//------------------------------------------------------------------
+
 	protected List<String> readLinesFile(boolean compressed,
 										 int     maxNumLines)
 		throws AppException
@@ -1515,6 +2412,232 @@ public class TextFile
 
 	//------------------------------------------------------------------
 
+	private SegmentedText readSegments(FileInputStream inStream,
+									   boolean         changeLineSeparators)
+		throws AppException
+	{
+		FileChannel fileChannel = inStream.getChannel();
+		List<Future<DecodedSegment>> futures = new ArrayList<>();
+		try
+		{
+			// Divide file into segments
+			long[] bounds = getSegmentBounds(fileChannel, file.length());
+
+			// Decode segments in parallel
+			long length = bounds[bounds.length - 1];
+			for (int i = 0; i < bounds.length - 1; i++)
+			{
+				long start = bounds[i];
+				long end = bounds[i + 1];
+				futures.add(ForkJoinPool.commonPool().submit(() ->
+				{
+					// Decode segment
+					StringBuilder text = decodeSegment(fileChannel, start, end);
+
+					// Change line separators
+					EnumMap<LineSeparator, Integer> counts =
+							changeLineSeparators ? changeLineSeparators(text, true) : null;
+
+					// Return decoded segment
+					return new DecodedSegment(text, counts);
+				}));
+			}
+
+			// Wait for segments in order
+			List<StringBuilder> segments = new ArrayList<>();
+			EnumMap<LineSeparator, Integer> lineSeparatorCounts =
+					changeLineSeparators ? new EnumMap<>(LineSeparator.class) : null;
+			for (int i = 0; i < futures.size(); i++)
+			{
+				// Test whether task has been cancelled by a monitor
+				for (IProgressListener listener : progressListeners)
+				{
+					if (listener.isTaskCancelled())
+						throw new TaskCancelledException();
+				}
+
+				// Get decoded segment
+				DecodedSegment segment = futures.get(i).get();
+				segments.add(segment.text);
+				if (changeLineSeparators)
+				{
+					for (LineSeparator lineSeparator : segment.lineSeparatorCounts.keySet())
+						lineSeparatorCounts.merge(lineSeparator, segment.lineSeparatorCounts.get(lineSeparator),
+												  Integer::sum);
+				}
+
+				// Notify monitors of progress
+				double progress = (length == 0) ? 1.0 : (double)bounds[i + 1] / (double)length;
+				for (IProgressListener listener : progressListeners)
+					listener.setProgress(progress);
+			}
+
+			// Close input stream
+			try
+			{
+				inStream.close();
+			}
+			catch (IOException e)
+			{
+				throw new AppException(ErrorId.FAILED_TO_CLOSE_FILE, e);
+			}
+
+			// Return segmented text
+			return new SegmentedText(segments, lineSeparatorCounts);
+		}
+		catch (IOException e)
+		{
+			throw new AppException(ErrorId.ERROR_READING_FILE, e);
+		}
+		catch (InterruptedException e)
+		{
+			throw new TaskCancelledException();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof OutOfMemoryError)
+				throw new AppException(ErrorId.NOT_ENOUGH_MEMORY_TO_READ_FILE);
+			throw new AppException(ErrorId.ERROR_READING_FILE, e.getCause());
+		}
+		catch (OutOfMemoryError e)
+		{
+			throw new AppException(ErrorId.NOT_ENOUGH_MEMORY_TO_READ_FILE);
+		}
+		finally
+		{
+			// Cancel any outstanding segments
+			for (Future<DecodedSegment> future : futures)
+				future.cancel(false);
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Reads the bytes of the specified file channel between the specified positions and decodes them.  The bytes are
+	 * read in blocks with positional reads, so the position of the channel is not changed and several segments of the
+	 * same channel may be decoded concurrently.
+	 */
+
+	private StringBuilder decodeSegment(FileChannel fileChannel,
+										long        start,
+										long        end)
+		throws IOException
+	{
+		// Create decoder and buffers
+		CharsetDecoder decoder = charEncoding.newDecoder()
+								.onMalformedInput(CodingErrorAction.REPLACE)
+								.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer inBuffer = ByteBuffer.allocate(SEGMENT_BUFFER_LENGTH);
+		CharBuffer outBuffer = CharBuffer.allocate(SEGMENT_BUFFER_LENGTH);
+		StringBuilder text = new StringBuilder((int)Math.min((long)((end - start) * decoder.averageCharsPerByte()),
+															 Integer.MAX_VALUE - 8));
+
+		// Read and decode blocks; the bytes of an incomplete character at the end of a block are kept in the input
+		// buffer and decoded with the following block
+		long position = start;
+		boolean endOfInput = false;
+		while (!endOfInput)
+		{
+			// Read block
+			inBuffer.limit(inBuffer.position() + (int)Math.min(inBuffer.remaining(), end - position));
+			while (inBuffer.hasRemaining())
+			{
+				int readLength = fileChannel.read(inBuffer, position);
+				if (readLength < 0)
+					throw new EOFException();
+				position += readLength;
+			}
+			inBuffer.flip();
+			endOfInput = (position == end);
+
+			// Decode block
+			while (true)
+			{
+				CoderResult result = decoder.decode(inBuffer, outBuffer, endOfInput);
+				text.append(outBuffer.flip());
+				outBuffer.clear();
+				if (!result.isOverflow())
+					break;
+			}
+			inBuffer.compact();
+		}
+
+		// Flush decoder
+		while (true)
+		{
+			CoderResult result = decoder.flush(outBuffer);
+			text.append(outBuffer.flip());
+			outBuffer.clear();
+			if (!result.isOverflow())
+				break;
+		}
+
+		return text;
+	}
+
+	//------------------------------------------------------------------
+
+	private long[] getSegmentBounds(FileChannel fileChannel,
+									long        length)
+		throws IOException
+	{
+		// Determine number of segments; a file can be divided only if its encoding maps CR and LF to single bytes
+		// that cannot be part of another character
+		int numSegments = 1;
+		if (charEncoding.equals(StandardCharsets.UTF_8) || charEncoding.equals(StandardCharsets.US_ASCII)
+				|| charEncoding.equals(StandardCharsets.ISO_8859_1))
+		{
+			int maxNumSegments = 4 * ForkJoinPool.getCommonPoolParallelism();
+			numSegments = (int)Math.max(1, Math.min(length / MIN_SEGMENT_LENGTH, maxNumSegments));
+		}
+
+		// Find the end of a line after each nominal boundary; the file is divided after an LF, or after a CR that is
+		// not followed by an LF
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(0L);
+		ByteBuffer buffer = ByteBuffer.allocate(BLOCK_LENGTH);
+		long position = 0;
+		for (int i = 1; i < numSegments; i++)
+		{
+			position = Math.max(position, length * i / numSegments);
+			long bound = -1;
+			while ((bound < 0) && (position < length))
+			{
+				buffer.clear();
+				int readLength = fileChannel.read(buffer, position);
+				if (readLength <= 0)
+					break;
+				for (int j = 0; j < readLength; j++)
+				{
+					byte b = buffer.get(j);
+					if ((b == '\n') || ((b == '\r') && (j + 1 < readLength) && (buffer.get(j + 1) != '\n')))
+					{
+						bound = position + j + 1;
+						break;
+					}
+				}
+
+				// Leave a CR at the end of the block to be examined with the following byte
+				position += ((readLength > 1) && (buffer.get(readLength - 1) == '\r')) ? readLength - 1 : readLength;
+			}
+			if (bound < 0)
+				break;
+			bounds.add(bound);
+			position = bound;
+		}
+		if (bounds.get(bounds.size() - 1) < length)
+			bounds.add(length);
+
+		// Return bounds of segments
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = bounds.get(i);
+		return result;
+	}
+
+	//------------------------------------------------------------------
+
 ////////////////////////////////////////////////////////////////////////
 //  Instance variables
 ////////////////////////////////////////////////////////////////////////
@@ -1523,6 +2646,7 @@ public class TextFile
 	private	File					file;
 	private	Charset					charEncoding;
 	private	List<IProgressListener>	progressListeners;
+	private	boolean					parallelDecoding;
 
 }
 
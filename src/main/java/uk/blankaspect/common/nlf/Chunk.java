@@ -78,7 +78,11 @@ public class Chunk
 
 	/**
 	 * This interface defines the methods that must be implemented by a class that reads chunk data from a data input.
-	 * The data input is likely to be an instance of {@link RandomAccessFile}.
+	 * The kind of data input depends on the {@linkplain NlfConstants.ReadMode read mode} of the document: in {@linkplain
+	 * NlfConstants.ReadMode#RANDOM_ACCESS random-access mode}, it is the {@link RandomAccessFile} that is open on the
+	 * document; in {@linkplain NlfConstants.ReadMode#MAPPED mapped mode}, it is a sequential input over the region of
+	 * the file that contains the chunk data, which does not support seeking.  A reader should read the chunk data in
+	 * order through the {@link DataInput} interface, and must not cast the input to a more specific type.
 	 *
 	 * @since 1.0
 	 * @see   #getReader()
@@ -106,8 +110,9 @@ public class Chunk
 		//--------------------------------------------------------------
 
 		/**
-		 * Returns the data input from which the chunk data will be read.  The input is likely to be an instance of
-		 * {@link RandomAccessFile}.
+		 * Returns the data input from which the chunk data will be read.  The data input is positioned at the start of
+		 * the chunk data when the reader has been reset.  It is a sequential {@link DataInput} that should not be cast
+		 * to a more specific type, such as {@link RandomAccessFile}, or relied on for seeking.
 		 *
 		 * @return the data input from which the chunk data will be read.
 		 * @since  1.0
@@ -127,7 +132,8 @@ public class Chunk
 
 	/**
 	 * This interface defines the methods that must be implemented by a class that writes chunk data to a data output.
-	 * The data output is likely to be an instance of {@link RandomAccessFile}.
+	 * The data output is sequential and not seekable: a writer must write the chunk data in order, and must not assume
+	 * that the output is an instance of {@link RandomAccessFile} or any other class that supports random access.
 	 * <p>
 	 * The recommended way of writing a Nested-List File is with the {@link Document#write(File)} method, which writes a
 	 * document in two passes.  It uses the value that is returned by the {@link #reset(int)} method on the first pass
@@ -176,8 +182,8 @@ public class Chunk
 		//--------------------------------------------------------------
 
 		/**
-		 * Writes the chunk data to the specified data output.  The data output is likely to be an instance of {@link
-		 * RandomAccessFile}.
+		 * Writes the chunk data to the specified data output.  The data output is a sequential, non-seekable {@link
+		 * DataOutput}; it should not be cast to a more specific type, such as {@link RandomAccessFile}.
 		 *
 		 * @param  dataOutput  the data output to which the chunk data will be written.
 		 * @throws IOException
@@ -112,6 +112,7 @@ public class ChunkList
 		super(document, LIST_ID);
 		this.instanceId = instanceId;
 		chunks = new ArrayList<Chunk>();
+		indexEntry = -1;
 	}
 
 	//------------------------------------------------------------------
@@ -177,6 +178,10 @@ public class ChunkList
 	@Override
 	public void updateSize()
 	{
+		// If the chunks of the list have not been read, the size is unchanged
+		if (indexEntry >= 0)
+			return;
+
 		long size = instanceId.getFieldSize() + getNamespaceNameFieldSize();
 		for (Chunk chunk : chunks)
 		{
@@ -308,7 +313,7 @@ public class ChunkList
 
 	public boolean hasChunks()
 	{
-		return !chunks.isEmpty();
+		return !getChunks().isEmpty();
 	}
 
 	//------------------------------------------------------------------
@@ -322,7 +327,7 @@ public class ChunkList
 
 	public int getNumChunks()
 	{
-		return chunks.size();
+		return getChunks().size();
 	}
 
 	//------------------------------------------------------------------
@@ -340,7 +345,7 @@ public class ChunkList
 
 	public Chunk getChunk(int index)
 	{
-		return chunks.get(index);
+		return getChunks().get(index);
 	}
 
 	//------------------------------------------------------------------
@@ -356,7 +361,7 @@ public class ChunkList
 	public Attributes getAttributes()
 	{
 		int index = firstIndexOf(Attributes.ATTRIBUTES_ID);
-		return ((index < 0) ? null : (Attributes)chunks.get(index));
+		return ((index < 0) ? null : (Attributes)getChunks().get(index));
 	}
 
 	//------------------------------------------------------------------
@@ -526,6 +531,7 @@ public class ChunkList
 		}
 
 		// If chunk is already in list, remove it
+		List<Chunk> chunks = getChunks();
 		for (int i = 0; i < chunks.size(); i++)
 		{
 			if (chunks.get(i) == chunk)
@@ -557,7 +563,7 @@ public class ChunkList
 
 	public Chunk removeChunk(int index)
 	{
-		Chunk chunk = chunks.remove(index);
+		Chunk chunk = getChunks().remove(index);
 		chunk.setParent(null);
 		return chunk;
 	}
@@ -600,6 +606,7 @@ public class ChunkList
 	public int firstIndexOf(Id  id,
 							int startIndex)
 	{
+		List<Chunk> chunks = getChunks();
 		for (int i = Math.max(0, startIndex); i < chunks.size(); i++)
 		{
 			if (chunks.get(i).getId().equals(id))
@@ -624,7 +631,7 @@ public class ChunkList
 
 	public int lastIndexOf(Id id)
 	{
-		return lastIndexOf(id, chunks.size() - 1);
+		return lastIndexOf(id, getChunks().size() - 1);
 	}
 
 	//------------------------------------------------------------------
@@ -646,6 +653,7 @@ public class ChunkList
 	public int lastIndexOf(Id  id,
 						   int endIndex)
 	{
+		List<Chunk> chunks = getChunks();
 		for (int i = Math.min(endIndex, chunks.size() - 1); i >= 0; i--)
 		{
 			if (chunks.get(i).getId().equals(id))
@@ -672,7 +680,7 @@ public class ChunkList
 		{
 			Attributes attributes = new Attributes(getDocument());
 			attributes.setParent(this);
-			chunks.add(0, attributes);
+			getChunks().add(0, attributes);
 			return attributes;
 		}
 		return null;
@@ -740,7 +748,7 @@ public class ChunkList
 					// If chunk is list, add its chunks to queue ...
 					if (chunk.isList())
 					{
-						for (Chunk child : ((ChunkList)chunk).chunks)
+						for (Chunk child : ((ChunkList)chunk).getChunks())
 							queue.addLast(child);
 					}
 
@@ -754,6 +762,7 @@ public class ChunkList
 			case DEPTH_FIRST:
 			{
 				// Process chunk-list children
+				List<Chunk> chunks = getChunks();
 				for (Chunk chunk : chunks)
 				{
 					if (chunk.isList())
@@ -773,6 +782,104 @@ public class ChunkList
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Sets the index of the entry for this list in the chunk index of its document.  The chunks of the list will be
+	 * read from the document's file when they are first accessed.  This method is called by a document that is read
+	 * {@linkplain Document#setLazy(boolean) lazily}.
+	 *
+	 * @param index  the index of the entry for this list in the chunk index of its document.
+	 * @since 1.0
+	 */
+
+	void setIndexEntry(int index)
+	{
+		indexEntry = index;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns {@code true} if the chunks of this list or of any of its descendant lists have not yet been read from
+	 * the file of a document that was read {@linkplain Document#setLazy(boolean) lazily}.  No chunks are read by this
+	 * method.
+	 *
+	 * @return {@code true} if this list or any of its descendant lists has not been read.
+	 * @since  1.0
+	 */
+
+	boolean hasUnreadLists()
+	{
+		if (indexEntry >= 0)
+			return true;
+
+		for (Chunk chunk : chunks)
+		{
+			if (chunk.isList() && ((ChunkList)chunk).hasUnreadLists())
+				return true;
+		}
+		return false;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Adds the specified chunk to the end of this list without the validation that is performed by {@link
+	 * #appendChunk(Chunk)}.  This method is called by the parser of a document, which guarantees that the chunk is new
+	 * and belongs to the document of this list.
+	 *
+	 * @param chunk  the chunk that will be added to the end of the list.
+	 * @since 1.0
+	 */
+
+	void addChunk(Chunk chunk)
+	{
+		chunk.setParent(this);
+		chunks.add(chunk);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the chunks of this list.  If the list belongs to a document that was read lazily and its chunks have not
+	 * yet been read, they are read from the document's file into a separate list, which is published to this list only
+	 * when it is complete, so that a thread that accesses the chunks concurrently never sees a partially read list.  If
+	 * an error occurs, the list remains in its unread state, so that the chunks may be read again.
+	 *
+	 * @return the chunks of this list.
+	 * @throws NlfUncheckedException
+	 *           if the chunks of the list have not been read and an error occurs when reading them.
+	 * @since  1.0
+	 */
+
+	private List<Chunk> getChunks()
+	{
+		if (indexEntry >= 0)
+		{
+			Document document = getDocument();
+			synchronized (document)
+			{
+				if (indexEntry >= 0)
+				{
+					// Read chunks into a staging list
+					ChunkList stagingList = new ChunkList(document, instanceId);
+					document.readChunks(stagingList, indexEntry);
+
+					// Transfer chunks to this list
+					List<Chunk> newChunks = stagingList.chunks;
+					for (Chunk chunk : newChunks)
+						chunk.setParent(this);
+					chunks = newChunks;
+
+					// Publish chunks
+					indexEntry = -1;
+				}
+			}
+		}
+		return chunks;
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * Generates an XML element of the specified XML document from this list and returns the result.
 	 *
@@ -802,7 +909,7 @@ public class ChunkList
 		if (namespaceName != null)
 			element.setAttribute(XML_ATTR_NAME_XMLNS, namespaceName);
 
-		for (Chunk chunk : chunks)
+		for (Chunk chunk : getChunks())
 		{
 			if (chunk.isAttributes())
 				((Attributes)chunk).toXml(element);
@@ -822,6 +929,8 @@ public class ChunkList
 	private	String		namespaceName;
 	private	List<Chunk>	chunks;
 
+	private volatile	int	indexEntry;
+
 }
 
 //----------------------------------------------------------------------
@@ -18,17 +18,35 @@ package uk.blankaspect.common.nlf;
 // IMPORTS
 
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+import java.nio.channels.FileChannel;
+
 import java.nio.charset.StandardCharsets;
 
+import java.nio.file.StandardOpenOption;
+
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import java.util.zip.CRC32;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -113,6 +131,12 @@ public class Document
 	// Masks for flags in file header
 	private static final	int	BYTE_ORDER_MASK	= 1 << 0;
 
+	// Maximum length of a file that is memory-mapped in mapped mode
+	private static final	long	MAX_MAPPED_LENGTH	= 1 << 26;
+
+	// Length of the buffer of the input from which the chunks of lazily read lists are created
+	private static final	int	LAZY_INPUT_BUFFER_LENGTH	= 1 << 12;
+
 ////////////////////////////////////////////////////////////////////////
 //  Member classes : non-inner classes
 ////////////////////////////////////////////////////////////////////////
@@ -123,7 +147,8 @@ public class Document
 
 	/**
 	 * This class implements a pairing of a chunk and a file offset.  It is used as the element type in the list of
-	 * chunks that have requested to be rewritten on the second pass of the document writer.
+	 * chunks that have requested to be rewritten on the second pass of the document writer and in the list of chunks
+	 * whose <i>size</i> fields must be fixed up after the first pass.
 	 *
 	 * @since 1.0
 	 */
@@ -163,84 +188,1179 @@ public class Document
 
 	//==================================================================
 
-////////////////////////////////////////////////////////////////////////
-//  Member classes : inner classes
-////////////////////////////////////////////////////////////////////////
 
+	// CLASS: CHUNK DATA INPUT
 
-	// CLASS: CHUNK READER
+
+	/**
+	 * This class implements a {@linkplain DataInput data input} over a region of a Nested-List File.  The data are read
+	 * either from a {@linkplain ByteBuffer byte buffer} that is a view of the region in a memory-mapped file, or from a
+	 * buffer that is filled by positional reads from a {@linkplain FileChannel file channel}.  Because the reads are
+	 * positional, the input does not use or change the file pointer of the file, so inputs over different regions of
+	 * the same file may be used concurrently by different threads.
+	 * <p>
+	 * As required by the contract of {@code DataInput}, multi-byte values are read in big-endian byte order.
+	 * </p>
+	 *
+	 * @since 1.0
+	 */
+
+	private static class ChunkDataInput
+		implements DataInput
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constants
+	////////////////////////////////////////////////////////////////////
+
+		/** The length of the buffer of an input that reads from a file channel. */
+		private static final	int	BUFFER_LENGTH	= 1 << 16;
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	FileChannel	channel;
+		private	long		startOffset;
+		private	long		length;
+		private	ByteBuffer	buffer;
+		private	long		bufferPosition;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a new instance of a data input over the specified byte buffer.
+		 *
+		 * @param data  the buffer that contains the data, from its position to its limit.
+		 * @since 1.0
+		 */
+
+		private ChunkDataInput(ByteBuffer data)
+		{
+			buffer = data.slice().order(ByteOrder.BIG_ENDIAN);
+			length = buffer.remaining();
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Creates a new instance of a data input over the specified region of a file channel.
+		 *
+		 * @param channel       the file channel from which the data will be read.
+		 * @param startOffset   the offset to the start of the region in the file.
+		 * @param length        the length of the region.
+		 * @param bufferLength  the maximum length of the buffer through which the data will be read.
+		 * @since 1.0
+		 */
+
+		private ChunkDataInput(FileChannel channel,
+							   long        startOffset,
+							   long        length,
+							   int         bufferLength)
+		{
+			this.channel = channel;
+			this.startOffset = startOffset;
+			this.length = length;
+			buffer = ByteBuffer.allocate((int)Math.max(1, Math.min(length, bufferLength)));
+			buffer.limit(0);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : DataInput interface
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public void readFully(byte[] buffer)
+			throws IOException
+		{
+			readFully(buffer, 0, buffer.length);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void readFully(byte[] buffer,
+							  int    offset,
+							  int    length)
+			throws IOException
+		{
+			while (length > 0)
+			{
+				if (!this.buffer.hasRemaining())
+					require(1);
+				int readLength = Math.min(length, this.buffer.remaining());
+				this.buffer.get(buffer, offset, readLength);
+				offset += readLength;
+				length -= readLength;
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public int skipBytes(int n)
+			throws IOException
+		{
+			int skipLength = (int)Math.max(0, Math.min(n, length - getPosition()));
+			seek(getPosition() + skipLength);
+			return skipLength;
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public boolean readBoolean()
+			throws IOException
+		{
+			return (readByte() != 0);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public byte readByte()
+			throws IOException
+		{
+			require(1);
+			return buffer.get();
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public int readUnsignedByte()
+			throws IOException
+		{
+			return readByte() & 0xFF;
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public short readShort()
+			throws IOException
+		{
+			require(2);
+			return buffer.getShort();
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public int readUnsignedShort()
+			throws IOException
+		{
+			return readShort() & 0xFFFF;
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public char readChar()
+			throws IOException
+		{
+			require(2);
+			return buffer.getChar();
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public int readInt()
+			throws IOException
+		{
+			require(4);
+			return buffer.getInt();
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public long readLong()
+			throws IOException
+		{
+			require(8);
+			return buffer.getLong();
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public float readFloat()
+			throws IOException
+		{
+			require(4);
+			return buffer.getFloat();
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public double readDouble()
+			throws IOException
+		{
+			require(8);
+			return buffer.getDouble();
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public String readLine()
+			throws IOException
+		{
+			if (getPosition() >= length)
+				return null;
+
+			StringBuilder text = new StringBuilder();
+			while (getPosition() < length)
+			{
+				int ch = readUnsignedByte();
+				if (ch == '\n')
+					break;
+				if (ch == '\r')
+				{
+					if ((getPosition() < length) && (readUnsignedByte() != '\n'))
+						seek(getPosition() - 1);
+					break;
+				}
+				text.append((char)ch);
+			}
+			return text.toString();
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public String readUTF()
+			throws IOException
+		{
+			return DataInputStream.readUTF(this);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns the length of the region over which this input is defined.
+		 *
+		 * @return the length of the region over which this input is defined.
+		 * @since  1.0
+		 */
+
+		private long length()
+		{
+			return length;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the position of the next byte that will be read, relative to the start of the region.
+		 *
+		 * @return the position of the next byte that will be read.
+		 * @since  1.0
+		 */
+
+		private long getPosition()
+		{
+			return bufferPosition + buffer.position();
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Sets the position of the next byte that will be read, relative to the start of the region.  If the input
+		 * reads from a file channel and the position is outside the buffer, the buffer is emptied.
+		 *
+		 * @param  position  the position of the next byte that will be read.
+		 * @throws IOException
+		 *           if {@code position} is outside the region.
+		 * @since  1.0
+		 */
+
+		private void seek(long position)
+			throws IOException
+		{
+			if ((position < 0) || (position > length))
+				throw new EOFException();
+
+			if ((position >= bufferPosition) && (position <= bufferPosition + buffer.limit()))
+				buffer.position((int)(position - bufferPosition));
+			else
+			{
+				bufferPosition = position;
+				buffer.clear().limit(0);
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Ensures that the specified number of bytes are available in the buffer, refilling the buffer from the file
+		 * channel if necessary.
+		 *
+		 * @param  numBytes  the number of bytes that are required.
+		 * @throws EOFException
+		 *           if the end of the region is reached before {@code numBytes} bytes are available.
+		 * @throws IOException
+		 *           if an error occurs when reading from the file channel.
+		 * @since  1.0
+		 */
+
+		private void require(int numBytes)
+			throws IOException
+		{
+			if (buffer.remaining() < numBytes)
+			{
+				// Refill buffer from file channel
+				if (channel != null)
+				{
+					bufferPosition += buffer.position();
+					buffer.compact();
+					long endPosition = Math.min(length, bufferPosition + buffer.capacity());
+					buffer.limit((int)(endPosition - bufferPosition));
+					while (buffer.hasRemaining())
+					{
+						if (channel.read(buffer, startOffset + bufferPosition + buffer.position()) < 0)
+							break;
+					}
+					buffer.flip();
+				}
+
+				// Test for end of data
+				if (buffer.remaining() < numBytes)
+					throw new EOFException();
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CLASS: CHUNK DATA OUTPUT
 
 
 	/**
-	 * This class implements a {@linkplain Chunk.IReader reader} for a chunk, which can be used by the chunk to read its
-	 * data from the random-access file that was opened on a document.
+	 * This class implements a {@linkplain DataOutput data output} that writes to a {@linkplain FileChannel file channel}
+	 * through a buffer, starting at a specified offset in the file.  The buffer is written to the file with positional
+	 * writes when it is full and when the output is flushed, so the file position of the channel is not used.  Bytes
+	 * that have not yet been written to the file may be overwritten in the buffer.  Multibyte values are written in
+	 * big-endian order, in accordance with the contract of {@code DataOutput}.
 	 *
 	 * @since 1.0
-	 * @see   Chunk#getReader()
-	 * @see   Chunk#setReader(Chunk.IReader)
 	 */
 
-	private class ChunkReader
-		implements Chunk.IReader
+	private static class ChunkDataOutput
+		implements DataOutput
 	{
 
+	////////////////////////////////////////////////////////////////////
+	//  Constants
+	////////////////////////////////////////////////////////////////////
+
+		/** The maximum length of the buffer of an output. */
+		private static final	int	MAX_BUFFER_LENGTH	= 1 << 20;
+
 	////////////////////////////////////////////////////////////////////
 	//  Instance variables
 	////////////////////////////////////////////////////////////////////
 
-		private	long	fileOffset;
+		private	FileChannel	channel;
+		private	ByteBuffer	buffer;
+		private	long		bufferOffset;
 
 	////////////////////////////////////////////////////////////////////
 	//  Constructors
 	////////////////////////////////////////////////////////////////////
 
 		/**
-		 * Creates a new instance of a chunk reader with the specified file offset.
+		 * Creates a new instance of a data output that writes to the specified file channel, starting at the specified
+		 * offset.
 		 *
-		 * @param fileOffset  the offset to the start of the chunk data in the input file.
+		 * @param channel       the file channel to which the data will be written.
+		 * @param startOffset   the offset in the file at which the first byte will be written.
+		 * @param bufferLength  the length of the buffer, which is limited to 2<sup>20</sup> bytes.
 		 * @since 1.0
 		 */
 
-		private ChunkReader(long fileOffset)
+		private ChunkDataOutput(FileChannel channel,
+								long        startOffset,
+								long        bufferLength)
 		{
-			this.fileOffset = fileOffset;
+			this.channel = channel;
+			bufferOffset = startOffset;
+			buffer = ByteBuffer.allocate((int)Math.max(Long.BYTES, Math.min(bufferLength, MAX_BUFFER_LENGTH)));
 		}
 
 		//--------------------------------------------------------------
 
 	////////////////////////////////////////////////////////////////////
-	//  Instance methods : Chunk.IReader interface
+	//  Class methods
 	////////////////////////////////////////////////////////////////////
 
 		/**
-		 * Resets the chunk reader before any reading is performed, by seeking the start of the chunk data in the input
-		 * file.
+		 * Writes the remaining bytes of the specified buffer to the specified file channel, starting at the specified
+		 * offset in the file.
 		 *
+		 * @param  channel  the file channel to which the bytes will be written.
+		 * @param  buffer   the buffer whose remaining bytes will be written.
+		 * @param  offset   the offset in the file at which the first byte will be written.
 		 * @throws IOException
-		 *           if an I/O error occurs.
+		 *           if an error occurs when writing to the file channel.
+		 * @since  1.0
+		 */
+
+		private static void write(FileChannel channel,
+								  ByteBuffer  buffer,
+								  long        offset)
+			throws IOException
+		{
+			int startPosition = buffer.position();
+			while (buffer.hasRemaining())
+				channel.write(buffer, offset + buffer.position() - startPosition);
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : DataOutput interface
+	////////////////////////////////////////////////////////////////////
+
+		@Override
+		public void write(int b)
+			throws IOException
+		{
+			require(1);
+			buffer.put((byte)b);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void write(byte[] data)
+			throws IOException
+		{
+			write(data, 0, data.length);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void write(byte[] data,
+						  int    offset,
+						  int    length)
+			throws IOException
+		{
+			if (length > buffer.remaining())
+			{
+				flush();
+				if (length >= buffer.capacity())
+				{
+					write(channel, ByteBuffer.wrap(data, offset, length), bufferOffset);
+					bufferOffset += length;
+					return;
+				}
+			}
+			buffer.put(data, offset, length);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeBoolean(boolean value)
+			throws IOException
+		{
+			write(value ? 1 : 0);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeByte(int value)
+			throws IOException
+		{
+			write(value);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeShort(int value)
+			throws IOException
+		{
+			require(Short.BYTES);
+			buffer.putShort((short)value);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeChar(int value)
+			throws IOException
+		{
+			require(Character.BYTES);
+			buffer.putChar((char)value);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeInt(int value)
+			throws IOException
+		{
+			require(Integer.BYTES);
+			buffer.putInt(value);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeLong(long value)
+			throws IOException
+		{
+			require(Long.BYTES);
+			buffer.putLong(value);
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeFloat(float value)
+			throws IOException
+		{
+			writeInt(Float.floatToIntBits(value));
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeDouble(double value)
+			throws IOException
+		{
+			writeLong(Double.doubleToLongBits(value));
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeBytes(String str)
+			throws IOException
+		{
+			for (int i = 0; i < str.length(); i++)
+				write(str.charAt(i));
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeChars(String str)
+			throws IOException
+		{
+			for (int i = 0; i < str.length(); i++)
+				writeChar(str.charAt(i));
+		}
+
+		//--------------------------------------------------------------
+
+		@Override
+		public void writeUTF(String str)
+			throws IOException
+		{
+			ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+			new DataOutputStream(outStream).writeUTF(str);
+			write(outStream.toByteArray());
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns the offset in the file at which the next byte will be written.
+		 *
+		 * @return the offset in the file at which the next byte will be written.
+		 * @since  1.0
+		 */
+
+		private long getOffset()
+		{
+			return bufferOffset + buffer.position();
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Overwrites the specified bytes at the specified offset in the file, if the bytes are still in the buffer and
+		 * have not been written to the file.
+		 *
+		 * @param  offset  the offset in the file of the bytes that will be overwritten.
+		 * @param  data    the bytes that will replace the existing bytes.
+		 * @return {@code true} if the bytes were overwritten in the buffer; {@code false} if they have already been
+		 *         written to the file.
+		 * @since  1.0
+		 */
+
+		private boolean overwrite(long   offset,
+								  byte[] data)
+		{
+			if ((offset < bufferOffset) || (offset + data.length > getOffset()))
+				return false;
+
+			buffer.duplicate().position((int)(offset - bufferOffset)).put(data);
+			return true;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Writes the contents of the buffer to the file channel, and empties the buffer.
+		 *
+		 * @throws IOException
+		 *           if an error occurs when writing to the file channel.
+		 * @since  1.0
+		 */
+
+		private void flush()
+			throws IOException
+		{
+			buffer.flip();
+			write(channel, buffer, bufferOffset);
+			bufferOffset += buffer.limit();
+			buffer.clear();
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Ensures that there is space for the specified number of bytes in the buffer, flushing the buffer if
+		 * necessary.
+		 *
+		 * @param  numBytes  the number of bytes that are required.
+		 * @throws IOException
+		 *           if an error occurs when writing to the file channel.
+		 * @since  1.0
+		 */
+
+		private void require(int numBytes)
+			throws IOException
+		{
+			if (buffer.remaining() < numBytes)
+				flush();
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+
+	// CLASS: CHUNK INDEX
+
+
+	/**
+	 * This class implements an index of the chunks of a Nested-List File, which is created when a document is read
+	 * {@linkplain Document#setLazy(boolean) lazily}.  For each chunk, the index records the kind of chunk, the index of
+	 * its identifier in a table of the distinct identifiers of the file, the offset and size of its data, and the
+	 * indices of the first child (of a list) and of the next sibling.  The entries are stored in arrays of primitive
+	 * values in the order of the chunks in the file, so the first entry is the root list.
+	 * <p>
+	 * An index may be written to an <i>index file</i>, which is associated with its Nested-List File by the length and
+	 * the time of last modification of the file and by a CRC-32 of the first and last 4 KB of the file.  These are
+	 * cheap to test, but they do not identify the content of the file: an index file is not detected as stale if the
+	 * file is modified between its first and last 4 KB without a change to its length or time of last modification.
+	 * </p>
+	 *
+	 * @since 1.0
+	 */
+
+	private static class ChunkIndex
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Constants
+	////////////////////////////////////////////////////////////////////
+
+		/** The kind of an entry for a general chunk. */
+		private static final	byte	KIND_CHUNK		= 0;
+
+		/** The kind of an entry for a chunk list. */
+		private static final	byte	KIND_LIST		= 1;
+
+		/** The kind of an entry for an attributes chunk. */
+		private static final	byte	KIND_ATTRIBUTES	= 2;
+
+		/** The initial number of entries of an index. */
+		private static final	int		INITIAL_CAPACITY	= 256;
+
+		/** The identifier of an index file. */
+		private static final	byte[]	FILE_ID	= { (byte)0x95, 'N', 'L', 'X' };
+
+		/** The version of the format of an index file. */
+		private static final	int		VERSION	= 2;
+
+		/** The size (in bytes) of the header of an index file. */
+		private static final	int		HEADER_SIZE	= FILE_ID.length + Integer.BYTES + 2 * Long.BYTES + 3 * Integer.BYTES;
+
+		/** The number of bytes at each end of an indexed file from which the content check of the file is calculated. */
+		private static final	int		CONTENT_CHECK_LENGTH	= 1 << 12;
+
+		/** The size (in bytes) of an entry in an index file. */
+		private static final	int		ENTRY_SIZE	= 2 * Long.BYTES + 3 * Integer.BYTES + Byte.BYTES;
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	File						file;
+		private	long						fileLength;
+		private	List<Id>					ids;
+		private	Map<ByteBuffer, Integer>	idIndexMap;
+		private	int							numEntries;
+		private	byte[]						kinds;
+		private	int[]						idIndices;
+		private	long[]						dataOffsets;
+		private	long[]						sizes;
+		private	int[]						firstChildren;
+		private	int[]						nextSiblings;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a new instance of an empty index of the chunks of the specified file.
+		 *
+		 * @param file        the Nested-List File whose chunks will be indexed.
+		 * @param fileLength  the length of the file.
+		 * @param capacity    the initial number of entries of the index.
+		 * @since 1.0
+		 */
+
+		private ChunkIndex(File file,
+						   long fileLength,
+						   int  capacity)
+		{
+			this.file = file;
+			this.fileLength = fileLength;
+			ids = new ArrayList<>();
+			idIndexMap = new HashMap<>();
+			kinds = new byte[capacity];
+			idIndices = new int[capacity];
+			dataOffsets = new long[capacity];
+			sizes = new long[capacity];
+			firstChildren = new int[capacity];
+			nextSiblings = new int[capacity];
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Class methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Reads the specified index file and returns the index that it contains, provided that the index file is
+		 * associated with the specified Nested-List File and is well-formed.
+		 *
+		 * @param  file          the Nested-List File whose chunks are indexed.
+		 * @param  indexFile     the index file.
+		 * @param  fileLength    the length of the Nested-List File.
+		 * @param  lastModified  the time of last modification of the Nested-List File.
+		 * @param  contentCheck  the content check of the Nested-List File.
+		 * @return the index that was read from <b>{@code indexFile}</b>, or {@code null} if the index file does not
+		 *         exist, cannot be read, is malformed or is not associated with <b>{@code file}</b>.
+		 * @since  1.0
+		 * @see    #getContentCheck(FileChannel, long)
+		 */
+
+		private static ChunkIndex read(File file,
+									   File indexFile,
+									   long fileLength,
+									   long lastModified,
+									   int  contentCheck)
+		{
+			if (!indexFile.isFile())
+				return null;
+
+			try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ))
+			{
+				// Read index file
+				long length = channel.size();
+				if ((length < HEADER_SIZE) || (length > Integer.MAX_VALUE))
+					return null;
+				ByteBuffer buffer = ByteBuffer.allocate((int)length);
+				while (buffer.hasRemaining())
+				{
+					if (channel.read(buffer) < 0)
+						return null;
+				}
+				buffer.flip();
+
+				// Read and validate header
+				byte[] fileId = new byte[FILE_ID.length];
+				buffer.get(fileId);
+				if (!Arrays.equals(fileId, FILE_ID) || (buffer.getInt() != VERSION) || (buffer.getLong() != fileLength)
+						|| (buffer.getLong() != lastModified) || (buffer.getInt() != contentCheck))
+					return null;
+				int numIds = buffer.getInt();
+				int numEntries = buffer.getInt();
+				if ((numIds < 1) || (numEntries < 1) || ((long)numEntries * ENTRY_SIZE > buffer.remaining()))
+					return null;
+
+				// Read identifiers
+				ChunkIndex index = new ChunkIndex(file, fileLength, numEntries);
+				for (int i = 0; i < numIds; i++)
+				{
+					byte[] bytes = new byte[Id.SIZE_SIZE + (buffer.get(buffer.position()) & Id.SIZE_MASK)];
+					buffer.get(bytes);
+					index.ids.add(new Id(bytes));
+				}
+
+				// Read entries
+				index.numEntries = numEntries;
+				buffer.get(index.kinds, 0, numEntries);
+				buffer.asIntBuffer().get(index.idIndices, 0, numEntries);
+				buffer.position(buffer.position() + numEntries * Integer.BYTES);
+				buffer.asLongBuffer().get(index.dataOffsets, 0, numEntries);
+				buffer.position(buffer.position() + numEntries * Long.BYTES);
+				buffer.asLongBuffer().get(index.sizes, 0, numEntries);
+				buffer.position(buffer.position() + numEntries * Long.BYTES);
+				buffer.asIntBuffer().get(index.firstChildren, 0, numEntries);
+				buffer.position(buffer.position() + numEntries * Integer.BYTES);
+				buffer.asIntBuffer().get(index.nextSiblings, 0, numEntries);
+
+				// Return index if it is valid
+				return index.isValid() ? index : null;
+			}
+			catch (IOException | RuntimeException e)
+			{
+				return null;
+			}
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the content check of a Nested-List File, which is the CRC-32 of the first and last 4 KB of the file,
+		 * or of the whole file if it is no longer than 8 KB.  The bytes are read with positional reads, so the position
+		 * of the channel is not changed.
+		 *
+		 * @param  channel     the file channel of the Nested-List File.
+		 * @param  fileLength  the length of the Nested-List File.
+		 * @return the content check of the Nested-List File.
+		 * @throws IOException
+		 *           if an error occurs when reading the file.
+		 * @since  1.0
+		 */
+
+		private static int getContentCheck(FileChannel channel,
+										   long        fileLength)
+			throws IOException
+		{
+			// Read first and last bytes of file, and update CRC with them
+			long headEnd = Math.min(fileLength, CONTENT_CHECK_LENGTH);
+			long[] bounds = { 0, headEnd, Math.max(headEnd, fileLength - CONTENT_CHECK_LENGTH), fileLength };
+			ByteBuffer buffer = ByteBuffer.allocate((int)headEnd);
+			CRC32 crc = new CRC32();
+			for (int i = 0; i < bounds.length; i += 2)
+			{
+				buffer.clear().limit((int)(bounds[i + 1] - bounds[i]));
+				while (buffer.hasRemaining())
+				{
+					if (channel.read(buffer, bounds[i] + buffer.position()) < 0)
+						throw new EOFException();
+				}
+				crc.update(buffer.flip());
+			}
+			return (int)crc.getValue();
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Returns the index of the specified chunk identifier in the table of identifiers of this index, adding the
+		 * identifier to the table if it is not already present.
+		 *
+		 * @param  bytes  the UTF-8 encoding of the identifier.
+		 * @return the index of the identifier in the table of identifiers.
+		 * @throws IllegalArgumentException
+		 *           if <b>{@code bytes}</b> is not a valid UTF-8 sequence or does not encode a valid identifier.
+		 * @since  1.0
+		 */
+
+		private int getIdIndex(byte[] bytes)
+		{
+			ByteBuffer key = ByteBuffer.wrap(bytes);
+			Integer index = idIndexMap.get(key);
+			if (index == null)
+			{
+				index = ids.size();
+				ids.add(new Id(NlfUtils.utf8ToString(bytes)));
+				idIndexMap.put(key, index);
+			}
+			return index;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Adds an entry for a chunk with the specified properties to the end of this index, and returns the index of
+		 * the entry.
+		 *
+		 * @param  idIndex     the index of the chunk's identifier in the table of identifiers.
+		 * @param  dataOffset  the offset to the start of the chunk data in the file.
+		 * @param  size        the size of the chunk data.
+		 * @return the index of the entry that was added.
+		 * @since  1.0
+		 */
+
+		private int addEntry(int  idIndex,
+							 long dataOffset,
+							 long size)
+		{
+			// Increase capacity of arrays
+			if (numEntries == kinds.length)
+			{
+				int capacity = 2 * kinds.length;
+				kinds = Arrays.copyOf(kinds, capacity);
+				idIndices = Arrays.copyOf(idIndices, capacity);
+				dataOffsets = Arrays.copyOf(dataOffsets, capacity);
+				sizes = Arrays.copyOf(sizes, capacity);
+				firstChildren = Arrays.copyOf(firstChildren, capacity);
+				nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+			}
+
+			// Set entry
+			Id id = ids.get(idIndex);
+			int index = numEntries++;
+			kinds[index] = id.equals(ChunkList.LIST_ID)
+								? KIND_LIST
+								: id.equals(Attributes.ATTRIBUTES_ID) ? KIND_ATTRIBUTES : KIND_CHUNK;
+			idIndices[index] = idIndex;
+			dataOffsets[index] = dataOffset;
+			sizes[index] = size;
+			firstChildren[index] = -1;
+			nextSiblings[index] = -1;
+			return index;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns {@code true} if the entries of this index are consistent with each other and with the length of the
+		 * indexed file.  The children and next sibling of an entry must follow the entry, which excludes cycles.
+		 *
+		 * @return {@code true} if the entries of this index are consistent.
+		 * @since  1.0
+		 */
+
+		private boolean isValid()
+		{
+			for (int i = 0; i < numEntries; i++)
+			{
+				if ((kinds[i] < KIND_CHUNK) || (kinds[i] > KIND_ATTRIBUTES)
+						|| (idIndices[i] < 0) || (idIndices[i] >= ids.size())
+						|| (dataOffsets[i] < 0) || (sizes[i] < 0) || (sizes[i] > fileLength - dataOffsets[i])
+						|| ((firstChildren[i] >= 0) && ((kinds[i] != KIND_LIST) || (firstChildren[i] <= i)))
+						|| (firstChildren[i] < -1) || (firstChildren[i] >= numEntries)
+						|| (nextSiblings[i] < -1) || (nextSiblings[i] >= numEntries)
+						|| ((nextSiblings[i] >= 0) && (nextSiblings[i] <= i)))
+					return false;
+			}
+			return true;
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Writes this index to the specified index file.
+		 *
+		 * @param  indexFile     the file to which the index will be written.
+		 * @param  lastModified  the time of last modification of the indexed file.
+		 * @param  contentCheck  the content check of the indexed file.
+		 * @throws IOException
+		 *           if an error occurs when writing the index file, or the index is too large to be written.
+		 * @since  1.0
+		 */
+
+		private void write(File indexFile,
+						   long lastModified,
+						   int  contentCheck)
+			throws IOException
+		{
+			// Calculate length of index file
+			long length = HEADER_SIZE + (long)numEntries * ENTRY_SIZE;
+			for (Id id : ids)
+				length += id.getFieldSize();
+			if (length > Integer.MAX_VALUE)
+				throw new IOException();
+
+			// Write header
+			ByteBuffer buffer = ByteBuffer.allocate((int)length);
+			buffer.put(FILE_ID).putInt(VERSION).putLong(fileLength).putLong(lastModified).putInt(contentCheck);
+			buffer.putInt(ids.size()).putInt(numEntries);
+
+			// Write identifiers
+			for (Id id : ids)
+				buffer.put(id.getBytes());
+
+			// Write entries
+			buffer.put(kinds, 0, numEntries);
+			buffer.asIntBuffer().put(idIndices, 0, numEntries);
+			buffer.position(buffer.position() + numEntries * Integer.BYTES);
+			buffer.asLongBuffer().put(dataOffsets, 0, numEntries);
+			buffer.position(buffer.position() + numEntries * Long.BYTES);
+			buffer.asLongBuffer().put(sizes, 0, numEntries);
+			buffer.position(buffer.position() + numEntries * Long.BYTES);
+			buffer.asIntBuffer().put(firstChildren, 0, numEntries);
+			buffer.position(buffer.position() + numEntries * Integer.BYTES);
+			buffer.asIntBuffer().put(nextSiblings, 0, numEntries);
+			buffer.position(buffer.position() + numEntries * Integer.BYTES);
+			buffer.flip();
+
+			// Write buffer to index file
+			try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE,
+														StandardOpenOption.CREATE,
+														StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			}
+		}
+
+		//--------------------------------------------------------------
+
+	}
+
+	//==================================================================
+
+////////////////////////////////////////////////////////////////////////
+//  Member classes : inner classes
+////////////////////////////////////////////////////////////////////////
+
+
+	// CLASS: CHUNK READER
+
+
+	/**
+	 * This class implements a {@linkplain Chunk.IReader reader} for a chunk, which can be used by the chunk to read its
+	 * data from the random-access file that was opened on a document.  If the document was read in {@linkplain
+	 * NlfConstants.ReadMode#MAPPED mapped mode}, the data are read from a {@linkplain ChunkDataInput data input} over the
+	 * chunk's region of the file, which is created when the reader is reset, so that the data of different chunks may be
+	 * read concurrently.
+	 *
+	 * @since 1.0
+	 * @see   Chunk#getReader()
+	 * @see   Chunk#setReader(Chunk.IReader)
+	 */
+
+	private class ChunkReader
+		implements Chunk.IReader
+	{
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance variables
+	////////////////////////////////////////////////////////////////////
+
+		private	long			fileOffset;
+		private	long			size;
+		private	ChunkDataInput	dataInput;
+
+	////////////////////////////////////////////////////////////////////
+	//  Constructors
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Creates a new instance of a chunk reader with the specified file offset and size.
+		 *
+		 * @param fileOffset  the offset to the start of the chunk data in the input file.
+		 * @param size        the size of the chunk data.
+		 * @since 1.0
+		 */
+
+		private ChunkReader(long fileOffset,
+							long size)
+		{
+			this.fileOffset = fileOffset;
+			this.size = size;
+		}
+
+		//--------------------------------------------------------------
+
+	////////////////////////////////////////////////////////////////////
+	//  Instance methods : Chunk.IReader interface
+	////////////////////////////////////////////////////////////////////
+
+		/**
+		 * Resets the chunk reader before any reading is performed, by seeking the start of the chunk data in the input
+		 * file or, in mapped mode, by creating a data input that is positioned at the start of the chunk data.
+		 *
+		 * @throws IOException
+		 *           if an I/O error occurs.
+		 * @since  1.0
+		 */
+
+		@Override
+		public void reset()
+			throws IOException
+		{
+			if (readMode == NlfConstants.ReadMode.MAPPED)
+				dataInput = createChunkDataInput(fileOffset, size);
+			else
+				raFile.seek(fileOffset);
+		}
+
+		//--------------------------------------------------------------
+
+		/**
+		 * Returns the data input from which the chunk data is read: the {@linkplain RandomAccessFile random-access
+		 * file} or, in mapped mode, a data input over the chunk's region of the file.
+		 *
+		 * @return the data input from which the chunk data will be read.
 		 * @since  1.0
 		 */
 
 		@Override
-		public void reset()
-			throws IOException
+		public DataInput getDataInput()
 		{
-			raFile.seek(fileOffset);
+			if (readMode != NlfConstants.ReadMode.MAPPED)
+				return raFile;
+
+			if (dataInput == null)
+				dataInput = createChunkDataInput(fileOffset, size);
+			return dataInput;
 		}
 
 		//--------------------------------------------------------------
 
 		/**
-		 * Returns the {@linkplain RandomAccessFile random-access file} from which the chunk data is read.
+		 * Returns the document to which this chunk reader belongs.
 		 *
-		 * @return the random-access file from which the chunk data will be read.
+		 * @return the document to which this chunk reader belongs.
 		 * @since  1.0
 		 */
 
-		@Override
-		public DataInput getDataInput()
+		private Document getDocument()
 		{
-			return raFile;
+			return Document.this;
 		}
 
 		//--------------------------------------------------------------
@@ -253,10 +1373,19 @@ public class Document
 //  Instance variables
 ////////////////////////////////////////////////////////////////////////
 
-	private	RandomAccessFile	raFile;
-	private	ChunkList			rootList;
-	private	boolean				littleEndian;
-	private	List<ChunkOffset>	rewrites;
+	private	RandomAccessFile		raFile;
+	private	NlfConstants.ReadMode	readMode;
+	private	MappedByteBuffer		mappedBuffer;
+	private	ChunkDataInput			input;
+	private	ChunkDataInput			lazyInput;
+	private	boolean					lazy;
+	private	File					indexFile;
+	private	ChunkIndex				chunkIndex;
+	private	ChunkList				rootList;
+	private	boolean					littleEndian;
+	private	ChunkDataOutput			output;
+	private	List<ChunkOffset>		rewrites;
+	private	List<ChunkOffset>		sizeFixUps;
 
 ////////////////////////////////////////////////////////////////////////
 //  Constructors
@@ -274,6 +1403,7 @@ public class Document
 	{
 		this.littleEndian = littleEndian;
 		rewrites = new ArrayList<>();
+		sizeFixUps = new ArrayList<>();
 	}
 
 	//------------------------------------------------------------------
@@ -312,6 +1442,85 @@ public class Document
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Returns {@code true} if this document reads the chunks of a file lazily.
+	 *
+	 * @return {@code true} if this document reads the chunks of a file lazily; {@code false} otherwise.
+	 * @since  1.0
+	 * @see    #setLazy(boolean)
+	 */
+
+	public boolean isLazy()
+	{
+		return lazy;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the index file that is used when this document reads the chunks of a file lazily.
+	 *
+	 * @return the index file that is used when this document reads the chunks of a file lazily, or {@code null} if
+	 *         there is no index file.
+	 * @since  1.0
+	 * @see    #setIndexFile(File)
+	 */
+
+	public File getIndexFile()
+	{
+		return indexFile;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the flag that determines whether this document reads the chunks of a file lazily.  The flag applies to
+	 * subsequent calls to {@link #read(File)} and {@link #read(File, NlfConstants.ReadMode)}.
+	 * <p>
+	 * When a file is read lazily, the first pass over the file creates only a compact index of the chunks, which
+	 * records the offset, size and identifier of each chunk in arrays of primitive values.  The chunks of a list are
+	 * created from the index when they are first accessed (for example, by {@link ChunkList#getChunk(int)} or by
+	 * {@link #processChunks(NlfConstants.TraversalOrder, Chunk.IProcessor)}), so the chunks of a list must be accessed
+	 * before the document is closed.  If an error occurs when the chunks of a list are read, an {@link
+	 * NlfUncheckedException} is thrown.
+	 * </p>
+	 *
+	 * @param lazy  if {@code true}, this document will read the chunks of a file lazily; if {@code false}, it will
+	 *              create all the chunks of a file when the file is read.
+	 * @since 1.0
+	 * @see   #isLazy()
+	 * @see   #setIndexFile(File)
+	 */
+
+	public void setLazy(boolean lazy)
+	{
+		this.lazy = lazy;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Sets the index file that is used when this document reads the chunks of a file lazily.  When a file is read
+	 * lazily, the index of its chunks is read from the index file if the index file was written for the current length
+	 * and time of last modification of the file and for the current content of its first and last 4 KB, which avoids a
+	 * pass over the chunks of the file.  A modification of the file that changes none of these is not detected, so an
+	 * index file should be deleted if its file may have been modified in that way.  Otherwise, the index
+	 * is created from the file and written to the index file; if the index file cannot be written, the error is
+	 * ignored.
+	 *
+	 * @param indexFile  the index file, which may be {@code null}.
+	 * @since 1.0
+	 * @see   #getIndexFile()
+	 * @see   #setLazy(boolean)
+	 */
+
+	public void setIndexFile(File indexFile)
+	{
+		this.indexFile = indexFile;
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * Creates a general {@linkplain Chunk chunk} with the specified identifier.  The chunk will belong to this document
 	 * and mau be added only to a list that belongs to this document.
@@ -404,11 +1613,60 @@ public class Document
 	 * @throws NlfUncheckedException
 	 *           FILE_IS_OPEN_ON_DOCUMENT: if a random-access file is already open on this document.
 	 * @since  1.0
+	 * @see    #read(File, NlfConstants.ReadMode)
 	 */
 
 	public void read(File file)
 		throws NlfException, NlfUncheckedException
 	{
+		read(file, NlfConstants.ReadMode.RANDOM_ACCESS);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Reads the specified file and parses it to create a list tree for this document, as {@link #read(File)} does,
+	 * with the specified mode of access to the chunk data.  In either mode, the chunk headers are parsed with
+	 * positional reads through a buffer rather than with a system call for each field.
+	 * <p>
+	 * In {@linkplain NlfConstants.ReadMode#MAPPED mapped mode}, the file is memory-mapped, and the {@linkplain
+	 * Chunk.IReader reader} of each chunk provides a data input over its own view of the chunk's region of the mapping,
+	 * so independent chunks can be read concurrently by different threads.  The view of a chunk's region is also
+	 * available as a byte buffer from {@link #getChunkBuffer(Chunk)}.  Only a file of up to 64 MB is mapped; a larger
+	 * file is read in {@linkplain NlfConstants.ReadMode#RANDOM_ACCESS random-access mode}, as if that mode had been
+	 * specified.
+	 * </p>
+	 * <p>
+	 * A mapping is not released when the document is {@linkplain #close() closed}: it remains in place until the views
+	 * of it, including the buffers that were returned by {@link #getChunkBuffer(Chunk)} and the data inputs of chunk
+	 * readers, have become unreachable and been garbage-collected.  Until then, the views can still be read, and some
+	 * platforms do not allow the file to be deleted or truncated.
+	 * </p>
+	 *
+	 * @param  file      the file that will be read.
+	 * @param  readMode  the mode of access to the chunk data.
+	 * @throws IllegalArgumentException
+	 *           if <b>{@code readMode}</b> is {@code null}.
+	 * @throws NlfException
+	 *           if
+	 *           <ul>
+	 *             <li>the specified file cannot be opened, accessed or locked, or</li>
+	 *             <li>an error occurs when reading the file, or</li>
+	 *             <li>the file is malformed or otherwise invalid.</li>
+	 *           </ul>
+	 * @throws NlfUncheckedException
+	 *           FILE_IS_OPEN_ON_DOCUMENT: if a random-access file is already open on this document.
+	 * @since  1.0
+	 */
+
+	public void read(File                  file,
+					 NlfConstants.ReadMode readMode)
+		throws NlfException, NlfUncheckedException
+	{
+		// Validate arguments
+		if (readMode == null)
+			throw new IllegalArgumentException();
+
 		// Test whether a file is already open
 		if (raFile != null)
 			throw new NlfUncheckedException(ExceptionId.FILE_IS_OPEN_ON_DOCUMENT);
@@ -444,12 +1702,26 @@ public class Document
 			// Read and parse file
 			try
 			{
+				// Map file; a file that is too large to be mapped is read in random-access mode
+				long length = raFile.length();
+				if ((readMode == NlfConstants.ReadMode.MAPPED) && (length > MAX_MAPPED_LENGTH))
+					readMode = NlfConstants.ReadMode.RANDOM_ACCESS;
+				this.readMode = readMode;
+				if (readMode == NlfConstants.ReadMode.MAPPED)
+					mappedBuffer = raFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+				// Parse file
+				input = createChunkDataInput(0, raFile.length());
 				parse(file);
 			}
 			catch (IOException e)
 			{
 				throw new NlfException(ExceptionId.ERROR_READING_FILE, file, e);
 			}
+			finally
+			{
+				input = null;
+			}
 		}
 		catch (NlfException e)
 		{
@@ -491,6 +1763,7 @@ public class Document
 	 * @throws NlfException
 	 *           if
 	 *           <ul>
+	 *             <li>the document was read lazily and the chunks of one of its lists have not been read, or</li>
 	 *             <li>a temporary file cannot be opened, accessed, locked or closed, or</li>
 	 *             <li>an error occurs when writing the file, or</li>
 	 *             <li>an existing file with the same pathname as the specified file cannot be deleted, or</li>
@@ -508,6 +1781,10 @@ public class Document
 		if (raFile != null)
 			throw new NlfUncheckedException(ExceptionId.FILE_IS_OPEN_ON_DOCUMENT);
 
+		// Test for lists that were read lazily and whose chunks cannot be read because the file has been closed
+		if ((rootList != null) && rootList.hasUnreadLists())
+			throw new NlfException(ExceptionId.LISTS_NOT_READ);
+
 		// Write file
 		File tempFile = null;
 		boolean oldFileDeleted = false;
@@ -553,12 +1830,23 @@ public class Document
 			try
 			{
 				// Write file header
+				output = new ChunkDataOutput(raFile.getChannel(), 0, ChunkDataOutput.MAX_BUFFER_LENGTH);
 				writeHeader();
 
 				// Write root list
 				rewrites.clear();
+				sizeFixUps.clear();
 				if (rootList != null)
 					writeList(rootList);
+				output.flush();
+
+				// Fix up sizes of chunks whose headers have been written to the file
+				sizeFixUps.sort(Comparator.comparingLong(fixUp -> fixUp.offset));
+				for (ChunkOffset fixUp : sizeFixUps)
+				{
+					ChunkDataOutput.write(raFile.getChannel(),
+										  ByteBuffer.wrap(fixUp.chunk.getSizeBytes(littleEndian)), fixUp.offset);
+				}
 
 				// Rewrite chunks
 				for (ChunkOffset rewrite : rewrites)
@@ -568,6 +1856,12 @@ public class Document
 			{
 				throw new NlfException(ExceptionId.ERROR_WRITING_FILE, file, e);
 			}
+			finally
+			{
+				output = null;
+				rewrites.clear();
+				sizeFixUps.clear();
+			}
 
 			// Close file
 			try
@@ -603,7 +1897,7 @@ public class Document
 				throw new NlfException(ExceptionId.FAILED_TO_RENAME_FILE, tempFile, e);
 			}
 		}
-		catch (NlfException e)
+		catch (NlfException | NlfUncheckedException e)
 		{
 			// Close file
 			closeIgnoreException();
@@ -627,7 +1921,8 @@ public class Document
 	//------------------------------------------------------------------
 
 	/**
-	 * Closes a random-access file that is open on this document.
+	 * Closes a random-access file that is open on this document.  If the file was memory-mapped, the mapping remains
+	 * in place until the views of it have been garbage-collected; see {@link #read(File, NlfConstants.ReadMode)}.
 	 *
 	 * @throws IOException
 	 *           if an error occurs when closing the file.
@@ -642,6 +1937,9 @@ public class Document
 		{
 			RandomAccessFile tempRaFile = raFile;
 			raFile = null;
+			mappedBuffer = null;
+			chunkIndex = null;
+			lazyInput = null;
 			tempRaFile.close();
 		}
 	}
@@ -669,7 +1967,43 @@ public class Document
 				// ignore
 			}
 			raFile = null;
+			mappedBuffer = null;
+			chunkIndex = null;
+			lazyInput = null;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns a read-only view of the data of the specified chunk in the memory-mapped file of this document.  The
+	 * byte order of the view is the byte order of this document.  The view is independent of the chunk's reader and of
+	 * the views that are returned by other calls to this method.
+	 * <p>
+	 * The view is not invalidated when this document is {@linkplain #close() closed}, and it keeps the whole mapping
+	 * of the file in place for as long as it is reachable.  A caller that needs the data for longer than the document is
+	 * open should copy them and discard the view.
+	 * </p>
+	 *
+	 * @param  chunk  the chunk whose data are required.
+	 * @return a read-only view of the data of <b>{@code chunk}</b>, or {@code null} if this document was not read in
+	 *         {@linkplain NlfConstants.ReadMode#MAPPED mapped mode}, or its file was larger than 64 MB, or has been
+	 *         closed, or the data of the chunk are not read by the default reader of this document.
+	 * @since  1.0
+	 * @see    #read(File, NlfConstants.ReadMode)
+	 */
+
+	public ByteBuffer getChunkBuffer(Chunk chunk)
+	{
+		ByteBuffer buffer = null;
+		if ((mappedBuffer != null) && (chunk.getReader() instanceof ChunkReader))
+		{
+			ChunkReader reader = (ChunkReader)chunk.getReader();
+			if (reader.getDocument() == this)
+				buffer = sliceMappedBuffer(reader.fileOffset, reader.size).asReadOnlyBuffer()
+										.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
 		}
+		return buffer;
 	}
 
 	//------------------------------------------------------------------
@@ -754,6 +2088,65 @@ public class Document
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Creates and returns a data input over the specified region of the file that is open on this document.  If the
+	 * file is memory-mapped, the data input reads from a view of the region of the mapping; otherwise, it reads the
+	 * region through a buffer that is filled by positional reads from the file's channel.
+	 *
+	 * @param  offset  the offset to the start of the region in the file.
+	 * @param  length  the length of the region.
+	 * @return a data input over the specified region of the file.
+	 * @since  1.0
+	 */
+
+	private ChunkDataInput createChunkDataInput(long offset,
+												long length)
+	{
+		return createChunkDataInput(offset, length, ChunkDataInput.BUFFER_LENGTH);
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Creates and returns a data input over the specified region of the file that is open on this document, as {@link
+	 * #createChunkDataInput(long, long)} does, with the specified maximum length of the buffer through which a file
+	 * that is not memory-mapped is read.
+	 *
+	 * @param  offset        the offset to the start of the region in the file.
+	 * @param  length        the length of the region.
+	 * @param  bufferLength  the maximum length of the buffer through which the region will be read.
+	 * @return a data input over the specified region of the file.
+	 * @since  1.0
+	 */
+
+	private ChunkDataInput createChunkDataInput(long offset,
+												long length,
+												int  bufferLength)
+	{
+		return (mappedBuffer == null) ? new ChunkDataInput(raFile.getChannel(), offset, length, bufferLength)
+									  : new ChunkDataInput(sliceMappedBuffer(offset, length));
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns a view of the specified region of the memory-mapped file.  The view is made from a duplicate of the
+	 * mapped buffer, whose position and limit are never changed, so views may be made concurrently.
+	 *
+	 * @param  offset  the offset to the start of the region in the file.
+	 * @param  length  the length of the region.
+	 * @return a view of the specified region of the memory-mapped file.
+	 * @since  1.0
+	 */
+
+	private ByteBuffer sliceMappedBuffer(long offset,
+										 long length)
+	{
+		return mappedBuffer.duplicate().position((int)offset).limit((int)(offset + length)).slice();
+	}
+
+	//------------------------------------------------------------------
+
 	/**
 	 * Parses a Nested-List File document, constructing the list tree for the document.
 	 *
@@ -769,18 +2162,18 @@ public class Document
 		throws IOException, NlfException
 	{
 		// Test for file header
-		if (raFile.length() < HEADER_SIZE)
+		if (input.length() < HEADER_SIZE)
 			throw new NlfException(ExceptionId.NOT_A_NESTED_LIST_FILE, file);
 
 		// Read and validate file identifier
 		byte[] buffer = new byte[FILE_ID_SIZE];
-		raFile.readFully(buffer);
+		input.readFully(buffer);
 		if (!Arrays.equals(buffer, FILE_ID))
 			throw new NlfException(ExceptionId.NOT_A_NESTED_LIST_FILE, file);
 
 		// Read and validate file version
 		buffer = new byte[VERSION_SIZE];
-		raFile.readFully(buffer);
+		input.readFully(buffer);
 		try
 		{
 			int version = Integer.parseInt(new String(buffer, StandardCharsets.US_ASCII));
@@ -793,17 +2186,52 @@ public class Document
 		}
 
 		// Read flags
-		int flags = raFile.readByte() & 0xFF;
+		int flags = input.readByte() & 0xFF;
 		littleEndian = ((flags & BYTE_ORDER_MASK) != 0);
 
 		// Skip reserved bytes
-		raFile.skipBytes(RESERVED_SIZE);
+		input.skipBytes(RESERVED_SIZE);
 
 		// Read root list
-		Chunk chunk = parseChunk(file, null);
-		if (!chunk.isList())
-			throw new NlfException(ExceptionId.NO_ROOT_LIST, file);
-		rootList = (ChunkList)chunk;
+		if (lazy)
+		{
+			// Read index of chunks from index file, or create index from file
+			long lastModified = file.lastModified();
+			int contentCheck = (indexFile == null) ? 0 : ChunkIndex.getContentCheck(raFile.getChannel(), input.length());
+			chunkIndex = (indexFile == null)
+								? null
+								: ChunkIndex.read(file, indexFile, input.length(), lastModified, contentCheck);
+			if (chunkIndex == null)
+			{
+				chunkIndex = new ChunkIndex(file, input.length(), ChunkIndex.INITIAL_CAPACITY);
+				indexChunk(file, chunkIndex);
+				if (indexFile != null)
+				{
+					try
+					{
+						chunkIndex.write(indexFile, lastModified, contentCheck);
+					}
+					catch (IOException e)
+					{
+						indexFile.delete();
+					}
+				}
+			}
+			if (chunkIndex.kinds[0] != ChunkIndex.KIND_LIST)
+				throw new NlfException(ExceptionId.NO_ROOT_LIST, file);
+
+			// Parse header of root list
+			input.seek(chunkIndex.dataOffsets[0]);
+			rootList = parseListHeader(file, null, chunkIndex.sizes[0]);
+			rootList.setIndexEntry(0);
+		}
+		else
+		{
+			Chunk chunk = parseChunk(file, null);
+			if (!chunk.isList())
+				throw new NlfException(ExceptionId.NO_ROOT_LIST, file);
+			rootList = (ChunkList)chunk;
+		}
 	}
 
 	//------------------------------------------------------------------
@@ -831,20 +2259,20 @@ public class Document
 		throws IOException, NlfException
 	{
 		// Get file offset and length
-		long offset = raFile.getFilePointer();
-		long fileLength = raFile.length();
+		long offset = input.getPosition();
+		long fileLength = input.length();
 
 		// Read size of chunk ID
 		if (fileLength - offset < Id.SIZE_SIZE)
 			throw new NlfException(ExceptionId.MALFORMED_FILE, file, offset);
-		int idSize = raFile.readByte() & Id.SIZE_MASK;
+		int idSize = input.readByte() & Id.SIZE_MASK;
 		if ((idSize < Id.MIN_SIZE) || (idSize > Id.MAX_SIZE) ||
 			 (idSize > fileLength - (offset + Id.SIZE_SIZE)))
 			throw new NlfException(ExceptionId.INVALID_CHUNK_ID, file, offset);
 
 		// Read and validate chunk ID
 		byte[] buffer = new byte[idSize];
-		raFile.readFully(buffer);
+		input.readFully(buffer);
 		Id id = null;
 		try
 		{
@@ -860,7 +2288,7 @@ public class Document
 		if (fileLength - offset < Chunk.SIZE_SIZE)
 			throw new NlfException(ExceptionId.MALFORMED_FILE, file, offset);
 		buffer = new byte[Chunk.SIZE_SIZE];
-		raFile.readFully(buffer);
+		input.readFully(buffer);
 		long size = Utils.bytesToLong(buffer, 0, buffer.length, littleEndian);
 		if (size < 0)
 			throw new NlfException(ExceptionId.CHUNK_SIZE_OUT_OF_BOUNDS, file, offset);
@@ -881,9 +2309,9 @@ public class Document
 		// Create chunk, initialise it, add it to parent list and return it
 		Chunk chunk = new Chunk(this, id);
 		chunk.setSize(size);
-		chunk.setReader(new ChunkReader(offset));
-		chunk.setParent(parent);
-		parent.appendChunk(chunk);
+		chunk.setReader(new ChunkReader(offset, size));
+		if (parent != null)
+			parent.addChunk(chunk);
 		return chunk;
 	}
 
@@ -913,14 +2341,14 @@ public class Document
 		throws IOException, NlfException
 	{
 		// Get file offset and end offset
-		long offset = raFile.getFilePointer();
+		long offset = input.getPosition();
 		long endOffset = offset + size;
 
 		// Create and initialise attributes chunk
 		Attributes attributes = parent.createAttributes();
 		if (attributes == null)
 			throw new NlfException(ExceptionId.MULTIPLE_ATTRIBUTES_CHUNKS, file, offset);
-		attributes.setReader(new ChunkReader(offset));
+		attributes.setReader(new ChunkReader(offset, size));
 
 		// Parse attributes
 		while (offset < endOffset)
@@ -929,7 +2357,7 @@ public class Document
 			if (endOffset - offset < Attributes.NAME_SIZE_SIZE)
 				throw new NlfException(ExceptionId.MALFORMED_ATTRIBUTES_CHUNK, file, offset);
 			byte[] buffer = new byte[Attributes.NAME_SIZE_SIZE];
-			raFile.readFully(buffer);
+			input.readFully(buffer);
 			int nameSize = Utils.bytesToInt(buffer, 0, buffer.length, littleEndian) & Attributes.NAME_SIZE_MASK;
 			if ((nameSize < Attributes.MIN_NAME_SIZE) || (nameSize > Attributes.MAX_NAME_SIZE) ||
 				 (nameSize > endOffset - (offset + Attributes.NAME_SIZE_SIZE)))
@@ -938,7 +2366,7 @@ public class Document
 			// Read name
 			String name = null;
 			buffer = new byte[nameSize];
-			raFile.readFully(buffer);
+			input.readFully(buffer);
 			try
 			{
 				name = NlfUtils.utf8ToString(buffer);
@@ -959,7 +2387,7 @@ public class Document
 			if (endOffset - offset < Attributes.VALUE_SIZE_SIZE)
 				throw new NlfException(ExceptionId.MALFORMED_ATTRIBUTES_CHUNK, file, offset);
 			buffer = new byte[Attributes.VALUE_SIZE_SIZE];
-			raFile.readFully(buffer);
+			input.readFully(buffer);
 			int valueSize = Utils.bytesToInt(buffer, 0, buffer.length, littleEndian) & Attributes.VALUE_SIZE_MASK;
 			if ((valueSize < Attributes.MIN_VALUE_SIZE) || (valueSize > Attributes.MAX_VALUE_SIZE)
 				|| (valueSize > endOffset - (offset + Attributes.VALUE_SIZE_SIZE)))
@@ -968,7 +2396,7 @@ public class Document
 			// Read value
 			String value = null;
 			buffer = new byte[valueSize];
-			raFile.readFully(buffer);
+			input.readFully(buffer);
 			try
 			{
 				value = NlfUtils.utf8ToString(buffer);
@@ -994,8 +2422,9 @@ public class Document
 	/**
 	 * Parses a chunk list in the specified file.  This method is called by {@link #parseChunk(File, ChunkList)} when it
 	 * finds that the chunk that it is parsing is a list.  A {@link ChunkList} object is created, initialised and added
-	 * to the specified parent list, then the list's child chunks are parsed recursively with {@link #parseChunk(File,
-	 * ChunkList)}.  This method returns the {@code ChunkList} object that was created.
+	 * to the specified parent list with {@link #parseListHeader(File, ChunkList, long)}, then the list's child chunks
+	 * are parsed recursively with {@link #parseChunk(File, ChunkList)}.  This method returns the {@code ChunkList}
+	 * object that was created.
 	 *
 	 * @param  file    the file that will be parsed.
 	 * @param  parent  the list that will be the parent of the list that is created.
@@ -1013,21 +2442,64 @@ public class Document
 								ChunkList parent,
 								long      size)
 		throws IOException, NlfException
+	{
+		// Get end offset
+		long endOffset = input.getPosition() + size;
+
+		// Parse list header
+		ChunkList list = parseListHeader(file, parent, size);
+
+		// Parse child chunks
+		long offset = input.getPosition();
+		while (offset < endOffset)
+		{
+			Chunk chunk = parseChunk(file, list);
+			offset += chunk.getHeaderSize() + chunk.getSize();
+			input.seek(offset);
+		}
+
+		// Return list
+		return list;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Parses the list-header extension of a chunk list in the specified file.  A {@link ChunkList} object is created,
+	 * initialised and added to the specified parent list.  This method returns the {@code ChunkList} object that was
+	 * created; the child chunks of the list are not parsed.
+	 *
+	 * @param  file    the file that will be parsed.
+	 * @param  parent  the list that will be the parent of the list that is created.
+	 * @param  size    the size of the list.
+	 * @return the list that was created.
+	 * @throws IOException
+	 *           if an error occurs when parsing the list-header extension.
+	 * @throws NlfException
+	 *           if the file is malformed or otherwise invalid.
+	 * @since  1.0
+	 * @see    #parseList(File, ChunkList, long)
+	 */
+
+	private ChunkList parseListHeader(File      file,
+									  ChunkList parent,
+									  long      size)
+		throws IOException, NlfException
 	{
 		// Get file offset and end offset
-		long offset = raFile.getFilePointer();
+		long offset = input.getPosition();
 		long endOffset = offset + size;
 
 		// Read size of list-instance identifier
 		if (endOffset - offset < Id.SIZE_SIZE)
 			throw new NlfException(ExceptionId.MALFORMED_FILE, file, offset);
-		int idSize = raFile.readByte() & Id.SIZE_MASK;
+		int idSize = input.readByte() & Id.SIZE_MASK;
 		if ((idSize < Id.MIN_SIZE) || (idSize > Id.MAX_SIZE) || (idSize > endOffset - (offset + Id.SIZE_SIZE)))
 			throw new NlfException(ExceptionId.INVALID_LIST_INSTANCE_ID, file, offset);
 
 		// Read and validate list-instance identifier
 		byte[] buffer = new byte[idSize];
-		raFile.readFully(buffer);
+		input.readFully(buffer);
 		Id instanceId = null;
 		try
 		{
@@ -1043,7 +2515,7 @@ public class Document
 		if (endOffset - offset < ChunkList.NAMESPACE_NAME_SIZE_SIZE)
 			throw new NlfException(ExceptionId.MALFORMED_FILE, file, offset);
 		buffer = new byte[ChunkList.NAMESPACE_NAME_SIZE_SIZE];
-		raFile.readFully(buffer);
+		input.readFully(buffer);
 		int nsNameSize = Utils.bytesToInt(buffer, 0, buffer.length, littleEndian) & ChunkList.NAMESPACE_NAME_SIZE_MASK;
 		if ((nsNameSize < ChunkList.MIN_NAMESPACE_NAME_SIZE) || (nsNameSize > ChunkList.MAX_NAMESPACE_NAME_SIZE)
 			|| (nsNameSize > endOffset - (offset + ChunkList.NAMESPACE_NAME_SIZE_SIZE)))
@@ -1054,7 +2526,7 @@ public class Document
 		if (nsNameSize > 0)
 		{
 			buffer = new byte[nsNameSize];
-			raFile.readFully(buffer);
+			input.readFully(buffer);
 			try
 			{
 				namespaceName = NlfUtils.utf8ToString(buffer);
@@ -1075,32 +2547,209 @@ public class Document
 		{
 			throw new NlfException(ExceptionId.INVALID_NAMESPACE_NAME, file, offset);
 		}
-		offset += ChunkList.NAMESPACE_NAME_SIZE_SIZE + nsNameSize;
 
 		// Initialise list and add it to parent list
 		list.setSize(size);
 		if (parent != null)
+			parent.addChunk(list);
+
+		// Return list
+		return list;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Adds an entry for the chunk at the current offset in the specified file to the specified index of chunks.  If
+	 * the chunk is a list, its list-header extension is validated and entries for its child chunks are added
+	 * recursively.  The chunk headers are validated as they are by {@link #parseChunk(File, ChunkList)}; the data of
+	 * attributes chunks and the list-header extensions of lists are parsed when the chunks of their parent list are
+	 * {@linkplain #readChunks(ChunkList, int) read}.  This method returns the index of the entry that was added.
+	 *
+	 * @param  file   the file that will be indexed.
+	 * @param  index  the index to which the entry will be added.
+	 * @return the index of the entry that was added.
+	 * @throws IOException
+	 *           if an error occurs when reading the file.
+	 * @throws NlfException
+	 *           if the file is malformed or otherwise invalid.
+	 * @since  1.0
+	 */
+
+	private int indexChunk(File       file,
+						   ChunkIndex index)
+		throws IOException, NlfException
+	{
+		// Get file offset and length
+		long offset = input.getPosition();
+		long fileLength = input.length();
+
+		// Read size of chunk ID
+		if (fileLength - offset < Id.SIZE_SIZE)
+			throw new NlfException(ExceptionId.MALFORMED_FILE, file, offset);
+		int idSize = input.readByte() & Id.SIZE_MASK;
+		if ((idSize < Id.MIN_SIZE) || (idSize > Id.MAX_SIZE) ||
+			 (idSize > fileLength - (offset + Id.SIZE_SIZE)))
+			throw new NlfException(ExceptionId.INVALID_CHUNK_ID, file, offset);
+
+		// Read and validate chunk ID
+		byte[] buffer = new byte[idSize];
+		input.readFully(buffer);
+		int idIndex = 0;
+		try
+		{
+			idIndex = index.getIdIndex(buffer);
+		}
+		catch (IllegalArgumentException e)
 		{
-			list.setParent(parent);
-			parent.appendChunk(list);
+			throw new NlfException(ExceptionId.INVALID_CHUNK_ID, file, offset);
 		}
+		offset += Id.SIZE_SIZE + idSize;
 
-		// Parse child chunks
-		while (offset < endOffset)
+		// Read chunk size
+		if (fileLength - offset < Chunk.SIZE_SIZE)
+			throw new NlfException(ExceptionId.MALFORMED_FILE, file, offset);
+		buffer = new byte[Chunk.SIZE_SIZE];
+		input.readFully(buffer);
+		long size = Utils.bytesToLong(buffer, 0, buffer.length, littleEndian);
+		if (size < 0)
+			throw new NlfException(ExceptionId.CHUNK_SIZE_OUT_OF_BOUNDS, file, offset);
+
+		// Validate chunk size
+		if (fileLength - (offset + Chunk.SIZE_SIZE) < size)
+			throw new NlfException(ExceptionId.MALFORMED_FILE, file, offset);
+		offset += Chunk.SIZE_SIZE;
+
+		// Add entry for chunk
+		int entry = index.addEntry(idIndex, offset, size);
+
+		// If chunk is list, add entries for its child chunks
+		if (index.kinds[entry] == ChunkIndex.KIND_LIST)
 		{
-			Chunk chunk = parseChunk(file, list);
-			offset += chunk.getHeaderSize() + chunk.getSize();
-			raFile.seek(offset);
+			long endOffset = offset + size;
+
+			// Skip list-instance identifier
+			if (endOffset - offset < Id.SIZE_SIZE)
+				throw new NlfException(ExceptionId.MALFORMED_FILE, file, offset);
+			idSize = input.readByte() & Id.SIZE_MASK;
+			if ((idSize < Id.MIN_SIZE) || (idSize > Id.MAX_SIZE) || (idSize > endOffset - (offset + Id.SIZE_SIZE)))
+				throw new NlfException(ExceptionId.INVALID_LIST_INSTANCE_ID, file, offset);
+			offset += Id.SIZE_SIZE + idSize;
+			input.seek(offset);
+
+			// Skip namespace name
+			if (endOffset - offset < ChunkList.NAMESPACE_NAME_SIZE_SIZE)
+				throw new NlfException(ExceptionId.MALFORMED_FILE, file, offset);
+			buffer = new byte[ChunkList.NAMESPACE_NAME_SIZE_SIZE];
+			input.readFully(buffer);
+			int nsNameSize = Utils.bytesToInt(buffer, 0, buffer.length, littleEndian)
+																				& ChunkList.NAMESPACE_NAME_SIZE_MASK;
+			if (nsNameSize > endOffset - (offset + ChunkList.NAMESPACE_NAME_SIZE_SIZE))
+				throw new NlfException(ExceptionId.INVALID_NAMESPACE_NAME, file, offset);
+			offset += ChunkList.NAMESPACE_NAME_SIZE_SIZE + nsNameSize;
+
+			// Add entries for child chunks
+			int prevChild = -1;
+			while (offset < endOffset)
+			{
+				input.seek(offset);
+				int child = indexChunk(file, index);
+				if (prevChild < 0)
+					index.firstChildren[entry] = child;
+				else
+					index.nextSiblings[prevChild] = child;
+				prevChild = child;
+				offset = index.dataOffsets[child] + index.sizes[child];
+			}
 		}
 
-		// Return list
-		return list;
+		// Return index of entry
+		return entry;
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Writes the Nested-List File header to the random-access file that is open on this document.
+	 * Creates the chunks of the specified list from the entries of the index of chunks of this document, and adds
+	 * them to the list.  The list-header extensions of child lists and the data of an attributes chunk are parsed from
+	 * the file that is open on this document; the chunks of child lists are read when they are first accessed.  This
+	 * method is called by a list of a document that was read lazily when its chunks are first accessed.
+	 * <p>
+	 * The headers are read through a single data input that is created on the first call and reused by subsequent
+	 * calls, which are serialised by the lock of this document.  The buffer of the input is small, because a seek to
+	 * the header of a child chunk usually leaves the buffer, which is then refilled.
+	 * </p>
+	 *
+	 * @param  list   the list whose chunks will be read.
+	 * @param  entry  the index of the entry for <b>{@code list}</b> in the index of chunks.
+	 * @throws NlfUncheckedException
+	 *           if
+	 *           <ul>
+	 *             <li>no file is open on this document, or</li>
+	 *             <li>an error occurs when reading the file, or</li>
+	 *             <li>the file is malformed or otherwise invalid.</li>
+	 *           </ul>
+	 * @since  1.0
+	 */
+
+	synchronized void readChunks(ChunkList list,
+								 int       entry)
+	{
+		// Test whether a file is open
+		if ((raFile == null) || (chunkIndex == null))
+			throw new NlfUncheckedException(ExceptionId.NO_FILE_OPEN_ON_DOCUMENT);
+
+		// Create chunks from index
+		try
+		{
+			File file = chunkIndex.file;
+			if (lazyInput == null)
+				lazyInput = createChunkDataInput(0, chunkIndex.fileLength, LAZY_INPUT_BUFFER_LENGTH);
+			input = lazyInput;
+			for (int child = chunkIndex.firstChildren[entry]; child >= 0; child = chunkIndex.nextSiblings[child])
+			{
+				long offset = chunkIndex.dataOffsets[child];
+				long size = chunkIndex.sizes[child];
+				switch (chunkIndex.kinds[child])
+				{
+					case ChunkIndex.KIND_ATTRIBUTES:
+						input.seek(offset);
+						parseAttributes(file, list, size);
+						break;
+
+					case ChunkIndex.KIND_LIST:
+						input.seek(offset);
+						parseListHeader(file, list, size).setIndexEntry(child);
+						break;
+
+					default:
+						Chunk chunk = new Chunk(this, chunkIndex.ids.get(chunkIndex.idIndices[child]));
+						chunk.setSize(size);
+						chunk.setReader(new ChunkReader(offset, size));
+						list.addChunk(chunk);
+						break;
+				}
+			}
+		}
+		catch (NlfException e)
+		{
+			throw new NlfUncheckedException(e.getId(), e);
+		}
+		catch (IOException e)
+		{
+			throw new NlfUncheckedException(ExceptionId.ERROR_READING_FILE, e);
+		}
+		finally
+		{
+			input = null;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Writes the Nested-List File header to the buffered output of the random-access file that is open on this
+	 * document.
 	 *
 	 * @throws IOException
 	 *           if an error occurs when writing the header to the random-access file.
@@ -1112,7 +2761,7 @@ public class Document
 		throws IOException
 	{
 		// Write NLF identifier
-		raFile.write(FILE_ID);
+		output.write(FILE_ID);
 
 		// Write NLF version number
 		byte[] buffer = new byte[VERSION_SIZE];
@@ -1124,22 +2773,22 @@ public class Document
 			buffer[--index] += value % 10;
 			value /= 10;
 		}
-		raFile.write(buffer);
+		output.write(buffer);
 
 		// Write flags
 		int flags = 0;
 		if (littleEndian)
 			flags |= BYTE_ORDER_MASK;
-		raFile.writeByte(flags);
+		output.writeByte(flags);
 
 		// Write reserved bytes
-		raFile.write(new byte[RESERVED_SIZE]);
+		output.write(new byte[RESERVED_SIZE]);
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Writes the specified chunk to the random-access file that is open on this document.
+	 * Writes the specified chunk to the buffered output of the random-access file that is open on this document.
 	 *
 	 * @param  chunk  the chunk that will be written.
 	 * @throws IOException
@@ -1153,10 +2802,10 @@ public class Document
 		throws IOException
 	{
 		// Write chunk header
-		chunk.writeHeader(raFile);
+		chunk.writeHeader(output);
 
 		// Get offset to start of data
-		long offset = raFile.getFilePointer();
+		long offset = output.getOffset();
 
 		// Write chunk data
 		Chunk.IWriter chunkWriter = chunk.getWriter();
@@ -1164,7 +2813,7 @@ public class Document
 		{
 			if (chunkWriter.reset(0))
 				rewrites.add(new ChunkOffset(chunk, offset));
-			chunkWriter.write(raFile);
+			chunkWriter.write(output);
 		}
 
 		// Fix up size of chunk
@@ -1175,8 +2824,8 @@ public class Document
 	//------------------------------------------------------------------
 
 	/**
-	 * Seeks to the specified offset in the random-access file that is open on this document, then writes the specified
-	 * chunk to the file.
+	 * Writes the data of the specified chunk to the random-access file that is open on this document, starting at the
+	 * specified offset, through a buffered output that is independent of the output of the first pass.
 	 *
 	 * @param  chunk   the chunk that will be written.
 	 * @param  offset  the offset in the random-access file at which the chunk will be written.
@@ -1190,19 +2839,18 @@ public class Document
 							  long  offset)
 		throws IOException
 	{
-		// Seek start of chunk data
-		raFile.seek(offset);
-
 		// Write chunk data
 		Chunk.IWriter chunkWriter = chunk.getWriter();
 		chunkWriter.reset(1);
-		chunkWriter.write(raFile);
+		ChunkDataOutput chunkOutput = new ChunkDataOutput(raFile.getChannel(), offset, chunkWriter.getLength());
+		chunkWriter.write(chunkOutput);
+		chunkOutput.flush();
 	}
 
 	//------------------------------------------------------------------
 
 	/**
-	 * Writes the specified chunk list to the random-access file that is open on this document.
+	 * Writes the specified chunk list to the buffered output of the random-access file that is open on this document.
 	 *
 	 * @param  list  the chunk list that will be written.
 	 * @throws IOException
@@ -1215,13 +2863,13 @@ public class Document
 		throws IOException
 	{
 		// Write chunk header of list
-		list.writeHeader(raFile);
+		list.writeHeader(output);
 
 		// Get offset to start of data
-		long offset = raFile.getFilePointer();
+		long offset = output.getOffset();
 
 		// Write list header extension
-		list.writeHeaderExtension(raFile);
+		list.writeHeaderExtension(output);
 
 		// Write child chunks
 		boolean fixSize = false;
@@ -1246,9 +2894,11 @@ public class Document
 	//------------------------------------------------------------------
 
 	/**
-	 * Fixes up the size of the specified chunk after the chunk data have been written to the random-access file that is
-	 * open on this document.  The size of the chunk is calculated from the current file position and the specified
-	 * start offset.  The size of the chunk is set, then the size is written to the chunk header in the file.
+	 * Fixes up the size of the specified chunk after the chunk data have been written to the buffered output of the
+	 * random-access file that is open on this document.  The size of the chunk is calculated from the current offset of
+	 * the output and the specified start offset.  The size of the chunk is set, then the size is written to the chunk
+	 * header in the buffer of the output or, if the header has already been written to the file, the chunk is added to
+	 * the list of size fix-ups, which are written to the file in order of offset after the first pass.
 	 *
 	 * @param  chunk        the chunk whose size will be fixed up.
 	 * @param  startOffset  the start offset of the chunk data in the file.
@@ -1263,11 +2913,10 @@ public class Document
 							  long  startOffset)
 		throws IOException
 	{
-		long endOffset = raFile.getFilePointer();
-		chunk.setSize(endOffset - startOffset);
-		raFile.seek(startOffset - Chunk.SIZE_SIZE);
-		raFile.write(chunk.getSizeBytes(littleEndian));
-		raFile.seek(endOffset);
+		chunk.setSize(output.getOffset() - startOffset);
+		long offset = startOffset - Chunk.SIZE_SIZE;
+		if (!output.overwrite(offset, chunk.getSizeBytes(littleEndian)))
+			sizeFixUps.add(new ChunkOffset(chunk, offset));
 	}
 
 	//------------------------------------------------------------------
@@ -115,6 +115,9 @@ public enum ExceptionId
 	NOT_ENOUGH_MEMORY
 	("There was not enough memory to perform the command."),
 
+	LISTS_NOT_READ
+	("The document has lists whose chunks have not been read from its file."),
+
 
 	// Unchecked exceptions
 
@@ -124,6 +127,9 @@ public enum ExceptionId
 	FILE_IS_OPEN_ON_DOCUMENT
 	("A file is already open on the document."),
 
+	NO_FILE_OPEN_ON_DOCUMENT
+	("No file is open on the document."),
+
 	DIFFERENT_DOCUMENTS
 	("The chunk and the list belong to different documents."),
 
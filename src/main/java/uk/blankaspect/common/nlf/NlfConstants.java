@@ -49,6 +49,17 @@ public interface NlfConstants
 		DEPTH_FIRST
 	}
 
+	/** This is an enumeration of the ways in which the data of the chunks of a Nested-List File may be read. */
+	enum ReadMode
+	{
+		/** The data of all chunks are read from the random-access file that is open on the document. */
+		RANDOM_ACCESS,
+
+		/** The file is memory-mapped, and the data of each chunk are read from a view of the chunk's region of the
+			mapping.  A file that is larger than 64 MB is read in random-access mode instead. */
+		MAPPED
+	}
+
 }
 
 //----------------------------------------------------------------------
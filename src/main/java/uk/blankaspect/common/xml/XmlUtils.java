@@ -249,7 +249,12 @@ public class XmlUtils
 
 	//------------------------------------------------------------------
 
-	public static String escape(char ch)
+	/**
+	 * Returns the reference to the predefined entity that replaces the specified character when it is escaped, or
+	 * {@code null} if the character is not escaped.
+	 */
+
+	public static String getEntityReference(char ch)
 	{
 		switch (ch)
 		{
@@ -269,22 +274,95 @@ public class XmlUtils
 				return XmlConstants.Entity.AMP;
 
 			default:
-				return Character.toString(ch);
+				return null;
 		}
 	}
 
 	//------------------------------------------------------------------
 
+	public static String escape(char ch)
+	{
+		String entityRef = getEntityReference(ch);
+		return (entityRef == null) ? Character.toString(ch) : entityRef;
+	}
+
+	//------------------------------------------------------------------
+
 	public static String escape(CharSequence charSeq)
 	{
-		StringBuilder buffer = new StringBuilder();
-		for (int i = 0; i < charSeq.length(); i++)
-			buffer.append(escape(charSeq.charAt(i)));
+		// Return the sequence unchanged if it contains no character that must be escaped
+		int index = indexOfEscapedChar(charSeq, 0, charSeq.length());
+		if (index < 0)
+			return charSeq.toString();
+
+		// Escape sequence
+		StringBuilder buffer = new StringBuilder(charSeq.length() + 16);
+		buffer.append(charSeq, 0, index);
+		appendEscaped(buffer, charSeq, index, charSeq.length());
 		return buffer.toString();
 	}
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Appends the specified range of a sequence of characters to the specified buffer, replacing each character that
+	 * must be escaped with a reference to a predefined entity.  The runs of characters between escaped characters are
+	 * appended as ranges.
+	 */
+
+	public static void appendEscaped(StringBuilder buffer,
+									 CharSequence  charSeq,
+									 int           startIndex,
+									 int           endIndex)
+	{
+		int index = startIndex;
+		while (index < endIndex)
+		{
+			// Find next character that must be escaped
+			int escIndex = indexOfEscapedChar(charSeq, index, endIndex);
+			if (escIndex < 0)
+				escIndex = endIndex;
+
+			// Append run of unescaped characters
+			buffer.append(charSeq, index, escIndex);
+
+			// Append entity reference
+			if (escIndex < endIndex)
+				buffer.append(getEntityReference(charSeq.charAt(escIndex++)));
+
+			// Update index
+			index = escIndex;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Returns the index of the first character in the specified range of a sequence of characters that must be
+	 * escaped, or -1 if there is no such character.
+	 */
+
+	public static int indexOfEscapedChar(CharSequence charSeq,
+										 int          startIndex,
+										 int          endIndex)
+	{
+		for (int i = startIndex; i < endIndex; i++)
+		{
+			switch (charSeq.charAt(i))
+			{
+				case '<':
+				case '>':
+				case '\'':
+				case '"':
+				case '&':
+					return i;
+			}
+		}
+		return -1;
+	}
+
+	//------------------------------------------------------------------
+
 	public static String concatenatePath(String... strs)
 	{
 		StringBuilder buffer = new StringBuilder(256);
@@ -380,15 +458,26 @@ public class XmlUtils
 
 	//------------------------------------------------------------------
 
-	public static DocumentBuilder createDocumentBuilder(boolean validate)
+	/**
+	 * Creates and returns a new DOM document builder.  The document builder factories, whose lookup is expensive, are
+	 * created once for each validation mode and reused.
+	 */
+
+	public static synchronized DocumentBuilder createDocumentBuilder(boolean validate)
 		throws AppException
 	{
 		try
 		{
-			DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-			docBuilderFactory.setValidating(validate);
-			docBuilderFactory.setNamespaceAware(true);
-			docBuilderFactory.setXIncludeAware(true);
+			int index = validate ? 1 : 0;
+			DocumentBuilderFactory docBuilderFactory = documentBuilderFactories[index];
+			if (docBuilderFactory == null)
+			{
+				docBuilderFactory = DocumentBuilderFactory.newInstance();
+				docBuilderFactory.setValidating(validate);
+				docBuilderFactory.setNamespaceAware(true);
+				docBuilderFactory.setXIncludeAware(true);
+				documentBuilderFactories[index] = docBuilderFactory;
+			}
 			return docBuilderFactory.newDocumentBuilder();
 		}
 		catch (FactoryConfigurationError e)
@@ -406,7 +495,15 @@ public class XmlUtils
 	public static Document createDocument()
 		throws AppException
 	{
-		return createDocumentBuilder(false).newDocument();
+		DocumentBuilder documentBuilder = acquireDocumentBuilder(false);
+		try
+		{
+			return documentBuilder.newDocument();
+		}
+		finally
+		{
+			releaseDocumentBuilder(documentBuilder, false);
+		}
 	}
 
 	//------------------------------------------------------------------
@@ -494,10 +591,17 @@ public class XmlUtils
 		{
 			if (baseUri != null)
 				inputSource.setSystemId(baseUri.toString());
-			DocumentBuilder documentBuilder = createDocumentBuilder(validate);
-			getErrorHandler().clear();
-			documentBuilder.setErrorHandler(getErrorHandler());
-			return documentBuilder.parse(inputSource);
+			DocumentBuilder documentBuilder = acquireDocumentBuilder(validate);
+			try
+			{
+				getErrorHandler().clear();
+				documentBuilder.setErrorHandler(getErrorHandler());
+				return documentBuilder.parse(inputSource);
+			}
+			finally
+			{
+				releaseDocumentBuilder(documentBuilder, validate);
+			}
 		}
 		catch (SAXException e)
 		{
@@ -639,6 +743,47 @@ public class XmlUtils
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Returns a document builder for the specified validation mode from the cache of the current thread, or a new
+	 * document builder if the cache does not contain one (for example, because the cached document builder is being
+	 * used by an enclosing call on the same thread).
+	 */
+
+	private static DocumentBuilder acquireDocumentBuilder(boolean validate)
+		throws AppException
+	{
+		DocumentBuilder[] documentBuilders = cachedDocumentBuilders.get();
+		int index = validate ? 1 : 0;
+		DocumentBuilder documentBuilder = documentBuilders[index];
+		if (documentBuilder == null)
+			return createDocumentBuilder(validate);
+		documentBuilders[index] = null;
+		return documentBuilder;
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Resets the specified document builder to the configuration of its factory, which removes its error handler, and
+	 * returns it to the cache of the current thread.  A document builder that cannot be reset is discarded.
+	 */
+
+	private static void releaseDocumentBuilder(DocumentBuilder documentBuilder,
+											   boolean         validate)
+	{
+		try
+		{
+			documentBuilder.reset();
+			cachedDocumentBuilders.get()[validate ? 1 : 0] = documentBuilder;
+		}
+		catch (UnsupportedOperationException e)
+		{
+			// ignore
+		}
+	}
+
+	//------------------------------------------------------------------
+
 	private static void appendElements(List<Element>  elements,
 									   Element        element,
 									   IElementFilter filter,
@@ -675,7 +820,10 @@ public class XmlUtils
 //  Class variables
 ////////////////////////////////////////////////////////////////////////
 
-	private static	ErrorLogger	errorHandler;
+	private static	ErrorLogger						errorHandler;
+	private static	DocumentBuilderFactory[]		documentBuilderFactories	= new DocumentBuilderFactory[2];
+	private static	ThreadLocal<DocumentBuilder[]>	cachedDocumentBuilders		=
+			ThreadLocal.withInitial(() -> new DocumentBuilder[2]);
 
 }
 
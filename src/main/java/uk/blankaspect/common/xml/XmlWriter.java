@@ -67,6 +67,9 @@ public class XmlWriter
 
 	private static final	String	DEFAULT_LINE_SEPARATOR	= "\n";
 
+	private static final	int	FLUSH_THRESHOLD		= 1 << 13;  // 8192
+	private static final	int	TRANSFER_LENGTH		= 1 << 12;  // 4096
+
 	private static final	String	XML_DECL_PREFIX	= "<?xml";
 
 	private static final	String	VERSION_STR		= " version=";
@@ -154,9 +157,13 @@ public class XmlWriter
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Returns the length of the line that is currently being written.
+	 */
+
 	public int getOutLength()
 	{
-		return outBuffer.length();
+		return outBuffer.length() - lineStartIndex;
 	}
 
 	//------------------------------------------------------------------
@@ -175,7 +182,7 @@ public class XmlWriter
 		{
 			if (outStream != null)
 			{
-				outStream.append(outBuffer);
+				flushBuffer();
 				outStream.close();
 			}
 		}
@@ -422,11 +429,7 @@ public class XmlWriter
 		throws IOException
 	{
 		if (ch == '\n')
-		{
-			outBuffer.append(lineSeparator);
-			outStream.append(outBuffer);
-			outBuffer.setLength(0);
-		}
+			writeLineSeparator();
 		else
 			outBuffer.append(ch);
 	}
@@ -436,8 +439,25 @@ public class XmlWriter
 	public void write(CharSequence charSeq)
 		throws IOException
 	{
-		for (int i = 0; i < charSeq.length(); i++)
-			write(charSeq.charAt(i));
+		int index = 0;
+		int endIndex = charSeq.length();
+		while (index < endIndex)
+		{
+			// Find end of line
+			int lfIndex = indexOf(charSeq, '\n', index, endIndex);
+			if (lfIndex < 0)
+				lfIndex = endIndex;
+
+			// Append line
+			outBuffer.append(charSeq, index, lfIndex);
+
+			// Write line separator
+			if (lfIndex < endIndex)
+				writeLineSeparator();
+
+			// Update index
+			index = lfIndex + 1;
+		}
 	}
 
 	//------------------------------------------------------------------
@@ -445,7 +465,25 @@ public class XmlWriter
 	public void writeEscaped(CharSequence charSeq)
 		throws IOException
 	{
-		write(XmlUtils.escape(charSeq));
+		int index = 0;
+		int endIndex = charSeq.length();
+		while (index < endIndex)
+		{
+			// Find end of line
+			int lfIndex = indexOf(charSeq, '\n', index, endIndex);
+			if (lfIndex < 0)
+				lfIndex = endIndex;
+
+			// Append escaped line
+			XmlUtils.appendEscaped(outBuffer, charSeq, index, lfIndex);
+
+			// Write line separator
+			if (lfIndex < endIndex)
+				writeLineSeparator();
+
+			// Update index
+			index = lfIndex + 1;
+		}
 	}
 
 	//------------------------------------------------------------------
@@ -472,8 +510,16 @@ public class XmlWriter
 						   int  count)
 		throws IOException
 	{
-		for (int i = 0; i < count; i++)
-			write(ch);
+		if (ch == '\n')
+		{
+			for (int i = 0; i < count; i++)
+				writeLineSeparator();
+		}
+		else
+		{
+			for (int i = 0; i < count; i++)
+				outBuffer.append(ch);
+		}
 	}
 
 	//------------------------------------------------------------------
@@ -529,15 +575,78 @@ public class XmlWriter
 
 	//------------------------------------------------------------------
 
+	private static int indexOf(CharSequence charSeq,
+							   char         ch,
+							   int          startIndex,
+							   int          endIndex)
+	{
+		if (charSeq instanceof String)
+		{
+			int index = ((String)charSeq).indexOf(ch, startIndex);
+			return (index < endIndex) ? index : -1;
+		}
+
+		for (int i = startIndex; i < endIndex; i++)
+		{
+			if (charSeq.charAt(i) == ch)
+				return i;
+		}
+		return -1;
+	}
+
+	//------------------------------------------------------------------
+
 	private void init(Writer writer)
 	{
 		outStream = writer;
-		outBuffer = new StringBuilder(256);
+		outBuffer = new StringBuilder(FLUSH_THRESHOLD + 256);
+		transferBuffer = new char[TRANSFER_LENGTH];
 		lineSeparator = DEFAULT_LINE_SEPARATOR;
 	}
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Appends the line separator to the output buffer and, if the buffer has reached the threshold, writes the
+	 * buffer to the output stream.  Output is written only at the end of a line, so that the length of the current
+	 * line is always available from the buffer.
+	 */
+
+	private void writeLineSeparator()
+		throws IOException
+	{
+		outBuffer.append(lineSeparator);
+		if (outBuffer.length() < FLUSH_THRESHOLD)
+			lineStartIndex = outBuffer.length();
+		else
+		{
+			flushBuffer();
+			lineStartIndex = 0;
+		}
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Writes the contents of the output buffer to the output stream through a reusable array of characters, and
+	 * empties the buffer.
+	 */
+
+	private void flushBuffer()
+		throws IOException
+	{
+		int length = outBuffer.length();
+		for (int offset = 0; offset < length; offset += TRANSFER_LENGTH)
+		{
+			int endOffset = Math.min(offset + TRANSFER_LENGTH, length);
+			outBuffer.getChars(offset, endOffset, transferBuffer, 0);
+			outStream.write(transferBuffer, 0, endOffset - offset);
+		}
+		outBuffer.setLength(0);
+	}
+
+	//------------------------------------------------------------------
+
 	private void writeAttributes(Iterable<Attribute> attributes,
 								 int                 indent)
 		throws IOException
@@ -565,6 +674,8 @@ public class XmlWriter
 	private	FileOutputStream	fileOutStream;
 	private	Writer				outStream;
 	private	StringBuilder		outBuffer;
+	private	char[]				transferBuffer;
+	private	int					lineStartIndex;
 	private	String				lineSeparator;
 
 }